@@ -0,0 +1,192 @@
+package com.ojm.pinstream.services;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.session.MediaControllerCompat;
+
+import com.ojm.pinstream.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures what talking to the player costs, in its own process or not: the round
+ * trip of a session command through the same browser and controller the screens
+ * use, and the memory each of the app's processes holds. Build with
+ * -PplayerProcess=true to measure the player in its own process. Figures are sent
+ * as instrumentation status, shown by am instrument -r
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlayerProcessBenchmark {
+
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 500;
+
+    // Loose enough for a busy emulator, a binder hop is well under a millisecond
+    private static final long P99_BUDGET_MICROS = 20000;
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    // Status code for reported figures, clear of the test runner's own codes
+    private static final int REPORT_STATUS = 2;
+
+    private Context context;
+    private MediaBrowserCompat browser;
+    private MediaControllerCompat controller;
+
+    // Results are delivered here, away from the main thread and the player's
+    private HandlerThread replyThread;
+    private Handler replyHandler;
+
+    @Before
+    public void connect() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+
+        replyThread = new HandlerThread("Replies");
+        replyThread.start();
+        replyHandler = new Handler(replyThread.getLooper());
+
+        // The browser must be made and connected on the main thread
+        final CountDownLatch connected = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                browser = new MediaBrowserCompat(context,
+                        new ComponentName(context, StreamingService.class),
+                        new MediaBrowserCompat.ConnectionCallback() {
+                            @Override
+                            public void onConnected() {
+                                connected.countDown();
+                            }
+                        }, null);
+                browser.connect();
+            }
+        });
+
+        assertTrue(connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        controller = new MediaControllerCompat(context, browser.getSessionToken());
+    }
+
+    @After
+    public void disconnect() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                browser.disconnect();
+            }
+        });
+        replyThread.quitSafely();
+    }
+
+    @Test
+    public void commandRoundTrip() throws Exception {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) ping();
+
+        long[] micros = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) micros[round] = ping();
+        Arrays.sort(micros);
+
+        Bundle results = new Bundle();
+        results.putBoolean("player_process", BuildConfig.PLAYER_PROCESS);
+        results.putLong("round_trip_p50_us", percentile(micros, 50));
+        results.putLong("round_trip_p95_us", percentile(micros, 95));
+        results.putLong("round_trip_p99_us", percentile(micros, 99));
+        results.putLong("round_trip_max_us", micros[micros.length - 1]);
+        report(results);
+
+        assertTrue(percentile(micros, 99) <= P99_BUDGET_MICROS);
+    }
+
+    @Test
+    public void processMemory() {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        assertNotNull(activityManager);
+
+        // Only this app's processes, the UI's and the player's if it has its own
+        List<String> names = new ArrayList<>();
+        List<Integer> pids = new ArrayList<>();
+        for (ActivityManager.RunningAppProcessInfo info
+                : activityManager.getRunningAppProcesses()) {
+            if (info.uid != Process.myUid()) continue;
+            names.add(info.processName);
+            pids.add(info.pid);
+        }
+
+        int[] pidArray = new int[pids.size()];
+        for (int i = 0; i < pidArray.length; i++) pidArray[i] = pids.get(i);
+
+        // Keyed by process name, the UI's being the package name
+        Debug.MemoryInfo[] memory = activityManager.getProcessMemoryInfo(pidArray);
+        Bundle results = new Bundle();
+        results.putBoolean("player_process", BuildConfig.PLAYER_PROCESS);
+        for (int i = 0; i < memory.length; i++) {
+            results.putInt(names.get(i) + "_pss_kb", memory[i].getTotalPss());
+            results.putInt(names.get(i) + "_dalvik_pss_kb", memory[i].dalvikPss);
+            results.putInt(names.get(i) + "_native_pss_kb", memory[i].nativePss);
+        }
+        report(results);
+
+        if (BuildConfig.PLAYER_PROCESS) {
+            assertTrue(names.contains(context.getPackageName() + ":player"));
+        }
+    }
+
+    /**
+     * Send a ping and wait for its answer
+     * @return the round trip in microseconds
+     */
+    private long ping() throws InterruptedException {
+        final CountDownLatch answered = new CountDownLatch(1);
+        ResultReceiver receiver = new ResultReceiver(replyHandler) {
+            @Override
+            protected void onReceiveResult(int resultCode, Bundle resultData) {
+                answered.countDown();
+            }
+        };
+
+        long started = SystemClock.elapsedRealtimeNanos();
+        controller.sendCommand(StreamingService.COMMAND_PING, null, receiver);
+        assertTrue(answered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        return (SystemClock.elapsedRealtimeNanos() - started) / 1000;
+    }
+
+    /**
+     * Send figures to whatever is running the instrumentation
+     * @param results the figures, keyed by name
+     */
+    private static void report(Bundle results) {
+        InstrumentationRegistry.getInstrumentation().sendStatus(REPORT_STATUS, results);
+    }
+
+    /**
+     * @return the given percentile of sorted values, by nearest rank
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -5,13 +5,17 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.Spinner;
 
 import com.ojm.pinstream.R;
 import com.ojm.pinstream.models.Bookmark;
-import com.ojm.pinstream.database.DatabaseHandler;
+import com.ojm.pinstream.database.BookmarkRepository;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -37,43 +41,49 @@ public class CreateActivity extends AppCompatActivity {
             EditText url = findViewById(R.id.bookmark_add_url);
 
             title.setText(bookmark.getTitle());
-            url.setText(bookmark.getUrl().toString());
+            url.setText(bookmark.getUrlString());
+
+            // Show the bookmark's buffer profile, the first entry follows the setting
+            int position = getBufferProfileKeys().indexOf(bookmark.getBufferProfile());
+            ((Spinner) findViewById(R.id.bookmark_add_buffer_profile))
+                    .setSelection(Math.max(position, 0));
         }
 
         // Set click listener for confirmation check mark
         findViewById(R.id.bookmark_add_confirm).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                // Get new database handler
-                DatabaseHandler dbHandler = new DatabaseHandler(getApplicationContext());
+                // Get the shared repository, writes happen in the background
+                BookmarkRepository repository =
+                        BookmarkRepository.getInstance(getApplicationContext());
 
                 // If we're editing
                 if (getIntent().hasExtra(Bookmark.PARCEL)) {
                     // Update the bookmark with the current field values
                     Bookmark bookmark = getIntent().getParcelableExtra(Bookmark.PARCEL);
-                    dbHandler.updateBookmark(new Bookmark(
+                    Bookmark updated = new Bookmark(
                             bookmark.getID(),
                             ((EditText) findViewById(R.id.bookmark_add_title))
                                     .getText().toString(),
                             Uri.parse(((EditText) findViewById(R.id.bookmark_add_url))
                                     .getText().toString()),
-                            bookmark.isSelected())
-                    );
+                            bookmark.isSelected());
+
+                    updated.setBufferProfile(getSelectedBufferProfile());
+                    repository.updateBookmark(updated);
                 }
 
                 // Else just save the field values to a new bookmark in the database
                 else {
-                    dbHandler.addBookmark(
-                            new Bookmark(
-                                    ((EditText) findViewById(R.id.bookmark_add_title))
-                                            .getText().toString(),
-                                    Uri.parse(((EditText) findViewById(R.id.bookmark_add_url))
-                                            .getText().toString())
-                            )
-                    );
-                }
+                    Bookmark bookmark = new Bookmark(
+                            ((EditText) findViewById(R.id.bookmark_add_title))
+                                    .getText().toString(),
+                            Uri.parse(((EditText) findViewById(R.id.bookmark_add_url))
+                                    .getText().toString()));
 
-                dbHandler.close();
+                    bookmark.setBufferProfile(getSelectedBufferProfile());
+                    repository.addBookmark(bookmark);
+                }
 
                 // Set result and finish
                 Intent intent = new Intent();
@@ -84,4 +94,24 @@ public class CreateActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Get the profile keys in the same order as the spinner's entries
+     * @return the keys, the first empty for following the setting
+     */
+    private List<String> getBufferProfileKeys() {
+        return Arrays.asList(getResources().getStringArray(R.array.bookmark_buffer_profile_values));
+    }
+
+    /**
+     * Get the buffer profile chosen in the spinner
+     * @return the profile key, or null to follow the setting
+     */
+    private String getSelectedBufferProfile() {
+        int position = ((Spinner) findViewById(R.id.bookmark_add_buffer_profile))
+                .getSelectedItemPosition();
+        String key = getBufferProfileKeys().get(Math.max(position, 0));
+
+        return TextUtils.isEmpty(key) ? null : key;
+    }
+
 }
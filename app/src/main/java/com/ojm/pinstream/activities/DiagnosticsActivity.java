@@ -0,0 +1,133 @@
+package com.ojm.pinstream.activities;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.design.widget.Snackbar;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.Toolbar;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+
+import com.ojm.pinstream.R;
+import com.ojm.pinstream.adapters.LatencyAdapter;
+import com.ojm.pinstream.database.BookmarkRepository;
+import com.ojm.pinstream.models.StationLatency;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Shows how long each station takes to start, from the tap in the bookmark list
+ * until it is heard, with the median of each phase along the way so slow stations
+ * and regressions stand out. The figures can be exported as CSV
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    // Request code for picking where to export to
+    private static final int EXPORT_FILE_REQUEST = 1;
+
+    private RecyclerView mListView;
+    private View mEmptyView;
+    private LatencyAdapter mAdapter;
+
+    /**
+     * Runs on activity creation
+     * @param savedInstanceState saved instance state
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        setSupportActionBar((Toolbar) findViewById(R.id.toolbar));
+        Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
+
+        mListView = findViewById(R.id.latency_list_view);
+        mEmptyView = findViewById(R.id.latency_empty);
+
+        mAdapter = new LatencyAdapter();
+        mListView.setLayoutManager(new LinearLayoutManager(this));
+        mListView.setAdapter(mAdapter);
+    }
+
+    /**
+     * Load the latest figures each time the screen is shown
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        BookmarkRepository.getInstance(this).getStationLatencies(
+                new BookmarkRepository.Callback<List<StationLatency>>() {
+                    @Override
+                    public void onResult(List<StationLatency> stations) {
+                        mAdapter.setStations(stations);
+                        mEmptyView.setVisibility(stations.isEmpty() ? View.VISIBLE : View.GONE);
+                    }
+                });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_diagnostics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        // Let the user pick where to save the CSV
+        if (item.getItemId() == R.id.action_export_latency) {
+            Intent i = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            i.addCategory(Intent.CATEGORY_OPENABLE);
+            i.setType("text/csv");
+            i.putExtra(Intent.EXTRA_TITLE, "pinstream-startup-times.csv");
+            startActivityForResult(i, EXPORT_FILE_REQUEST);
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Run on result of picking a file to export to
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) return;
+
+        if (requestCode == EXPORT_FILE_REQUEST) {
+            final OutputStream out;
+            try {
+                out = getContentResolver().openOutputStream(data.getData());
+            } catch (FileNotFoundException e) {
+                Snackbar.make(mListView, R.string.diagnostics_export_failed,
+                        Snackbar.LENGTH_LONG).show();
+                return;
+            }
+
+            BookmarkRepository.getInstance(this).exportLatencies(out,
+                    new BookmarkRepository.BulkListener() {
+                        @Override
+                        public void onProgress(int processed, int skipped) { }
+
+                        @Override
+                        public void onComplete(int processed, int skipped, boolean cancelled) {
+                            Snackbar.make(mListView,
+                                    getString(R.string.diagnostics_export_complete, processed),
+                                    Snackbar.LENGTH_LONG).show();
+                        }
+
+                        @Override
+                        public void onError(IOException e) {
+                            Snackbar.make(mListView, R.string.diagnostics_export_failed,
+                                    Snackbar.LENGTH_LONG).show();
+                        }
+                    });
+        }
+    }
+}
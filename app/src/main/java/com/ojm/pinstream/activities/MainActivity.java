@@ -1,33 +1,44 @@
 package com.ojm.pinstream.activities;
 
-import android.Manifest;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
-import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.app.AppCompatDelegate;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.view.ContextThemeWrapper;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.AdapterView;
-import android.widget.ListView;
 
+import com.ojm.pinstream.BuildConfig;
 import com.ojm.pinstream.adapters.BookmarkAdapter;
+import com.ojm.pinstream.database.BookmarkRepository;
+import com.ojm.pinstream.database.PagedBookmarkList;
+import com.ojm.pinstream.diagnostics.TimeToFirstAudio;
 import com.ojm.pinstream.models.Bookmark;
-import com.ojm.pinstream.database.DatabaseHandler;
+import com.ojm.pinstream.playlists.PlaylistFormat;
 import com.ojm.pinstream.R;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * Main activity class, this class displays the list of bookmarks for selection
  * and the floating action button to add a new bookmark
@@ -38,14 +49,51 @@ public class MainActivity extends AppCompatActivity {
     public static final int CREATE_BOOKMARK_REQUEST = 1;
     public static final int PLAY_STREAM_REQUEST = 2;
 
-    // Static identifier for requesting audio permission
-    private static final int REQUEST_AUDIO_PERMISSION = 3;
+    // Static identifiers for picking import and export files
+    private static final int IMPORT_FILE_REQUEST = 4;
+    private static final int EXPORT_FILE_REQUEST = 5;
+
+    // Wait this long after the last keystroke before searching
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
+    // Bookmark repository, all database access goes through here
+    private BookmarkRepository repository;
+
+    // List view to display bookmarks and its adapter
+    private RecyclerView listView;
+    private BookmarkAdapter adapter;
+
+    // Format chosen for a pending export, while the user picks the file
+    private PlaylistFormat exportFormat;
 
-    // Database handler
-    private final DatabaseHandler dbHandler = new DatabaseHandler(this);
+    // Current search text, null when showing every bookmark, and the search in flight
+    private String searchQuery;
+    private CancellationSignal searchSignal;
 
-    // List view to display bookmarks
-    private ListView listView;
+    // Handler used to debounce search typing
+    private final Handler searchHandler = new Handler();
+
+    // Runs the current search once typing pauses
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSearch();
+        }
+    };
+
+    // Refresh the list whenever the repository publishes new bookmarks
+    private final BookmarkRepository.Observer bookmarkObserver =
+            new BookmarkRepository.Observer() {
+                @Override
+                public void onBookmarksChanged(PagedBookmarkList bookmarks) {
+                    // While searching, search again so results show the change
+                    if (searchQuery == null) {
+                        adapter.setBookmarks(bookmarks);
+                    } else {
+                        startSearch();
+                    }
+                }
+            };
 
     /**
      * Method runs on creation of the activity
@@ -72,64 +120,60 @@ public class MainActivity extends AppCompatActivity {
 
         // Assign list view to XML id
         listView = findViewById(R.id.bookmark_list_view);
+        listView.setLayoutManager(new LinearLayoutManager(this));
+        listView.setHasFixedSize(true);
 
-        // Set adapter to new bookmark adapter populated from database
-        listView.setAdapter(new BookmarkAdapter(this, dbHandler.getAllBookmarks()));
-
-        // Set click listener for each item in the list view
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Set adapter to an empty bookmark adapter, populated once the repository loads
+        adapter = new BookmarkAdapter(new BookmarkAdapter.OnBookmarkClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // Identify the clicked bookmark
-                Bookmark clicked = ((BookmarkAdapter) parent.getAdapter()).getItem(position);
-
-                // Set the bookmark as selected and update database
-                assert clicked != null;
-                clicked.setSelected(true);
-                new DatabaseHandler(getApplicationContext()).updateBookmark(clicked);
-                ((BookmarkAdapter) listView.getAdapter()).notifyDataSetChanged();
+            public void onBookmarkClick(Bookmark clicked) {
+                // Select the bookmark and deselect any other in one transaction,
+                // the observer then refreshes the check marks
+                repository.selectExclusive(clicked.getID());
 
-                // Launch intent for play activity with bookmark attached as parcel
+                // Launch intent for play activity with just the bookmark's ID, the
+                // repository already holds the bookmark itself
                 Intent i = new Intent(getApplicationContext(), PlayActivity.class);
-                i.putExtra(
-                        Bookmark.PARCEL,
-                        ((BookmarkAdapter) parent.getAdapter()).getItem(position));
+                i.putExtra(Bookmark.ID, clicked.getID());
+
+                // Time the start from here, the service records how long it took
+                i.putExtra(TimeToFirstAudio.EXTRA_TAPPED, SystemClock.elapsedRealtime());
 
                 // Start activity and await result
                 startActivityForResult(i, PLAY_STREAM_REQUEST);
-
-                // Set any previously selected bookmarks as unselected
-                for (Bookmark b : dbHandler.getAllBookmarks()) {
-                    if (b.isSelected() && b.getID() != clicked.getID()) {
-                        b.setSelected(false);
-                        dbHandler.updateBookmark(b);
-                    }
-                }
             }
-        });
 
-        // Set long click listener for list items
-        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
             @Override
-            public boolean onItemLongClick(
-                    AdapterView<?> parent, View view, int position, long id) {
+            public boolean onBookmarkLongClick(Bookmark clicked) {
                 // On long click display dialog giving edit or delete options
-                buildDialog(((BookmarkAdapter) parent.getAdapter()).getItem(position))
-                        .show();
+                buildDialog(clicked).show();
                 return true;
             }
         });
+        listView.setAdapter(adapter);
 
-        // Request audio permissions required for visualiser
-        requestAudioPermissions();
+        repository = BookmarkRepository.getInstance(this);
+        repository.addObserver(bookmarkObserver);
     }
 
     /**
-     * Run on activity destruction, closes database connection to avoid leak
+     * Run when returning to the list. A player in its own process selects and
+     * deselects bookmarks through a repository of its own, so reload to show them
+     */
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        if (BuildConfig.PLAYER_PROCESS) repository.refresh();
+    }
+
+    /**
+     * Run on activity destruction, stops observing the repository to avoid leak
      */
     @Override
     public void onDestroy() {
-        dbHandler.close();
+        repository.removeObserver(bookmarkObserver);
+        searchHandler.removeCallbacks(searchRunnable);
+        cancelSearch();
         super.onDestroy();
     }
 
@@ -139,9 +183,95 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search as the user types, showing every bookmark again once closed
+        final MenuItem searchItem = menu.findItem(R.id.action_search);
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+
+        searchView.setQueryHint(getString(R.string.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Don't wait out the debounce when the user asks explicitly
+                scheduleSearch(query);
+                if (searchQuery != null) {
+                    searchHandler.removeCallbacks(searchRunnable);
+                    startSearch();
+                }
+
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                scheduleSearch(newText);
+                return true;
+            }
+        });
+
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                scheduleSearch("");
+                return true;
+            }
+        });
+
         return true;
     }
 
+    /**
+     * Queue a search for once typing pauses, replacing any queued or running search.
+     * Blank text shows every bookmark again straight away
+     * @param query the text in the search field
+     */
+    private void scheduleSearch(String query) {
+        searchHandler.removeCallbacks(searchRunnable);
+        cancelSearch();
+
+        if (query.trim().isEmpty()) {
+            searchQuery = null;
+
+            PagedBookmarkList all = repository.getSnapshot();
+            if (all != null) adapter.setBookmarks(all);
+            return;
+        }
+
+        searchQuery = query;
+        searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+    }
+
+    /**
+     * Run the current search in the background, cancelling the previous one
+     */
+    private void startSearch() {
+        cancelSearch();
+
+        searchSignal = repository.searchBookmarks(searchQuery,
+                new BookmarkRepository.Callback<PagedBookmarkList>() {
+                    @Override
+                    public void onResult(PagedBookmarkList results) {
+                        adapter.setBookmarks(results);
+                    }
+                });
+    }
+
+    /**
+     * Abandon the search in flight, if any
+     */
+    private void cancelSearch() {
+        if (searchSignal != null) {
+            searchSignal.cancel();
+            searchSignal = null;
+        }
+    }
+
     /**
      * Launches settings activity while skipping header view
      */
@@ -160,44 +290,36 @@ public class MainActivity extends AppCompatActivity {
             startActivity(i);
         }
 
+        // Let the user pick a playlist file to import
+        else if (item.getItemId() == R.id.action_import) {
+            final Intent i = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            i.addCategory(Intent.CATEGORY_OPENABLE);
+            i.setType("*/*");
+            startActivityForResult(i, IMPORT_FILE_REQUEST);
+        }
+
+        // Ask which format to export, then let the user pick where to save it
+        else if (item.getItemId() == R.id.action_export) {
+            buildExportDialog().show();
+        }
+
         return super.onOptionsItemSelected(item);
     }
 
     /**
-     * Called on activity result being sent
+     * Called on activity result being sent, handles picked import and export files
      * @param requestCode request code sent to activity
      * @param resultCode result returned from activity
      * @param data any data passed between
      */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (resultCode == RESULT_OK) {
-            // If result OK, refresh list view to reflect database
-            if (requestCode == CREATE_BOOKMARK_REQUEST || requestCode == PLAY_STREAM_REQUEST) {
-                listView.setAdapter(
-                        new BookmarkAdapter(this, dbHandler.getAllBookmarks()));
-            }
-        }
-    }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) return;
 
-    /**
-     * Run on result of a permissions request
-     * @param requestCode the permission request code
-     * @param permissions the permissions requested
-     * @param grantResults the results of the request
-     */
-    @Override
-    public void onRequestPermissionsResult(int requestCode,
-                                           @NonNull String permissions[],
-                                           @NonNull int[] grantResults) {
-        switch (requestCode) {
-            case REQUEST_AUDIO_PERMISSION: {
-                // If permission denied, simply quit
-                if (grantResults.length > 0 &&
-                        grantResults[0] == PackageManager.PERMISSION_DENIED) {
-                    finish();
-                }
-            }
+        if (requestCode == IMPORT_FILE_REQUEST) {
+            importFrom(data.getData());
+        } else if (requestCode == EXPORT_FILE_REQUEST && exportFormat != null) {
+            exportTo(data.getData(), exportFormat);
         }
     }
 
@@ -227,12 +349,8 @@ public class MainActivity extends AppCompatActivity {
                 // Set remove button
                 .setNegativeButton(R.string.remove, new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int id) {
-                        // Delete bookmark from database and refresh list view
-                        new DatabaseHandler(getApplicationContext())
-                                .deleteBookmark(bookmark);
-                        listView.setAdapter(
-                                new BookmarkAdapter(
-                                        getApplicationContext(), dbHandler.getAllBookmarks()));
+                        // Delete bookmark, the observer refreshes the list view
+                        repository.deleteBookmark(bookmark);
                     }
                 })
                 // Set cancel button, closes dialog
@@ -246,6 +364,158 @@ public class MainActivity extends AppCompatActivity {
         return builder.create();
     }
 
+    /**
+     * Build a dialog asking which playlist format to export as
+     * @return a constructed AlertDialog
+     */
+    private AlertDialog buildExportDialog() {
+        final PlaylistFormat[] formats = PlaylistFormat.values();
+        String[] names = new String[formats.length];
+
+        for (int f = 0; f < formats.length; f++) {
+            names[f] = formats[f].name();
+        }
+
+        return new AlertDialog.Builder(new ContextThemeWrapper(this, R.style.AlertDialog))
+                .setTitle(R.string.export_format_title)
+                .setItems(names, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Remember the format and ask where to save the file
+                        exportFormat = formats[which];
+
+                        Intent i = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                        i.addCategory(Intent.CATEGORY_OPENABLE);
+                        i.setType(exportFormat.getMimeType());
+                        i.putExtra(Intent.EXTRA_TITLE,
+                                "pinstream." + exportFormat.getExtension());
+                        startActivityForResult(i, EXPORT_FILE_REQUEST);
+                    }
+                })
+                .create();
+    }
+
+    /**
+     * Import bookmarks from a picked file, showing progress in a snackbar which
+     * allows the import to be cancelled
+     * @param uri the picked file
+     */
+    private void importFrom(Uri uri) {
+        final InputStream in;
+        try {
+            in = getContentResolver().openInputStream(uri);
+        } catch (FileNotFoundException e) {
+            Snackbar.make(listView, R.string.import_failed, Snackbar.LENGTH_LONG).show();
+            return;
+        }
+
+        final Snackbar progress = Snackbar.make(
+                listView, getString(R.string.import_progress, 0, 0), Snackbar.LENGTH_INDEFINITE);
+
+        // The format comes from the file name, or the content if the name doesn't say
+        final CancellationSignal signal = repository.importBookmarks(
+                in,
+                PlaylistFormat.fromFileName(getDisplayName(uri)),
+                new BookmarkRepository.BulkListener() {
+                    @Override
+                    public void onProgress(int processed, int skipped) {
+                        progress.setText(getString(R.string.import_progress, processed, skipped));
+                    }
+
+                    @Override
+                    public void onComplete(int processed, int skipped, boolean cancelled) {
+                        progress.dismiss();
+                        Snackbar.make(listView, cancelled
+                                        ? getString(R.string.import_cancelled, processed)
+                                        : getString(R.string.import_complete, processed, skipped),
+                                Snackbar.LENGTH_LONG).show();
+                    }
+
+                    @Override
+                    public void onError(IOException e) {
+                        progress.dismiss();
+                        Snackbar.make(listView, R.string.import_failed, Snackbar.LENGTH_LONG)
+                                .show();
+                    }
+                });
+
+        progress.setAction(R.string.cancel, new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                signal.cancel();
+            }
+        }).show();
+    }
+
+    /**
+     * Export all bookmarks to a picked file, showing progress in a snackbar which
+     * allows the export to be cancelled
+     * @param uri the picked file
+     * @param format the format to write
+     */
+    private void exportTo(Uri uri, PlaylistFormat format) {
+        final OutputStream out;
+        try {
+            out = getContentResolver().openOutputStream(uri);
+        } catch (FileNotFoundException e) {
+            Snackbar.make(listView, R.string.export_failed, Snackbar.LENGTH_LONG).show();
+            return;
+        }
+
+        final Snackbar progress = Snackbar.make(
+                listView, getString(R.string.export_progress, 0), Snackbar.LENGTH_INDEFINITE);
+
+        final CancellationSignal signal = repository.exportBookmarks(
+                out,
+                format,
+                new BookmarkRepository.BulkListener() {
+                    @Override
+                    public void onProgress(int processed, int skipped) {
+                        progress.setText(getString(R.string.export_progress, processed));
+                    }
+
+                    @Override
+                    public void onComplete(int processed, int skipped, boolean cancelled) {
+                        progress.dismiss();
+                        Snackbar.make(listView, cancelled
+                                        ? getString(R.string.export_cancelled, processed)
+                                        : getString(R.string.export_complete, processed),
+                                Snackbar.LENGTH_LONG).show();
+                    }
+
+                    @Override
+                    public void onError(IOException e) {
+                        progress.dismiss();
+                        Snackbar.make(listView, R.string.export_failed, Snackbar.LENGTH_LONG)
+                                .show();
+                    }
+                });
+
+        progress.setAction(R.string.cancel, new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                signal.cancel();
+            }
+        }).show();
+    }
+
+    /**
+     * Look up the display name of a picked document
+     * @param uri the document's URI
+     * @return the display name, or null if it isn't available
+     */
+    private String getDisplayName(Uri uri) {
+        Cursor cursor = getContentResolver().query(
+                uri, new String[] { OpenableColumns.DISPLAY_NAME }, null, null, null);
+
+        if (cursor == null) return uri.getLastPathSegment();
+
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Configure application theme
      */
@@ -282,40 +552,4 @@ public class MainActivity extends AppCompatActivity {
                     .setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM);
         }
     }
-
-    /**
-     * Request audio permissions required for visualiser
-     */
-    private void requestAudioPermissions() {
-        // Check if we have the permission already
-        if (ContextCompat.checkSelfPermission(MainActivity.this,
-                Manifest.permission.RECORD_AUDIO)
-                != PackageManager.PERMISSION_GRANTED) {
-            // If not, check if we should show the dialog
-            if (ActivityCompat.shouldShowRequestPermissionRationale
-                    (MainActivity.this, Manifest.permission.RECORD_AUDIO)) {
-                // Make and show permissions request snackbar
-                Snackbar.make(findViewById(android.R.id.content),
-                        "Recording permission required for visualiser",
-                        Snackbar.LENGTH_INDEFINITE).setAction("ALLOW",
-                        new View.OnClickListener() {
-                            @Override
-                            public void onClick(View v) {
-                                // Send request
-                                ActivityCompat.requestPermissions(
-                                        MainActivity.this,
-                                        new String[]{Manifest.permission.RECORD_AUDIO},
-                                        REQUEST_AUDIO_PERMISSION);
-                            }
-                        }).show();
-            }
-
-            // Else just try the request
-            else {
-                ActivityCompat.requestPermissions(MainActivity.this,
-                        new String[]{Manifest.permission.RECORD_AUDIO},
-                        REQUEST_AUDIO_PERMISSION);
-            }
-        }
-    }
 }
\ No newline at end of file
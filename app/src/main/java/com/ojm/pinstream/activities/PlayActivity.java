@@ -2,28 +2,51 @@ package com.ojm.pinstream.activities;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
 import android.media.AudioManager;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.design.widget.Snackbar;
 import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
 import com.cleveroad.audiovisualization.AudioVisualization;
-import com.cleveroad.audiovisualization.DbmHandler;
-import com.cleveroad.audiovisualization.VisualizerDbmHandler;
+import com.ojm.pinstream.BuildConfig;
 import com.ojm.pinstream.R;
+import com.ojm.pinstream.database.BookmarkRepository;
+import com.ojm.pinstream.diagnostics.HealthCsvWriter;
+import com.ojm.pinstream.diagnostics.HealthGraphView;
+import com.ojm.pinstream.diagnostics.PlaybackMetrics;
+import com.ojm.pinstream.diagnostics.TimeToFirstAudio;
 import com.ojm.pinstream.models.Bookmark;
 import com.ojm.pinstream.services.StreamingService;
+import com.ojm.pinstream.visualizer.AudioTap;
+import com.ojm.pinstream.visualizer.SpectrumDbmHandler;
 
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * This activity is a client activity that presents the in-app control view for the
@@ -31,17 +54,47 @@ import java.util.Objects;
  */
 public class PlayActivity extends AppCompatActivity {
 
+    // Preference remembering whether the stream health overlay is shown
+    private static final String PREF_HEALTH_OVERLAY = "health_overlay";
+
+    // How often the health overlay is redrawn, matching the service's sampling
+    private static final long HEALTH_REFRESH_INTERVAL = 1000;
+
+    // Request code for picking where to export stream health to
+    private static final int EXPORT_HEALTH_REQUEST = 1;
+
+    // Writes exports off the main thread, shared as they are rare and short
+    private static final Executor EXPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+
     // Instance field objects
     private MediaBrowserCompat mMediaBrowser;
     private ImageView mPlayPause;
     private Bookmark mSelectedBookmark;
     private AudioVisualization mAudioVisualization;
+    private HealthGraphView mHealthOverlay;
+    private final Handler mHandler = new Handler();
+
+    // Redraws the health overlay while it's showing
+    private final Runnable mRefreshHealth = new Runnable() {
+        @Override
+        public void run() {
+            mHealthOverlay.refresh();
+            mHandler.postDelayed(this, HEALTH_REFRESH_INTERVAL);
+        }
+    };
+
+    // When this activity was created and its browser connected, passed to the
+    // service with the first prepare request to time the start. Zero once sent
+    private long mLaunchedAt;
+    private long mConnectedAt;
 
     // Connection callback for media browser, performed on connection
     private final MediaBrowserCompat.ConnectionCallback mConnectionCallback =
             new MediaBrowserCompat.ConnectionCallback() {
                 @Override
                 public void onConnected() {
+                    mConnectedAt = SystemClock.elapsedRealtime();
+
                     // Get the token
                     MediaSessionCompat.Token token = mMediaBrowser.getSessionToken();
                     MediaControllerCompat mediaController = null;
@@ -63,31 +116,13 @@ public class PlayActivity extends AppCompatActivity {
                             .getMediaController(PlayActivity.this)
                             .registerCallback(mControllerCallback);
 
-                    // Get current playback state
-                    PlaybackStateCompat state = MediaControllerCompat
+                    // Show the current track, if the stream has sent one
+                    showNowPlaying(MediaControllerCompat
                             .getMediaController(PlayActivity.this)
-                            .getPlaybackState();
+                            .getMetadata());
 
-                    // If we haven't started, or have stopped
-                    if (state.getState() == PlaybackStateCompat.STATE_NONE ||
-                            state.getState() == PlaybackStateCompat.STATE_STOPPED) {
-                        // Just prepare and play the selected bookmark
-                        prepareAndPlay();
-                    }
-
-                    // Otherwise, we're paused or playing already
-                    else {
-                        // In which case, only alter playback if new bookmark selected
-                        assert state.getExtras() != null;
-                        if (state
-                                .getExtras()
-                                .getInt(Bookmark.ID) != mSelectedBookmark.getID()) {
-                            prepareAndPlay();
-                        }
-                    }
-
-                    // Build the activity's transport controls
-                    buildTransportControls();
+                    // Start playback once we know which bookmark to play
+                    if (mSelectedBookmark != null) onReady();
                 }
             };
 
@@ -97,6 +132,10 @@ public class PlayActivity extends AppCompatActivity {
                 @Override
                 public void onPlaybackStateChanged(PlaybackStateCompat state) {
                     assert state != null;
+
+                    // Keep up with skips, from here or from the notification
+                    followSelectedBookmark(state);
+
                     switch (state.getState()) {
                         // If playback has stopped, end the activity
                         case PlaybackStateCompat.STATE_STOPPED:
@@ -113,6 +152,11 @@ public class PlayActivity extends AppCompatActivity {
                             break;
                     }
                 }
+
+                @Override
+                public void onMetadataChanged(MediaMetadataCompat metadata) {
+                    showNowPlaying(metadata);
+                }
             };
 
     /**
@@ -121,17 +165,15 @@ public class PlayActivity extends AppCompatActivity {
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mLaunchedAt = SystemClock.elapsedRealtime();
+
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_play);
         setSupportActionBar((Toolbar) findViewById(R.id.toolbar));
         Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
 
-        // Store the selected bookmark from the intent
-        mSelectedBookmark = getIntent().getParcelableExtra(Bookmark.PARCEL);
-
-        // Set the title of the stream
-        TextView title = findViewById(R.id.playing_source_title);
-        title.setText(mSelectedBookmark.getTitle());
+        // Find the play/pause button now, playback state may arrive before the bookmark
+        mPlayPause = findViewById(R.id.play_pause);
 
         // Initialise the media browser for this activity
         mMediaBrowser = new MediaBrowserCompat(
@@ -140,16 +182,96 @@ public class PlayActivity extends AppCompatActivity {
                 mConnectionCallback,
                 null);
 
+        // Resolve the selected bookmark, from the intent if it was parcelled whole or
+        // otherwise from its ID through the repository's cache
+        if (getIntent().hasExtra(Bookmark.PARCEL)) {
+            onBookmarkResolved((Bookmark) getIntent().getParcelableExtra(Bookmark.PARCEL));
+        } else {
+            BookmarkRepository.getInstance(this).getBookmark(
+                    getIntent().getIntExtra(Bookmark.ID, -1),
+                    new BookmarkRepository.Callback<Bookmark>() {
+                        @Override
+                        public void onResult(Bookmark bookmark) {
+                            // The bookmark was deleted before we got here
+                            if (bookmark == null) {
+                                finish();
+                                return;
+                            }
+
+                            onBookmarkResolved(bookmark);
+                        }
+                    });
+        }
+
         // Find the visualiser view
         mAudioVisualization = findViewById(R.id.visualizer_view);
 
-        // Create a new visualiser handler for our context and audio session
-        VisualizerDbmHandler visualizerHandler = DbmHandler
-                .Factory
-                .newVisualizerHandler(getApplicationContext(), 0);
+        // Link the view to a handler analysing the player's own audio
+        SpectrumDbmHandler spectrumHandler =
+                new SpectrumDbmHandler(this, AudioTap.getInstance());
+        mAudioVisualization.linkTo(spectrumHandler);
+
+        // Show the stream health overlay if it was left on, with the visualiser's cost
+        mHealthOverlay = findViewById(R.id.health_overlay);
+        mHealthOverlay.setFrameCost(spectrumHandler.getFrameCost());
+        mHealthOverlay.setVisibility(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(PREF_HEALTH_OVERLAY, false) ? View.VISIBLE : View.GONE);
+
+        // A player in its own process taps and measures audio this process never sees
+        if (BuildConfig.PLAYER_PROCESS) {
+            mAudioVisualization.setVisibility(View.INVISIBLE);
+            mHealthOverlay.setVisibility(View.GONE);
+        }
+    }
 
-        // Link the view to the handler
-        mAudioVisualization.linkTo(visualizerHandler);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_play, menu);
+        menu.findItem(R.id.action_health_overlay)
+                .setChecked(mHealthOverlay.getVisibility() == View.VISIBLE)
+                .setVisible(!BuildConfig.PLAYER_PROCESS);
+        menu.findItem(R.id.action_export_health).setVisible(!BuildConfig.PLAYER_PROCESS);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        // Show or hide the health overlay, remembering the choice
+        if (item.getItemId() == R.id.action_health_overlay) {
+            boolean show = !item.isChecked();
+            item.setChecked(show);
+
+            PreferenceManager.getDefaultSharedPreferences(this).edit()
+                    .putBoolean(PREF_HEALTH_OVERLAY, show)
+                    .apply();
+
+            mHealthOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+            mHandler.removeCallbacks(mRefreshHealth);
+            if (show) mRefreshHealth.run();
+            return true;
+        }
+
+        // Let the user pick where to save the health history
+        if (item.getItemId() == R.id.action_export_health) {
+            Intent i = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            i.addCategory(Intent.CATEGORY_OPENABLE);
+            i.setType("text/csv");
+            i.putExtra(Intent.EXTRA_TITLE, "pinstream-health.csv");
+            startActivityForResult(i, EXPORT_HEALTH_REQUEST);
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Run on result of picking a file to export stream health to
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) return;
+
+        if (requestCode == EXPORT_HEALTH_REQUEST) exportHealthTo(data.getData());
     }
 
     @Override
@@ -157,12 +279,15 @@ public class PlayActivity extends AppCompatActivity {
         // Connect the browser on activity start
         super.onStart();
         mMediaBrowser.connect();
+
+        // Keep the health overlay up to date while visible
+        if (mHealthOverlay.getVisibility() == View.VISIBLE) mRefreshHealth.run();
     }
 
     @Override
     public void onPause() {
         // Pause visualisation to avoid wasting resources
-        mAudioVisualization.onPause();
+        if (!BuildConfig.PLAYER_PROCESS) mAudioVisualization.onPause();
         super.onPause();
     }
 
@@ -170,12 +295,14 @@ public class PlayActivity extends AppCompatActivity {
     public void onResume() {
         // Resume visualisation and attach volume control to activity
         super.onResume();
-        mAudioVisualization.onResume();
+        if (!BuildConfig.PLAYER_PROCESS) mAudioVisualization.onResume();
         setVolumeControlStream(AudioManager.STREAM_MUSIC);
     }
 
     @Override
     public void onStop() {
+        mHandler.removeCallbacks(mRefreshHealth);
+
         // Disconnect media browser and unregister controller callback
         mMediaBrowser.disconnect();
 
@@ -193,12 +320,57 @@ public class PlayActivity extends AppCompatActivity {
         super.onDestroy();
     }
 
+    /**
+     * Store the bookmark to play and show its title. Playback begins here if the
+     * media browser connected first
+     * @param bookmark the selected bookmark
+     */
+    private void onBookmarkResolved(Bookmark bookmark) {
+        mSelectedBookmark = bookmark;
+
+        // Set the title of the stream
+        TextView title = findViewById(R.id.playing_source_title);
+        title.setText(mSelectedBookmark.getTitle());
+
+        if (mMediaBrowser.isConnected()) onReady();
+    }
+
+    /**
+     * Runs once the media browser is connected and the bookmark is known, starting
+     * playback if needed and building the transport controls
+     */
+    private void onReady() {
+        // Get current playback state
+        PlaybackStateCompat state = MediaControllerCompat
+                .getMediaController(PlayActivity.this)
+                .getPlaybackState();
+
+        // If we haven't started, or have stopped
+        if (state.getState() == PlaybackStateCompat.STATE_NONE ||
+                state.getState() == PlaybackStateCompat.STATE_STOPPED) {
+            // Just prepare and play the selected bookmark
+            prepareAndPlay();
+        }
+
+        // Otherwise, we're paused or playing already
+        else {
+            // In which case, only alter playback if new bookmark selected
+            assert state.getExtras() != null;
+            if (state
+                    .getExtras()
+                    .getInt(Bookmark.ID) != mSelectedBookmark.getID()) {
+                prepareAndPlay();
+            }
+        }
+
+        // Build the activity's transport controls
+        buildTransportControls();
+    }
+
     /**
      * Build transport controls for the activity
      */
     private void buildTransportControls() {
-        mPlayPause = findViewById(R.id.play_pause);
-
         // Get state on activity start
         int onStartState = MediaControllerCompat
                 .getMediaController(PlayActivity.this)
@@ -243,6 +415,27 @@ public class PlayActivity extends AppCompatActivity {
             }
         });
 
+        // Set click listeners for skipping between bookmarks
+        findViewById(R.id.skip_previous).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                MediaControllerCompat
+                        .getMediaController(PlayActivity.this)
+                        .getTransportControls()
+                        .skipToPrevious();
+            }
+        });
+
+        findViewById(R.id.skip_next).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                MediaControllerCompat
+                        .getMediaController(PlayActivity.this)
+                        .getTransportControls()
+                        .skipToNext();
+            }
+        });
+
         // Set on click listener for stop ocon
         ImageView mStop = findViewById(R.id.stop);
         mStop.setOnClickListener(new View.OnClickListener() {
@@ -282,20 +475,159 @@ public class PlayActivity extends AppCompatActivity {
     }
 
     /**
-     * Prepare the service from the Uri attached to the intent, and begin playback
+     * Prepare the service from the selected bookmark's Uri, and begin playback. Only
+     * the ID is passed along when the service shares this process, as it finds the
+     * bookmark in the shared cache, otherwise the whole bookmark is parcelled.
+     * The first request also carries when the bookmark was tapped and this activity
+     * started, so the service can time the whole start
      */
     private void prepareAndPlay() {
+        Bundle extras = new Bundle();
+        if (BuildConfig.PLAYER_PROCESS) {
+            extras.putParcelable(Bookmark.PARCEL, mSelectedBookmark);
+        } else {
+            extras.putInt(Bookmark.ID, mSelectedBookmark.getID());
+        }
+        extras.putLong(TimeToFirstAudio.EXTRA_TAPPED,
+                getIntent().getLongExtra(TimeToFirstAudio.EXTRA_TAPPED, 0));
+        extras.putLong(TimeToFirstAudio.EXTRA_LAUNCHED, mLaunchedAt);
+        extras.putLong(TimeToFirstAudio.EXTRA_CONNECTED, mConnectedAt);
+
+        // Later requests, or this activity being recreated, aren't part of the tap
+        getIntent().removeExtra(TimeToFirstAudio.EXTRA_TAPPED);
+        mLaunchedAt = 0;
+        mConnectedAt = 0;
+
         MediaControllerCompat.getMediaController(PlayActivity.this)
                 .getTransportControls()
-                .prepareFromUri(
-                        mSelectedBookmark.getUrl(),
-                        getIntent().getExtras());
+                .prepareFromUri(mSelectedBookmark.getUrl(), extras);
 
         MediaControllerCompat.getMediaController(PlayActivity.this)
                 .getTransportControls()
                 .play();
     }
 
+    /**
+     * Move to the bookmark the service is playing if it has skipped to another one.
+     * The intent is updated too, so the activity doesn't switch back to the bookmark
+     * it was opened with when recreated
+     * @param state the new playback state
+     */
+    private void followSelectedBookmark(PlaybackStateCompat state) {
+        Bundle extras = state.getExtras();
+        if (mSelectedBookmark == null || extras == null || !extras.containsKey(Bookmark.ID)) {
+            return;
+        }
+
+        // Compare with the intent rather than the bookmark, which may still be loading
+        final int id = extras.getInt(Bookmark.ID);
+        if (id == getIntent().getIntExtra(Bookmark.ID, mSelectedBookmark.getID())) return;
+
+        getIntent().removeExtra(Bookmark.PARCEL);
+        getIntent().putExtra(Bookmark.ID, id);
+
+        BookmarkRepository.getInstance(this).getBookmark(id,
+                new BookmarkRepository.Callback<Bookmark>() {
+                    @Override
+                    public void onResult(Bookmark bookmark) {
+                        // Only if nothing else has been selected since
+                        if (bookmark != null && getIntent().getIntExtra(Bookmark.ID, -1) == id) {
+                            mSelectedBookmark = bookmark;
+
+                            TextView title = findViewById(R.id.playing_source_title);
+                            title.setText(bookmark.getTitle());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Show the track title from the stream's metadata under the station title,
+     * and its cover art over the visualiser
+     * @param metadata the session's metadata, may be null
+     */
+    private void showNowPlaying(MediaMetadataCompat metadata) {
+        TextView track = findViewById(R.id.playing_track_title);
+        CharSequence title = metadata == null
+                ? null
+                : metadata.getText(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE);
+
+        track.setText(title);
+        track.setVisibility(TextUtils.isEmpty(title) ? View.GONE : View.VISIBLE);
+
+        // The service has already downsampled the artwork, so it's cheap to show
+        ImageView artwork = findViewById(R.id.playing_artwork);
+        Bitmap bitmap = metadata == null
+                ? null
+                : metadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART);
+
+        artwork.setImageBitmap(bitmap);
+        artwork.setVisibility(bitmap == null ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Export the stream's health history to a picked file. The history is copied
+     * here and written in the background
+     * @param uri the picked file
+     */
+    private void exportHealthTo(Uri uri) {
+        final View view = findViewById(android.R.id.content);
+        final OutputStream out;
+
+        try {
+            out = getContentResolver().openOutputStream(uri);
+        } catch (FileNotFoundException e) {
+            Snackbar.make(view, R.string.health_export_failed, Snackbar.LENGTH_LONG).show();
+            return;
+        }
+
+        final long[][] history =
+                new long[PlaybackMetrics.COLUMNS][PlaybackMetrics.HISTORY_SIZE];
+        final int count = PlaybackMetrics.getInstance().copyHistory(history);
+        final long clockOffset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+
+        EXPORT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean written = false;
+                HealthCsvWriter writer = null;
+
+                try {
+                    writer = new HealthCsvWriter(out);
+                    writer.write(history, count, clockOffset);
+                    writer.close();
+                    written = true;
+                } catch (IOException e) {
+                    // Reported below
+                } finally {
+                    if (!written) closeQuietly(writer != null ? writer : out);
+                }
+
+                final boolean success = written;
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Snackbar.make(view, success
+                                        ? getString(R.string.health_export_complete, count)
+                                        : getString(R.string.health_export_failed),
+                                Snackbar.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Close a stream, ignoring any error as another has already been reported
+     */
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing more to do
+        }
+    }
+
     /**
      * Set icon for the play/pause button
      * @param id the id of the icon that should be used
@@ -1,61 +1,284 @@
 package com.ojm.pinstream.adapters;
 
-import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.CheckedTextView;
 
+import com.ojm.pinstream.database.PagedBookmarkList;
 import com.ojm.pinstream.models.Bookmark;
 import com.ojm.pinstream.R;
 
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
- * This is a custom adapter class to allow the conversion of a list of bookmarks
- * into a list of CheckedTextView object for the ListView display
+ * This is a custom adapter class to allow the conversion of a paged list of bookmarks
+ * into CheckedTextView rows for the RecyclerView display. When a new list is set the
+ * difference from the current one is worked out on a background thread, so only rows
+ * which actually changed are rebound. Rows whose page hasn't loaded yet are shown as
+ * empty placeholders
  */
-public class BookmarkAdapter extends ArrayAdapter<Bookmark> {
+public class BookmarkAdapter extends RecyclerView.Adapter<BookmarkAdapter.ViewHolder>
+        implements PagedBookmarkList.Listener {
 
     /**
-     * Create a new bookmark adapter
-     * @param context context the adapter belongs to
-     * @param items the items the adapter should manage
+     * Listener for taps on loaded rows
      */
-    public BookmarkAdapter(Context context, ArrayList<Bookmark> items) {
-        super(context, 0, items);
+    public interface OnBookmarkClickListener {
+        void onBookmarkClick(Bookmark bookmark);
+        boolean onBookmarkLongClick(Bookmark bookmark);
     }
 
     /**
-     * Get an individual view from the adapter of a given position
-     * @param position position of the item to get the view from
-     * @return the completed view
+     * View holder for a single bookmark row
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final CheckedTextView listItem;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            listItem = itemView.findViewById(R.id.bookmark_list_item);
+        }
+    }
+
+    // Payload telling a row that only its selected state changed
+    private static final Object SELECTION_PAYLOAD = new Object();
+
+    // Shared by all adapters, diffs are short and never run concurrently in practice
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Handler used to apply finished diffs on the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Told about taps on loaded rows
+    private final OnBookmarkClickListener clickListener;
+
+    // The list being displayed, null until the repository has counted the bookmarks
+    private PagedBookmarkList bookmarks;
+
+    // Bumped on every new list so a slow diff for an older list is thrown away
+    private int generation;
+
+    /**
+     * Create a new, empty bookmark adapter
+     * @param clickListener listener for taps on loaded rows
+     */
+    public BookmarkAdapter(OnBookmarkClickListener clickListener) {
+        this.clickListener = clickListener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Move the adapter to a new list of bookmarks. The first list is shown straight
+     * away, later lists are diffed against the current one in the background and
+     * only the changed rows are notified. Must be called on the main thread
+     * @param newBookmarks the bookmarks to display
+     */
+    public void setBookmarks(final PagedBookmarkList newBookmarks) {
+        final int thisGeneration = ++generation;
+
+        // Nothing to diff against, just show the list
+        if (bookmarks == null) {
+            swap(newBookmarks);
+            notifyDataSetChanged();
+            return;
+        }
+
+        // Freeze both lists here so the diff thread never touches live lists
+        final PagedBookmarkList.Frozen oldRows = bookmarks.freeze();
+        final PagedBookmarkList.Frozen newRows = newBookmarks.freeze();
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new BookmarkDiff(oldRows, newRows), false);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list arrived while diffing, its own diff will follow
+                        if (thisGeneration != generation) return;
+
+                        swap(newBookmarks);
+                        result.dispatchUpdatesTo(BookmarkAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Redraw rows which were showing placeholders once their page has loaded
+     * @param list the list the rows belong to
+     * @param start the first loaded position
+     * @param count the number of loaded rows
+     */
+    @Override
+    public void onRangeLoaded(PagedBookmarkList list, int start, int count) {
+        if (list == bookmarks) notifyItemRangeChanged(start, count);
+    }
+
+    /**
+     * Get the number of bookmarks, loaded or not
+     * @return the number of rows
+     */
+    @Override
+    public int getItemCount() {
+        return bookmarks == null ? 0 : bookmarks.size();
+    }
+
+    /**
+     * Get the stable ID of the row at a position
+     * @param position the row position
+     * @return the bookmark's ID, or a negative ID unique to the position while loading
+     */
+    @Override
+    public long getItemId(int position) {
+        Bookmark bookmark = bookmarks.peek(position);
+        return bookmark == null ? -1 - position : bookmark.getID();
+    }
+
+    /**
+     * Inflate a new row and hook up its click listeners
+     * @param container the recycler view
+     * @param viewType the type of row, there is only one
+     * @return the new view holder
      */
     @NonNull
     @Override
-    public View getView(int position, View convertView, @NonNull ViewGroup container) {
-        // Only inflate if old view is null
-        if (convertView == null) {
-            convertView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.list_item_bookmark,
-                    container,
-                    false
-            );
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup container, int viewType) {
+        final ViewHolder holder = new ViewHolder(LayoutInflater.from(container.getContext())
+                .inflate(R.layout.list_item_bookmark, container, false));
+
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Bookmark bookmark = bookmarkAt(holder);
+                if (bookmark != null) clickListener.onBookmarkClick(bookmark);
+            }
+        });
+
+        holder.itemView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                Bookmark bookmark = bookmarkAt(holder);
+                return bookmark != null && clickListener.onBookmarkLongClick(bookmark);
+            }
+        });
+
+        return holder;
+    }
+
+    /**
+     * Fill a row from the bookmark at its position
+     * @param holder the row to fill
+     * @param position the row position
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        final Bookmark bookmark = bookmarks.get(position);
+
+        // Set the checked text view values from the bookmark, or blank it while loading
+        holder.listItem.setText(bookmark == null ? "" : bookmark.getTitle());
+        holder.listItem.setChecked(bookmark != null && bookmark.isSelected());
+    }
+
+    /**
+     * Fill a row, only touching the check mark when that's all that changed
+     * @param holder the row to fill
+     * @param position the row position
+     * @param payloads change payloads from the diff
+     */
+    @Override
+    public void onBindViewHolder(
+            @NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.size() == 1 && payloads.get(0) == SELECTION_PAYLOAD) {
+            Bookmark bookmark = bookmarks.get(position);
+            holder.listItem.setChecked(bookmark != null && bookmark.isSelected());
+        } else {
+            onBindViewHolder(holder, position);
         }
+    }
 
-        // Find the checked text view and bookmark
-        final CheckedTextView listItem = convertView.findViewById(R.id.bookmark_list_item);
-        final Bookmark bookmark = getItem(position);
+    /**
+     * Make a list current and listen for its pages
+     * @param newBookmarks the list to display
+     */
+    private void swap(PagedBookmarkList newBookmarks) {
+        // Stop hearing about pages arriving for the old list
+        if (bookmarks != null) bookmarks.setListener(null);
 
-        // Set the checked text view values from the bookmark
-        assert bookmark != null;
-        listItem.setText(bookmark.getTitle());
-        listItem.setChecked(bookmark.isSelected());
+        bookmarks = newBookmarks;
+        bookmarks.setListener(this);
+    }
 
-        // Return the convert view
-        return convertView;
+    /**
+     * Get the loaded bookmark currently shown by a row
+     * @param holder the row
+     * @return the bookmark, or null if the row is loading or being removed
+     */
+    private Bookmark bookmarkAt(ViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        return position == RecyclerView.NO_POSITION ? null : bookmarks.peek(position);
     }
 
+    /**
+     * Compares two frozen lists. Rows are the same item when they hold the same
+     * bookmark ID, or are both still loading
+     */
+    private static class BookmarkDiff extends DiffUtil.Callback {
+        private final PagedBookmarkList.Frozen oldRows;
+        private final PagedBookmarkList.Frozen newRows;
+
+        BookmarkDiff(PagedBookmarkList.Frozen oldRows, PagedBookmarkList.Frozen newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            Bookmark a = oldRows.peek(oldPosition);
+            Bookmark b = newRows.peek(newPosition);
+
+            return a == null ? b == null : b != null && a.getID() == b.getID();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Bookmark a = oldRows.peek(oldPosition);
+            Bookmark b = newRows.peek(newPosition);
+
+            // Pages are shared between lists, so unchanged rows are the same object
+            return a == b || a != null && b != null
+                    && a.isSelected() == b.isSelected()
+                    && a.getTitle().equals(b.getTitle());
+        }
+
+        @Override
+        public Object getChangePayload(int oldPosition, int newPosition) {
+            Bookmark a = oldRows.peek(oldPosition);
+            Bookmark b = newRows.peek(newPosition);
+
+            return a != null && b != null && a.getTitle().equals(b.getTitle())
+                    ? SELECTION_PAYLOAD : null;
+        }
+    }
 }
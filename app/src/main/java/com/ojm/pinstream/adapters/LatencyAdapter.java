@@ -0,0 +1,110 @@
+package com.ojm.pinstream.adapters;
+
+import android.content.res.Resources;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.ojm.pinstream.R;
+import com.ojm.pinstream.diagnostics.TimeToFirstAudio;
+import com.ojm.pinstream.models.LatencyHistogram;
+import com.ojm.pinstream.models.StationLatency;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter showing each station's startup latencies: percentiles from tap to audio,
+ * or from the prepare request for stations only ever started another way, and the
+ * median of every phase measured
+ */
+public class LatencyAdapter extends RecyclerView.Adapter<LatencyAdapter.ViewHolder> {
+
+    /**
+     * View holder for a single station row
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView title;
+        final TextView total;
+        final TextView phases;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            title = itemView.findViewById(R.id.latency_title);
+            total = itemView.findViewById(R.id.latency_total);
+            phases = itemView.findViewById(R.id.latency_phases);
+        }
+    }
+
+    private List<StationLatency> stations = new ArrayList<>();
+
+    /**
+     * Show a new set of stations
+     * @param stations the stations, in display order
+     */
+    public void setStations(List<StationLatency> stations) {
+        this.stations = stations;
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item_latency, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        StationLatency station = stations.get(position);
+        Resources resources = holder.itemView.getResources();
+
+        holder.title.setText(station.getTitle());
+
+        // Tap to audio is what the user feels, fall back to the service's own part
+        LatencyHistogram total = station.getPhase(TimeToFirstAudio.PHASE_TAP_TO_AUDIO);
+        int totalFormat = R.string.diagnostics_tap_to_audio;
+
+        if (total == null || total.getCount() == 0) {
+            total = station.getPhase(TimeToFirstAudio.PHASE_PREPARE_TO_AUDIO);
+            totalFormat = R.string.diagnostics_prepare_to_audio;
+        }
+
+        if (total == null || total.getCount() == 0) {
+            holder.total.setText(null);
+        } else {
+            holder.total.setText(resources.getString(totalFormat,
+                    total.getPercentile(50), total.getPercentile(95),
+                    total.getPercentile(99), total.getCount()));
+        }
+
+        // Medians of the phases making up the total, to show where the time goes
+        StringBuilder phases = new StringBuilder();
+        for (String phase : TimeToFirstAudio.PHASES) {
+            if (phase.equals(TimeToFirstAudio.PHASE_PREPARE_TO_AUDIO)
+                    || phase.equals(TimeToFirstAudio.PHASE_TAP_TO_AUDIO)) {
+                continue;
+            }
+
+            LatencyHistogram histogram = station.getPhase(phase);
+            if (histogram == null || histogram.getCount() == 0) continue;
+
+            if (phases.length() > 0) {
+                phases.append(resources.getString(R.string.diagnostics_phase_separator));
+            }
+
+            phases.append(resources.getString(R.string.diagnostics_phase,
+                    phase, histogram.getPercentile(50)));
+        }
+
+        holder.phases.setText(phases);
+    }
+
+    @Override
+    public int getItemCount() {
+        return stations.size();
+    }
+}
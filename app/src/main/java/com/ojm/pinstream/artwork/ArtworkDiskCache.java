@@ -0,0 +1,223 @@
+package com.ojm.pinstream.artwork;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A directory of downloaded artwork files bounded by their total size, evicting
+ * the least recently used first. A zero length file records that a lookup found
+ * no artwork, and counts as known missing until it is older than the negative TTL.
+ * Not thread safe, the artwork loader only uses it from its disk thread
+ */
+final class ArtworkDiskCache {
+
+    private final File directory;
+    private final long maxBytes;
+    private final long negativeTtlMillis;
+
+    // File name to size, least recently used first. Built from the directory on first use
+    private LinkedHashMap<String, Long> index;
+    private long totalBytes;
+
+    /**
+     * @param directory the directory to keep files in, created if needed
+     * @param maxBytes the most bytes of artwork to keep
+     * @param negativeTtlMillis how long a missing artwork record lasts
+     */
+    ArtworkDiskCache(File directory, long maxBytes, long negativeTtlMillis) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * Get the file holding artwork for a key, marking it recently used
+     * @param key the cache key
+     * @return the file, or null if there's no artwork stored
+     */
+    File get(String key) {
+        ensureIndexed();
+
+        String name = fileName(key);
+        Long size = index.get(name);
+        if (size == null || size == 0) return null;
+
+        File file = new File(directory, name);
+        if (!file.exists()) {
+            forget(name);
+            return null;
+        }
+
+        // Survive restarts in roughly the right order, the index handles this run
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Check whether a lookup for a key recently found no artwork
+     * @param key the cache key
+     * @return true if a missing record exists and hasn't expired
+     */
+    boolean isKnownMissing(String key) {
+        ensureIndexed();
+
+        String name = fileName(key);
+        Long size = index.get(name);
+        if (size == null || size != 0) return false;
+
+        File file = new File(directory, name);
+        if (System.currentTimeMillis() - file.lastModified() < negativeTtlMillis) return true;
+
+        // Expired, allow another lookup
+        forget(name);
+        file.delete();
+        return false;
+    }
+
+    /**
+     * Store artwork for a key, evicting older files if over budget
+     * @param key the cache key
+     * @param data the encoded image
+     * @throws IOException if the file can't be written
+     */
+    void put(String key, byte[] data) throws IOException {
+        write(fileName(key), data);
+    }
+
+    /**
+     * Record that a lookup for a key found no artwork
+     * @param key the cache key
+     * @throws IOException if the record can't be written
+     */
+    void putMissing(String key) throws IOException {
+        write(fileName(key), new byte[0]);
+    }
+
+    /**
+     * Get the bytes of artwork currently stored
+     * @return the total size of all files
+     */
+    long size() {
+        ensureIndexed();
+        return totalBytes;
+    }
+
+    /**
+     * Write a file through a temporary so a crash never leaves half an image
+     */
+    private void write(String name, byte[] data) throws IOException {
+        ensureIndexed();
+
+        File temp = new File(directory, name + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        File file = new File(directory, name);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not store artwork " + name);
+        }
+
+        forget(name);
+        index.put(name, (long) data.length);
+        totalBytes += data.length;
+
+        trim();
+    }
+
+    /**
+     * Delete least recently used files until under budget
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+
+            new File(directory, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Drop a file from the index, if present
+     */
+    private void forget(String name) {
+        Long size = index.remove(name);
+        if (size != null) totalBytes -= size;
+    }
+
+    /**
+     * Build the index from the directory, oldest file first, the first time it's needed
+     */
+    private void ensureIndexed() {
+        if (index != null) return;
+
+        index = new LinkedHashMap<>(64, 0.75f, true);
+        totalBytes = 0;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) return;
+
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+
+        for (File file : files) {
+            // Leftovers from an interrupted write, and expired missing records which
+            // take no space but would otherwise stay until looked up again
+            if (file.getName().endsWith(".tmp") || file.length() == 0
+                    && System.currentTimeMillis() - file.lastModified() >= negativeTtlMillis) {
+                file.delete();
+                continue;
+            }
+
+            index.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+
+        trim();
+    }
+
+    /**
+     * Turn a key into a safe, fixed length file name
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return name.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed on every platform
+            throw new AssertionError(e);
+        }
+    }
+}
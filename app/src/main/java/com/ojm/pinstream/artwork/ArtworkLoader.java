@@ -0,0 +1,433 @@
+package com.ojm.pinstream.artwork;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Finds cover art for the track a stream is playing. Lookups go through a memory
+ * cache of downsampled bitmaps, then a disk cache of downloaded images, and only
+ * then the network. Tracks known to have no artwork are remembered so they aren't
+ * looked up again on every repeat, and concurrent requests for the same track
+ * share one lookup. Disk and network work never happens on the main thread
+ */
+public class ArtworkLoader {
+
+    /**
+     * Receives the result of a lookup on the main thread
+     */
+    public interface Callback {
+        void onArtwork(String key, Bitmap artwork);
+    }
+
+    // Bitmaps are downsampled to no more than this many pixels along either side
+    private static final int MAX_DIMENSION = 512;
+
+    // Disk budget for downloaded images, and the largest single download accepted
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    private static final int MAX_DOWNLOAD_BYTES = 2 * 1024 * 1024;
+
+    // How long to believe a track has no artwork
+    private static final long NEGATIVE_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // Number of recent misses remembered in memory
+    private static final int NEGATIVE_CACHE_SIZE = 128;
+
+    // Network timeouts, in milliseconds
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    // Public search API used to find artwork by artist and title
+    private static final String SEARCH_URL =
+            "https://itunes.apple.com/search?media=music&entity=song&limit=1&term=";
+
+    // Process-wide instance
+    private static ArtworkLoader instance;
+
+    // Downsampled bitmaps by key, bounded by their size in kilobytes
+    private final LruCache<String, Bitmap> memoryCache;
+
+    // Keys recently found to have no artwork, to their expiry time
+    private final LruCache<String, Long> missingCache = new LruCache<>(NEGATIVE_CACHE_SIZE);
+
+    // Downloaded images, only touched on the disk executor
+    private final ArtworkDiskCache diskCache;
+
+    // Callbacks waiting on each lookup in progress, only touched on the main thread
+    private final HashMap<String, List<Callback>> inFlight = new HashMap<>();
+
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService networkExecutor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Get the process-wide artwork loader
+     * @param context any context, the application context is retained
+     * @return the shared loader
+     */
+    public static synchronized ArtworkLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ArtworkLoader(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Create the loader with an eighth of the heap for bitmaps
+     * @param context the application context
+     */
+    private ArtworkLoader(Context context) {
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+
+        memoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        diskCache = new ArtworkDiskCache(
+                new File(context.getCacheDir(), "artwork"), DISK_CACHE_BYTES, NEGATIVE_TTL_MILLIS);
+    }
+
+    /**
+     * Build the cache key for a track
+     * @param streamTitle the stream's title metadata, usually "Artist - Title"
+     * @return the key, or null if there's nothing to look up
+     */
+    public static String keyFor(String streamTitle) {
+        if (streamTitle == null) return null;
+
+        String key = streamTitle.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+
+    /**
+     * Get artwork straight from memory, never blocking
+     * @param key the key from keyFor
+     * @return the bitmap, or null if it isn't in memory
+     */
+    public Bitmap getCached(String key) {
+        return key == null ? null : memoryCache.get(key);
+    }
+
+    /**
+     * Give back memory when the system asks. Bitmaps are dropped entirely once it's
+     * running low, halved before that, as the disk cache still holds them
+     * @param level the trim level from onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memoryCache.evictAll();
+        } else {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Look up artwork for a track. A memory hit or known miss is answered before
+     * this returns, anything else is answered later on the main thread. Must be
+     * called on the main thread
+     * @param streamTitle the stream's title metadata, usually "Artist - Title"
+     * @param streamUrl the stream's URL metadata, used if it points at an image
+     * @param callback receives the bitmap, or null if there's no artwork
+     */
+    public void load(String streamTitle, final String streamUrl, Callback callback) {
+        final String key = keyFor(streamTitle);
+
+        if (key == null) {
+            callback.onArtwork(null, null);
+            return;
+        }
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null || isKnownMissing(key)) {
+            callback.onArtwork(key, cached);
+            return;
+        }
+
+        // Join a lookup already under way
+        List<Callback> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        inFlight.put(key, waiting);
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadFromDisk(key, streamUrl);
+            }
+        });
+    }
+
+    /**
+     * Try the disk cache, falling through to the network. Disk executor only
+     */
+    private void loadFromDisk(final String key, final String streamUrl) {
+        if (diskCache.isKnownMissing(key)) {
+            finish(key, null, true);
+            return;
+        }
+
+        File file = diskCache.get(key);
+        if (file != null) {
+            Bitmap bitmap = decode(file);
+            if (bitmap != null) {
+                finish(key, bitmap, false);
+                return;
+            }
+        }
+
+        networkExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadFromNetwork(key, streamUrl);
+            }
+        });
+    }
+
+    /**
+     * Find and download artwork, storing the result on disk. Network executor only
+     */
+    private void loadFromNetwork(final String key, String streamUrl) {
+        final byte[] data;
+
+        try {
+            String artworkUrl = isImageUrl(streamUrl) ? streamUrl : searchArtworkUrl(key);
+            data = artworkUrl == null ? null : download(artworkUrl);
+        } catch (IOException e) {
+            // Probably a connection problem, don't remember this as missing
+            finish(key, null, false);
+            return;
+        }
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = data == null ? null : decode(data);
+
+                try {
+                    if (bitmap != null) {
+                        diskCache.put(key, data);
+                    } else {
+                        diskCache.putMissing(key);
+                    }
+                } catch (IOException e) {
+                    // Just not cached on disk this time
+                }
+
+                finish(key, bitmap, bitmap == null);
+            }
+        });
+    }
+
+    /**
+     * Hand a result to everyone waiting for the key, on the main thread
+     * @param key the key looked up
+     * @param bitmap the artwork, or null
+     * @param missing whether to remember that the key has no artwork
+     */
+    private void finish(final String key, final Bitmap bitmap, final boolean missing) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (bitmap != null) {
+                    memoryCache.put(key, bitmap);
+                } else if (missing) {
+                    missingCache.put(key, System.currentTimeMillis() + NEGATIVE_TTL_MILLIS);
+                }
+
+                List<Callback> waiting = inFlight.remove(key);
+                if (waiting == null) return;
+
+                for (Callback callback : waiting) {
+                    callback.onArtwork(key, bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * Check the in-memory record of tracks without artwork
+     */
+    private boolean isKnownMissing(String key) {
+        Long expiry = missingCache.get(key);
+        if (expiry == null) return false;
+
+        if (expiry > System.currentTimeMillis()) return true;
+
+        missingCache.remove(key);
+        return false;
+    }
+
+    /**
+     * Ask the search API for the artwork URL of a track
+     * @param key the track, usually "artist - title"
+     * @return a large artwork URL, or null if the track wasn't found
+     */
+    private static String searchArtworkUrl(String key) throws IOException {
+        HttpURLConnection connection = open(SEARCH_URL + URLEncoder.encode(key, "UTF-8"));
+        JsonReader reader = null;
+
+        try {
+            reader = new JsonReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            String small = readArtworkUrl(reader);
+
+            // The API returns a 100px thumbnail, but serves any size from the same path
+            return small == null ? null : small.replace("100x100", "600x600");
+        } catch (IllegalStateException e) {
+            // Malformed response
+            return null;
+        } finally {
+            if (reader != null) reader.close();
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Read the first result's artworkUrl100 from a search response
+     */
+    static String readArtworkUrl(JsonReader reader) throws IOException {
+        String url = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("results")) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (url == null && reader.nextName().equals("artworkUrl100")) {
+                        url = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+
+        return url;
+    }
+
+    /**
+     * Download an image, refusing anything implausibly large
+     */
+    private static byte[] download(String url) throws IOException {
+        HttpURLConnection connection = open(url);
+
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) return null;
+
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                if (out.size() > MAX_DOWNLOAD_BYTES) return null;
+            }
+
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Open a connection with our timeouts
+     */
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * Check whether a stream's URL metadata points straight at an image
+     */
+    private static boolean isImageUrl(String url) {
+        if (url == null) return false;
+
+        String lower = url.toLowerCase(Locale.ROOT);
+        return lower.startsWith("http") && (lower.endsWith(".jpg")
+                || lower.endsWith(".jpeg") || lower.endsWith(".png"));
+    }
+
+    /**
+     * Decode a cached file, downsampled to our maximum size
+     */
+    private static Bitmap decode(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        prepareDownsample(options);
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /**
+     * Decode downloaded bytes, downsampled to our maximum size
+     */
+    private static Bitmap decode(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        prepareDownsample(options);
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * Turn bounds from a first decode pass into options for a downsampled decode.
+     * Power of two sample sizes decode fastest, and RGB_565 halves the memory as
+     * cover art has no transparency
+     */
+    private static void prepareDownsample(BitmapFactory.Options options) {
+        int sampleSize = 1;
+
+        while (options.outWidth / (sampleSize * 2) >= MAX_DIMENSION
+                || options.outHeight / (sampleSize * 2) >= MAX_DIMENSION) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+    }
+}
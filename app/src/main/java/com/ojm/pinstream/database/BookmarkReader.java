@@ -0,0 +1,172 @@
+package com.ojm.pinstream.database;
+
+import android.content.Context;
+import android.os.Handler;
+
+import com.ojm.pinstream.models.Bookmark;
+import com.ojm.pinstream.models.ResolvedStream;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The player's read path into the bookmarks: single rows read straight from the
+ * database on the reader's own thread, with no cache or list in between. A player
+ * hosted in its own process reads through this rather than building up a repository
+ * of its own. Results are posted to a handler of the caller's choosing, so the
+ * player's thread never waits on the database
+ */
+public class BookmarkReader {
+
+    /**
+     * Receives the result of a read on the handler it was asked for with
+     * @param <T> the type of result
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    // Process-wide instance
+    private static BookmarkReader instance;
+
+    private final DatabaseHandler dbHandler;
+
+    // Reads run one at a time, apart from the repository's executors
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Get the process-wide reader
+     * @param context any context, the application context is retained
+     * @return the shared reader
+     */
+    public static synchronized BookmarkReader getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookmarkReader(DatabaseHandler.getInstance(context));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Create a reader over a database handler, use getInstance outside of tests
+     * @param dbHandler the handler to read through
+     */
+    BookmarkReader(DatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+    }
+
+    /**
+     * Open the database ahead of the first read, running any pending migrations
+     */
+    public void open() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.getReadableDatabase();
+            }
+        });
+    }
+
+    /**
+     * Read a single bookmark
+     * @param id the ID of the bookmark
+     * @param handler the handler to deliver the result on
+     * @param callback receives the bookmark, or null if there is no such bookmark
+     */
+    public void getBookmark(final int id, Handler handler, Callback<Bookmark> callback) {
+        executor.execute(new Read<Bookmark>(handler, callback) {
+            @Override
+            Bookmark read() {
+                return dbHandler.getBookmark(id);
+            }
+        });
+    }
+
+    /**
+     * Read the bookmarks either side of one, wrapping around at the ends
+     * @param id the ID of the bookmark in the middle
+     * @param handler the handler to deliver the result on
+     * @param callback receives the previous and next bookmarks, either null if
+     *                 there is no other bookmark
+     */
+    public void getAdjacentBookmarks(final int id, Handler handler,
+                                     Callback<Bookmark[]> callback) {
+        executor.execute(new Read<Bookmark[]>(handler, callback) {
+            @Override
+            Bookmark[] read() {
+                return dbHandler.getAdjacentBookmarks(id);
+            }
+        });
+    }
+
+    /**
+     * Read where a bookmark's stream was last resolved to
+     * @param id the ID of the bookmark
+     * @param handler the handler to deliver the result on
+     * @param callback receives the stream, or null if it hasn't been resolved
+     */
+    public void getResolvedStream(final int id, Handler handler,
+                                  Callback<ResolvedStream> callback) {
+        executor.execute(new Read<ResolvedStream>(handler, callback) {
+            @Override
+            ResolvedStream read() {
+                return dbHandler.getResolvedStream(id);
+            }
+        });
+    }
+
+    /**
+     * Read where several bookmarks' streams were last resolved to
+     * @param bookmarks the bookmarks, any may be null
+     * @param handler the handler to deliver the result on
+     * @param callback receives a stream for each bookmark, null where it is null or
+     *                 hasn't been resolved
+     */
+    public void getResolvedStreams(final Bookmark[] bookmarks, Handler handler,
+                                   Callback<ResolvedStream[]> callback) {
+        executor.execute(new Read<ResolvedStream[]>(handler, callback) {
+            @Override
+            ResolvedStream[] read() {
+                ResolvedStream[] streams = new ResolvedStream[bookmarks.length];
+                for (int i = 0; i < bookmarks.length; i++) {
+                    if (bookmarks[i] != null) {
+                        streams[i] = dbHandler.getResolvedStream(bookmarks[i].getID());
+                    }
+                }
+
+                return streams;
+            }
+        });
+    }
+
+    /**
+     * A read on the reader's thread, whose result is posted to a handler
+     * @param <T> the type of result
+     */
+    private abstract static class Read<T> implements Runnable {
+        private final Handler handler;
+        private final Callback<T> callback;
+
+        Read(Handler handler, Callback<T> callback) {
+            this.handler = handler;
+            this.callback = callback;
+        }
+
+        /**
+         * @return the result, read on the reader's thread
+         */
+        abstract T read();
+
+        @Override
+        public void run() {
+            final T result = read();
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,866 @@
+package com.ojm.pinstream.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.LruCache;
+
+import com.ojm.pinstream.diagnostics.LatencyCsvWriter;
+import com.ojm.pinstream.models.Bookmark;
+import com.ojm.pinstream.models.ResolvedStream;
+import com.ojm.pinstream.models.StationLatency;
+import com.ojm.pinstream.playlists.PlaylistEntry;
+import com.ojm.pinstream.playlists.PlaylistFormat;
+import com.ojm.pinstream.playlists.PlaylistReader;
+import com.ojm.pinstream.playlists.PlaylistWriter;
+import com.ojm.pinstream.playlists.UrlNormalizer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Repository class sitting in front of the database handler. All SQL is run on a
+ * single background executor and results are delivered to the main thread through
+ * callbacks or observers. The bookmark list is published as a PagedBookmarkList,
+ * which only loads the pages being displayed, and each write publishes a new list
+ * sharing the pages it didn't change
+ */
+public class BookmarkRepository implements PagedBookmarkList.PageLoader, BookmarkWriter {
+
+    /**
+     * Callback for a single asynchronous result, always invoked on the main thread
+     * @param <T> the type of the result
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Observer notified with a new read-only list whenever the bookmarks change,
+     * always invoked on the main thread
+     */
+    public interface Observer {
+        void onBookmarksChanged(PagedBookmarkList bookmarks);
+    }
+
+    /**
+     * Listener for a long running import or export, always invoked on the main thread
+     */
+    public interface BulkListener {
+        void onProgress(int processed, int skipped);
+        void onComplete(int processed, int skipped, boolean cancelled);
+        void onError(IOException e);
+    }
+
+    // Number of imported bookmarks written per transaction
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    // Number of exported bookmarks between progress reports
+    private static final int EXPORT_PROGRESS_INTERVAL = 500;
+
+    // Number of bookmarks remembered by ID for single lookups
+    private static final int ID_CACHE_SIZE = 256;
+
+    // Process-wide instance
+    private static BookmarkRepository instance;
+
+    // The process-wide database handler
+    private final DatabaseHandler dbHandler;
+
+    // All database work is serialised on this executor
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Imports and exports run here so they don't hold up regular reads and writes
+    private final ExecutorService bulkExecutor = Executors.newSingleThreadExecutor();
+
+    // Searches run here, alongside writes thanks to write-ahead logging, so typing
+    // never waits behind an update
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+
+    // Handler used to deliver results to the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Recently seen bookmarks by ID, filled from loaded pages. LruCache is thread safe
+    private final LruCache<Integer, Bookmark> idCache = new LruCache<>(ID_CACHE_SIZE);
+
+    // Registered observers, only touched on the main thread
+    private final List<Observer> observers = new ArrayList<>();
+
+    // Most recently published list, null until first counted. Replaced on the main thread
+    private volatile PagedBookmarkList snapshot;
+
+    /**
+     * Get the process-wide repository instance
+     * @param context any context, the application context is retained
+     * @return the shared repository
+     */
+    public static synchronized BookmarkRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookmarkRepository(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Create the repository on top of the shared database handler
+     * @param context the application context
+     */
+    private BookmarkRepository(Context context) {
+        dbHandler = DatabaseHandler.getInstance(context);
+    }
+
+    /**
+     * Get the most recently published list without blocking
+     * @return a read-only paged list of bookmarks, or null if not yet loaded
+     */
+    public PagedBookmarkList getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Register an observer. If a list is already available it is delivered
+     * immediately, otherwise a load is started. Must be called on the main thread
+     * @param observer the observer to register
+     */
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+
+        if (snapshot != null) {
+            observer.onBookmarksChanged(snapshot);
+        } else {
+            reload();
+        }
+    }
+
+    /**
+     * Unregister an observer. Must be called on the main thread
+     * @param observer the observer to remove
+     */
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Forget cached bookmarks and publish a recounted list, for when a player in
+     * another process may have changed the selection. Must be called on the main thread
+     */
+    public void refresh() {
+        invalidate();
+    }
+
+    /**
+     * Retrieve a single bookmark asynchronously, from memory if it has been seen
+     * recently
+     * @param id the ID of the bookmark
+     * @param callback receives the bookmark, or null if it does not exist
+     */
+    public void getBookmark(final int id, final Callback<Bookmark> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bookmark bookmark = idCache.get(id);
+
+                if (bookmark == null) {
+                    bookmark = dbHandler.getBookmark(id);
+                    if (bookmark != null) idCache.put(id, bookmark);
+                }
+
+                deliver(callback, bookmark);
+            }
+        });
+    }
+
+    /**
+     * Retrieve the bookmarks either side of one in list order asynchronously,
+     * wrapping around at the ends. Both are kept in memory as they are likely to
+     * be played next
+     * @param id the ID of the bookmark in the middle
+     * @param callback receives the previous and next bookmarks, either may be null
+     */
+    public void getAdjacentBookmarks(final int id, final Callback<Bookmark[]> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bookmark[] adjacent = dbHandler.getAdjacentBookmarks(id);
+
+                for (Bookmark bookmark : adjacent) {
+                    if (bookmark != null) idCache.put(bookmark.getID(), bookmark);
+                }
+
+                deliver(callback, adjacent);
+            }
+        });
+    }
+
+    /**
+     * Retrieve where a bookmark's stream was last resolved to, asynchronously
+     * @param id the ID of the bookmark
+     * @param callback receives the resolved stream, or null if it isn't known
+     */
+    public void getResolvedStream(final int id, final Callback<ResolvedStream> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, dbHandler.getResolvedStream(id));
+            }
+        });
+    }
+
+    /**
+     * Store where a bookmark's stream resolved to in the background
+     * @param id the ID of the bookmark
+     * @param stream the resolved stream, or null to forget it
+     */
+    @Override
+    public void setResolvedStream(final int id, final ResolvedStream stream) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.setResolvedStream(id, stream);
+            }
+        });
+    }
+
+    /**
+     * Add a station start's latencies to its histograms in the background
+     * @param id the ID of the station's bookmark
+     * @param millisByPhase the latency of each phase measured, in milliseconds
+     */
+    @Override
+    public void recordLatencies(final int id, final Map<String, Long> millisByPhase) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.recordLatencies(id, millisByPhase);
+            }
+        });
+    }
+
+    /**
+     * Retrieve the startup latencies of every station measured, asynchronously
+     * @param callback receives the stations, ordered by title
+     */
+    public void getStationLatencies(final Callback<List<StationLatency>> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, dbHandler.getStationLatencies());
+            }
+        });
+    }
+
+    /**
+     * Get a bookmark from memory without waiting, for components which are handed
+     * just an ID. Bookmarks are remembered once their page loads, when they are
+     * selected or when fetched through getBookmark
+     * @param id the ID of the bookmark
+     * @return the bookmark, or null if it isn't in memory
+     */
+    public Bookmark peekBookmark(int id) {
+        return idCache.get(id);
+    }
+
+    /**
+     * Retrieve the most recently played bookmarks asynchronously
+     * @param limit the maximum number of bookmarks to return
+     * @param callback receives the bookmarks, newest first
+     */
+    public void getRecentBookmarks(final int limit, final Callback<List<Bookmark>> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, dbHandler.getRecentBookmarks(limit));
+            }
+        });
+    }
+
+    /**
+     * Retrieve the most played bookmarks asynchronously
+     * @param limit the maximum number of bookmarks to return
+     * @param callback receives the bookmarks, most played first
+     */
+    public void getMostPlayedBookmarks(final int limit, final Callback<List<Bookmark>> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, dbHandler.getMostPlayedBookmarks(limit));
+            }
+        });
+    }
+
+    /**
+     * Search bookmark titles and URL hosts in the background. Titles starting with
+     * the query come first, then other title matches, then host matches. The first
+     * page is loaded along with the count, later pages load as they are displayed
+     * @param query the user's search text, every word is matched as a prefix
+     * @param callback receives the results, not called if the search is cancelled
+     * @return a signal which abandons the search, including a query already running
+     */
+    public CancellationSignal searchBookmarks(
+            final String query, final Callback<PagedBookmarkList> callback) {
+        final CancellationSignal signal = new CancellationSignal();
+
+        searchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Superseded while queued, don't even start
+                if (signal.isCanceled()) return;
+
+                final int[] tierSizes;
+                final List<Bookmark> firstPage;
+
+                try {
+                    tierSizes = dbHandler.countSearchTiers(query, signal);
+                    firstPage = dbHandler.searchBookmarks(
+                            query, tierSizes, 0, PagedBookmarkList.PAGE_SIZE, signal);
+                } catch (OperationCanceledException e) {
+                    return;
+                }
+
+                int total = 0;
+                for (int size : tierSizes) {
+                    total += size;
+                }
+                final int count = total;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (signal.isCanceled()) return;
+
+                        PagedBookmarkList results = new PagedBookmarkList(
+                                count, new SearchLoader(query, tierSizes));
+                        results.onPageLoaded(
+                                0, firstPage.toArray(new Bookmark[firstPage.size()]));
+                        callback.onResult(results);
+                    }
+                });
+            }
+        });
+
+        return signal;
+    }
+
+    /**
+     * Add a bookmark in the background
+     * @param bookmark the bookmark to be added
+     */
+    public void addBookmark(Bookmark bookmark) {
+        final Bookmark copy = copyOf(bookmark);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (dbHandler.addBookmark(copy) == -1) return;
+
+                // The new row is last in ID order, only the final page changes
+                publishChange(new Change() {
+                    @Override
+                    public PagedBookmarkList apply(PagedBookmarkList list) {
+                        return list.withAppended();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Update a bookmark in the background
+     * @param bookmark the bookmark to be updated, its current values are captured
+     */
+    public void updateBookmark(Bookmark bookmark) {
+        final Bookmark copy = copyOf(bookmark);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.updateBookmark(copy);
+                idCache.put(copy.getID(), copy);
+
+                publishChange(new Change() {
+                    @Override
+                    public PagedBookmarkList apply(PagedBookmarkList list) {
+                        return list.withUpdated(copy);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Select a bookmark and deselect all others in the background, as one transaction
+     * @param id the ID of the bookmark to select
+     */
+    @Override
+    public void selectExclusive(final int id) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.selectExclusive(id);
+
+                // Clear the flag on any other cached bookmark, replacing rather than
+                // changing them as the same objects may sit in published pages
+                for (Bookmark b : idCache.snapshot().values()) {
+                    if (b.isSelected() && b.getID() != id) {
+                        idCache.put(b.getID(),
+                                new Bookmark(b.getID(), b.getTitle(), b.getUrlString(), false,
+                                        b.getBufferProfile()));
+                    }
+                }
+
+                // Keep the selected bookmark in memory, it's about to be handed on by ID
+                Bookmark selected = dbHandler.getBookmark(id);
+                if (selected != null) idCache.put(id, selected);
+
+                publishChange(new Change() {
+                    @Override
+                    public PagedBookmarkList apply(PagedBookmarkList list) {
+                        return list.withSelection(id);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deselect a bookmark in the background
+     * @param id the ID of the bookmark to deselect
+     */
+    @Override
+    public void deselect(final int id) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.deselect(id);
+                idCache.remove(id);
+
+                publishChange(new Change() {
+                    @Override
+                    public PagedBookmarkList apply(PagedBookmarkList list) {
+                        // Only build a new list if the bookmark is on screen and selected
+                        int position = list.indexOfLoaded(id);
+                        Bookmark b = position >= 0 ? list.peek(position) : null;
+
+                        return b != null && b.isSelected()
+                                ? list.withUpdated(new Bookmark(b.getID(), b.getTitle(),
+                                        b.getUrlString(), false, b.getBufferProfile()))
+                                : null;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Delete a bookmark in the background
+     * @param bookmark the bookmark to be deleted
+     */
+    public void deleteBookmark(Bookmark bookmark) {
+        final Bookmark copy = copyOf(bookmark);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.deleteBookmark(copy);
+                idCache.remove(copy.getID());
+
+                publishChange(new Change() {
+                    @Override
+                    public PagedBookmarkList apply(PagedBookmarkList list) {
+                        return list.withRemoved(copy.getID());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Import bookmarks from a playlist file in the background. The file is parsed
+     * as a stream, URLs already present (after normalisation) are skipped, and new
+     * bookmarks are written in batched transactions
+     * @param in the playlist stream, closed when the import ends
+     * @param format the playlist format, or null to detect it from the content
+     * @param listener receives progress and the final result
+     * @return a signal which cancels the import, keeping batches already written
+     */
+    public CancellationSignal importBookmarks(final InputStream in,
+                                              final PlaylistFormat format,
+                                              final BulkListener listener) {
+        final CancellationSignal signal = new CancellationSignal();
+
+        bulkExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int imported = 0;
+                int skipped = 0;
+                PlaylistReader reader = null;
+
+                try {
+                    BufferedInputStream buffered = new BufferedInputStream(in);
+                    reader = (format != null ? format : PlaylistFormat.sniff(buffered))
+                            .newReader(buffered);
+
+                    // URLs already saved, and those seen so far in this file
+                    Set<String> seen = dbHandler.getNormalizedUrls();
+                    List<PlaylistEntry> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+
+                    PlaylistEntry entry;
+                    while (!signal.isCanceled() && (entry = reader.next()) != null) {
+                        if (!seen.add(UrlNormalizer.normalize(entry.getUrl()))) {
+                            skipped++;
+                            continue;
+                        }
+
+                        batch.add(entry);
+
+                        // Write a full batch in one transaction and report progress
+                        if (batch.size() == IMPORT_BATCH_SIZE) {
+                            imported += dbHandler.addBookmarks(batch);
+                            batch.clear();
+                            deliverProgress(listener, imported, skipped);
+                        }
+                    }
+
+                    // Write the remainder unless cancelled part way
+                    if (!signal.isCanceled() && !batch.isEmpty()) {
+                        imported += dbHandler.addBookmarks(batch);
+                    }
+
+                    deliverComplete(listener, imported, skipped, signal.isCanceled());
+                } catch (IOException e) {
+                    deliverError(listener, e);
+                } catch (RuntimeException e) {
+                    // Malformed files or database failures shouldn't end silently
+                    deliverError(listener, new IOException(e));
+                } finally {
+                    closeQuietly(reader != null ? reader : in);
+
+                    // Reload the cache to pick up whatever was written
+                    if (imported > 0) invalidate();
+                }
+            }
+        });
+
+        return signal;
+    }
+
+    /**
+     * Export every bookmark to a playlist file in the background, streaming rows
+     * from the database straight into the writer
+     * @param out the stream to write, closed when the export ends
+     * @param format the playlist format to write
+     * @param listener receives progress and the final result
+     * @return a signal which cancels the export, leaving a truncated file
+     */
+    public CancellationSignal exportBookmarks(final OutputStream out,
+                                              final PlaylistFormat format,
+                                              final BulkListener listener) {
+        final CancellationSignal signal = new CancellationSignal();
+
+        bulkExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int exported = 0;
+                PlaylistWriter writer = null;
+                Cursor cursor = null;
+
+                try {
+                    writer = format.newWriter(out);
+                    cursor = dbHandler.queryTitlesAndUrls();
+
+                    while (!signal.isCanceled() && cursor.moveToNext()) {
+                        writer.write(cursor.getString(0), cursor.getString(1));
+
+                        if (++exported % EXPORT_PROGRESS_INTERVAL == 0) {
+                            deliverProgress(listener, exported, 0);
+                        }
+                    }
+
+                    // Close here so any failure finishing the file is reported
+                    writer.close();
+                    writer = null;
+
+                    deliverComplete(listener, exported, 0, signal.isCanceled());
+                } catch (IOException e) {
+                    deliverError(listener, e);
+                } catch (RuntimeException e) {
+                    deliverError(listener, new IOException(e));
+                } finally {
+                    if (cursor != null) cursor.close();
+                    closeQuietly(writer != null ? writer : out);
+                }
+            }
+        });
+
+        return signal;
+    }
+
+    /**
+     * Export the startup latencies of every station as CSV in the background
+     * @param out the stream to write, closed when the export ends
+     * @param listener receives the number of rows written, or the error
+     */
+    public void exportLatencies(final OutputStream out, final BulkListener listener) {
+        bulkExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int exported = 0;
+                LatencyCsvWriter writer = null;
+
+                try {
+                    writer = new LatencyCsvWriter(out);
+
+                    for (StationLatency station : dbHandler.getStationLatencies()) {
+                        exported += writer.write(station);
+                    }
+
+                    // Close here so any failure finishing the file is reported
+                    writer.close();
+                    writer = null;
+
+                    deliverComplete(listener, exported, 0, false);
+                } catch (IOException e) {
+                    deliverError(listener, e);
+                } catch (RuntimeException e) {
+                    deliverError(listener, new IOException(e));
+                } finally {
+                    closeQuietly(writer != null ? writer : out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Load one page of a list in the background and hand it back on the main thread.
+     * Called by PagedBookmarkList as rows are displayed
+     * @param list the list wanting the page
+     * @param page the page index
+     * @param afterId the ID just before the page, or -1 if unknown
+     */
+    @Override
+    public void loadPage(final PagedBookmarkList list, final int page, final int afterId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Bookmark> rows = dbHandler.getBookmarkPage(
+                        afterId, page * PagedBookmarkList.PAGE_SIZE, PagedBookmarkList.PAGE_SIZE);
+
+                for (Bookmark b : rows) {
+                    idCache.put(b.getID(), b);
+                }
+
+                final Bookmark[] items = rows.toArray(new Bookmark[rows.size()]);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        list.onPageLoaded(page, items);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Loads further pages of search results by offset, as results are ranked
+     * rather than in ID order
+     */
+    private class SearchLoader implements PagedBookmarkList.PageLoader {
+        private final String query;
+        private final int[] tierSizes;
+
+        /**
+         * @param query the user's search text
+         * @param tierSizes the size of each search tier, counted with the first page
+         */
+        SearchLoader(String query, int[] tierSizes) {
+            this.query = query;
+            this.tierSizes = tierSizes;
+        }
+
+        @Override
+        public void loadPage(final PagedBookmarkList list, final int page, int afterId) {
+            searchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<Bookmark> rows = dbHandler.searchBookmarks(
+                            query,
+                            tierSizes,
+                            page * PagedBookmarkList.PAGE_SIZE,
+                            PagedBookmarkList.PAGE_SIZE,
+                            null);
+                    final Bookmark[] items = rows.toArray(new Bookmark[rows.size()]);
+
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            list.onPageLoaded(page, items);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * A change to apply to the published list on the main thread
+     */
+    private interface Change {
+        /**
+         * @param list the current list
+         * @return the changed list, or null if nothing visible changed
+         */
+        PagedBookmarkList apply(PagedBookmarkList list);
+    }
+
+    /**
+     * Apply a change to the published list on the main thread and notify observers.
+     * If nothing has been published yet there's nothing to patch, the first load
+     * will see the change
+     * @param change the change to apply
+     */
+    private void publishChange(final Change change) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (snapshot == null) return;
+
+                PagedBookmarkList changed = change.apply(snapshot);
+                if (changed != null) publish(changed);
+            }
+        });
+    }
+
+    /**
+     * Count the bookmarks in the background and publish a fresh, empty list of
+     * that size. Its pages load as they are displayed
+     */
+    private void reload() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int count = dbHandler.getBookmarkCount();
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        publish(new PagedBookmarkList(count, BookmarkRepository.this));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drop everything cached after a bulk change and publish a recounted list
+     */
+    private void invalidate() {
+        idCache.evictAll();
+        reload();
+    }
+
+    /**
+     * Make a list current and notify observers. Main thread only
+     * @param list the new list
+     */
+    private void publish(PagedBookmarkList list) {
+        snapshot = list;
+
+        // Iterate over a copy in case an observer unregisters itself
+        for (Observer observer : new ArrayList<>(observers)) {
+            observer.onBookmarksChanged(list);
+        }
+    }
+
+    /**
+     * Deliver a result to a callback on the main thread
+     * @param callback the callback to invoke
+     * @param result the result to pass
+     */
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    /**
+     * Deliver bulk progress on the main thread
+     */
+    private void deliverProgress(final BulkListener listener,
+                                 final int processed, final int skipped) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(processed, skipped);
+            }
+        });
+    }
+
+    /**
+     * Deliver bulk completion on the main thread
+     */
+    private void deliverComplete(final BulkListener listener,
+                                 final int processed, final int skipped,
+                                 final boolean cancelled) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onComplete(processed, skipped, cancelled);
+            }
+        });
+    }
+
+    /**
+     * Deliver a bulk failure on the main thread
+     */
+    private void deliverError(final BulkListener listener, final IOException e) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Close a stream, reader or writer, ignoring any failure
+     * @param closeable the object to close
+     */
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing useful to do
+        }
+    }
+
+    /**
+     * Copy a bookmark so later changes by the caller aren't seen by the executor
+     * @param bookmark the bookmark to copy
+     * @return a new bookmark with the same values
+     */
+    private static Bookmark copyOf(Bookmark bookmark) {
+        return new Bookmark(
+                bookmark.getID(),
+                bookmark.getTitle(),
+                bookmark.getUrlString(),
+                bookmark.isSelected(),
+                bookmark.getBufferProfile());
+    }
+}
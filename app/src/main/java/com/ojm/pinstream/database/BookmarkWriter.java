@@ -0,0 +1,39 @@
+package com.ojm.pinstream.database;
+
+import com.ojm.pinstream.models.ResolvedStream;
+
+import java.util.Map;
+
+/**
+ * The writes the player makes to the bookmarks, each done in the background. The
+ * repository makes them when the player shares the screens' process, keeping its
+ * published list in step. A player in its own process makes them through
+ * DirectBookmarkWriter instead
+ */
+public interface BookmarkWriter {
+    /**
+     * Select a bookmark and deselect all others, as one transaction
+     * @param id the ID of the bookmark to select
+     */
+    void selectExclusive(int id);
+
+    /**
+     * Deselect a bookmark
+     * @param id the ID of the bookmark to deselect
+     */
+    void deselect(int id);
+
+    /**
+     * Store where a bookmark's stream resolved to
+     * @param id the ID of the bookmark
+     * @param stream the resolved stream, or null to forget it
+     */
+    void setResolvedStream(int id, ResolvedStream stream);
+
+    /**
+     * Add a station start's latencies to its histograms
+     * @param id the ID of the station's bookmark
+     * @param millisByPhase the latency of each phase measured, in milliseconds
+     */
+    void recordLatencies(int id, Map<String, Long> millisByPhase);
+}
@@ -1,50 +1,137 @@
 package com.ojm.pinstream.database;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.net.Uri;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
 
 import com.ojm.pinstream.models.Bookmark;
+import com.ojm.pinstream.models.LatencyHistogram;
+import com.ojm.pinstream.models.ResolvedStream;
+import com.ojm.pinstream.models.StationLatency;
+import com.ojm.pinstream.playlists.PlaylistEntry;
+import com.ojm.pinstream.playlists.UrlNormalizer;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Simple database handler class providing methods which perform raw
- * SQL queries to SQLite database
+ * SQL queries to SQLite database. A single instance is shared by the whole
+ * process, with write-ahead logging so reads don't wait behind writes, and
+ * the common writes compiled once and reused
  */
 public class DatabaseHandler extends SQLiteOpenHelper {
-    // Database version number
-    private static final int DATABASE_VERSION = 1;
+    // Database version number, bump alongside each new entry in Migrations
+    static final int DATABASE_VERSION = 8;
 
     // Name
     private static final String DATABASE_NAME = "bookmarksManager";
 
-    // Table name
+    // Table names
     private static final String TABLE_BOOKMARKS = "bookmarks";
+    private static final String TABLE_BOOKMARKS_FTS = "bookmarks_fts";
+    private static final String TABLE_LATENCY = "latency";
 
     // Key names
     private static final String KEY_ID = "id";
     private static final String KEY_TITLE = "title";
     private static final String KEY_URL = "url";
     private static final String KEY_SELECTED = "isSelected";
+    private static final String KEY_LAST_PLAYED = "last_played";
+    private static final String KEY_PLAY_COUNT = "play_count";
+    private static final String KEY_BUFFER_PROFILE = "buffer_profile";
+    private static final String KEY_RESOLVED_URL = "resolved_url";
+    private static final String KEY_STREAM_TYPE = "stream_type";
+    private static final String KEY_CODEC = "codec";
+    private static final String KEY_BOOKMARK_ID = "bookmark_id";
+    private static final String KEY_PHASE = "phase";
+    private static final String KEY_HISTOGRAM = "histogram";
+
+    // Columns needed to build a Bookmark, in constructor order
+    private static final String BOOKMARK_COLUMNS =
+            KEY_ID + ", " + KEY_TITLE + ", " + KEY_URL + ", " + KEY_SELECTED + ", " +
+                    KEY_BUFFER_PROFILE;
+
+    // Constant SQL for single row lookups. rawQuery with an unchanging string hits the
+    // connection's prepared statement cache, as SQLiteStatement can't return rows
+    private static final String SQL_SELECT_BY_ID =
+            "SELECT " + BOOKMARK_COLUMNS + " FROM " + TABLE_BOOKMARKS +
+                    " WHERE " + KEY_ID + " = ?";
+
+    // Number of search ranks, see toTierQueries
+    private static final int SEARCH_TIERS = 3;
+
+    // Process-wide instance
+    private static DatabaseHandler instance;
+
+    // Compiled statements, created on first use and guarded by their own monitor
+    // as bind arguments are held on the statement object
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement updateStatement;
+    private SQLiteStatement deleteStatement;
+    private SQLiteStatement deselectStatement;
+    private SQLiteStatement clearSelectionStatement;
+    private SQLiteStatement recordPlayStatement;
+    private SQLiteStatement resolvedStreamStatement;
+    private SQLiteStatement latencyStatement;
+
+    /**
+     * Get the process-wide database handler, so every caller shares one
+     * connection pool
+     * @param context any context, the application context is retained
+     * @return the shared database handler
+     */
+    public static synchronized DatabaseHandler getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHandler(context.getApplicationContext());
+        }
+
+        return instance;
+    }
 
     /**
-     * Create a new database handler instance
+     * Create a new database handler instance, use getInstance outside of tests
      * @param context the context of the required database instance
      */
-    public DatabaseHandler(Context context) {
+    DatabaseHandler(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // Let readers run on their own connections alongside the writer
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
-     * Runs on database creation
+     * Runs on database creation. Creates the original schema and then runs every
+     * migration, so fresh installs and upgraded installs end up identical
      * @param sqLiteDatabase the object representing the database
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createVersion1(sqLiteDatabase);
+        Migrations.migrate(sqLiteDatabase, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * Runs on database upgrade. Applies each migration step in order, keeping
+     * existing bookmarks
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        Migrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * Create the version 1 schema, the starting point for all migrations
+     * @param sqLiteDatabase the object representing the database
+     */
+    static void createVersion1(SQLiteDatabase sqLiteDatabase) {
         // Execute SQL create command
         sqLiteDatabase.execSQL(
                 "CREATE TABLE " + TABLE_BOOKMARKS + "(" +
@@ -55,29 +142,107 @@ public class DatabaseHandler extends SQLiteOpenHelper {
     }
 
     /**
-     * Runs on database upgrade. Drops table and recreates.
+     * Add a bookmark to the database
+     * @param bookmark the bookmark to be added
+     * @return the row ID of the new bookmark, or -1 on failure
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKMARKS);
-        onCreate(sqLiteDatabase);
+    public long addBookmark(Bookmark bookmark) {
+        SQLiteStatement statement = getInsertStatement();
+
+        synchronized (statement) {
+            // Bind bookmark information and write to database
+            statement.bindString(1, bookmark.getTitle());
+            statement.bindString(2, bookmark.getUrlString());
+            statement.bindLong(3, bookmark.isSelected() ? 1 : 0);
+            bindNullable(statement, 4, bookmark.getBufferProfile());
+            return statement.executeInsert();
+        }
     }
 
     /**
-     * Add a bookmark to the database
-     * @param bookmark the bookmark to be added
+     * Add many bookmarks in a single transaction, reusing the compiled insert. The
+     * insert is locked before the transaction takes the connection, the order
+     * addBookmark takes them in, so an import and a single add can't deadlock
+     * @param entries the playlist entries to add, untitled entries use their URL
+     * @return the number of bookmarks added
      */
-    public void addBookmark(Bookmark bookmark) {
-        // Create a values object to store bookmark information
-        ContentValues values = new ContentValues();
+    public int addBookmarks(List<PlaylistEntry> entries) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement statement = getInsertStatement();
+        int added = 0;
+
+        synchronized (statement) {
+            db.beginTransaction();
+            try {
+                for (PlaylistEntry entry : entries) {
+                    String title = entry.getTitle();
+
+                    statement.bindString(1, title == null || title.isEmpty()
+                            ? entry.getUrl()
+                            : title);
+                    statement.bindString(2, entry.getUrl());
+                    statement.bindLong(3, 0);
+                    statement.bindNull(4);
 
-        // Extract bookmark information into values
-        values.put(KEY_TITLE, bookmark.getTitle());
-        values.put(KEY_URL, bookmark.getUrl().toString());
-        values.put(KEY_SELECTED, bookmark.isSelected() ? 1 : 0);
+                    if (statement.executeInsert() != -1) added++;
+                }
 
-        // Write to database
-        this.getWritableDatabase().insert(TABLE_BOOKMARKS, null, values);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Collect the normalised URL of every bookmark, for de-duplicating imports.
+     * Only the URL column is read and no Bookmark objects are built
+     * @return a set of normalised URLs
+     */
+    public Set<String> getNormalizedUrls() {
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                "SELECT " + KEY_URL + " FROM " + TABLE_BOOKMARKS,
+                null
+        );
+
+        Set<String> urls = new HashSet<>(Math.max(16, cursor.getCount() * 2));
+        while (cursor.moveToNext()) {
+            String url = cursor.getString(0);
+            if (url != null) urls.add(UrlNormalizer.normalize(url));
+        }
+
+        cursor.close();
+        return urls;
+    }
+
+    /**
+     * Open a cursor over the title and URL of every bookmark in table order, for
+     * streaming exports. The caller must close it
+     * @return a cursor with the title in column 0 and URL in column 1
+     */
+    public Cursor queryTitlesAndUrls() {
+        return this.getReadableDatabase().rawQuery(
+                "SELECT " + KEY_TITLE + ", " + KEY_URL + " FROM " + TABLE_BOOKMARKS +
+                        " ORDER BY " + KEY_ID,
+                null
+        );
+    }
+
+    /**
+     * Retrieve a single bookmark by ID
+     * @param id the ID of the bookmark
+     * @return the bookmark, or null if there is no such bookmark
+     */
+    public Bookmark getBookmark(int id) {
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                SQL_SELECT_BY_ID,
+                new String[] { String.valueOf(id) }
+        );
+
+        ArrayList<Bookmark> bookmarks = readBookmarks(cursor);
+        return bookmarks.isEmpty() ? null : bookmarks.get(0);
     }
 
     /**
@@ -86,27 +251,380 @@ public class DatabaseHandler extends SQLiteOpenHelper {
      */
     public ArrayList<Bookmark> getAllBookmarks() {
         // Select all bookmarks
-        Cursor cursor = this.getWritableDatabase().rawQuery(
-                "SELECT * FROM " + TABLE_BOOKMARKS,
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                "SELECT " + BOOKMARK_COLUMNS + " FROM " + TABLE_BOOKMARKS +
+                        " ORDER BY " + KEY_ID,
                 null
         );
 
-        ArrayList<Bookmark> bookmarkList = new ArrayList<>();
+        return readBookmarks(cursor);
+    }
 
-        // Use cursor to extract data from database entries back into bookmark objects
-        if (cursor.moveToFirst()) {
-            do {
-                bookmarkList.add(new Bookmark(
-                        cursor.getInt(0),
-                        cursor.getString(1),
-                        Uri.parse(cursor.getString(2)),
-                        cursor.getInt(3) == 1)
+    /**
+     * Count the bookmarks in the database
+     * @return the number of bookmarks
+     */
+    public int getBookmarkCount() {
+        return (int) DatabaseUtils.queryNumEntries(this.getReadableDatabase(), TABLE_BOOKMARKS);
+    }
+
+    /**
+     * Retrieve one page of bookmarks in table order. When the ID of the last bookmark
+     * before the page is known the page is found by seeking the primary key, so cost
+     * doesn't grow with position. Otherwise it falls back to an offset
+     * @param afterId the ID of the bookmark just before the page, or -1 if unknown
+     * @param offset the position of the first bookmark, used when afterId is unknown
+     * @param limit the maximum number of bookmarks to return
+     * @return an ArrayList of up to limit bookmarks
+     */
+    public ArrayList<Bookmark> getBookmarkPage(int afterId, int offset, int limit) {
+        Cursor cursor;
+
+        if (afterId >= 0) {
+            cursor = this.getReadableDatabase().rawQuery(
+                    "SELECT " + BOOKMARK_COLUMNS + " FROM " + TABLE_BOOKMARKS +
+                            " WHERE " + KEY_ID + " > ? ORDER BY " + KEY_ID + " LIMIT ?",
+                    new String[] { String.valueOf(afterId), String.valueOf(limit) }
+            );
+        } else {
+            cursor = this.getReadableDatabase().rawQuery(
+                    "SELECT " + BOOKMARK_COLUMNS + " FROM " + TABLE_BOOKMARKS +
+                            " ORDER BY " + KEY_ID + " LIMIT ? OFFSET ?",
+                    new String[] { String.valueOf(limit), String.valueOf(offset) }
+            );
+        }
+
+        return readBookmarks(cursor);
+    }
+
+    /**
+     * Turn what the user typed into FTS match expressions for each search tier, best
+     * first: titles starting with the query, titles containing it, then titles or
+     * hosts containing it. Each tier's matches include the one before. Every word is
+     * matched as a prefix and punctuation is dropped so the input can never be a
+     * syntax error
+     * @param query the user's search text
+     * @return one match expression per tier, or null if the query has no words
+     */
+    static String[] toTierQueries(String query) {
+        StringBuilder anchored = new StringBuilder();
+        StringBuilder title = new StringBuilder();
+        StringBuilder any = new StringBuilder();
+
+        for (String word : query.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+
+            if (any.length() > 0) {
+                anchored.append(' ');
+                title.append(' ');
+                any.append(' ');
+            }
+
+            // Only the first word is tied to the start of the title
+            anchored.append(KEY_TITLE).append(any.length() == 0 ? ":^" : ":").append(word).append('*');
+            title.append(KEY_TITLE).append(':').append(word).append('*');
+            any.append(word).append('*');
+        }
+
+        return any.length() == 0
+                ? null
+                : new String[] { anchored.toString(), title.toString(), any.toString() };
+    }
+
+    /**
+     * Count the bookmarks in each search tier. The tiers don't overlap, so the sum
+     * is the total number of matches
+     * @param query the user's search text
+     * @param signal signal used to abandon the query, or null
+     * @return the size of each tier, best first
+     * @throws android.os.OperationCanceledException if the signal is cancelled
+     */
+    public int[] countSearchTiers(String query, CancellationSignal signal) {
+        String[] matches = toTierQueries(query);
+        int[] sizes = new int[SEARCH_TIERS];
+        if (matches == null) return sizes;
+
+        // Each tier's matches contain the previous tier's, so subtract to separate them
+        int previous = 0;
+        for (int tier = 0; tier < SEARCH_TIERS; tier++) {
+            Cursor cursor = this.getReadableDatabase().rawQuery(
+                    "SELECT count(*) FROM " + TABLE_BOOKMARKS_FTS +
+                            " WHERE " + TABLE_BOOKMARKS_FTS + " MATCH ?",
+                    new String[] { matches[tier] },
+                    signal
+            );
+
+            try {
+                int count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+                sizes[tier] = count - previous;
+                previous = count;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Retrieve one page of bookmarks matching a search, best tier first and in ID
+     * order within a tier. The page is taken from the full-text index before any
+     * bookmark rows are read, and a page only queries the tiers it spans, so the
+     * cost follows the page size rather than the number of matches
+     * @param query the user's search text
+     * @param tierSizes the tier sizes from countSearchTiers
+     * @param offset the position of the first result
+     * @param limit the maximum number of results to return
+     * @param signal signal used to abandon the query, or null
+     * @return an ArrayList of up to limit bookmarks
+     * @throws android.os.OperationCanceledException if the signal is cancelled
+     */
+    public ArrayList<Bookmark> searchBookmarks(
+            String query, int[] tierSizes, int offset, int limit, CancellationSignal signal) {
+        ArrayList<Bookmark> results = new ArrayList<>();
+        String[] matches = toTierQueries(query);
+        if (matches == null) return results;
+
+        for (int tier = 0; tier < SEARCH_TIERS && results.size() < limit; tier++) {
+            // Skip whole tiers before the offset
+            if (offset >= tierSizes[tier]) {
+                offset -= tierSizes[tier];
+                continue;
+            }
+
+            results.addAll(searchTier(matches, tier, offset, limit - results.size(), signal));
+            offset = 0;
+        }
+
+        return results;
+    }
+
+    /**
+     * Retrieve part of one search tier, in ID order
+     * @param matches the match expressions from toTierQueries
+     * @param tier the tier to read
+     * @param offset the position of the first result within the tier
+     * @param limit the maximum number of results to return
+     * @param signal signal used to abandon the query, or null
+     * @return an ArrayList of up to limit bookmarks
+     */
+    private ArrayList<Bookmark> searchTier(
+            String[] matches, int tier, int offset, int limit, CancellationSignal signal) {
+        // Full-text matches come back in docid order, so the limit applies without a sort
+        String sql = "SELECT b." + KEY_ID + ", b." + KEY_TITLE + ", b." + KEY_URL +
+                ", b." + KEY_SELECTED + ", b." + KEY_BUFFER_PROFILE +
+                " FROM (SELECT docid FROM " + TABLE_BOOKMARKS_FTS +
+                " WHERE " + TABLE_BOOKMARKS_FTS + " MATCH ?";
+        String[] args;
+
+        // Leave out the previous tier's matches, which this tier's include
+        if (tier > 0) {
+            sql += " AND docid NOT IN (SELECT docid FROM " + TABLE_BOOKMARKS_FTS +
+                    " WHERE " + TABLE_BOOKMARKS_FTS + " MATCH ?)";
+            args = new String[] { matches[tier], matches[tier - 1],
+                    String.valueOf(limit), String.valueOf(offset) };
+        } else {
+            args = new String[] { matches[tier],
+                    String.valueOf(limit), String.valueOf(offset) };
+        }
+
+        sql += " LIMIT ? OFFSET ?) f JOIN " + TABLE_BOOKMARKS + " b ON b." + KEY_ID +
+                " = f.docid ORDER BY f.docid";
+
+        return readBookmarks(this.getReadableDatabase().rawQuery(sql, args, signal));
+    }
+
+    /**
+     * Retrieve the most recently played bookmarks, newest first
+     * @param limit the maximum number of bookmarks to return
+     * @return an ArrayList of played bookmarks
+     */
+    public ArrayList<Bookmark> getRecentBookmarks(int limit) {
+        // Walks the last_played index backwards, no sort step needed
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                "SELECT " + BOOKMARK_COLUMNS + " FROM " + TABLE_BOOKMARKS +
+                        " WHERE " + KEY_LAST_PLAYED + " > 0" +
+                        " ORDER BY " + KEY_LAST_PLAYED + " DESC LIMIT ?",
+                new String[] { String.valueOf(limit) }
+        );
+
+        return readBookmarks(cursor);
+    }
+
+    /**
+     * Retrieve the most played bookmarks, most played first
+     * @param limit the maximum number of bookmarks to return
+     * @return an ArrayList of played bookmarks
+     */
+    public ArrayList<Bookmark> getMostPlayedBookmarks(int limit) {
+        // Walks the play_count index backwards, no sort step needed
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                "SELECT " + BOOKMARK_COLUMNS + " FROM " + TABLE_BOOKMARKS +
+                        " WHERE " + KEY_PLAY_COUNT + " > 0" +
+                        " ORDER BY " + KEY_PLAY_COUNT + " DESC LIMIT ?",
+                new String[] { String.valueOf(limit) }
+        );
+
+        return readBookmarks(cursor);
+    }
+
+    /**
+     * Retrieve the bookmarks either side of one in table order, wrapping around at
+     * the ends. Each is a single seek on the primary key
+     * @param id the ID of the bookmark in the middle
+     * @return the previous and next bookmarks, either null if there is no other bookmark
+     */
+    public Bookmark[] getAdjacentBookmarks(int id) {
+        String before = " WHERE " + KEY_ID + " < ? ORDER BY " + KEY_ID;
+        String after = " WHERE " + KEY_ID + " > ? ORDER BY " + KEY_ID;
+
+        // Nearest below, or wrap round to the last
+        Bookmark previous = getFirstBookmark(before + " DESC", id);
+        if (previous == null) previous = getFirstBookmark(after + " DESC", id);
+
+        // Nearest above, or wrap round to the first
+        Bookmark next = getFirstBookmark(after, id);
+        if (next == null) next = getFirstBookmark(before, id);
+
+        return new Bookmark[] { previous, next };
+    }
+
+    /**
+     * Retrieve the first bookmark matching a condition on its ID
+     * @param clause the WHERE and ORDER BY clauses, with one ID argument
+     * @param id the ID argument
+     * @return the bookmark, or null if none match
+     */
+    private Bookmark getFirstBookmark(String clause, int id) {
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                "SELECT " + BOOKMARK_COLUMNS + " FROM " + TABLE_BOOKMARKS + clause + " LIMIT 1",
+                new String[] { String.valueOf(id) }
+        );
+
+        ArrayList<Bookmark> bookmarks = readBookmarks(cursor);
+        return bookmarks.isEmpty() ? null : bookmarks.get(0);
+    }
+
+    /**
+     * Retrieve where a bookmark's stream was last resolved to
+     * @param id the ID of the bookmark
+     * @return the resolved stream, or null if it hasn't been resolved since its URL was set
+     */
+    public ResolvedStream getResolvedStream(int id) {
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                "SELECT " + KEY_RESOLVED_URL + ", " + KEY_STREAM_TYPE + ", " + KEY_CODEC +
+                        " FROM " + TABLE_BOOKMARKS + " WHERE " + KEY_ID + " = ?",
+                new String[] { String.valueOf(id) }
+        );
+
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) return null;
+
+            // A type this version doesn't know is treated as never resolved
+            ResolvedStream.Type type = ResolvedStream.Type.forKey(cursor.getString(1));
+            return type == null
+                    ? null
+                    : new ResolvedStream(cursor.getString(0), type, cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Store where a bookmark's stream resolved to, or forget it
+     * @param id the ID of the bookmark
+     * @param stream the resolved stream, or null to clear it
+     */
+    public void setResolvedStream(int id, ResolvedStream stream) {
+        SQLiteStatement statement = getResolvedStreamStatement();
+
+        synchronized (statement) {
+            bindNullable(statement, 1, stream == null ? null : stream.getUrl());
+            bindNullable(statement, 2, stream == null ? null : stream.getType().getKey());
+            bindNullable(statement, 3, stream == null ? null : stream.getCodec());
+            statement.bindLong(4, id);
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Add startup latencies to a station's histograms
+     * @param id the ID of the station's bookmark
+     * @param millisByPhase the latency of each phase measured, in milliseconds
+     */
+    public void recordLatencies(int id, Map<String, Long> millisByPhase) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement statement = getLatencyStatement();
+
+        // Read, add to and write back each histogram as one change
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, Long> phase : millisByPhase.entrySet()) {
+                Cursor cursor = db.rawQuery(
+                        "SELECT " + KEY_HISTOGRAM + " FROM " + TABLE_LATENCY +
+                                " WHERE " + KEY_BOOKMARK_ID + " = ? AND " + KEY_PHASE + " = ?",
+                        new String[] { String.valueOf(id), phase.getKey() }
                 );
-            } while (cursor.moveToNext());
+
+                LatencyHistogram histogram;
+                try {
+                    histogram = LatencyHistogram.fromBytes(
+                            cursor.moveToFirst() ? cursor.getBlob(0) : null);
+                } finally {
+                    cursor.close();
+                }
+
+                histogram.record(phase.getValue());
+
+                synchronized (statement) {
+                    statement.bindLong(1, id);
+                    statement.bindString(2, phase.getKey());
+                    statement.bindBlob(3, histogram.toBytes());
+                    statement.executeInsert();
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+    }
 
-        cursor.close();
-        return bookmarkList;
+    /**
+     * Retrieve the startup latencies of every station measured
+     * @return the stations, ordered by title
+     */
+    public ArrayList<StationLatency> getStationLatencies() {
+        Cursor cursor = this.getReadableDatabase().rawQuery(
+                "SELECT l." + KEY_BOOKMARK_ID + ", b." + KEY_TITLE + ", l." + KEY_PHASE +
+                        ", l." + KEY_HISTOGRAM +
+                        " FROM " + TABLE_LATENCY + " l JOIN " + TABLE_BOOKMARKS + " b" +
+                        " ON b." + KEY_ID + " = l." + KEY_BOOKMARK_ID +
+                        " ORDER BY b." + KEY_TITLE + " COLLATE NOCASE, l." + KEY_BOOKMARK_ID,
+                null
+        );
+
+        ArrayList<StationLatency> stations = new ArrayList<>();
+        StationLatency station = null;
+
+        // Rows for one station are adjacent, so start a new one when the ID changes
+        try {
+            while (cursor.moveToNext()) {
+                int id = cursor.getInt(0);
+
+                if (station == null || station.getBookmarkId() != id) {
+                    station = new StationLatency(id, cursor.getString(1));
+                    stations.add(station);
+                }
+
+                station.putPhase(cursor.getString(2),
+                        LatencyHistogram.fromBytes(cursor.getBlob(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return stations;
     }
 
     /**
@@ -114,36 +632,224 @@ public class DatabaseHandler extends SQLiteOpenHelper {
      * @param bookmark the bookmark to be updated
      */
     public void updateBookmark(Bookmark bookmark) {
-        // Create values store
-        ContentValues values = new ContentValues();
+        SQLiteStatement statement = getUpdateStatement();
+
+        synchronized (statement) {
+            // Bind values from bookmark and update the bookmark with matching ID
+            statement.bindString(1, bookmark.getTitle());
+            statement.bindString(2, bookmark.getUrlString());
+            statement.bindLong(3, bookmark.isSelected() ? 1 : 0);
+            bindNullable(statement, 4, bookmark.getBufferProfile());
+            statement.bindLong(5, bookmark.getID());
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Mark one bookmark as selected and clear the flag on any other, in a single
+     * transaction. Only the rows whose flag actually changes are written. Selecting
+     * a bookmark means it is about to play, so its play statistics are bumped too
+     * @param id the ID of the bookmark to select
+     */
+    public void selectExclusive(int id) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement clearSelection = getClearSelectionStatement();
+        SQLiteStatement recordPlay = getRecordPlayStatement();
+
+        db.beginTransaction();
+        try {
+            // Previously selected rows become 0, the chosen row becomes 1
+            synchronized (clearSelection) {
+                clearSelection.bindLong(1, id);
+                clearSelection.bindLong(2, id);
+                clearSelection.executeUpdateDelete();
+            }
 
-        // Extract values from bookmark
-        values.put(KEY_TITLE, bookmark.getTitle());
-        values.put(KEY_URL, bookmark.getUrl().toString());
-        values.put(KEY_SELECTED, bookmark.isSelected());
+            // Record the play against the chosen row
+            synchronized (recordPlay) {
+                recordPlay.bindLong(1, System.currentTimeMillis());
+                recordPlay.bindLong(2, id);
+                recordPlay.executeUpdateDelete();
+            }
 
-        // Update the bookmark with matching ID
-        this.getWritableDatabase().update(
-                TABLE_BOOKMARKS,
-                values,
-                KEY_ID + " = ?",
-                new String[] {
-                        String.valueOf(bookmark.getID())
-                });
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
+    /**
+     * Clear the selected flag of a single bookmark without touching its other fields
+     * @param id the ID of the bookmark to deselect
+     */
+    public void deselect(int id) {
+        SQLiteStatement statement = getDeselectStatement();
+
+        synchronized (statement) {
+            statement.bindLong(1, id);
+            statement.executeUpdateDelete();
+        }
+    }
 
     /**
      * Delete a given bookmark from the database
      * @param bookmark the bookmark to be deleted
      */
     public void deleteBookmark(Bookmark bookmark) {
-        // Delete from the database the entry with a matching ID
-        this.getWritableDatabase().delete(
-                TABLE_BOOKMARKS,
-                KEY_ID + " = ?",
-                new String[] {
-                        String.valueOf(bookmark.getID())
-                });
+        SQLiteStatement statement = getDeleteStatement();
+
+        synchronized (statement) {
+            // Delete from the database the entry with a matching ID
+            statement.bindLong(1, bookmark.getID());
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Get the compiled insert statement, compiling it on first use
+     */
+    private synchronized SQLiteStatement getInsertStatement() {
+        if (insertStatement == null) {
+            insertStatement = this.getWritableDatabase().compileStatement(
+                    "INSERT INTO " + TABLE_BOOKMARKS + " (" +
+                            KEY_TITLE + ", " + KEY_URL + ", " + KEY_SELECTED + ", " +
+                            KEY_BUFFER_PROFILE + ") VALUES (?, ?, ?, ?)");
+        }
+
+        return insertStatement;
+    }
+
+    /**
+     * Get the compiled update statement, compiling it on first use
+     */
+    private synchronized SQLiteStatement getUpdateStatement() {
+        if (updateStatement == null) {
+            updateStatement = this.getWritableDatabase().compileStatement(
+                    "UPDATE " + TABLE_BOOKMARKS + " SET " +
+                            KEY_TITLE + " = ?, " + KEY_URL + " = ?, " + KEY_SELECTED + " = ?, " +
+                            KEY_BUFFER_PROFILE + " = ? WHERE " + KEY_ID + " = ?");
+        }
+
+        return updateStatement;
+    }
+
+    /**
+     * Get the compiled delete statement, compiling it on first use
+     */
+    private synchronized SQLiteStatement getDeleteStatement() {
+        if (deleteStatement == null) {
+            deleteStatement = this.getWritableDatabase().compileStatement(
+                    "DELETE FROM " + TABLE_BOOKMARKS + " WHERE " + KEY_ID + " = ?");
+        }
+
+        return deleteStatement;
+    }
+
+    /**
+     * Get the compiled deselect statement, compiling it on first use
+     */
+    private synchronized SQLiteStatement getDeselectStatement() {
+        if (deselectStatement == null) {
+            deselectStatement = this.getWritableDatabase().compileStatement(
+                    "UPDATE " + TABLE_BOOKMARKS + " SET " + KEY_SELECTED + " = 0" +
+                            " WHERE " + KEY_ID + " = ?");
+        }
+
+        return deselectStatement;
+    }
+
+    /**
+     * Get the compiled statement that moves the selected flag, compiling it on first use
+     */
+    private synchronized SQLiteStatement getClearSelectionStatement() {
+        if (clearSelectionStatement == null) {
+            clearSelectionStatement = this.getWritableDatabase().compileStatement(
+                    "UPDATE " + TABLE_BOOKMARKS +
+                            " SET " + KEY_SELECTED + " = (" + KEY_ID + " = ?)" +
+                            " WHERE " + KEY_SELECTED + " = 1 OR " + KEY_ID + " = ?");
+        }
+
+        return clearSelectionStatement;
+    }
+
+    /**
+     * Get the compiled statement that records a play, compiling it on first use
+     */
+    private synchronized SQLiteStatement getRecordPlayStatement() {
+        if (recordPlayStatement == null) {
+            recordPlayStatement = this.getWritableDatabase().compileStatement(
+                    "UPDATE " + TABLE_BOOKMARKS +
+                            " SET " + KEY_LAST_PLAYED + " = ?, " +
+                            KEY_PLAY_COUNT + " = " + KEY_PLAY_COUNT + " + 1" +
+                            " WHERE " + KEY_ID + " = ?");
+        }
+
+        return recordPlayStatement;
+    }
+
+    /**
+     * Get the compiled statement that stores a resolved stream, compiling it on first use
+     */
+    private synchronized SQLiteStatement getResolvedStreamStatement() {
+        if (resolvedStreamStatement == null) {
+            resolvedStreamStatement = this.getWritableDatabase().compileStatement(
+                    "UPDATE " + TABLE_BOOKMARKS + " SET " +
+                            KEY_RESOLVED_URL + " = ?, " + KEY_STREAM_TYPE + " = ?, " +
+                            KEY_CODEC + " = ? WHERE " + KEY_ID + " = ?");
+        }
+
+        return resolvedStreamStatement;
+    }
+
+    /**
+     * Get the compiled statement that stores a latency histogram, compiling it on first use
+     */
+    private synchronized SQLiteStatement getLatencyStatement() {
+        if (latencyStatement == null) {
+            latencyStatement = this.getWritableDatabase().compileStatement(
+                    "INSERT OR REPLACE INTO " + TABLE_LATENCY + " (" +
+                            KEY_BOOKMARK_ID + ", " + KEY_PHASE + ", " + KEY_HISTOGRAM +
+                            ") VALUES (?, ?, ?)");
+        }
+
+        return latencyStatement;
+    }
+
+    /**
+     * Bind a string which may be null to a compiled statement
+     */
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Read every row of a cursor over BOOKMARK_COLUMNS into bookmarks, then close it
+     * @param cursor the cursor to read
+     * @return an ArrayList of the bookmarks read
+     */
+    private static ArrayList<Bookmark> readBookmarks(Cursor cursor) {
+        ArrayList<Bookmark> bookmarkList = new ArrayList<>();
+
+        // Use cursor to extract data from database entries back into bookmark objects,
+        // closing it even if a cancelled query throws while filling the window
+        try {
+            while (cursor.moveToNext()) {
+                bookmarkList.add(new Bookmark(
+                        cursor.getInt(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getInt(3) == 1,
+                        cursor.getString(4))
+                );
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return bookmarkList;
     }
 }
@@ -0,0 +1,86 @@
+package com.ojm.pinstream.database;
+
+import android.content.Context;
+
+import com.ojm.pinstream.models.ResolvedStream;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The player's writes made straight to the database on the writer's own thread,
+ * with no cache or published list to keep in step. For a player in its own
+ * process, whose screens find out about changes by reloading
+ */
+public class DirectBookmarkWriter implements BookmarkWriter {
+
+    // Process-wide instance
+    private static DirectBookmarkWriter instance;
+
+    private final DatabaseHandler dbHandler;
+
+    // Writes run one at a time, in the order they were made
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Get the process-wide writer
+     * @param context any context, the application context is retained
+     * @return the shared writer
+     */
+    public static synchronized DirectBookmarkWriter getInstance(Context context) {
+        if (instance == null) {
+            instance = new DirectBookmarkWriter(DatabaseHandler.getInstance(context));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Create a writer over a database handler, use getInstance outside of tests
+     * @param dbHandler the handler to write through
+     */
+    DirectBookmarkWriter(DatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+    }
+
+    @Override
+    public void selectExclusive(final int id) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.selectExclusive(id);
+            }
+        });
+    }
+
+    @Override
+    public void deselect(final int id) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.deselect(id);
+            }
+        });
+    }
+
+    @Override
+    public void setResolvedStream(final int id, final ResolvedStream stream) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.setResolvedStream(id, stream);
+            }
+        });
+    }
+
+    @Override
+    public void recordLatencies(final int id, final Map<String, Long> millisByPhase) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dbHandler.recordLatencies(id, millisByPhase);
+            }
+        });
+    }
+}
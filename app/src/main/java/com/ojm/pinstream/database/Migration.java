@@ -0,0 +1,30 @@
+package com.ojm.pinstream.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step in the database schema history, moving the schema from one
+ * version to the next without discarding existing rows
+ */
+public abstract class Migration {
+
+    // The version this step upgrades from and to
+    final int startVersion;
+    final int endVersion;
+
+    /**
+     * Create a migration step
+     * @param startVersion the schema version this step expects
+     * @param endVersion the schema version after this step has run
+     */
+    public Migration(int startVersion, int endVersion) {
+        this.startVersion = startVersion;
+        this.endVersion = endVersion;
+    }
+
+    /**
+     * Apply this step. Runs inside the transaction opened by SQLiteOpenHelper
+     * @param db the database being upgraded
+     */
+    public abstract void migrate(SQLiteDatabase db);
+}
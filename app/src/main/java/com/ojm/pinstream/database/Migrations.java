@@ -0,0 +1,205 @@
+package com.ojm.pinstream.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ordered list of schema migrations for the bookmarks database. New steps are
+ * appended to the end and DatabaseHandler.DATABASE_VERSION bumped to match
+ */
+final class Migrations {
+
+    /**
+     * Version 1 to 2, record when each bookmark was last played
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE bookmarks ADD COLUMN last_played INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX idx_bookmarks_last_played ON bookmarks (last_played)");
+        }
+    };
+
+    /**
+     * Version 2 to 3, count how many times each bookmark has been played
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE bookmarks ADD COLUMN play_count INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX idx_bookmarks_play_count ON bookmarks (play_count)");
+        }
+    };
+
+    /**
+     * Version 3 to 4, full-text index over each bookmark's title and URL host. The
+     * index is a separate FTS4 table keyed by bookmark ID and kept in step by
+     * triggers, so no write path has to remember it. FTS tables can't have columns
+     * added, so indexing new columns later means dropping and rebuilding it here
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE bookmarks_fts USING fts4(title, host)");
+
+            // Plays and selection changes don't touch the index, only title and URL do
+            db.execSQL("CREATE TRIGGER bookmarks_fts_insert AFTER INSERT ON bookmarks BEGIN " +
+                    "INSERT INTO bookmarks_fts (docid, title, host) " +
+                    "VALUES (new.id, new.title, " + hostOf("new.url") + "); END");
+            db.execSQL("CREATE TRIGGER bookmarks_fts_update AFTER UPDATE OF title, url ON bookmarks BEGIN " +
+                    "UPDATE bookmarks_fts SET title = new.title, host = " + hostOf("new.url") +
+                    " WHERE docid = old.id; END");
+            db.execSQL("CREATE TRIGGER bookmarks_fts_delete AFTER DELETE ON bookmarks BEGIN " +
+                    "DELETE FROM bookmarks_fts WHERE docid = old.id; END");
+
+            // Index the bookmarks which already exist
+            db.execSQL("INSERT INTO bookmarks_fts (docid, title, host) " +
+                    "SELECT id, title, " + hostOf("url") + " FROM bookmarks");
+        }
+    };
+
+    /**
+     * Version 4 to 5, an optional buffer profile per bookmark. Null means the
+     * bookmark follows the profile chosen in settings
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE bookmarks ADD COLUMN buffer_profile TEXT");
+        }
+    };
+
+    /**
+     * Version 5 to 6, where each bookmark's stream was found to be once playlists
+     * and redirects were followed, how it's delivered and its codec. A trigger
+     * forgets all three when the URL changes, as they belong to the old one
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE bookmarks ADD COLUMN resolved_url TEXT");
+            db.execSQL("ALTER TABLE bookmarks ADD COLUMN stream_type TEXT");
+            db.execSQL("ALTER TABLE bookmarks ADD COLUMN codec TEXT");
+
+            db.execSQL("CREATE TRIGGER bookmarks_resolved_reset AFTER UPDATE OF url ON bookmarks " +
+                    "WHEN old.url IS NOT new.url BEGIN " +
+                    "UPDATE bookmarks SET resolved_url = NULL, stream_type = NULL, codec = NULL " +
+                    "WHERE id = new.id; END");
+        }
+    };
+
+    /**
+     * Version 6 to 7: a table of startup latency histograms, one per station and
+     * phase. A trigger drops a station's histograms with its bookmark
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE latency (" +
+                    "bookmark_id INTEGER NOT NULL, " +
+                    "phase TEXT NOT NULL, " +
+                    "histogram BLOB NOT NULL, " +
+                    "PRIMARY KEY (bookmark_id, phase))");
+
+            db.execSQL("CREATE TRIGGER latency_delete AFTER DELETE ON bookmarks BEGIN " +
+                    "DELETE FROM latency WHERE bookmark_id = old.id; END");
+        }
+    };
+
+    /**
+     * Version 7 to 8, index the selected flag so selecting a station finds the one
+     * selected before it without scanning every bookmark
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX idx_bookmarks_selected ON bookmarks (isSelected)");
+        }
+    };
+
+    // Every migration, in order
+    static final Migration[] ALL = {
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8
+    };
+
+    // Not instantiable
+    private Migrations() { }
+
+    // Characters which can make up a URL scheme, and a URL host with its port
+    private static final String SCHEME_CHARS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789+.-";
+    private static final String HOST_CHARS = SCHEME_CHARS + "_:@[]";
+
+    /**
+     * Build an SQL expression giving the host (and port, if any) of a URL column,
+     * the part between the scheme and the first following slash. Leading runs of
+     * characters are measured with ltrim rather than instr, which older SQLite
+     * builds lack
+     * @param url the column holding the URL
+     * @return the SQL expression
+     */
+    static String hostOf(String url) {
+        // Length of the scheme, if the URL starts with one followed by "://"
+        String schemeLength = "(length(" + url + ") - length(ltrim(" + url + ", '" + SCHEME_CHARS + "')))";
+
+        // Everything after "://", or the whole URL if there's no scheme
+        String rest = "(CASE WHEN substr(" + url + ", " + schemeLength + " + 1, 3) = '://' " +
+                "THEN substr(" + url + ", " + schemeLength + " + 4) ELSE " + url + " END)";
+
+        return "substr(" + rest + ", 1, length(" + rest + ") - length(ltrim(" + rest + ", '" + HOST_CHARS + "')))";
+    }
+
+    /**
+     * Find the chain of migrations leading from one version to another
+     * @param from the current schema version
+     * @param to the required schema version
+     * @return the steps to run, in order
+     * @throws IllegalStateException if any step along the way is missing
+     */
+    static List<Migration> path(int from, int to) {
+        List<Migration> steps = new ArrayList<>();
+        int version = from;
+
+        // Walk forward one step at a time until we reach the target
+        while (version < to) {
+            Migration next = null;
+
+            for (Migration m : ALL) {
+                if (m.startVersion == version) {
+                    next = m;
+                    break;
+                }
+            }
+
+            if (next == null || next.endVersion > to) {
+                throw new IllegalStateException(
+                        "No migration from version " + version + " towards " + to);
+            }
+
+            steps.add(next);
+            version = next.endVersion;
+        }
+
+        return steps;
+    }
+
+    /**
+     * Run the chain of migrations leading from one version to another
+     * @param db the database to migrate
+     * @param from the current schema version
+     * @param to the required schema version
+     */
+    static void migrate(SQLiteDatabase db, int from, int to) {
+        for (Migration m : path(from, to)) {
+            m.migrate(db);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.ojm.pinstream.database;
+
+import android.util.SparseIntArray;
+
+import com.ojm.pinstream.models.Bookmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only view of all bookmarks in table order which only holds the pages
+ * around the rows being displayed. Reading a position whose page isn't loaded
+ * returns null and asks the loader for that page. Page arrays are never modified
+ * once built, so a changed list is published as a new PagedBookmarkList sharing
+ * every page the change didn't touch. Main thread only
+ */
+public class PagedBookmarkList {
+
+    /**
+     * An immutable copy of which rows a list had loaded at one moment, safe to read
+     * from any thread. Used to diff two lists in the background
+     */
+    public static final class Frozen {
+        private final int size;
+        private final HashMap<Integer, Bookmark[]> pages;
+
+        /**
+         * @param size the number of rows
+         * @param pages the loaded pages, never changed after this
+         */
+        private Frozen(int size, HashMap<Integer, Bookmark[]> pages) {
+            this.size = size;
+            this.pages = pages;
+        }
+
+        /**
+         * Get the number of rows, loaded or not
+         * @return the total size
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get the bookmark at a position as it was when frozen
+         * @param position the row position
+         * @return the bookmark, or null if its page wasn't loaded
+         */
+        public Bookmark peek(int position) {
+            Bookmark[] items = pages.get(position / PAGE_SIZE);
+            int offset = position % PAGE_SIZE;
+
+            return items != null && offset < items.length ? items[offset] : null;
+        }
+    }
+
+    /**
+     * Loads pages for the list, the repository in practice
+     */
+    interface PageLoader {
+        void loadPage(PagedBookmarkList list, int page, int afterId);
+    }
+
+    /**
+     * Told when a page of previously missing rows has arrived
+     */
+    public interface Listener {
+        void onRangeLoaded(PagedBookmarkList list, int start, int count);
+    }
+
+    // Rows per page, and how many pages to keep hold of
+    static final int PAGE_SIZE = 50;
+    private static final int MAX_RETAINED_PAGES = 8;
+
+    // Reading within this many rows of a page boundary loads the next page early
+    private static final int PREFETCH_DISTANCE = 15;
+
+    // Total number of rows
+    private final int size;
+
+    // Loaded pages by index, least recently read evicted first
+    private final LinkedHashMap<Integer, Bookmark[]> pages =
+            new LinkedHashMap<Integer, Bookmark[]>(MAX_RETAINED_PAGES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Bookmark[]> eldest) {
+                    return size() > MAX_RETAINED_PAGES;
+                }
+            };
+
+    // ID of the last row of each page seen so far, so the next page can seek by key
+    private final SparseIntArray lastIds = new SparseIntArray();
+
+    // Pages requested but not yet delivered
+    private final SparseIntArray pending = new SparseIntArray();
+
+    private final PageLoader loader;
+    private Listener listener;
+
+    /**
+     * Create an empty list of a known size
+     * @param size the number of bookmarks
+     * @param loader the loader to fetch pages from
+     */
+    PagedBookmarkList(int size, PageLoader loader) {
+        this.size = size;
+        this.loader = loader;
+    }
+
+    /**
+     * Create a fully loaded list from a short array of bookmarks, for results
+     * which are already in memory
+     * @param bookmarks the bookmarks, in display order
+     */
+    public PagedBookmarkList(Bookmark[] bookmarks) {
+        this(bookmarks.length, null);
+
+        for (int page = 0; page * PAGE_SIZE < bookmarks.length; page++) {
+            int start = page * PAGE_SIZE;
+            putPage(page, Arrays.copyOfRange(
+                    bookmarks, start, Math.min(bookmarks.length, start + PAGE_SIZE)));
+        }
+    }
+
+    /**
+     * Set the listener told about newly loaded rows
+     * @param listener the listener, or null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the number of bookmarks, loaded or not
+     * @return the total size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the bookmark at a position, loading its page (and the next one if close
+     * to the edge) if needed
+     * @param position the row position
+     * @return the bookmark, or null while its page is loading
+     */
+    public Bookmark get(int position) {
+        int page = position / PAGE_SIZE;
+        int offset = position % PAGE_SIZE;
+
+        // Fetch a neighbouring page early when reading close to either edge
+        if (offset >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            request(page + 1);
+        } else if (offset < PREFETCH_DISTANCE && page > 0) {
+            request(page - 1);
+        }
+
+        Bookmark[] items = pages.get(page);
+        if (items == null) {
+            request(page);
+            return null;
+        }
+
+        return offset < items.length ? items[offset] : null;
+    }
+
+    /**
+     * Get the bookmark at a position without loading anything
+     * @param position the row position
+     * @return the bookmark, or null if its page isn't loaded
+     */
+    public Bookmark peek(int position) {
+        Bookmark[] items = pages.get(position / PAGE_SIZE);
+        int offset = position % PAGE_SIZE;
+
+        return items != null && offset < items.length ? items[offset] : null;
+    }
+
+    /**
+     * Find the position of a loaded bookmark
+     * @param id the bookmark's ID
+     * @return the position, or -1 if it isn't in a loaded page
+     */
+    public int indexOfLoaded(int id) {
+        for (Map.Entry<Integer, Bookmark[]> entry : pages.entrySet()) {
+            Bookmark[] items = entry.getValue();
+
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].getID() == id) return entry.getKey() * PAGE_SIZE + i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Take an immutable copy of the loaded rows. Only the page references are
+     * copied, so this is cheap however long the list is
+     * @return the frozen view
+     */
+    public Frozen freeze() {
+        return new Frozen(size, new HashMap<>(pages));
+    }
+
+    /**
+     * Deliver a page from the loader
+     * @param page the page index
+     * @param items the bookmarks in the page
+     */
+    void onPageLoaded(int page, Bookmark[] items) {
+        pending.delete(page);
+        putPage(page, items);
+
+        if (listener != null && items.length > 0) {
+            listener.onRangeLoaded(this, page * PAGE_SIZE, items.length);
+        }
+    }
+
+    /**
+     * Build a copy of this list with one bookmark's values replaced
+     * @param bookmark the new values, matched by ID
+     * @return the new list
+     */
+    PagedBookmarkList withUpdated(Bookmark bookmark) {
+        PagedBookmarkList copy = copy(size, Integer.MAX_VALUE);
+
+        for (Map.Entry<Integer, Bookmark[]> entry : copy.pages.entrySet()) {
+            Bookmark[] items = entry.getValue();
+
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].getID() == bookmark.getID()) {
+                    Bookmark[] changed = items.clone();
+                    changed[i] = bookmark;
+                    entry.setValue(changed);
+                    return copy;
+                }
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Build a copy of this list with the selected flag set on one bookmark and
+     * cleared on all others
+     * @param selectedId the ID of the selected bookmark, or -1 to clear all
+     * @return the new list
+     */
+    PagedBookmarkList withSelection(int selectedId) {
+        PagedBookmarkList copy = copy(size, Integer.MAX_VALUE);
+
+        for (Map.Entry<Integer, Bookmark[]> entry : copy.pages.entrySet()) {
+            Bookmark[] items = entry.getValue();
+            Bookmark[] changed = null;
+
+            for (int i = 0; i < items.length; i++) {
+                Bookmark b = items[i];
+                boolean selected = b.getID() == selectedId;
+
+                // Only copy the page if something in it actually changes
+                if (b.isSelected() != selected) {
+                    if (changed == null) changed = items.clone();
+                    changed[i] = new Bookmark(b.getID(), b.getTitle(), b.getUrlString(),
+                            selected, b.getBufferProfile());
+                }
+            }
+
+            if (changed != null) entry.setValue(changed);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Build a copy of this list with a bookmark appended. New IDs are always the
+     * largest, so only the last page changes
+     * @return the new list
+     */
+    PagedBookmarkList withAppended() {
+        return copy(size + 1, size / PAGE_SIZE);
+    }
+
+    /**
+     * Build a copy of this list with a bookmark removed. Pages wholly before it
+     * are kept, later pages shift and are reloaded on demand
+     * @param id the removed bookmark's ID
+     * @return the new list
+     */
+    PagedBookmarkList withRemoved(int id) {
+        int firstChanged = 0;
+
+        // Pages are in ID order, so find the first page which could hold the ID
+        while (lastIds.indexOfKey(firstChanged) >= 0 && lastIds.get(firstChanged) < id) {
+            firstChanged++;
+        }
+
+        return copy(Math.max(0, size - 1), firstChanged);
+    }
+
+    /**
+     * Copy this list's pages and keys into a new list
+     * @param newSize the size of the new list
+     * @param firstDropped the first page index which should not be carried over
+     * @return the new list
+     */
+    private PagedBookmarkList copy(int newSize, int firstDropped) {
+        PagedBookmarkList copy = new PagedBookmarkList(newSize, loader);
+
+        for (Map.Entry<Integer, Bookmark[]> entry : pages.entrySet()) {
+            if (entry.getKey() < firstDropped) copy.pages.put(entry.getKey(), entry.getValue());
+        }
+
+        for (int i = 0; i < lastIds.size(); i++) {
+            if (lastIds.keyAt(i) < firstDropped) copy.lastIds.put(lastIds.keyAt(i), lastIds.valueAt(i));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Store a page and remember its last key
+     */
+    private void putPage(int page, Bookmark[] items) {
+        pages.put(page, items);
+        if (items.length > 0) lastIds.put(page, items[items.length - 1].getID());
+    }
+
+    /**
+     * Ask the loader for a page unless it's loaded, pending or out of range
+     * @param page the page index
+     */
+    private void request(int page) {
+        if (loader == null || page < 0 || page * PAGE_SIZE >= size) return;
+        if (pages.containsKey(page) || pending.indexOfKey(page) >= 0) return;
+
+        pending.put(page, 1);
+
+        // Seek from the previous page's last ID when we know it
+        loader.loadPage(this, page, page == 0 ? 0 : lastIds.get(page - 1, -1));
+    }
+}
@@ -0,0 +1,174 @@
+package com.ojm.pinstream.diagnostics;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import com.ojm.pinstream.R;
+import com.ojm.pinstream.visualizer.FrameCost;
+
+/**
+ * A translucent overlay graphing the stream's health over the last few minutes:
+ * seconds buffered and download throughput against the stream's own bitrate,
+ * with the running counters and the visualiser's CPU cost written above. Reads
+ * the shared PlaybackMetrics each time it is refreshed, reusing its buffers so
+ * redrawing allocates nothing but the text
+ */
+public class HealthGraphView extends View {
+
+    // Buffer and throughput scales never shrink below these, so a quiet graph stays flat
+    private static final long MIN_BUFFER_SCALE_MILLIS = 10000;
+    private static final long MIN_THROUGHPUT_SCALE_BPS = 128000;
+
+    private final long[][] history =
+            new long[PlaybackMetrics.COLUMNS][PlaybackMetrics.HISTORY_SIZE];
+    private final Path path = new Path();
+    private final Paint bufferPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint throughputPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint bitratePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private int count;
+
+    // The visualiser's frame costs, if one is showing
+    private FrameCost frameCost;
+
+    public HealthGraphView(Context context) {
+        this(context, null);
+    }
+
+    public HealthGraphView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        float density = getResources().getDisplayMetrics().density;
+
+        bufferPaint.setStyle(Paint.Style.STROKE);
+        bufferPaint.setStrokeWidth(2 * density);
+        bufferPaint.setColor(Color.rgb(0x4C, 0xAF, 0x50));
+
+        throughputPaint.setStyle(Paint.Style.STROKE);
+        throughputPaint.setStrokeWidth(2 * density);
+        throughputPaint.setColor(Color.rgb(0x21, 0x96, 0xF3));
+
+        bitratePaint.setStyle(Paint.Style.STROKE);
+        bitratePaint.setStrokeWidth(density);
+        bitratePaint.setColor(Color.rgb(0xFF, 0xC1, 0x07));
+
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(TypedValue.applyDimension(
+                TypedValue.COMPLEX_UNIT_SP, 11, getResources().getDisplayMetrics()));
+
+        setBackgroundColor(Color.argb(0xB0, 0, 0, 0));
+    }
+
+    /**
+     * Show the CPU cost of the visualiser's frames along with the stream's health
+     * @param frameCost the visualiser's frame costs
+     */
+    public void setFrameCost(FrameCost frameCost) {
+        this.frameCost = frameCost;
+    }
+
+    /**
+     * Copy the latest history and redraw
+     */
+    public void refresh() {
+        count = PlaybackMetrics.getInstance().copyHistory(history);
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+        float lineHeight = textPaint.getFontSpacing();
+        float left = getPaddingLeft();
+
+        // Counters as text, two lines at the top
+        canvas.drawText(getResources().getString(R.string.health_gauges,
+                metrics.getBufferedMillis() / 1000f,
+                metrics.getThroughputBps() / 1000,
+                metrics.getCodecBitrate() / 1000),
+                left, getPaddingTop() + lineHeight, textPaint);
+
+        canvas.drawText(getResources().getString(R.string.health_counters,
+                metrics.getRebufferCount(),
+                metrics.getRebufferMillis(SystemClock.elapsedRealtime()) / 1000f,
+                metrics.getDroppedConnections(),
+                metrics.getBytesTransferred() / (1024f * 1024f)),
+                left, getPaddingTop() + 2 * lineHeight, textPaint);
+
+        int lines = 2;
+        if (frameCost != null && frameCost.getFrames() > 0) {
+            lines++;
+            canvas.drawText(getResources().getString(R.string.health_visualiser,
+                    frameCost.getAverageNanos() / 1000000f,
+                    frameCost.getMaxNanos() / 1000000f,
+                    (int) (100 * frameCost.getShownFrames() / frameCost.getFrames())),
+                    left, getPaddingTop() + lines * lineHeight, textPaint);
+        }
+
+        if (count < 2) return;
+
+        // Graph below the text, throughput and bitrate sharing a scale
+        float top = getPaddingTop() + (lines + 0.5f) * lineHeight;
+        float bottom = getHeight() - getPaddingBottom();
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+
+        long bufferScale = Math.max(MIN_BUFFER_SCALE_MILLIS,
+                max(PlaybackMetrics.COLUMN_BUFFERED_MILLIS));
+        long throughputScale = Math.max(MIN_THROUGHPUT_SCALE_BPS, Math.max(
+                max(PlaybackMetrics.COLUMN_THROUGHPUT_BPS),
+                max(PlaybackMetrics.COLUMN_CODEC_BITRATE)));
+
+        drawLine(canvas, PlaybackMetrics.COLUMN_CODEC_BITRATE, throughputScale,
+                left, top, width, bottom, bitratePaint);
+        drawLine(canvas, PlaybackMetrics.COLUMN_THROUGHPUT_BPS, throughputScale,
+                left, top, width, bottom, throughputPaint);
+        drawLine(canvas, PlaybackMetrics.COLUMN_BUFFERED_MILLIS, bufferScale,
+                left, top, width, bottom, bufferPaint);
+    }
+
+    /**
+     * Draw one column of the history as a line, the newest sample at the right
+     */
+    private void drawLine(Canvas canvas, int column, long scale,
+                          float left, float top, float width, float bottom, Paint paint) {
+        float step = width / (PlaybackMetrics.HISTORY_SIZE - 1);
+        float start = left + width - (count - 1) * step;
+        float height = bottom - top;
+
+        path.rewind();
+        for (int i = 0; i < count; i++) {
+            float x = start + i * step;
+            float y = bottom - height * Math.min(1f, history[column][i] / (float) scale);
+
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+
+        canvas.drawPath(path, paint);
+    }
+
+    /**
+     * @return the largest value in one column of the copied history
+     */
+    private long max(int column) {
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, history[column][i]);
+        }
+
+        return max;
+    }
+}
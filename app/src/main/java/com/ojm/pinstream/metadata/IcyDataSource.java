@@ -0,0 +1,189 @@
+package com.ojm.pinstream.metadata;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A data source which asks an HTTP stream for ICY metadata and takes the metadata
+ * blocks back out of the audio. Audio is read straight into the caller's buffer,
+ * just never past the next metadata block, so the payload is never copied and
+ * costs one subtraction per read. Metadata blocks go to an IcyMetadataParser and
+ * changes are reported to a listener on the loading thread
+ */
+public final class IcyDataSource implements DataSource {
+
+    /**
+     * Told when the stream's metadata changes. Called on ExoPlayer's loading
+     * thread, so implementations should hand off to their own thread
+     */
+    public interface Listener {
+        void onIcyMetadata(String streamTitle, String streamUrl);
+    }
+
+    /**
+     * Factory wrapping an HTTP data source factory, for use with media sources
+     */
+    public static final class Factory implements DataSource.Factory {
+        private final HttpDataSource.Factory upstreamFactory;
+        private final Listener listener;
+
+        /**
+         * @param upstreamFactory factory for the underlying HTTP data sources
+         * @param listener told about metadata changes, or null
+         */
+        public Factory(HttpDataSource.Factory upstreamFactory, Listener listener) {
+            this.upstreamFactory = upstreamFactory;
+            this.listener = listener;
+        }
+
+        @Override
+        public IcyDataSource createDataSource() {
+            return new IcyDataSource(upstreamFactory.createDataSource(), listener);
+        }
+    }
+
+    // Request and response headers of the ICY protocol
+    static final String REQUEST_HEADER_METADATA = "Icy-MetaData";
+    static final String RESPONSE_HEADER_METAINT = "icy-metaint";
+
+    private final HttpDataSource upstream;
+    private final Listener listener;
+    private final IcyMetadataParser parser = new IcyMetadataParser();
+
+    // Reused for reading each block's length byte
+    private final byte[] lengthByte = new byte[1];
+
+    // Audio bytes between metadata blocks, 0 if the stream has no metadata
+    private int metadataInterval;
+
+    // Audio bytes left before the next metadata block
+    private int bytesUntilMetadata;
+
+    /**
+     * @param upstream the HTTP data source to read from
+     * @param listener told about metadata changes, or null
+     */
+    public IcyDataSource(HttpDataSource upstream, Listener listener) {
+        this.upstream = upstream;
+        this.listener = listener;
+    }
+
+    /**
+     * Open the stream, asking for metadata when reading from the start. A stream
+     * resumed part way through can't be lined up with its metadata blocks, so
+     * metadata isn't requested then
+     */
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        boolean fromStart = dataSpec.position == 0;
+
+        if (fromStart) {
+            upstream.setRequestProperty(REQUEST_HEADER_METADATA, "1");
+        } else {
+            upstream.clearRequestProperty(REQUEST_HEADER_METADATA);
+        }
+
+        long length = upstream.open(dataSpec);
+
+        metadataInterval = fromStart ? parseInterval(upstream.getResponseHeaders()) : 0;
+        bytesUntilMetadata = metadataInterval;
+
+        // The content length includes the metadata, so it says nothing about the audio
+        return metadataInterval > 0 ? C.LENGTH_UNSET : length;
+    }
+
+    /**
+     * Read audio, skipping over and parsing any metadata block reached on the way
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (metadataInterval == 0 || readLength == 0) {
+            return upstream.read(buffer, offset, readLength);
+        }
+
+        if (bytesUntilMetadata == 0) {
+            if (!readMetadata()) return C.RESULT_END_OF_INPUT;
+            bytesUntilMetadata = metadataInterval;
+        }
+
+        int read = upstream.read(buffer, offset, Math.min(readLength, bytesUntilMetadata));
+        if (read > 0) bytesUntilMetadata -= read;
+
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return upstream.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        upstream.close();
+    }
+
+    /**
+     * Read one metadata block and report it if it changed
+     * @return false if the stream ended part way through the block
+     */
+    private boolean readMetadata() throws IOException {
+        if (!readFully(lengthByte, 1)) return false;
+
+        int length = (lengthByte[0] & 0xFF) * 16;
+
+        // Most blocks are empty, meaning nothing changed
+        if (length == 0) return true;
+        if (!readFully(parser.buffer(), length)) return false;
+
+        if (parser.parse(length) && listener != null) {
+            listener.onIcyMetadata(parser.getStreamTitle(), parser.getStreamUrl());
+        }
+
+        return true;
+    }
+
+    /**
+     * Read exactly length bytes from the start of a buffer
+     * @return false if the stream ended first
+     */
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+
+        while (offset < length) {
+            int read = upstream.read(buffer, offset, length - offset);
+            if (read == C.RESULT_END_OF_INPUT) return false;
+            offset += read;
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the metadata interval in the response headers. Header names are
+     * matched without case, as servers differ
+     * @param headers the response headers
+     * @return the interval in bytes, or 0 if the server isn't sending metadata
+     */
+    private static int parseInterval(Map<String, List<String>> headers) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!RESPONSE_HEADER_METAINT.equalsIgnoreCase(header.getKey())) continue;
+            if (header.getValue() == null || header.getValue().isEmpty()) continue;
+
+            try {
+                return Math.max(0, Integer.parseInt(header.getValue().get(0).trim()));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+}
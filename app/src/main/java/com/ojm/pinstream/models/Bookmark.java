@@ -6,7 +6,9 @@ import android.os.Parcelable;
 
 /**
  * Model class to represent a bookmark (saved stream), implements parcelable
- * interface as to allow Bookmark objects to be attached to bundles/intents
+ * interface as to allow Bookmark objects to be attached to bundles/intents.
+ * Where the receiver is in the same process, pass just the ID under Bookmark.ID
+ * and look the bookmark up through BookmarkRepository instead
  */
 public class Bookmark implements Parcelable {
     // Static identifier tags for bundles or intents
@@ -26,24 +28,62 @@ public class Bookmark implements Parcelable {
         }
     };
 
-    // Private field variables
+    // Parcel ends of the bookmark format, which is shared with code off Android
+    private static final BookmarkRecord.Output<Parcel> PARCEL_OUTPUT =
+            new BookmarkRecord.Output<Parcel>() {
+                @Override
+                public void writeInt(Parcel dest, int value) {
+                    dest.writeInt(value);
+                }
+
+                @Override
+                public void writeString(Parcel dest, String value) {
+                    dest.writeString(value);
+                }
+
+                @Override
+                public void writeByte(Parcel dest, byte value) {
+                    dest.writeByte(value);
+                }
+            };
+
+    private static final BookmarkRecord.Input<Parcel> PARCEL_INPUT =
+            new BookmarkRecord.Input<Parcel>() {
+                @Override
+                public int readInt(Parcel source) {
+                    return source.readInt();
+                }
+
+                @Override
+                public String readString(Parcel source) {
+                    return source.readString();
+                }
+
+                @Override
+                public byte readByte(Parcel source) {
+                    return source.readByte();
+                }
+            };
+
+    // Private field variables, the Uri is only parsed from its string when asked for
     private int id;
     private String title;
+    private String urlString;
     private Uri url;
     private boolean isSelected;
+    private String bufferProfile;
 
     /**
      * Construct a bookmark from a parcel
      * @param in the parcel to be converted to bookmark
      */
     private Bookmark(Parcel in) {
-        String[] data = new String[4];
-        in.readStringArray(data);
-
-        this.id = Integer.parseInt(data[0]);
-        this.title = data[1];
-        this.url = Uri.parse(data[2]);
-        this.isSelected = Boolean.parseBoolean(data[3]);
+        BookmarkRecord record = BookmarkRecord.read(PARCEL_INPUT, in);
+        this.id = record.getId();
+        this.title = record.getTitle();
+        this.urlString = record.getUrl();
+        this.isSelected = record.isSelected();
+        this.bufferProfile = record.getBufferProfile();
     }
 
     /**
@@ -54,6 +94,7 @@ public class Bookmark implements Parcelable {
     public Bookmark(String title, Uri url) {
         this.title = title;
         this.url = url;
+        this.urlString = url.toString();
     }
 
     /**
@@ -67,9 +108,39 @@ public class Bookmark implements Parcelable {
         this.id = id;
         this.title = title;
         this.url = url;
+        this.urlString = url.toString();
+        this.isSelected = isSelected;
+    }
+
+    /**
+     * Create a new bookmark with all fields set, from a URL string which is only
+     * parsed if getUrl is called. Used when loading rows from the database
+     * @param id the bookmark's database ID
+     * @param title the title of the bookmark
+     * @param url the stream's url, as a String
+     * @param isSelected whether this bookmark is currently selected (playing)
+     */
+    public Bookmark(int id, String title, String url, boolean isSelected) {
+        this.id = id;
+        this.title = title;
+        this.urlString = url;
         this.isSelected = isSelected;
     }
 
+    /**
+     * Create a new bookmark with all fields set including its buffer profile, from
+     * a URL string which is only parsed if getUrl is called
+     * @param id the bookmark's database ID
+     * @param title the title of the bookmark
+     * @param url the stream's url, as a String
+     * @param isSelected whether this bookmark is currently selected (playing)
+     * @param bufferProfile the key of the bookmark's buffer profile, or null for the default
+     */
+    public Bookmark(int id, String title, String url, boolean isSelected, String bufferProfile) {
+        this(id, title, url, isSelected);
+        this.bufferProfile = bufferProfile;
+    }
+
     // Parcelable function, needs to be implemented but is not used
     @Override
     public int describeContents() {
@@ -77,17 +148,13 @@ public class Bookmark implements Parcelable {
     }
 
     /**
-     * Writes the bookmark to a given a parcel
+     * Writes the bookmark to a given a parcel in the BookmarkRecord format
      * @param dest the parcel the bookmark should be written to
      */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeStringArray(new String[] {
-                String.valueOf(this.id),
-                this.title,
-                this.url.toString(),
-                Boolean.toString(this.isSelected)
-        });
+        BookmarkRecord.write(PARCEL_OUTPUT, dest, this.id, this.title, this.urlString,
+                this.isSelected, this.bufferProfile);
     }
 
     /**
@@ -107,13 +174,25 @@ public class Bookmark implements Parcelable {
     }
 
     /**
-     * Get the bookmark's URL
+     * Get the bookmark's URL, parsing it on first use
      * @return the bookmark's URL, as a Uri
      */
     public Uri getUrl() {
+        if (url == null && urlString != null) {
+            url = Uri.parse(urlString);
+        }
+
         return url;
     }
 
+    /**
+     * Get the bookmark's URL without parsing it
+     * @return the bookmark's URL, as a String
+     */
+    public String getUrlString() {
+        return urlString;
+    }
+
     /**
      * Get the selected status of the bookmark
      * @return return a boolean indicating if the bookmark is selected
@@ -131,4 +210,20 @@ public class Bookmark implements Parcelable {
         this.isSelected = isSelected;
     }
 
+    /**
+     * Get the key of the buffer profile chosen for this bookmark
+     * @return the profile key, or null if the bookmark follows the global setting
+     */
+    public String getBufferProfile() {
+        return bufferProfile;
+    }
+
+    /**
+     * Set the buffer profile for this bookmark
+     * @param bufferProfile the profile key, or null to follow the global setting
+     */
+    public void setBufferProfile(String bufferProfile) {
+        this.bufferProfile = bufferProfile;
+    }
+
 }
@@ -0,0 +1,87 @@
+package com.ojm.pinstream.models;
+
+/**
+ * What a bookmark's URL turned out to point at once playlists and redirects were
+ * followed: the final URL, how it is delivered and, for plain streams, the codec.
+ * Stored against the bookmark so later plays can go straight to the stream
+ */
+public final class ResolvedStream {
+
+    /**
+     * How a stream is delivered, each needing a different kind of media source
+     */
+    public enum Type {
+        PROGRESSIVE("progressive"),
+        HLS("hls"),
+        DASH("dash");
+
+        // Key as stored in the database
+        private final String key;
+
+        Type(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Get the key stored for this type
+         * @return the key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Look up a type by its stored key
+         * @param key the key, may be null
+         * @return the matching type, or null if the key isn't one
+         */
+        public static Type forKey(String key) {
+            for (Type type : values()) {
+                if (type.key.equals(key)) return type;
+            }
+
+            return null;
+        }
+    }
+
+    // Codecs recognised in plain streams, as stored in the database
+    public static final String CODEC_MP3 = "mp3";
+    public static final String CODEC_AAC = "aac";
+    public static final String CODEC_OGG = "ogg";
+
+    private final String url;
+    private final Type type;
+    private final String codec;
+
+    /**
+     * @param url the final URL of the stream
+     * @param type how the stream is delivered
+     * @param codec the codec of a plain stream, or null if unknown
+     */
+    public ResolvedStream(String url, Type type, String codec) {
+        this.url = url;
+        this.type = type;
+        this.codec = codec;
+    }
+
+    /**
+     * @return the final URL of the stream
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return how the stream is delivered
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the codec of a plain stream, or null if unknown
+     */
+    public String getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,105 @@
+package com.ojm.pinstream.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Dns;
+
+/**
+ * A DNS resolver which remembers answers for a while. The platform only keeps
+ * lookups for a couple of seconds, so replaying a station a minute later would
+ * otherwise wait on the network again. Failed lookups aren't remembered, but if
+ * a lookup fails and an expired answer is still held that answer is used, as a
+ * station's address rarely changes and trying it beats giving up
+ */
+class CachingDns implements Dns {
+
+    /**
+     * A remembered answer and when it stops being fresh
+     */
+    private static final class Entry {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Dns delegate;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    // Host to answer, least recently used first. Guarded by itself
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param delegate the resolver asked on a miss, usually Dns.SYSTEM
+     * @param ttlMillis how long an answer is used without asking again
+     * @param maxEntries the most hosts to remember
+     */
+    CachingDns(Dns delegate, long ttlMillis, int maxEntries) {
+        this.delegate = delegate;
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Resolve a host, from memory while the answer is fresh
+     * @param hostname the host to resolve
+     * @return its addresses
+     * @throws UnknownHostException if it can't be resolved and nothing is remembered
+     */
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(hostname);
+        }
+
+        long now = now();
+        if (entry != null && now < entry.expiresAt) return entry.addresses;
+
+        List<InetAddress> addresses;
+        try {
+            addresses = delegate.lookup(hostname);
+        } catch (UnknownHostException e) {
+            // Better to try where the host used to be than fail outright
+            if (entry != null) return entry.addresses;
+            throw e;
+        }
+
+        synchronized (entries) {
+            entries.put(hostname, new Entry(addresses, now + ttlNanos));
+            trim();
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Drop the least recently used hosts until within the limit. Caller holds entries
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * The current time in nanoseconds, overridden by tests
+     */
+    long now() {
+        return System.nanoTime();
+    }
+}
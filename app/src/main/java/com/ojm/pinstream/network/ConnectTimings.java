@@ -0,0 +1,85 @@
+package com.ojm.pinstream.network;
+
+/**
+ * How long each phase of opening one HTTP request took, up to the response
+ * headers. Phases skipped because a cached answer or a pooled connection
+ * was used are reported as zero, which is the point of the shared client
+ */
+public final class ConnectTimings {
+
+    /**
+     * Told about each request once its response headers arrive. Called on the
+     * thread making the request
+     */
+    public interface Listener {
+        void onConnectTimings(ConnectTimings timings);
+    }
+
+    private final String host;
+    private final long dnsMillis;
+    private final long connectMillis;
+    private final long tlsMillis;
+    private final long firstByteMillis;
+    private final boolean connectionReused;
+
+    ConnectTimings(String host, long dnsMillis, long connectMillis, long tlsMillis,
+                   long firstByteMillis, boolean connectionReused) {
+        this.host = host;
+        this.dnsMillis = dnsMillis;
+        this.connectMillis = connectMillis;
+        this.tlsMillis = tlsMillis;
+        this.firstByteMillis = firstByteMillis;
+        this.connectionReused = connectionReused;
+    }
+
+    /**
+     * @return the host the request went to
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return time spent resolving the host, zero if it was already known
+     */
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    /**
+     * @return time spent opening the connection including TLS, zero if one was reused
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * @return time spent on the TLS handshake, a small part of connecting when a
+     *         session is resumed
+     */
+    public long getTlsMillis() {
+        return tlsMillis;
+    }
+
+    /**
+     * @return time from starting the request to its final response headers,
+     *         including any redirects
+     */
+    public long getFirstByteMillis() {
+        return firstByteMillis;
+    }
+
+    /**
+     * @return true if a pooled connection was used
+     */
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    @Override
+    public String toString() {
+        return host + ": dns " + dnsMillis + "ms, connect " + connectMillis
+                + "ms (tls " + tlsMillis + "ms), first byte " + firstByteMillis
+                + "ms" + (connectionReused ? ", reused" : "");
+    }
+}
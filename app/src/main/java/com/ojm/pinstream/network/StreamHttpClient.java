@@ -0,0 +1,137 @@
+package com.ojm.pinstream.network;
+
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+
+/**
+ * The HTTP client shared by every stream connection in the process. Sharing one
+ * client means one connection pool, so requests to a host already connected skip
+ * the TCP and TLS handshakes, and one TLS context, so new connections to a host
+ * seen before resume their TLS session instead of a full handshake. Host lookups
+ * are remembered for a few minutes. The time taken by each phase of every
+ * request is passed to any registered listeners
+ */
+public final class StreamHttpClient implements ConnectTimings.Listener {
+
+    // How long host lookups are remembered, and for how many hosts
+    private static final long DNS_TTL_MILLIS = 2 * 60 * 1000;
+    private static final int DNS_MAX_HOSTS = 64;
+
+    // Idle connections kept open for reuse, and for how long
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    // Connect timeout, matching ExoPlayer's own HTTP default
+    private static final long CONNECT_TIMEOUT_MILLIS = 8000;
+
+    // A live stream sends continuously, so this long without a byte means it has
+    // stalled. Shorter than ExoPlayer's default so reconnecting starts while the
+    // player still has audio buffered
+    private static final long READ_TIMEOUT_MILLIS = 4000;
+
+    // Process-wide instance
+    private static StreamHttpClient instance;
+
+    private final OkHttpClient client;
+    private final List<ConnectTimings.Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile ConnectTimings lastTimings;
+
+    /**
+     * Get the process-wide client
+     * @return the shared client
+     */
+    public static synchronized StreamHttpClient getInstance() {
+        if (instance == null) instance = new StreamHttpClient();
+        return instance;
+    }
+
+    private StreamHttpClient() {
+        client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(
+                        MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dns(new CachingDns(Dns.SYSTEM, DNS_TTL_MILLIS, DNS_MAX_HOSTS))
+                .eventListenerFactory(new TimingEventListener.Factory(this))
+                .connectTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return the shared OkHttp client, for other requests that should share its pool
+     */
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Create an ExoPlayer HTTP data source factory backed by the shared client.
+     * Factories are cheap, the client is what holds the connections
+     * @param userAgent the user agent to send
+     * @return a factory for HTTP data sources
+     */
+    public HttpDataSource.Factory createDataSourceFactory(String userAgent) {
+        return createDataSourceFactory(userAgent, null);
+    }
+
+    /**
+     * Create an ExoPlayer HTTP data source factory backed by the shared client,
+     * whose sources report their transfers
+     * @param userAgent the user agent to send
+     * @param listener told about every transfer, or null
+     * @return a factory for HTTP data sources
+     */
+    public HttpDataSource.Factory createDataSourceFactory(
+            String userAgent, TransferListener<? super DataSource> listener) {
+        return new OkHttpDataSourceFactory(client, userAgent, listener);
+    }
+
+    /**
+     * Close idle pooled connections to give back their sockets and buffers. The
+     * next request to those hosts still resumes its TLS session
+     */
+    public void evictIdleConnections() {
+        client.connectionPool().evictAll();
+    }
+
+    /**
+     * Register a listener for request timings
+     * @param listener called on the requesting thread for every request
+     */
+    public void addTimingsListener(ConnectTimings.Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregister a listener for request timings
+     * @param listener a listener previously added
+     */
+    public void removeTimingsListener(ConnectTimings.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the timings of the most recent request, or null if there hasn't been one
+     */
+    public ConnectTimings getLastTimings() {
+        return lastTimings;
+    }
+
+    @Override
+    public void onConnectTimings(ConnectTimings timings) {
+        lastTimings = timings;
+
+        for (ConnectTimings.Listener listener : listeners) {
+            listener.onConnectTimings(timings);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ojm.pinstream.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Times the phases of a single call and reports them when the final response's
+ * headers arrive. Streams never finish, so waiting for the end of the call would
+ * mean never reporting. Phases add up across redirects. One instance per call,
+ * only used on the calling thread
+ */
+final class TimingEventListener extends EventListener {
+
+    /**
+     * Creates a listener for every call, all reporting to the same place
+     */
+    static final class Factory implements EventListener.Factory {
+        private final ConnectTimings.Listener listener;
+
+        Factory(ConnectTimings.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            return new TimingEventListener(listener);
+        }
+    }
+
+    private final ConnectTimings.Listener listener;
+
+    // Start times in nanoseconds, and phase lengths in milliseconds
+    private long callStart;
+    private long dnsStart;
+    private long connectStart;
+    private long tlsStart;
+    private long dnsMillis;
+    private long connectMillis;
+    private long tlsMillis;
+    private boolean connected;
+
+    private TimingEventListener(ConnectTimings.Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void callStart(Call call) {
+        callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        dnsMillis += millisSince(dnsStart);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        tlsStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        tlsMillis += millisSince(tlsStart);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                           Protocol protocol) {
+        connectMillis += millisSince(connectStart);
+        connected = true;
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                              Protocol protocol, IOException ioe) {
+        // Time lost on a failed address still delayed the call
+        connectMillis += millisSince(connectStart);
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        // Keep timing through redirects
+        if (response.isRedirect()) return;
+
+        listener.onConnectTimings(new ConnectTimings(
+                response.request().url().host(), dnsMillis, connectMillis, tlsMillis,
+                millisSince(callStart), !connected));
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000L;
+    }
+}
@@ -0,0 +1,42 @@
+package com.ojm.pinstream.playback;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.ojm.pinstream.diagnostics.PlaybackMetrics;
+
+/**
+ * Passes every transfer to the bandwidth meter, and counts the bytes into the
+ * playback metrics on the way. Called on the loading thread for each buffer read,
+ * so counting is a single atomic add
+ */
+public final class MeteringTransferListener implements TransferListener<Object> {
+
+    private final TransferListener<Object> bandwidthMeter;
+    private final PlaybackMetrics metrics;
+
+    /**
+     * @param bandwidthMeter the listener estimating throughput
+     * @param metrics the metrics to count bytes into
+     */
+    public MeteringTransferListener(TransferListener<Object> bandwidthMeter,
+                                    PlaybackMetrics metrics) {
+        this.bandwidthMeter = bandwidthMeter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void onTransferStart(Object source, DataSpec dataSpec) {
+        bandwidthMeter.onTransferStart(source, dataSpec);
+    }
+
+    @Override
+    public void onBytesTransferred(Object source, int bytesTransferred) {
+        metrics.addBytes(bytesTransferred);
+        bandwidthMeter.onBytesTransferred(source, bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd(Object source) {
+        bandwidthMeter.onTransferEnd(source);
+    }
+}
@@ -0,0 +1,143 @@
+package com.ojm.pinstream.playback;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+import com.ojm.pinstream.visualizer.AudioTap;
+import com.ojm.pinstream.visualizer.PcmRingBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An audio processor passing decoded audio through unchanged, while copying a
+ * mono mix of it into the audio tap for the visualiser. Runs on the playback
+ * thread, hearing exactly what is played without recording the device's output.
+ * The output buffer is kept between calls and only grows, so steady playback
+ * allocates nothing
+ */
+public final class PcmTapAudioProcessor implements AudioProcessor {
+
+    private final AudioTap tap;
+
+    private int sampleRateHz = Format.NO_VALUE;
+    private int channelCount = Format.NO_VALUE;
+    private int encoding = C.ENCODING_INVALID;
+
+    private ByteBuffer buffer = EMPTY_BUFFER;
+    private ByteBuffer outputBuffer = EMPTY_BUFFER;
+    private boolean inputEnded;
+
+    /**
+     * @param tap the tap to copy audio into
+     */
+    public PcmTapAudioProcessor(AudioTap tap) {
+        this.tap = tap;
+    }
+
+    @Override
+    public boolean configure(int sampleRateHz, int channelCount, int encoding) {
+        boolean changed = sampleRateHz != this.sampleRateHz
+                || channelCount != this.channelCount
+                || encoding != this.encoding;
+
+        this.sampleRateHz = sampleRateHz;
+        this.channelCount = channelCount;
+        this.encoding = encoding;
+
+        if (isActive()) tap.setSampleRateHz(sampleRateHz);
+        return changed;
+    }
+
+    /**
+     * Only 16-bit audio is tapped, anything else passes by untouched
+     * @return whether the processor handles the configured audio
+     */
+    @Override
+    public boolean isActive() {
+        return encoding == C.ENCODING_PCM_16BIT;
+    }
+
+    @Override
+    public int getOutputChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int getOutputEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int getOutputSampleRateHz() {
+        return sampleRateHz;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer input) {
+        int position = input.position();
+        int remaining = input.remaining();
+        if (remaining == 0) return;
+
+        // Average each frame's channels into one little endian sample
+        PcmRingBuffer ring = tap.getBuffer();
+        int frameBytes = 2 * channelCount;
+        int frames = remaining / frameBytes;
+
+        ring.startWrite(frames);
+        for (int frame = 0; frame < frames; frame++) {
+            int offset = position + frame * frameBytes;
+            int sum = 0;
+
+            for (int channel = 0; channel < channelCount; channel++) {
+                int index = offset + 2 * channel;
+                sum += (short) ((input.get(index) & 0xFF) | (input.get(index + 1) << 8));
+            }
+            ring.put((short) (sum / channelCount));
+        }
+        ring.finishWrite();
+
+        // Pass the audio on as it was
+        if (buffer.capacity() < remaining) {
+            buffer = ByteBuffer.allocateDirect(remaining).order(ByteOrder.nativeOrder());
+        } else {
+            buffer.clear();
+        }
+
+        buffer.put(input);
+        buffer.flip();
+        outputBuffer = buffer;
+    }
+
+    @Override
+    public void queueEndOfStream() {
+        inputEnded = true;
+    }
+
+    @Override
+    public ByteBuffer getOutput() {
+        ByteBuffer output = outputBuffer;
+        outputBuffer = EMPTY_BUFFER;
+        return output;
+    }
+
+    @Override
+    public boolean isEnded() {
+        return inputEnded && outputBuffer == EMPTY_BUFFER;
+    }
+
+    @Override
+    public void flush() {
+        outputBuffer = EMPTY_BUFFER;
+        inputEnded = false;
+    }
+
+    @Override
+    public void reset() {
+        flush();
+        buffer = EMPTY_BUFFER;
+        sampleRateHz = Format.NO_VALUE;
+        channelCount = Format.NO_VALUE;
+        encoding = C.ENCODING_INVALID;
+    }
+}
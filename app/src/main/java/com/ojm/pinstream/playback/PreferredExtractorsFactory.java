@@ -0,0 +1,54 @@
+package com.ojm.pinstream.playback;
+
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2.extractor.ogg.OggExtractor;
+import com.google.android.exoplayer2.extractor.ts.AdtsExtractor;
+import com.ojm.pinstream.models.ResolvedStream;
+
+/**
+ * The default extractors, with the one for a stream's known codec moved to the
+ * front. ExtractorMediaSource sniffs extractors in order and keeps the first that
+ * recognises the stream, so a known codec is settled by the first sniff instead of
+ * up to a dozen. The rest stay behind it in case the stored codec is wrong
+ */
+public final class PreferredExtractorsFactory implements ExtractorsFactory {
+
+    private final ExtractorsFactory defaults = new DefaultExtractorsFactory();
+    private final Class<? extends Extractor> preferred;
+
+    /**
+     * @param codec one of the ResolvedStream codecs, or null for the default order
+     */
+    public PreferredExtractorsFactory(String codec) {
+        if (ResolvedStream.CODEC_MP3.equals(codec)) {
+            preferred = Mp3Extractor.class;
+        } else if (ResolvedStream.CODEC_AAC.equals(codec)) {
+            preferred = AdtsExtractor.class;
+        } else if (ResolvedStream.CODEC_OGG.equals(codec)) {
+            preferred = OggExtractor.class;
+        } else {
+            preferred = null;
+        }
+    }
+
+    @Override
+    public Extractor[] createExtractors() {
+        Extractor[] extractors = defaults.createExtractors();
+        if (preferred == null) return extractors;
+
+        // Shift everything before the preferred extractor back one place
+        for (int i = 0; i < extractors.length; i++) {
+            if (preferred.isInstance(extractors[i])) {
+                Extractor found = extractors[i];
+                System.arraycopy(extractors, 0, extractors, 1, i);
+                extractors[0] = found;
+                break;
+            }
+        }
+
+        return extractors;
+    }
+}
@@ -0,0 +1,209 @@
+package com.ojm.pinstream.playback;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * A data source for live streams which quietly reconnects when the stream drops
+ * or stalls. A stall shows up as the HTTP client's read timeout, which fires once
+ * no bytes have arrived for a few seconds. Either way the connection is reopened
+ * with jittered exponential backoff and reading carries on from the new one, so
+ * the player keeps playing from its buffer and never sees the outage unless it
+ * outlasts the buffer. MP3 and AAC streams resynchronise on the next frame.
+ * Streams of known length aren't live, so errors on those are passed straight on
+ */
+public final class ReconnectingDataSource implements DataSource {
+
+    /**
+     * Told about stream health, on ExoPlayer's loading thread
+     */
+    public interface Listener {
+        /**
+         * Bytes arrived. Called for every read, so keep it cheap
+         */
+        void onBytesArrived();
+
+        /**
+         * A dropped stream is flowing again
+         * @param outageMillis time from the last byte before the drop to reconnecting
+         * @param attempts connection attempts it took
+         */
+        void onReconnected(long outageMillis, int attempts);
+    }
+
+    /**
+     * Factory wrapping the sources used for the first connection and for reconnects
+     */
+    public static final class Factory implements DataSource.Factory {
+        private final DataSource.Factory firstFactory;
+        private final DataSource.Factory reconnectFactory;
+        private final Listener listener;
+
+        /**
+         * @param firstFactory creates the source for the first connection
+         * @param reconnectFactory creates a source for each reconnect
+         * @param listener told about stream health
+         */
+        public Factory(DataSource.Factory firstFactory, DataSource.Factory reconnectFactory,
+                       Listener listener) {
+            this.firstFactory = firstFactory;
+            this.reconnectFactory = reconnectFactory;
+            this.listener = listener;
+        }
+
+        @Override
+        public ReconnectingDataSource createDataSource() {
+            return new ReconnectingDataSource(
+                    firstFactory.createDataSource(), reconnectFactory, listener);
+        }
+    }
+
+    // Backoff between reconnect attempts, short as the player's buffer is draining
+    private static final long BACKOFF_BASE_MILLIS = 250;
+    private static final long BACKOFF_MAX_MILLIS = 4000;
+
+    // Give up and let the player see the error after this long without a stream
+    private static final long MAX_OUTAGE_MILLIS = 60000;
+
+    private final DataSource.Factory reconnectFactory;
+    private final Listener listener;
+    private final Backoff backoff = new Backoff(
+            BACKOFF_BASE_MILLIS, BACKOFF_MAX_MILLIS, new Random());
+
+    private DataSource upstream;
+    private Uri uri;
+    private boolean live;
+    private long lastByteTime;
+
+    private ReconnectingDataSource(DataSource first, DataSource.Factory reconnectFactory,
+                                   Listener listener) {
+        this.upstream = first;
+        this.reconnectFactory = reconnectFactory;
+        this.listener = listener;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        // After a reconnect the first source is gone, start a fresh one
+        if (upstream == null) upstream = reconnectFactory.createDataSource();
+
+        long length = upstream.open(dataSpec);
+
+        uri = dataSpec.uri;
+        live = length == C.LENGTH_UNSET;
+        lastByteTime = SystemClock.elapsedRealtime();
+
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        while (true) {
+            int read;
+
+            try {
+                read = upstream.read(buffer, offset, readLength);
+            } catch (IOException e) {
+                if (!live || isCancellation(e)) throw e;
+
+                reconnect(e);
+                continue;
+            }
+
+            // A live stream never really ends, the server has dropped us
+            if (read == C.RESULT_END_OF_INPUT && live) {
+                reconnect(null);
+                continue;
+            }
+
+            if (read > 0) {
+                lastByteTime = SystemClock.elapsedRealtime();
+                listener.onBytesArrived();
+            }
+
+            return read;
+        }
+    }
+
+    @Override
+    public Uri getUri() {
+        return upstream == null ? uri : upstream.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        DataSource closing = upstream;
+        upstream = null;
+
+        if (closing != null) closing.close();
+    }
+
+    /**
+     * Replace the dropped connection, waiting between attempts
+     * @param cause why the stream dropped, or null if it ended
+     * @throws IOException the cause, or the last failure, once the outage is too long
+     */
+    private void reconnect(IOException cause) throws IOException {
+        closeQuietly(upstream);
+        upstream = null;
+        backoff.reset();
+
+        while (true) {
+            try {
+                Thread.sleep(backoff.nextDelayMillis());
+            } catch (InterruptedException e) {
+                // ExoPlayer interrupts the loading thread to cancel
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            DataSource next = reconnectFactory.createDataSource();
+
+            try {
+                next.open(new DataSpec(uri));
+                upstream = next;
+                break;
+            } catch (IOException e) {
+                closeQuietly(next);
+                if (isCancellation(e)) throw e;
+
+                cause = e;
+            }
+
+            if (SystemClock.elapsedRealtime() - lastByteTime >= MAX_OUTAGE_MILLIS) {
+                throw cause != null ? cause : new IOException("Stream ended");
+            }
+        }
+
+        listener.onReconnected(
+                SystemClock.elapsedRealtime() - lastByteTime, backoff.getAttempts());
+    }
+
+    /**
+     * Tell ExoPlayer cancelling a load apart from the stream failing. A read timeout
+     * is an interrupted IO exception too, but it means the stream stalled
+     */
+    private static boolean isCancellation(IOException e) {
+        return Thread.currentThread().isInterrupted()
+                || e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+    }
+
+    private static void closeQuietly(DataSource source) {
+        if (source == null) return;
+
+        try {
+            source.close();
+        } catch (IOException e) {
+            // Already broken, nothing more to do
+        }
+    }
+}
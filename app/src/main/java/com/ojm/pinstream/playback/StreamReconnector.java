@@ -0,0 +1,182 @@
+package com.ojm.pinstream.playback;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.source.MediaSource;
+
+import java.util.Random;
+
+/**
+ * Brings a stream back when it fails in a way the data source couldn't hide, by
+ * preparing the same player again with a fresh media source. The player, its
+ * audio output and the media session all stay as they are. Retries are spaced
+ * with jittered exponential backoff. A watchdog also watches for the player
+ * sitting in buffering while no bytes arrive, which it treats like an error.
+ * Each outage is reported once audio is flowing again, measured from the last
+ * byte before it. Must be used on the player's thread, the service's playback
+ * thread, apart from the data source listener methods
+ */
+public class StreamReconnector extends Player.DefaultEventListener
+        implements ReconnectingDataSource.Listener {
+
+    /**
+     * Supplies fresh sources and hears how outages end. Called on the playback thread
+     */
+    public interface Callback {
+        /**
+         * @return a new media source for the stream being played
+         */
+        MediaSource createMediaSource();
+
+        /**
+         * The stream recovered from an outage
+         * @param outageMillis time from the last byte before the outage until recovery
+         * @param attempts how many reconnects it took
+         */
+        void onRecovered(long outageMillis, int attempts);
+
+        /**
+         * Retrying has been given up
+         * @param error the last error, or null if the stream stalled without one
+         */
+        void onGaveUp(ExoPlaybackException error);
+    }
+
+    // Backoff between preparing again, longer than the data source's own
+    private static final long BACKOFF_BASE_MILLIS = 1000;
+    private static final long BACKOFF_MAX_MILLIS = 30000;
+    private static final int MAX_ATTEMPTS = 8;
+
+    // Buffering this long with no bytes arriving counts as a failure
+    private static final long STUCK_MILLIS = 12000;
+
+    // How often the watchdog looks
+    private static final long WATCHDOG_INTERVAL_MILLIS = 1000;
+
+    private final ExoPlayer player;
+    private final Callback callback;
+    private final Handler handler;
+    private final Backoff backoff = new Backoff(
+            BACKOFF_BASE_MILLIS, BACKOFF_MAX_MILLIS, new Random());
+
+    // Written on the loading thread for every read
+    private volatile long lastByteTime = SystemClock.elapsedRealtime();
+
+    // When the current outage began, 0 if there isn't one
+    private long outageStart;
+    private boolean retryScheduled;
+    private boolean watching;
+
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            retryScheduled = false;
+            player.prepare(callback.createMediaSource());
+        }
+    };
+
+    private final Runnable watchdog = new Runnable() {
+        @Override
+        public void run() {
+            if (!retryScheduled && player.getPlayWhenReady()
+                    && player.getPlaybackState() == Player.STATE_BUFFERING
+                    && SystemClock.elapsedRealtime() - lastByteTime >= STUCK_MILLIS) {
+                scheduleRetry(null);
+            }
+
+            handler.postDelayed(this, WATCHDOG_INTERVAL_MILLIS);
+        }
+    };
+
+    /**
+     * @param player the player to keep going, this must be added as its listener
+     * @param callback supplies sources and hears about outages
+     * @param handler the playback thread's handler, retries and the watchdog run on it
+     */
+    public StreamReconnector(ExoPlayer player, Callback callback, Handler handler) {
+        this.player = player;
+        this.callback = callback;
+        this.handler = handler;
+    }
+
+    /**
+     * Start looking after a newly prepared stream, forgetting any earlier outage
+     */
+    public void start() {
+        stop();
+
+        watching = true;
+        lastByteTime = SystemClock.elapsedRealtime();
+        handler.postDelayed(watchdog, WATCHDOG_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Stop looking after the stream, cancelling any pending retry
+     */
+    public void stop() {
+        watching = false;
+        retryScheduled = false;
+        outageStart = 0;
+        backoff.reset();
+
+        handler.removeCallbacks(retry);
+        handler.removeCallbacks(watchdog);
+    }
+
+    @Override
+    public void onPlayerError(ExoPlaybackException error) {
+        if (watching) scheduleRetry(error);
+    }
+
+    @Override
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        if (playbackState != Player.STATE_READY || outageStart == 0) return;
+
+        // Audio is flowing again
+        long outageMillis = SystemClock.elapsedRealtime() - outageStart;
+        int attempts = backoff.getAttempts();
+
+        outageStart = 0;
+        backoff.reset();
+        callback.onRecovered(outageMillis, attempts);
+    }
+
+    @Override
+    public void onBytesArrived() {
+        lastByteTime = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void onReconnected(final long outageMillis, final int attempts) {
+        // The data source hid this outage from the player, so report it from here
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (watching) callback.onRecovered(outageMillis, attempts);
+            }
+        });
+    }
+
+    /**
+     * Prepare again after a backoff delay, or give up after too many attempts
+     * @param error the error which caused this, or null for a stall
+     */
+    private void scheduleRetry(ExoPlaybackException error) {
+        if (retryScheduled) return;
+
+        if (backoff.getAttempts() >= MAX_ATTEMPTS) {
+            stop();
+            callback.onGaveUp(error);
+            return;
+        }
+
+        if (outageStart == 0) outageStart = lastByteTime;
+
+        retryScheduled = true;
+        handler.postDelayed(retry, backoff.nextDelayMillis());
+    }
+}
@@ -0,0 +1,331 @@
+package com.ojm.pinstream.playback;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.ojm.pinstream.database.BookmarkReader;
+import com.ojm.pinstream.database.BookmarkWriter;
+import com.ojm.pinstream.models.Bookmark;
+import com.ojm.pinstream.models.ResolvedStream;
+import com.ojm.pinstream.playlists.PlaylistEntry;
+import com.ojm.pinstream.playlists.PlaylistFormat;
+import com.ojm.pinstream.playlists.PlaylistReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Works out where a bookmark's stream really is and how it is delivered. A short
+ * probe reads the start of the response, following redirects and unwrapping PLS
+ * and M3U playlists until it reaches HLS, DASH or a plain stream, whose codec it
+ * notes from the content type or first bytes. The result is stored against the
+ * bookmark, so later plays skip the probe, the redirects and the playlists. The
+ * player revalidates a stored result when playing it fails
+ */
+public class StreamResolver {
+
+    /**
+     * Receives a resolved stream on the main thread
+     */
+    public interface Callback {
+        /**
+         * @param stream where and what the stream is, never null. If probing failed
+         *               this is the bookmark's own URL as a plain stream
+         * @param stored whether this came from the database rather than a probe
+         */
+        void onResolved(ResolvedStream stream, boolean stored);
+    }
+
+    // What the start of a response turned out to be
+    enum Kind { PROGRESSIVE, HLS, DASH, PLS, M3U }
+
+    // Playlists wrapped deeper than this are given up on
+    private static final int MAX_INDIRECTIONS = 5;
+
+    // Bytes read from a response to tell what it is, a few frames of audio
+    private static final int PROBE_BYTES = 4096;
+
+    // Largest playlist read when unwrapping one
+    private static final int MAX_PLAYLIST_BYTES = 64 * 1024;
+
+    // Header bytes are compared as Latin-1 text, which maps every byte to a character
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    private final BookmarkReader reader;
+    private final BookmarkWriter writer;
+    private final OkHttpClient client;
+
+    // Probes wait on the network, so keep them off the database's executors
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param reader reads stored results
+     * @param writer stores new results
+     * @param client the client probes are made with
+     */
+    public StreamResolver(BookmarkReader reader, BookmarkWriter writer, OkHttpClient client) {
+        this.reader = reader;
+        this.writer = writer;
+        this.client = client;
+    }
+
+    /**
+     * Resolve a bookmark's stream, from the database if it has been resolved before
+     * @param bookmark the bookmark to resolve
+     * @param revalidate whether to ignore any stored result and probe again
+     * @param callback receives the result on the main thread
+     */
+    public void resolve(final Bookmark bookmark, boolean revalidate, final Callback callback) {
+        if (revalidate) {
+            probeAndStore(bookmark, callback);
+            return;
+        }
+
+        reader.getResolvedStream(bookmark.getID(), mainHandler,
+                new BookmarkReader.Callback<ResolvedStream>() {
+                    @Override
+                    public void onResult(ResolvedStream stored) {
+                        if (stored != null) {
+                            callback.onResolved(stored, true);
+                        } else {
+                            probeAndStore(bookmark, callback);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Stop probing, any probe in progress is abandoned
+     */
+    public void release() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Probe a bookmark's URL in the background and store the result
+     */
+    private void probeAndStore(final Bookmark bookmark, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ResolvedStream stream;
+
+                try {
+                    stream = probe(bookmark.getUrlString());
+                    writer.setResolvedStream(bookmark.getID(), stream);
+                } catch (IOException e) {
+                    // Let the player try the URL as it is, and probe again next time
+                    stream = new ResolvedStream(
+                            bookmark.getUrlString(), ResolvedStream.Type.PROGRESSIVE, null);
+                }
+
+                final ResolvedStream result = stream;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResolved(result, false);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Follow a URL through redirects and playlists to the stream itself. Blocks
+     * @param url the URL to start from
+     * @return the stream found
+     * @throws IOException if a request fails or the playlists lead nowhere
+     */
+    ResolvedStream probe(String url) throws IOException {
+        for (int depth = 0; depth <= MAX_INDIRECTIONS; depth++) {
+            // Only HTTP can be probed, anything else goes to the player as it is
+            HttpUrl httpUrl = HttpUrl.parse(url);
+            if (httpUrl == null) {
+                return new ResolvedStream(url, ResolvedStream.Type.PROGRESSIVE, null);
+            }
+
+            Response response = client.newCall(
+                    new Request.Builder().url(httpUrl).build()).execute();
+
+            try {
+                if (!response.isSuccessful()) {
+                    throw new IOException("HTTP " + response.code() + " probing " + url);
+                }
+
+                // Redirects have been followed, this is where the response came from
+                HttpUrl finalUrl = response.request().url();
+                String contentType = response.header("Content-Type");
+
+                InputStream in = response.body().byteStream();
+                byte[] head = readUpTo(in, new byte[PROBE_BYTES], 0);
+
+                switch (classify(contentType, finalUrl.encodedPath(), head)) {
+                    case HLS:
+                        return new ResolvedStream(
+                                finalUrl.toString(), ResolvedStream.Type.HLS, null);
+                    case DASH:
+                        return new ResolvedStream(
+                                finalUrl.toString(), ResolvedStream.Type.DASH, null);
+                    case PLS:
+                        url = firstEntry(PlaylistFormat.PLS, head, in, finalUrl);
+                        break;
+                    case M3U:
+                        url = firstEntry(PlaylistFormat.M3U, head, in, finalUrl);
+                        break;
+                    default:
+                        return new ResolvedStream(finalUrl.toString(),
+                                ResolvedStream.Type.PROGRESSIVE, codecOf(contentType, head));
+                }
+            } finally {
+                // Closing part way through a live stream drops the connection, as intended
+                response.close();
+            }
+        }
+
+        throw new IOException("Playlists nested too deeply at " + url);
+    }
+
+    /**
+     * Read the rest of a playlist whose start was probed and find its first stream
+     * @return the absolute URL of the first entry
+     * @throws IOException if the playlist can't be read or has no entries
+     */
+    private static String firstEntry(PlaylistFormat format, byte[] head, InputStream in,
+                                     HttpUrl base) throws IOException {
+        byte[] playlist = readUpTo(in, Arrays.copyOf(head, MAX_PLAYLIST_BYTES), head.length);
+        PlaylistReader reader = format.newReader(new ByteArrayInputStream(playlist));
+
+        try {
+            PlaylistEntry entry;
+            while ((entry = reader.next()) != null) {
+                // Entries may be relative to the playlist
+                HttpUrl url = base.resolve(entry.getUrl());
+                if (url != null) return url.toString();
+            }
+        } finally {
+            reader.close();
+        }
+
+        throw new IOException("No streams in playlist at " + base);
+    }
+
+    /**
+     * Tell what a response is from its content type, path and first bytes
+     * @param contentType the Content-Type header, or null
+     * @param path the path of the final URL
+     * @param head the first bytes of the body
+     * @return what the response is
+     */
+    static Kind classify(String contentType, String path, byte[] head) {
+        String type = mimeTypeOf(contentType);
+        String lowerPath = path == null ? "" : path.toLowerCase(Locale.US);
+        String text = new String(head, LATIN_1).replace("\uFEFF", "").trim();
+        String lowerText = text.toLowerCase(Locale.US);
+
+        // Manifests say what they are in their first lines
+        if (type.equals("application/dash+xml")
+                || (text.startsWith("<") && text.contains("<MPD"))) {
+            return Kind.DASH;
+        }
+
+        if (text.startsWith("#EXTM3U") && text.contains("#EXT-X-")) return Kind.HLS;
+        if (type.equals("audio/x-scpls") || lowerText.startsWith("[playlist]")) return Kind.PLS;
+
+        if (type.equals("application/vnd.apple.mpegurl") || type.endsWith("mpegurl")
+                || text.startsWith("#EXTM3U")
+                || lowerText.startsWith("http://") || lowerText.startsWith("https://")) {
+            return Kind.M3U;
+        }
+
+        // Audio content types win over a misleading extension
+        if (type.startsWith("audio/") || type.equals("application/ogg")) return Kind.PROGRESSIVE;
+
+        if (lowerPath.endsWith(".mpd")) return Kind.DASH;
+        if (lowerPath.endsWith(".m3u8")) return Kind.HLS;
+        if (lowerPath.endsWith(".pls")) return Kind.PLS;
+        if (lowerPath.endsWith(".m3u")) return Kind.M3U;
+
+        return Kind.PROGRESSIVE;
+    }
+
+    /**
+     * Work out the codec of a plain stream from its content type, or failing that
+     * its first bytes
+     * @param contentType the Content-Type header, or null
+     * @param head the first bytes of the body
+     * @return one of the ResolvedStream codecs, or null if unknown
+     */
+    static String codecOf(String contentType, byte[] head) {
+        String type = mimeTypeOf(contentType);
+
+        if (type.equals("audio/mpeg") || type.equals("audio/mp3") || type.equals("audio/mpeg3")) {
+            return ResolvedStream.CODEC_MP3;
+        }
+
+        if (type.equals("audio/aac") || type.equals("audio/aacp") || type.equals("audio/x-aac")
+                || type.equals("audio/aac-adts")) {
+            return ResolvedStream.CODEC_AAC;
+        }
+
+        if (type.equals("audio/ogg") || type.equals("application/ogg")) {
+            return ResolvedStream.CODEC_OGG;
+        }
+
+        if (head.length >= 4
+                && head[0] == 'O' && head[1] == 'g' && head[2] == 'g' && head[3] == 'S') {
+            return ResolvedStream.CODEC_OGG;
+        }
+
+        if (head.length >= 3 && head[0] == 'I' && head[1] == 'D' && head[2] == '3') {
+            return ResolvedStream.CODEC_MP3;
+        }
+
+        if (head.length >= 2 && (head[0] & 0xFF) == 0xFF) {
+            // ADTS has a 12 bit sync word and layer 0, MPEG audio an 11 bit sync word
+            if ((head[1] & 0xF6) == 0xF0) return ResolvedStream.CODEC_AAC;
+            if ((head[1] & 0xE0) == 0xE0) return ResolvedStream.CODEC_MP3;
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the lower case MIME type from a Content-Type header, without parameters
+     */
+    private static String mimeTypeOf(String contentType) {
+        if (contentType == null) return "";
+
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType)
+                .trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Fill a buffer from a stream until it's full or the stream ends
+     * @param in the stream to read
+     * @param buffer the buffer to fill
+     * @param offset how much of the buffer is already filled
+     * @return the filled part of the buffer, a copy if it wasn't filled
+     */
+    private static byte[] readUpTo(InputStream in, byte[] buffer, int offset) throws IOException {
+        int read;
+        while (offset < buffer.length
+                && (read = in.read(buffer, offset, buffer.length - offset)) > 0) {
+            offset += read;
+        }
+
+        return offset == buffer.length ? buffer : Arrays.copyOf(buffer, offset);
+    }
+}
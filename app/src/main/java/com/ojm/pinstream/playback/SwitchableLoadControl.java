@@ -0,0 +1,137 @@
+package com.ojm.pinstream.playback;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * A load control whose thresholds come from a buffer profile which can be changed
+ * between preparations, so each station can buffer differently on the same player.
+ * The decisions follow ExoPlayer's DefaultLoadControl, with time thresholds giving
+ * way to the profile's byte budget. The profile is set on the service's thread and
+ * read on the player's, so a change applies from the next preparation. While memory
+ * is short the byte budget is held to the low latency profile's
+ */
+public final class SwitchableLoadControl implements LoadControl {
+
+    // Byte budget while memory is short
+    private static final int LIMITED_BUFFER_BYTES =
+            BufferProfile.LOW_LATENCY.getTargetBufferBytes();
+
+    private final DefaultAllocator allocator =
+            new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+
+    // Chosen on the service's thread
+    private volatile BufferProfile pendingProfile = BufferProfile.DEFAULT;
+
+    // In use on the playback thread, taken from pendingProfile on each preparation
+    private volatile BufferProfile profile = BufferProfile.DEFAULT;
+    private boolean isBuffering;
+
+    // Set on the service's thread when memory runs short
+    private volatile boolean memoryLimited;
+
+    /**
+     * Set the profile for the next source prepared
+     * @param profile the profile to use
+     */
+    public void setProfile(BufferProfile profile) {
+        pendingProfile = profile;
+    }
+
+    /**
+     * @return the profile the next preparation will use
+     */
+    public BufferProfile getProfile() {
+        return pendingProfile;
+    }
+
+    /**
+     * Hold the buffer to a small budget while memory is short, freeing spare
+     * allocations straight away. Media already buffered still plays out
+     * @param limited whether memory is short
+     */
+    public void setMemoryLimited(boolean limited) {
+        memoryLimited = limited;
+        allocator.setTargetBufferSize(getTargetBufferBytes());
+    }
+
+    @Override
+    public void onPrepared() {
+        profile = pendingProfile;
+        reset(false);
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        allocator.setTargetBufferSize(getTargetBufferBytes());
+    }
+
+    @Override
+    public void onStopped() {
+        reset(true);
+    }
+
+    @Override
+    public void onReleased() {
+        reset(true);
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+        boolean targetBufferSizeReached =
+                allocator.getTotalBytesAllocated() >= getTargetBufferBytes();
+
+        // Load up to the minimum, then keep going to the maximum once started, all
+        // within the byte budget
+        isBuffering = !targetBufferSizeReached
+                && (bufferedDurationUs < C.msToUs(profile.getMinBufferMs())
+                || (bufferedDurationUs <= C.msToUs(profile.getMaxBufferMs()) && isBuffering));
+
+        return isBuffering;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed,
+                                       boolean rebuffering) {
+        long minBufferDurationUs = C.msToUs(rebuffering
+                ? profile.getBufferForPlaybackAfterRebufferMs()
+                : profile.getBufferForPlaybackMs());
+
+        // Buffered media plays out faster or slower than real time at other speeds
+        long playoutDurationUs = playbackSpeed == 1f
+                ? bufferedDurationUs
+                : (long) (bufferedDurationUs / playbackSpeed);
+
+        return minBufferDurationUs <= 0
+                || playoutDurationUs >= minBufferDurationUs
+                || allocator.getTotalBytesAllocated() >= getTargetBufferBytes();
+    }
+
+    /**
+     * @return the memory the buffer may use now, in bytes
+     */
+    private int getTargetBufferBytes() {
+        int bytes = profile.getTargetBufferBytes();
+        return memoryLimited ? Math.min(bytes, LIMITED_BUFFER_BYTES) : bytes;
+    }
+
+    /**
+     * Forget loading state between preparations
+     * @param resetAllocator whether to also free the buffered memory
+     */
+    private void reset(boolean resetAllocator) {
+        isBuffering = false;
+        if (resetAllocator) allocator.reset();
+    }
+}
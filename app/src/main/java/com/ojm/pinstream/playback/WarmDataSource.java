@@ -0,0 +1,90 @@
+package com.ojm.pinstream.playback;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.ojm.pinstream.metadata.IcyDataSource;
+
+import java.io.IOException;
+
+/**
+ * A data source which plays from a warm stream when it can and otherwise opens
+ * the stream as normal. The warm stream is only used for the first open from the
+ * start of the stream, any reopen after an error connects afresh
+ */
+final class WarmDataSource implements DataSource {
+
+    private final DataSource.Factory coldFactory;
+    private final IcyDataSource.Listener listener;
+    private final long maxIdleMillis;
+
+    // Handed over at most once, null after that
+    private WarmStream warm;
+
+    // Whichever source is open
+    private WarmStream claimed;
+    private DataSource cold;
+    private long position;
+
+    /**
+     * @param warm the warm stream to try first, or null
+     * @param coldFactory creates sources when there's no usable warm stream
+     * @param listener told about metadata changes
+     * @param maxIdleMillis how long the warm stream may have sat unread
+     */
+    WarmDataSource(WarmStream warm, DataSource.Factory coldFactory,
+                   IcyDataSource.Listener listener, long maxIdleMillis) {
+        this.warm = warm;
+        this.coldFactory = coldFactory;
+        this.listener = listener;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        WarmStream candidate = warm;
+        warm = null;
+
+        if (candidate != null && dataSpec.position == 0 && candidate.uri.equals(dataSpec.uri)
+                && candidate.claim(maxIdleMillis, listener)) {
+            claimed = candidate;
+            position = 0;
+            return C.LENGTH_UNSET;
+        }
+
+        // Let go of a warm stream we aren't going to use
+        if (candidate != null) candidate.close();
+
+        cold = coldFactory.createDataSource();
+        return cold.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (cold != null) return cold.read(buffer, offset, readLength);
+
+        int read = claimed.read(position, buffer, offset, readLength);
+        if (read > 0) position += read;
+
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        if (claimed != null) return claimed.uri;
+        return cold == null ? null : cold.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (claimed != null) claimed.closeClaimed();
+            if (cold != null) cold.close();
+        } finally {
+            claimed = null;
+            cold = null;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.ojm.pinstream.playback;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.ojm.pinstream.metadata.IcyDataSource;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stream connected ahead of time. A background thread opens the stream and
+ * reads a short prefix of audio into memory, then stops reading and leaves the
+ * connection open. Whoever claims it first gets the prefix followed by the rest
+ * of the same connection, so playback skips the connect, the server's response
+ * and the initial buffering. Metadata seen while warming is passed on when
+ * claimed. Everything touching the connection happens on the thread that fills
+ * it or, after a claim, on the thread that claimed it
+ */
+final class WarmStream implements Runnable, IcyDataSource.Listener {
+
+    final Uri uri;
+
+    private final IcyDataSource upstream;
+    private final byte[] prefix;
+    private final AtomicLong bytesRead;
+
+    // Guarded by this
+    private int filled;
+    private boolean filling = true;
+    private boolean ended;
+    private boolean failed;
+    private boolean claimed;
+    private boolean closed;
+    private long idleSince;
+
+    // Latest metadata, and where to send it once claimed
+    private volatile IcyDataSource.Listener listener;
+    private String streamTitle;
+    private String streamUrl;
+
+    /**
+     * @param uri the stream to connect to
+     * @param httpDataSource the HTTP data source to connect with
+     * @param prefixBytes how much audio to read before going idle
+     * @param bytesRead counter shared by the pool, for its bandwidth budget
+     */
+    WarmStream(Uri uri, HttpDataSource httpDataSource, int prefixBytes, AtomicLong bytesRead) {
+        this.uri = uri;
+        this.upstream = new IcyDataSource(httpDataSource, this);
+        this.prefix = new byte[prefixBytes];
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * Connect and fill the prefix, on a pool thread
+     */
+    @Override
+    public void run() {
+        try {
+            upstream.open(new DataSpec(uri));
+
+            while (true) {
+                synchronized (this) {
+                    if (claimed || closed || filled == prefix.length) break;
+                }
+
+                // Only this thread writes past filled, so read outside the lock
+                int read = upstream.read(prefix, filled, prefix.length - filled);
+
+                synchronized (this) {
+                    if (read == C.RESULT_END_OF_INPUT) {
+                        ended = true;
+                        break;
+                    }
+
+                    filled += read;
+                }
+
+                bytesRead.addAndGet(read);
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                failed = true;
+            }
+        }
+
+        boolean release;
+        synchronized (this) {
+            filling = false;
+            idleSince = SystemClock.elapsedRealtime();
+            release = closed || failed;
+            notifyAll();
+        }
+
+        if (release) closeQuietly();
+    }
+
+    /**
+     * Check whether the stream is worth keeping, on any thread
+     * @param maxIdleMillis how long a connection may sit unread
+     * @return true if it's connecting, or connected and fresh enough to use
+     */
+    synchronized boolean isUsable(long maxIdleMillis) {
+        if (closed || failed || claimed) return false;
+
+        return filling || SystemClock.elapsedRealtime() - idleSince < maxIdleMillis;
+    }
+
+    /**
+     * Take over the stream, waiting for a connect or read in progress to finish.
+     * Called on ExoPlayer's loading thread
+     * @param maxIdleMillis how long a connection may have sat unread
+     * @param listener told about metadata from now on, including any already seen
+     * @return true if the stream is now the caller's to read and close
+     */
+    boolean claim(long maxIdleMillis, IcyDataSource.Listener listener) {
+        synchronized (this) {
+            if (closed || claimed) return false;
+            claimed = true;
+
+            while (filling) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    closed = true;
+                    return false;
+                }
+            }
+
+            // The server may have given up on a connection left unread too long
+            if (failed || SystemClock.elapsedRealtime() - idleSince >= maxIdleMillis) {
+                closed = true;
+            }
+        }
+
+        if (closed) {
+            closeQuietly();
+            return false;
+        }
+
+        this.listener = listener;
+        if (listener != null && (streamTitle != null || streamUrl != null)) {
+            listener.onIcyMetadata(streamTitle, streamUrl);
+        }
+
+        return true;
+    }
+
+    /**
+     * Read from a claimed stream, the prefix first and then the connection
+     * @param position how many bytes the claimer has read so far
+     */
+    int read(long position, byte[] buffer, int offset, int readLength) throws IOException {
+        if (position < filled) {
+            int length = (int) Math.min(readLength, filled - position);
+            System.arraycopy(prefix, (int) position, buffer, offset, length);
+            return length;
+        }
+
+        return ended ? C.RESULT_END_OF_INPUT : upstream.read(buffer, offset, readLength);
+    }
+
+    /**
+     * Stop warming and drop the connection, unless already claimed. Closing may touch
+     * the network, so call it off the main thread. If the fill thread is still running
+     * it closes the connection itself on the way out
+     * @return false if the stream was claimed, leaving it to its claimer
+     */
+    boolean close() {
+        synchronized (this) {
+            if (claimed) return false;
+            if (closed) return true;
+
+            closed = true;
+
+            // The fill thread closes it on the way out
+            if (filling) return true;
+        }
+
+        closeQuietly();
+        return true;
+    }
+
+    /**
+     * Close the connection of a claimed stream
+     */
+    void closeClaimed() throws IOException {
+        upstream.close();
+    }
+
+    @Override
+    public void onIcyMetadata(String streamTitle, String streamUrl) {
+        IcyDataSource.Listener target = listener;
+
+        if (target != null) {
+            target.onIcyMetadata(streamTitle, streamUrl);
+        } else {
+            // Only the fill thread gets here, claim reads these after it finishes
+            this.streamTitle = streamTitle;
+            this.streamUrl = streamUrl;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            upstream.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.ojm.pinstream.playback;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.ojm.pinstream.metadata.IcyDataSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a few streams connected and lightly buffered ahead of time, so that
+ * switching to them starts almost at once. The service tells the pool which
+ * streams are likely next, the bookmarks either side of the one playing, and
+ * asks it for a data source factory when it switches.
+ *
+ * Memory is bounded by the number of streams and the prefix each buffers. Data
+ * is bounded by only reading that prefix, after which a connection sits unread
+ * until it's used or goes stale. Stale connections are only replaced on unmetered
+ * networks, within a budget of bytes per minute, and nothing is warmed while data
+ * saver is on.
+ *
+ * The pool must be created and used on a single looper thread, the service's
+ * playback thread: its refresh handler binds to the looper it's created on, and
+ * the streams it holds aren't synchronised
+ */
+public class WarmStreamPool {
+
+    // Streams kept warm at once, previous and next
+    private static final int MAX_STREAMS = 2;
+
+    // Audio read ahead per stream, about four seconds at 128kbps
+    private static final int PREFIX_BYTES = 64 * 1024;
+
+    // How long a connection may sit unread before servers tend to drop it
+    private static final long MAX_IDLE_MILLIS = 15000;
+
+    // How often stale streams are checked and replaced
+    private static final long REFRESH_MILLIS = 5000;
+
+    // Bytes warming may use per minute, including refreshes
+    private static final long BYTES_PER_MINUTE = 2 * 1024 * 1024;
+
+    private final ConnectivityManager connectivityManager;
+    private final HttpDataSource.Factory httpFactory;
+
+    // Bound to the thread the pool is created on
+    private final Handler handler = new Handler();
+
+    // Connects and fills streams, closes them too as that may touch the network
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    // Bytes read by warm streams in the current minute, added to by fill threads
+    private final AtomicLong bytesRead = new AtomicLong();
+    private long windowStart = SystemClock.elapsedRealtime();
+
+    // Streams wanted, in priority order, and those currently warm by URL
+    private List<Uri> wanted = new ArrayList<>();
+    private final Map<String, WarmStream> streams = new HashMap<>();
+
+    // Periodically replaces stale streams while any are wanted
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            update(false);
+            if (!wanted.isEmpty()) handler.postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    /**
+     * @param context used to check the network, the application context is retained
+     * @param httpFactory creates the HTTP sources streams are read through
+     */
+    public WarmStreamPool(Context context, HttpDataSource.Factory httpFactory) {
+        this.connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.httpFactory = httpFactory;
+    }
+
+    /**
+     * Set the streams to keep warm, most likely first. Streams no longer wanted are
+     * dropped and new ones connected, if the network allows
+     * @param uris the streams, nulls are ignored
+     */
+    public void warm(Uri... uris) {
+        List<Uri> next = new ArrayList<>(MAX_STREAMS);
+
+        for (Uri uri : uris) {
+            if (uri != null && !next.contains(uri) && next.size() < MAX_STREAMS) next.add(uri);
+        }
+
+        wanted = next;
+        update(true);
+
+        // Restart the refresh cycle, or stop it if nothing is wanted
+        handler.removeCallbacks(refresh);
+        if (!wanted.isEmpty()) handler.postDelayed(refresh, REFRESH_MILLIS);
+    }
+
+    /**
+     * Create the data source factory for playing a stream, which takes over the
+     * warm connection if there is one
+     * @param uri the stream about to be played
+     * @param listener told about the stream's metadata
+     * @return a factory for ExoPlayer's media source
+     */
+    public DataSource.Factory createDataSourceFactory(
+            Uri uri, final IcyDataSource.Listener listener) {
+        final WarmStream warm = streams.remove(uri.toString());
+        final DataSource.Factory coldFactory = new IcyDataSource.Factory(httpFactory, listener);
+
+        return new DataSource.Factory() {
+            // Only the first source gets the warm stream
+            private WarmStream unclaimed = warm;
+
+            @Override
+            public DataSource createDataSource() {
+                WarmDataSource source =
+                        new WarmDataSource(unclaimed, coldFactory, listener, MAX_IDLE_MILLIS);
+                unclaimed = null;
+                return source;
+            }
+        };
+    }
+
+    /**
+     * Drop every warm stream and stop warming
+     */
+    public void clear() {
+        wanted = new ArrayList<>();
+        handler.removeCallbacks(refresh);
+        update(true);
+    }
+
+    /**
+     * Drop every warm stream and stop the pool's threads once they finish
+     */
+    public void release() {
+        clear();
+        executor.shutdown();
+    }
+
+    /**
+     * Bring the warm streams in line with those wanted and what the network allows
+     * @param requested true when the wanted streams just changed, which is allowed
+     *                  to connect on a metered network. Refreshes are not
+     */
+    private void update(boolean requested) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - windowStart >= 60000) {
+            windowStart = now;
+            bytesRead.set(0);
+        }
+
+        boolean allowed = isWarmingAllowed();
+        boolean unmetered = allowed && !connectivityManager.isActiveNetworkMetered();
+
+        // Drop streams that aren't wanted, have gone stale, or aren't allowed
+        Iterator<Map.Entry<String, WarmStream>> it = streams.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, WarmStream> entry = it.next();
+
+            if (!allowed || !wanted.contains(Uri.parse(entry.getKey()))
+                    || !entry.getValue().isUsable(MAX_IDLE_MILLIS)) {
+                closeInBackground(entry.getValue());
+                it.remove();
+            }
+        }
+
+        if (!allowed) return;
+
+        for (Uri uri : wanted) {
+            if (streams.containsKey(uri.toString())) continue;
+
+            // Metered networks only get one connection per change, never a refresh
+            if (!requested && !unmetered) continue;
+
+            // Past the budget, wait for the next minute
+            if (bytesRead.get() >= BYTES_PER_MINUTE) continue;
+
+            WarmStream stream = new WarmStream(
+                    uri, httpFactory.createDataSource(), PREFIX_BYTES, bytesRead);
+            streams.put(uri.toString(), stream);
+            executor.execute(stream);
+        }
+    }
+
+    /**
+     * Check the network is connected and data saver isn't restricting background data
+     */
+    private boolean isWarmingAllowed() {
+        NetworkInfo network = connectivityManager.getActiveNetworkInfo();
+        if (network == null || !network.isConnected()) return false;
+
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.N
+                || connectivityManager.getRestrictBackgroundStatus()
+                != ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED;
+    }
+
+    /**
+     * Close a stream on the pool's threads, as closing may touch the network
+     */
+    private void closeInBackground(final WarmStream stream) {
+        if (executor.isShutdown()) return;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                stream.close();
+            }
+        });
+    }
+}
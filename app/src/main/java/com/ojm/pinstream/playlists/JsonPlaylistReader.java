@@ -0,0 +1,120 @@
+package com.ojm.pinstream.playlists;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streaming reader for JSON station lists. Accepts either a top-level array of
+ * station objects, or an object whose first array property holds them. Each
+ * station needs a "url" (or "stream") and may have a "title" (or "name")
+ */
+class JsonPlaylistReader implements PlaylistReader {
+
+    private final JsonReader reader;
+
+    // Whether we've found the array of stations yet, and whether it's finished
+    private boolean inArray = false;
+    private boolean finished = false;
+
+    /**
+     * Create a reader over a stream of JSON
+     * @param in the stream to read
+     * @throws IOException if the stream can't be decoded
+     */
+    JsonPlaylistReader(InputStream in) throws IOException {
+        reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        reader.setLenient(true);
+    }
+
+    @Override
+    public PlaylistEntry next() throws IOException {
+        if (finished) return null;
+        if (!inArray && !findArray()) return finish();
+
+        while (reader.hasNext()) {
+            // Ignore anything in the array which isn't a station object
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            PlaylistEntry entry = readStation();
+            if (entry != null) return entry;
+        }
+
+        return finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Position the reader inside the array of stations
+     * @return true if an array was found
+     */
+    private boolean findArray() throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            return inArray = true;
+        }
+
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) return false;
+
+        // Use the first array valued property of the top-level object
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                return inArray = true;
+            }
+
+            reader.skipValue();
+        }
+
+        return false;
+    }
+
+    /**
+     * Read one station object
+     * @return the entry, or null if the object had no URL
+     */
+    private PlaylistEntry readStation() throws IOException {
+        String title = null;
+        String url = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+            } else if ("url".equals(name) || ("stream".equals(name) && url == null)) {
+                url = reader.nextString();
+            } else if ("title".equals(name) || ("name".equals(name) && title == null)) {
+                title = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return url == null || url.trim().isEmpty() ? null : new PlaylistEntry(title, url.trim());
+    }
+
+    /**
+     * Mark the reader as exhausted
+     * @return always null, for convenience
+     */
+    private PlaylistEntry finish() {
+        finished = true;
+        return null;
+    }
+}
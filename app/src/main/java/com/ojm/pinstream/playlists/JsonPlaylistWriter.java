@@ -0,0 +1,42 @@
+package com.ojm.pinstream.playlists;
+
+import android.util.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * Streaming writer for JSON station lists, as a top-level array of
+ * objects with "title" and "url" properties
+ */
+class JsonPlaylistWriter implements PlaylistWriter {
+
+    private final JsonWriter writer;
+
+    /**
+     * Create a writer and open the top-level array
+     * @param out the stream to write to
+     * @throws IOException if the array can't be opened
+     */
+    JsonPlaylistWriter(OutputStream out) throws IOException {
+        writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        writer.setIndent("  ");
+        writer.beginArray();
+    }
+
+    @Override
+    public void write(String title, String url) throws IOException {
+        writer.beginObject();
+        writer.name("title").value(title);
+        writer.name("url").value(url);
+        writer.endObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.endArray();
+        writer.close();
+    }
+}
@@ -0,0 +1,131 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * The playlist file formats that can be imported and exported, along with the
+ * readers and writers for each
+ */
+public enum PlaylistFormat {
+    M3U("m3u", "audio/x-mpegurl"),
+    PLS("pls", "audio/x-scpls"),
+    XSPF("xspf", "application/xspf+xml"),
+    JSON("json", "application/json");
+
+    // How many bytes to look at when sniffing an unnamed file
+    private static final int SNIFF_LENGTH = 64;
+
+    // File extension and MIME type for this format
+    private final String extension;
+    private final String mimeType;
+
+    PlaylistFormat(String extension, String mimeType) {
+        this.extension = extension;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Get the usual file extension for this format
+     * @return the extension, without a leading dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Get the MIME type for this format
+     * @return the MIME type
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Open a streaming reader for this format
+     * @param in the stream to read, closed along with the reader
+     * @return a new reader
+     * @throws IOException if the stream can't be opened for reading
+     */
+    public PlaylistReader newReader(InputStream in) throws IOException {
+        switch (this) {
+            case PLS:
+                return new PlsReader(in);
+            case XSPF:
+                return new XspfReader(in);
+            case JSON:
+                return new JsonPlaylistReader(in);
+            default:
+                return new M3uReader(in);
+        }
+    }
+
+    /**
+     * Open a streaming writer for this format
+     * @param out the stream to write, closed along with the writer
+     * @return a new writer
+     * @throws IOException if the stream can't be opened for writing
+     */
+    public PlaylistWriter newWriter(OutputStream out) throws IOException {
+        switch (this) {
+            case PLS:
+                return new PlsWriter(out);
+            case XSPF:
+                return new XspfWriter(out);
+            case JSON:
+                return new JsonPlaylistWriter(out);
+            default:
+                return new M3uWriter(out);
+        }
+    }
+
+    /**
+     * Guess the format of a file from its name
+     * @param fileName the file name, may be null
+     * @return the matching format, or null if the extension isn't recognised
+     */
+    public static PlaylistFormat fromFileName(String fileName) {
+        if (fileName == null) return null;
+
+        String lower = fileName.toLowerCase(Locale.US);
+        if (lower.endsWith(".m3u8")) return M3U;
+
+        for (PlaylistFormat format : values()) {
+            if (lower.endsWith("." + format.extension)) return format;
+        }
+
+        return null;
+    }
+
+    /**
+     * Guess the format of a stream from its first few bytes, leaving the stream
+     * positioned at the start
+     * @param in a buffered stream supporting mark and reset
+     * @return the most likely format, falling back to M3U
+     * @throws IOException if the stream can't be read
+     */
+    public static PlaylistFormat sniff(BufferedInputStream in) throws IOException {
+        byte[] head = new byte[SNIFF_LENGTH];
+
+        in.mark(SNIFF_LENGTH);
+        int length = 0;
+        int read;
+        while (length < SNIFF_LENGTH && (read = in.read(head, length, SNIFF_LENGTH - length)) > 0) {
+            length += read;
+        }
+        in.reset();
+
+        // Skip any byte order mark and leading whitespace, then look at the first token
+        String start = new String(head, 0, length, "UTF-8").replace("\uFEFF", "").trim();
+        String lower = start.toLowerCase(Locale.US);
+
+        if (lower.startsWith("[playlist]")) return PLS;
+        if (start.startsWith("<")) return XSPF;
+        if (start.startsWith("[") || start.startsWith("{")) return JSON;
+
+        return M3U;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ojm.pinstream.playlists;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader for XSPF playlists, pulling one track element at a time
+ */
+class XspfReader implements PlaylistReader {
+
+    private final InputStream in;
+    private final XmlPullParser parser;
+
+    /**
+     * Create a reader over a stream of XSPF XML
+     * @param in the stream to read
+     * @throws IOException if no XML parser is available
+     */
+    XspfReader(InputStream in) throws IOException {
+        this.in = in;
+
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(false);
+            parser = factory.newPullParser();
+            parser.setInput(in, null);
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public PlaylistEntry next() throws IOException {
+        try {
+            String title = null;
+            String url = null;
+            boolean inTrack = false;
+
+            for (int event = parser.next();
+                 event != XmlPullParser.END_DOCUMENT;
+                 event = parser.next()) {
+
+                if (event == XmlPullParser.START_TAG) {
+                    String name = parser.getName();
+
+                    if ("track".equals(name)) {
+                        inTrack = true;
+                        title = null;
+                        url = null;
+                    }
+
+                    // Only the first location of a track is used
+                    else if (inTrack && "location".equals(name) && url == null) {
+                        url = parser.nextText().trim();
+                    }
+
+                    else if (inTrack && "title".equals(name)) {
+                        title = parser.nextText().trim();
+                    }
+                }
+
+                else if (event == XmlPullParser.END_TAG && "track".equals(parser.getName())) {
+                    inTrack = false;
+                    if (url != null && !url.isEmpty()) return new PlaylistEntry(title, url);
+                }
+            }
+
+            return null;
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Streaming writer for XSPF playlists
+ */
+class XspfWriter implements PlaylistWriter {
+
+    private final Writer writer;
+
+    /**
+     * Create a writer and emit the document header
+     * @param out the stream to write to
+     * @throws IOException if the header can't be written
+     */
+    XspfWriter(OutputStream out) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<playlist version=\"1\" xmlns=\"http://xspf.org/ns/0/\">\n");
+        writer.write("  <trackList>\n");
+    }
+
+    @Override
+    public void write(String title, String url) throws IOException {
+        writer.write("    <track>\n      <location>");
+        writeEscaped(url);
+        writer.write("</location>\n      <title>");
+        writeEscaped(title);
+        writer.write("</title>\n    </track>\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.write("  </trackList>\n</playlist>\n");
+        writer.close();
+    }
+
+    /**
+     * Write text with the XML special characters escaped
+     * @param text the text to write, may be null
+     */
+    private void writeEscaped(String text) throws IOException {
+        if (text == null) return;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    writer.write(c);
+                    break;
+            }
+        }
+    }
+}
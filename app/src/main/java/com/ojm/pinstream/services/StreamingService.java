@@ -7,44 +7,92 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaBrowserServiceCompat;
+import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaButtonReceiver;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.TextUtils;
 
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.RenderersFactory;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.audio.AudioProcessor;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
 import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.ojm.pinstream.BuildConfig;
 import com.ojm.pinstream.R;
-import com.ojm.pinstream.database.DatabaseHandler;
+import com.ojm.pinstream.artwork.ArtworkLoader;
+import com.ojm.pinstream.database.BookmarkReader;
+import com.ojm.pinstream.database.BookmarkRepository;
+import com.ojm.pinstream.database.BookmarkWriter;
+import com.ojm.pinstream.database.DirectBookmarkWriter;
+import com.ojm.pinstream.diagnostics.PlaybackMetrics;
+import com.ojm.pinstream.diagnostics.TimeToFirstAudio;
+import com.ojm.pinstream.metadata.IcyDataSource;
 import com.ojm.pinstream.models.Bookmark;
+import com.ojm.pinstream.models.ResolvedStream;
+import com.ojm.pinstream.network.ConnectTimings;
+import com.ojm.pinstream.network.StreamHttpClient;
+import com.ojm.pinstream.playback.BufferProfile;
+import com.ojm.pinstream.playback.MeteringTransferListener;
+import com.ojm.pinstream.playback.PcmTapAudioProcessor;
+import com.ojm.pinstream.playback.PlaybackStateMachine;
+import com.ojm.pinstream.playback.PreferredExtractorsFactory;
+import com.ojm.pinstream.playback.ReconnectingDataSource;
+import com.ojm.pinstream.playback.StreamReconnector;
+import com.ojm.pinstream.playback.StreamResolver;
+import com.ojm.pinstream.playback.SwitchableLoadControl;
+import com.ojm.pinstream.playback.TransportState;
+import com.ojm.pinstream.playback.WarmStreamPool;
+import com.ojm.pinstream.visualizer.AudioTap;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
  * A MediaBrowserService class that provides the streaming functionality.
  * The class starts and maintains a background service with a foreground notification,
- * and manages audio output management, playback state callbacks and playback itself
+ * and manages audio output management, playback state callbacks and playback itself.
+ * The player, session callbacks and everything they touch live on a dedicated
+ * playback thread, so jank on the main thread never holds up transport commands or
+ * player events. Only the foreground notification and stopping the service are
+ * passed back to the main thread. The player is built on the first prepare and
+ * released after a while paused, or sooner if memory runs short
  */
 public class StreamingService extends MediaBrowserServiceCompat {
 
@@ -65,6 +113,27 @@ public class StreamingService extends MediaBrowserServiceCompat {
     // This represents a dummy root directory as we are not playing on-device files
     private static final String EMPTY_MEDIA_ROOT_ID = "/pinstream";
 
+    // How long to leave a new stream to buffer before warming its neighbours
+    private static final long WARM_NEIGHBOURS_DELAY = 3000;
+
+    // How often the player's health is sampled
+    private static final long METRICS_SAMPLE_INTERVAL = 1000;
+
+    // Session event sent when a stream recovers from an outage, with its extras
+    public static final String EVENT_STREAM_RECOVERED = "com.ojm.pinstream.STREAM_RECOVERED";
+    public static final String EXTRA_OUTAGE_MILLIS = "outage_millis";
+    public static final String EXTRA_RECONNECT_ATTEMPTS = "reconnect_attempts";
+
+    // Session command answered straight away, for timing a round trip to the player
+    public static final String COMMAND_PING = "com.ojm.pinstream.PING";
+
+    // Preference holding the global buffer profile key
+    private static final String PREF_BUFFER_PROFILE = "buffer_profile";
+
+    // Preference holding the minutes paused before the player is released, 0 for never
+    private static final String PREF_IDLE_RELEASE_MINUTES = "idle_release_minutes";
+    private static final String DEFAULT_IDLE_RELEASE_MINUTES = "5";
+
     // Out notification channel
     private static final String NOTIFICATION_CHANNEL = "1337";
 
@@ -72,7 +141,8 @@ public class StreamingService extends MediaBrowserServiceCompat {
     private final IntentFilter mAudioNoisyIntentFilter =
             new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY);
 
-    // Receives broadcast of headphones unplugged and pauses playback accordingly
+    // Receives broadcast of headphones unplugged and pauses playback accordingly,
+    // registered to run on the playback thread
     private final BroadcastReceiver mAudioNoisyReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -80,7 +150,7 @@ public class StreamingService extends MediaBrowserServiceCompat {
         }
     };
 
-    // Media session callback provides essential control functions
+    // Media session callback provides essential control functions, on the playback thread
     private final MediaSessionCompat.Callback mMediaSessionCallback =
             new MediaSessionCompat.Callback() {
                 /**
@@ -88,6 +158,10 @@ public class StreamingService extends MediaBrowserServiceCompat {
                  */
                 @Override
                 public void onPlay() {
+                    // Nothing prepared, or already playing
+                    if (!mTransportState.play()) return;
+                    mPlaybackHandler.removeCallbacks(mReleaseIdlePlayer);
+
                     // Request audio focus from system
                     switch (mAudioManager.requestAudioFocus(
                             mOnAudioFocusChangeListener,
@@ -101,6 +175,15 @@ public class StreamingService extends MediaBrowserServiceCompat {
                             // Register receiver
                             registerAudioNoisyReceiver();
 
+                            // Rebuild the player if it was released while paused, which
+                            // samples it again, otherwise resume sampling it once prepared
+                            if (mExoPlayer == null) {
+                                rebuildPlayer();
+                            } else if (mResolvedStream != null) {
+                                mPlaybackHandler.removeCallbacks(mSampleMetrics);
+                                mPlaybackHandler.post(mSampleMetrics);
+                            }
+
                             // Acquire wifi lock and start playback
                             mWifiLock.acquire();
                             mExoPlayer.setPlayWhenReady(true);
@@ -121,7 +204,7 @@ public class StreamingService extends MediaBrowserServiceCompat {
                             break;
                         // Focus request was not granted, default to stopping the service
                         default:
-                            stopSelf();
+                            onStop();
                             break;
                     }
                 }
@@ -131,14 +214,17 @@ public class StreamingService extends MediaBrowserServiceCompat {
                  */
                 @Override
                 public void onPause() {
+                    if (!mTransportState.pause()) return;
+
                     // Unregister noisy receiver
                     unregisterAudioNoisyReceiver();
 
                     // Release wifi lock if help
                     if (mWifiLock.isHeld()) mWifiLock.release();
 
-                    // Stop playback
+                    // Stop playback, and stop sampling it until it resumes
                     mExoPlayer.setPlayWhenReady(false);
+                    mPlaybackHandler.removeCallbacks(mSampleMetrics);
 
                     // Adjust and set states accordingly
                     mPlaybackStateBuilder
@@ -147,6 +233,7 @@ public class StreamingService extends MediaBrowserServiceCompat {
                     mMediaSession.setPlaybackState(mPlaybackStateBuilder.build());
 
                     configureServiceState(PlaybackStateCompat.ACTION_PAUSE);
+                    scheduleIdleRelease();
                 }
 
                 /**
@@ -154,14 +241,25 @@ public class StreamingService extends MediaBrowserServiceCompat {
                  */
                 @Override
                 public void onStop() {
+                    // Nothing prepared, so nothing to stop
+                    if (!mTransportState.stop()) return;
+
                     // Unregister noisy receiver
                     unregisterAudioNoisyReceiver();
 
                     // Release wifi lock if held
                     if (mWifiLock.isHeld()) mWifiLock.release();
 
-                    // Stop playback
-                    mExoPlayer.stop();
+                    // Stop playback, and stop trying to keep it going. Any stream
+                    // still being resolved is no longer wanted
+                    mPrepareGeneration++;
+                    mTimeToFirstAudio.cancel();
+                    mMetrics.onRebufferEnded(SystemClock.elapsedRealtime());
+                    mPlaybackHandler.removeCallbacks(mSampleMetrics);
+                    if (mExoPlayer != null) {
+                        mStreamReconnector.stop();
+                        mExoPlayer.stop();
+                    }
 
                     // Configure and set states
                     mPlaybackStateBuilder.setState(
@@ -172,6 +270,7 @@ public class StreamingService extends MediaBrowserServiceCompat {
                     mMediaSession.setPlaybackState(mPlaybackStateBuilder.build());
 
                     configureServiceState(PlaybackStateCompat.ACTION_STOP);
+                    scheduleIdleRelease();
                 }
 
                 /**
@@ -181,15 +280,42 @@ public class StreamingService extends MediaBrowserServiceCompat {
                  */
                 @Override
                 public void onPrepareFromUri(Uri uri, Bundle extras) {
-                    // Configure an ExoPlayer media source from the URI
-                    MediaSource mediaSource = new ExtractorMediaSource.Factory(
-                            new DefaultHttpDataSourceFactory(
-                                    getResources().getString(R.string.app_name)))
-                            .createMediaSource(uri);
+                    if (!mTransportState.prepare()) return;
+
+                    // The player is only built once there's something to play
+                    ensurePlayer();
+
+                    // Resolve the bookmark being played
+                    mSelectedBookmark = resolveBookmark(uri, extras);
+
+                    // Health figures start again with each stream
+                    mPlaybackState.onPrepare();
+                    mPlaybackHandler.removeCallbacks(mSampleMetrics);
+                    mPlaybackHandler.post(mSampleMetrics);
+
+                    // Time this start, carrying on from the marks the client made
+                    mTimeToFirstAudio.begin(mSelectedBookmark.getID(),
+                            extras.getLong(TimeToFirstAudio.EXTRA_TAPPED),
+                            extras.getLong(TimeToFirstAudio.EXTRA_LAUNCHED),
+                            extras.getLong(TimeToFirstAudio.EXTRA_CONNECTED),
+                            SystemClock.elapsedRealtime());
+
+                    // Stop the previous stream while this one is found
+                    final int generation = ++mPrepareGeneration;
+                    mResolvedStream = null;
+                    mStreamReconnector.stop();
+                    mExoPlayer.stop();
 
-                    // Set class loader to Bookmark and retrieve from parcel
-                    extras.setClassLoader(Bookmark.class.getClassLoader());
-                    mSelectedBookmark = extras.getParcelable(Bookmark.PARCEL);
+                    // Buffer as this station's profile asks, falling back to the setting,
+                    // with the full budget again until memory next runs short
+                    mLoadControl.setMemoryLimited(false);
+                    mLoadControl.setProfile(BufferProfile.resolve(
+                            mSelectedBookmark.getBufferProfile(),
+                            PreferenceManager.getDefaultSharedPreferences(StreamingService.this)
+                                    .getString(PREF_BUFFER_PROFILE, null)));
+
+                    // Show the station alone until the stream says what's playing
+                    updateNowPlaying(null, null);
 
                     // Create a bundle with the currently playing bookmark's ID
                     // Allows client to test if user is already streaming this URI
@@ -200,8 +326,48 @@ public class StreamingService extends MediaBrowserServiceCompat {
                     mPlaybackStateBuilder.setExtras(idBundle);
                     mMediaSession.setPlaybackState(mPlaybackStateBuilder.build());
 
-                    // Prepare the media player
-                    mExoPlayer.prepare(mediaSource);
+                    // Find where the stream really is and what it is, usually from
+                    // the database, then prepare the media player and look after it
+                    mStreamResolver.resolve(mSelectedBookmark, false,
+                            new StreamResolver.Callback() {
+                                @Override
+                                public void onResolved(final ResolvedStream stream,
+                                                       final boolean stored) {
+                                    mPlaybackHandler.post(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            onStreamResolved(generation, stream, stored);
+                                        }
+                                    });
+                                }
+                            });
+
+                    // Find the bookmarks either side, ready to skip to
+                    findNeighbours();
+                }
+
+                /**
+                 * Performed on request to skip to the next bookmark in the list
+                 */
+                @Override
+                public void onSkipToNext() {
+                    skipTo(mNextBookmark);
+                }
+
+                /**
+                 * Performed on request to skip to the previous bookmark in the list
+                 */
+                @Override
+                public void onSkipToPrevious() {
+                    skipTo(mPreviousBookmark);
+                }
+
+                /**
+                 * Performed on receipt of a custom command, answering pings at once
+                 */
+                @Override
+                public void onCommand(String command, Bundle extras, ResultReceiver cb) {
+                    if (COMMAND_PING.equals(command) && cb != null) cb.send(0, null);
                 }
             };
 
@@ -209,48 +375,207 @@ public class StreamingService extends MediaBrowserServiceCompat {
     private final AudioManager.OnAudioFocusChangeListener mOnAudioFocusChangeListener =
             new AudioManager.OnAudioFocusChangeListener() {
                 /**
-                 * Performed on detection of audio focus change
+                 * Performed on detection of audio focus change, on the main thread
                  * @param focusChange int identifying the change that has occurred
                  */
                 @Override
-                public void onAudioFocusChange(int focusChange) {
-                    switch (focusChange) {
-                        // If focus gained
-                        case AudioManager.AUDIOFOCUS_GAIN:
-                            mCurrentAudioFocusState = AUDIO_FOCUSED;
-                            break;
-                        // Focus lost transiently, can duck volume
-                        case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-                            mCurrentAudioFocusState = AUDIO_NO_FOCUS_CAN_DUCK;
-                            break;
-                        // Focus lost transiently, can't duck volume
-                        case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
-                            mCurrentAudioFocusState = AUDIO_NO_FOCUS_NO_DUCK;
-                            break;
-                        // Focus lost permanently
-                        case AudioManager.AUDIOFOCUS_LOSS:
-                            mCurrentAudioFocusState = AUDIO_NO_FOCUS_LOST;
-                            break;
-                    }
-
-                    // Configure media player's state for new focus state
-                    if (mExoPlayer != null) configurePlayerState();
+                public void onAudioFocusChange(final int focusChange) {
+                    mPlaybackHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onFocusChanged(focusChange);
+                        }
+                    });
                 }
             };
 
-    // Track is noisy receiver is registered and if service is started
+    // Track is noisy receiver is registered and if service is started, the latter
+    // only on the main thread
     private boolean mAudioNoisyReceiverRegistered = false;
     private boolean mServiceInStartedState = false;
 
     // Track focus state
     private int mCurrentAudioFocusState = AUDIO_NO_FOCUS_NO_DUCK;
 
+    // Action shown on the current notification, 0 when there is none
+    private long mNotificationAction = 0;
+
+    // Track title from the stream's metadata, null until it sends one
+    private String mNowPlaying;
+
+    // Cover art for the current track and the key it was looked up by, null if none
+    private Bitmap mArtwork;
+    private String mArtworkKey;
+
+    // Runs the player, session callbacks and everything they touch
+    private HandlerThread mPlaybackThread;
+    private Handler mPlaybackHandler;
+
+    // Handler for passing notification and service state to the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Which commands make sense now, only moved on the playback thread
+    private final TransportState mTransportState = new TransportState();
+
+    // Rebuilds the stream after an outage and reports how it went
+    private final StreamReconnector.Callback mReconnectCallback =
+            new StreamReconnector.Callback() {
+                @Override
+                public MediaSource createMediaSource() {
+                    // A stored resolution may be stale, so check it again alongside
+                    // this retry. Later retries pick up whatever it finds
+                    if (mResolvedStreamStored) {
+                        mResolvedStreamStored = false;
+                        revalidateStream();
+                    }
+
+                    // Any warm connection is long gone, connect afresh
+                    return StreamingService.this.createMediaSource(mResolvedStream, false);
+                }
+
+                @Override
+                public void onRecovered(long outageMillis, int attempts) {
+                    mMetrics.recordDroppedConnection();
+
+                    Bundle extras = new Bundle();
+                    extras.putLong(EXTRA_OUTAGE_MILLIS, outageMillis);
+                    extras.putInt(EXTRA_RECONNECT_ATTEMPTS, attempts);
+                    mMediaSession.sendSessionEvent(EVENT_STREAM_RECOVERED, extras);
+                }
+
+                @Override
+                public void onGaveUp(ExoPlaybackException error) {
+                    mMetrics.recordDroppedConnection();
+
+                    // The station is really gone, end the session as before
+                    mMediaSession.getController().getTransportControls().stop();
+                }
+            };
+
+    // Times each start from tap to audio, one at a time
+    private final TimeToFirstAudio mTimeToFirstAudio = new TimeToFirstAudio();
+
+    // Marks the stream's first response, which arrives on the loading thread
+    private final ConnectTimings.Listener mConnectTimingsListener =
+            new ConnectTimings.Listener() {
+                @Override
+                public void onConnectTimings(final ConnectTimings timings) {
+                    final long now = SystemClock.elapsedRealtime();
+
+                    mPlaybackHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Only the stream's own host counts, not artwork or warming
+                            if (mResolvedStream != null && timings.getHost().equalsIgnoreCase(
+                                    Uri.parse(mResolvedStream.getUrl()).getHost())) {
+                                mTimeToFirstAudio.markFirstByte(now);
+                            }
+                        }
+                    });
+                }
+            };
+
+    // Health of the stream being played, shared with any screen showing it
+    private final PlaybackMetrics mMetrics = PlaybackMetrics.getInstance();
+
+    // Counts stalls, and records the start once the player is ready and playing
+    private final PlaybackStateMachine mPlaybackState = new PlaybackStateMachine(
+            mMetrics, mTimeToFirstAudio, new PlaybackStateMachine.StartListener() {
+                @Override
+                public void onStarted(int bookmarkId, Map<String, Long> phases) {
+                    mBookmarkWriter.recordLatencies(bookmarkId, phases);
+                }
+            });
+
+    // Samples the player's health once a second while a stream is prepared and not paused
+    private final Runnable mSampleMetrics = new Runnable() {
+        @Override
+        public void run() {
+            Format format = mExoPlayer.getAudioFormat();
+            long throughput = mBandwidthMeter.getBitrateEstimate();
+
+            mMetrics.sample(SystemClock.elapsedRealtime(),
+                    Math.max(0, mExoPlayer.getBufferedPosition() - mExoPlayer.getCurrentPosition()),
+                    throughput == BandwidthMeter.NO_ESTIMATE ? 0 : throughput,
+                    format == null || format.bitrate == Format.NO_VALUE ? 0 : format.bitrate);
+
+            mPlaybackHandler.postDelayed(this, METRICS_SAMPLE_INTERVAL);
+        }
+    };
+
+    // Passes the player's state changes on to the playback state machine
+    private final Player.EventListener mPlayerStateListener = new Player.DefaultEventListener() {
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            mPlaybackState.onStateChanged(
+                    playWhenReady, playbackState, SystemClock.elapsedRealtime());
+        }
+    };
+
+    // Receives artwork on the main thread and shows it from the playback thread
+    private final ArtworkLoader.Callback mArtworkCallback = new ArtworkLoader.Callback() {
+        @Override
+        public void onArtwork(final String key, final Bitmap artwork) {
+            mPlaybackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Ignore artwork for a track that has since changed
+                    if (artwork == null || key == null || !key.equals(mArtworkKey)) return;
+
+                    mArtwork = artwork;
+                    publishNowPlaying();
+                }
+            });
+        }
+    };
+
+    // Bookmarks either side of the selected one in list order, null until found
+    private Bookmark mPreviousBookmark;
+    private Bookmark mNextBookmark;
+
+    // Where to warm the neighbouring streams, null for nothing to warm
+    private Uri mPreviousWarmUri;
+    private Uri mNextWarmUri;
+
+    // Warms the neighbouring streams once the selected one has had time to buffer
+    private final Runnable mWarmNeighbours = new Runnable() {
+        @Override
+        public void run() {
+            mWarmStreamPool.warm(mNextWarmUri, mPreviousWarmUri);
+        }
+    };
+
+    // Releases the player's buffers once it has been idle long enough
+    private final Runnable mReleaseIdlePlayer = new Runnable() {
+        @Override
+        public void run() {
+            releaseIdlePlayer();
+        }
+    };
+
     // Instance object fields
     private AudioManager mAudioManager;
     private SimpleExoPlayer mExoPlayer;
+    private SwitchableLoadControl mLoadControl;
+    private DefaultBandwidthMeter mBandwidthMeter;
     private MediaSessionCompat mMediaSession;
     private PlaybackStateCompat.Builder mPlaybackStateBuilder;
     private Bookmark mSelectedBookmark;
+    private WarmStreamPool mWarmStreamPool;
+    private HttpDataSource.Factory mHttpDataSourceFactory;
+    private StreamReconnector mStreamReconnector;
+    private StreamResolver mStreamResolver;
+
+    // Where the player's selection changes and measurements are written
+    private BookmarkWriter mBookmarkWriter;
+
+    // Where the selected stream resolved to, and whether that came from the database
+    private ResolvedStream mResolvedStream;
+    private boolean mResolvedStreamStored;
+
+    // Bumped whenever a new stream is prepared or playback stops, so results of
+    // lookups for an earlier one can be recognised and dropped
+    private int mPrepareGeneration;
     private WifiManager.WifiLock mWifiLock;
 
     /**
@@ -284,26 +609,29 @@ public class StreamingService extends MediaBrowserServiceCompat {
         // Retrieve system audio manager
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
-        // Some setup required for ExoPlayer
-        BandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
-
-        TrackSelection.Factory trackSelectionFactory =
-                new AdaptiveTrackSelection.Factory(bandwidthMeter);
-
-        TrackSelector trackSelector =
-                new DefaultTrackSelector(trackSelectionFactory);
-
-        // Get ExoPlayer instance
-        mExoPlayer = ExoPlayerFactory.newSimpleInstance(this, trackSelector);
-
-        // Initialise the media session and set callbacks and handler flags
-        mMediaSession = new MediaSessionCompat(this, getResources().getString(R.string.app_name));
-
-        mMediaSession.setCallback(mMediaSessionCallback);
+        // Obtain wifi lock
+        mWifiLock =
+                ((WifiManager) Objects.requireNonNull(
+                        this.getSystemService(Context.WIFI_SERVICE)))
+                        .createWifiLock(WifiManager.WIFI_MODE_FULL, "ps_wifi_lock");
 
-        mMediaSession.setFlags(
-                MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS
-                        | MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
+        // Write through the screens' repository when sharing their process, so
+        // their list follows along, otherwise straight to the database
+        mBookmarkWriter = BuildConfig.PLAYER_PROCESS
+                ? DirectBookmarkWriter.getInstance(this)
+                : BookmarkRepository.getInstance(this);
+
+        // Start the playback thread and set up streaming on it. The player is
+        // built there on the first prepare, so it reports its events there too
+        mPlaybackThread = new HandlerThread("Playback", Process.THREAD_PRIORITY_AUDIO);
+        mPlaybackThread.start();
+        mPlaybackHandler = new Handler(mPlaybackThread.getLooper());
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                setUpStreaming();
+            }
+        });
 
         // Initialise playback state and set current state and supported actions
         mPlaybackStateBuilder = new PlaybackStateCompat.Builder()
@@ -313,17 +641,177 @@ public class StreamingService extends MediaBrowserServiceCompat {
                                 PlaybackStateCompat.ACTION_PLAY_PAUSE |
                                 PlaybackStateCompat.ACTION_PLAY |
                                 PlaybackStateCompat.ACTION_PAUSE |
-                                PlaybackStateCompat.ACTION_STOP);
+                                PlaybackStateCompat.ACTION_STOP |
+                                PlaybackStateCompat.ACTION_SKIP_TO_NEXT |
+                                PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS);
+
+        // Initialise the media session and set handler flags. Its callbacks run on
+        // the playback thread, after streaming has been set up
+        mMediaSession = new MediaSessionCompat(this, getResources().getString(R.string.app_name));
+
+        mMediaSession.setFlags(
+                MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS
+                        | MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
 
         // Assign state to session and assign session token to service
         mMediaSession.setPlaybackState(mPlaybackStateBuilder.build());
+        mMediaSession.setCallback(mMediaSessionCallback, mPlaybackHandler);
         setSessionToken(mMediaSession.getSessionToken());
+    }
 
-        // Obtain wifi lock
-        mWifiLock =
-                ((WifiManager) Objects.requireNonNull(
-                        this.getSystemService(Context.WIFI_SERVICE)))
-                        .createWifiLock(WifiManager.WIFI_MODE_FULL, "ps_wifi_lock");
+    /**
+     * Set up everything streams are found and fetched through, on the playback
+     * thread. None of it holds much memory, so it lives as long as the service
+     */
+    private void setUpStreaming() {
+        // Open the database now rather than on the first bookmark read
+        BookmarkReader.getInstance(this).open();
+
+        // The bandwidth meter hears every stream transfer, giving the throughput
+        // shown in the health metrics and a head start to a rebuilt player
+        mBandwidthMeter = new DefaultBandwidthMeter();
+
+        // Buffering can change with each station, and holds the player's memory
+        mLoadControl = new SwitchableLoadControl();
+
+        // Streams share the process-wide HTTP client, so replays reuse its pooled
+        // connections, remembered host lookups and TLS sessions
+        mHttpDataSourceFactory = StreamHttpClient.getInstance().createDataSourceFactory(
+                getResources().getString(R.string.app_name),
+                new MeteringTransferListener(mBandwidthMeter, mMetrics));
+
+        // Pool of neighbouring streams, connected ahead of time for quick skipping
+        mWarmStreamPool = new WarmStreamPool(this, mHttpDataSourceFactory);
+
+        // Finds where bookmarks' streams really are, through the same client
+        mStreamResolver = new StreamResolver(BookmarkReader.getInstance(this), mBookmarkWriter,
+                StreamHttpClient.getInstance().getClient());
+
+        // Time each start from tap to audio
+        StreamHttpClient.getInstance().addTimingsListener(mConnectTimingsListener);
+    }
+
+    /**
+     * Build the player if there isn't one, on the playback thread. It waits for the
+     * first stream, and is built again when needed after being released while idle
+     */
+    private void ensurePlayer() {
+        if (mExoPlayer != null) return;
+
+        TrackSelection.Factory trackSelectionFactory =
+                new AdaptiveTrackSelection.Factory(mBandwidthMeter);
+
+        TrackSelector trackSelector =
+                new DefaultTrackSelector(trackSelectionFactory);
+
+        // Decoded audio is tapped for the visualiser on its way to the speaker
+        RenderersFactory renderersFactory = new DefaultRenderersFactory(this) {
+            @Override
+            protected AudioProcessor[] buildAudioProcessors() {
+                return new AudioProcessor[] {
+                        new PcmTapAudioProcessor(AudioTap.getInstance())
+                };
+            }
+        };
+
+        mExoPlayer = ExoPlayerFactory.newSimpleInstance(
+                renderersFactory, trackSelector, mLoadControl);
+
+        // Reconnects dropped and stalled streams on the same player
+        mStreamReconnector = new StreamReconnector(mExoPlayer, mReconnectCallback,
+                mPlaybackHandler);
+        mExoPlayer.addListener(mStreamReconnector);
+
+        // Count stalls, and record each start once playing
+        mExoPlayer.addListener(mPlayerStateListener);
+    }
+
+    /**
+     * Build the player again after it was released while paused, preparing it with
+     * the stream it was playing. The stream's resolution is kept, so resuming only
+     * connects again, through the shared client's pool and remembered host lookups
+     */
+    private void rebuildPlayer() {
+        ensurePlayer();
+
+        // Still being resolved, the player is prepared once it is
+        if (mResolvedStream == null) return;
+
+        mPlaybackState.onRebuilt();
+        mExoPlayer.prepare(createMediaSource(mResolvedStream, false));
+        mStreamReconnector.start();
+        mPlaybackHandler.removeCallbacks(mSampleMetrics);
+        mPlaybackHandler.post(mSampleMetrics);
+    }
+
+    /**
+     * Release the player once it has been paused or stopped for the chosen time,
+     * unless that is never
+     */
+    private void scheduleIdleRelease() {
+        long minutes = Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this)
+                .getString(PREF_IDLE_RELEASE_MINUTES, DEFAULT_IDLE_RELEASE_MINUTES));
+
+        mPlaybackHandler.removeCallbacks(mReleaseIdlePlayer);
+        if (minutes > 0) {
+            mPlaybackHandler.postDelayed(mReleaseIdlePlayer, minutes * 60 * 1000);
+        }
+    }
+
+    /**
+     * Release the player and its buffers while nothing is playing, keeping the
+     * session, the stream's resolution and its health figures for a quick resume
+     */
+    private void releaseIdlePlayer() {
+        if (mExoPlayer == null || mTransportState.get() == TransportState.PLAYING) return;
+
+        mPlaybackHandler.removeCallbacks(mReleaseIdlePlayer);
+        mPlaybackHandler.removeCallbacks(mSampleMetrics);
+        mStreamReconnector.stop();
+        mExoPlayer.release();
+        mExoPlayer = null;
+        mStreamReconnector = null;
+    }
+
+    /**
+     * Give back memory when the system asks. Artwork is trimmed here on the main
+     * thread, the player's share on the playback thread
+     * @param level how hard the system is pressed for memory
+     */
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        ArtworkLoader.getInstance(this).trimMemory(level);
+
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                trimPlayback(level);
+            }
+        });
+    }
+
+    /**
+     * Shrink what playback holds once memory runs low or the process is in the
+     * background. An idle player is released straight away, a playing one keeps a
+     * small buffer until the next stream, and warm and idle connections are closed
+     * @param level the trim level from onTrimMemory
+     */
+    private void trimPlayback(int level) {
+        // Everything has already gone
+        if (mTransportState.get() == TransportState.RELEASED) return;
+
+        if (level < TRIM_MEMORY_BACKGROUND
+                && level != TRIM_MEMORY_RUNNING_LOW
+                && level != TRIM_MEMORY_RUNNING_CRITICAL) return;
+
+        releaseIdlePlayer();
+        mLoadControl.setMemoryLimited(true);
+
+        // Warming is only a head start, it can be done again when there's room
+        mPlaybackHandler.removeCallbacks(mWarmNeighbours);
+        mWarmStreamPool.clear();
+        StreamHttpClient.getInstance().evictIdleConnections();
     }
 
     /**
@@ -337,24 +825,368 @@ public class StreamingService extends MediaBrowserServiceCompat {
     }
 
     /**
-     * Performed when service is destroyed by system after stopping
+     * Performed when service is destroyed by system after stopping. Everything
+     * is released on the playback thread, after any commands already queued
      */
     @Override
     public void onDestroy() {
-        // Deselect bookmark and update database
-        mSelectedBookmark.setSelected(false);
-        new DatabaseHandler(getApplicationContext())
-                .updateBookmark(mSelectedBookmark);
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releasePlayer();
+            }
+        });
+
+        // Anything posted after the release is dropped
+        mPlaybackThread.quitSafely();
+        super.onDestroy();
+    }
+
+    /**
+     * Release the player and session, on the playback thread
+     */
+    private void releasePlayer() {
+        if (!mTransportState.release()) return;
+        mPrepareGeneration++;
+
+        // Deselect bookmark and update database in the background
+        if (mSelectedBookmark != null) {
+            mBookmarkWriter.deselect(mSelectedBookmark.getID());
+        }
 
         // Release wifi lock if held
         if (mWifiLock.isHeld()) mWifiLock.release();
 
+        // Drop any artwork still being looked up
+        mArtworkKey = null;
+
+        // Close warm streams, and stop waiting to release the player
+        mPlaybackHandler.removeCallbacks(mWarmNeighbours);
+        mPlaybackHandler.removeCallbacks(mSampleMetrics);
+        mPlaybackHandler.removeCallbacks(mReleaseIdlePlayer);
+        mWarmStreamPool.release();
+        mStreamResolver.release();
+        StreamHttpClient.getInstance().removeTimingsListener(mConnectTimingsListener);
+
+        // Stop reconnecting and release the player, if it was ever built
+        if (mExoPlayer != null) {
+            mStreamReconnector.stop();
+            mExoPlayer.release();
+        }
+
         // Release other resources
-        mExoPlayer.release();
         mMediaSession.release();
         unregisterAudioNoisyReceiver();
+    }
 
-        super.onDestroy();
+    /**
+     * Find the bookmark a prepare request refers to. Clients sharing this process
+     * send just its ID, which the repository's cache almost always holds as the
+     * client has just resolved it. Clients in another process parcel the whole
+     * bookmark, as may others. Anything else is read in the background
+     * @param uri the Uri being prepared
+     * @param extras the extras sent with the request
+     * @return the bookmark, or a stand-in titled by its URL until it has loaded
+     */
+    private Bookmark resolveBookmark(Uri uri, Bundle extras) {
+        // Set class loader to Bookmark in case it was parcelled whole
+        extras.setClassLoader(Bookmark.class.getClassLoader());
+        if (extras.containsKey(Bookmark.PARCEL)) return extras.getParcelable(Bookmark.PARCEL);
+
+        final int id = extras.getInt(Bookmark.ID, -1);
+
+        // A player in its own process has no repository cache to look in
+        if (!BuildConfig.PLAYER_PROCESS) {
+            Bookmark bookmark = BookmarkRepository.getInstance(this).peekBookmark(id);
+            if (bookmark != null) return bookmark;
+        }
+
+        // Not in memory, load it and swap it in if it's still the one playing
+        BookmarkReader.getInstance(this).getBookmark(id, mPlaybackHandler,
+                new BookmarkReader.Callback<Bookmark>() {
+                    @Override
+                    public void onResult(Bookmark result) {
+                        if (result != null && mSelectedBookmark != null
+                                && mSelectedBookmark.getID() == id) {
+                            mSelectedBookmark = result;
+                        }
+                    }
+                });
+
+        return new Bookmark(id, uri.toString(), uri.toString(), true);
+    }
+
+    /**
+     * Prepare the player with the selected bookmark's stream once it's resolved,
+     * then look after it
+     * @param generation the preparation the stream was resolved for
+     * @param stream the resolved stream
+     * @param stored whether the resolution came from the database
+     */
+    private void onStreamResolved(int generation, ResolvedStream stream, boolean stored) {
+        // Another stream was chosen, or playback stopped
+        if (generation != mPrepareGeneration) return;
+
+        mTimeToFirstAudio.markResolved(SystemClock.elapsedRealtime());
+        mResolvedStream = stream;
+        mResolvedStreamStored = stored;
+
+        // Released while paused, playing again builds and prepares it
+        if (mExoPlayer == null) return;
+
+        mExoPlayer.prepare(createMediaSource(stream, true));
+        mStreamReconnector.start();
+    }
+
+    /**
+     * Build the media source for a resolved stream. HLS and DASH get their own
+     * sources, which fetch and retry segments themselves. For plain streams track
+     * metadata is read from the stream, drops and stalls are reconnected underneath
+     * the player and the extractor for a known codec is tried first
+     * @param stream the resolved stream
+     * @param warm whether to use a warm connection from the pool, if there is one
+     * @return a media source for the player
+     */
+    private MediaSource createMediaSource(ResolvedStream stream, boolean warm) {
+        Uri uri = Uri.parse(stream.getUrl());
+
+        switch (stream.getType()) {
+            case HLS:
+                return new HlsMediaSource.Factory(mHttpDataSourceFactory).createMediaSource(uri);
+            case DASH:
+                return new DashMediaSource.Factory(
+                        new DefaultDashChunkSource.Factory(mHttpDataSourceFactory),
+                        mHttpDataSourceFactory)
+                        .createMediaSource(uri);
+        }
+
+        MetadataListener metadataListener = new MetadataListener(mSelectedBookmark.getID());
+        DataSource.Factory coldFactory =
+                new IcyDataSource.Factory(mHttpDataSourceFactory, metadataListener);
+
+        DataSource.Factory firstFactory = warm
+                ? mWarmStreamPool.createDataSourceFactory(uri, metadataListener)
+                : coldFactory;
+
+        return new ExtractorMediaSource.Factory(
+                new ReconnectingDataSource.Factory(firstFactory, coldFactory, mStreamReconnector))
+                .setExtractorsFactory(new PreferredExtractorsFactory(stream.getCodec()))
+                .createMediaSource(uri);
+    }
+
+    /**
+     * Probe the selected stream again, replacing its stored resolution, after
+     * playing it failed. The result is used from the next retry on
+     */
+    private void revalidateStream() {
+        final int generation = mPrepareGeneration;
+
+        mStreamResolver.resolve(mSelectedBookmark, true, new StreamResolver.Callback() {
+            @Override
+            public void onResolved(final ResolvedStream stream, boolean stored) {
+                mPlaybackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mPrepareGeneration) mResolvedStream = stream;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Look up the bookmarks either side of the selected one, then warm their streams
+     * once the selected stream has had a head start
+     */
+    private void findNeighbours() {
+        final int id = mSelectedBookmark.getID();
+
+        mPreviousBookmark = null;
+        mNextBookmark = null;
+        mPreviousWarmUri = null;
+        mNextWarmUri = null;
+        mPlaybackHandler.removeCallbacks(mWarmNeighbours);
+
+        BookmarkReader.getInstance(this).getAdjacentBookmarks(id, mPlaybackHandler,
+                new BookmarkReader.Callback<Bookmark[]>() {
+                    @Override
+                    public void onResult(Bookmark[] adjacent) {
+                        onNeighboursFound(id, adjacent);
+                    }
+                });
+    }
+
+    /**
+     * Keep the bookmarks found either side of the selected one, ready to skip to,
+     * then look up where their streams were last resolved to
+     * @param id the ID of the bookmark they were found for
+     * @param adjacent the previous and next bookmarks, either may be null
+     */
+    private void onNeighboursFound(final int id, Bookmark[] adjacent) {
+        // Another bookmark started meanwhile
+        if (mSelectedBookmark == null || mSelectedBookmark.getID() != id) return;
+
+        mPreviousBookmark = adjacent[0];
+        mNextBookmark = adjacent[1];
+
+        BookmarkReader.getInstance(this).getResolvedStreams(adjacent, mPlaybackHandler,
+                new BookmarkReader.Callback<ResolvedStream[]>() {
+                    @Override
+                    public void onResult(ResolvedStream[] streams) {
+                        onNeighbourStreamsFound(id, streams);
+                    }
+                });
+    }
+
+    /**
+     * Warm the neighbouring streams once the selected one has had a head start
+     * @param id the ID of the bookmark the neighbours were found for
+     * @param streams the previous and next streams as last resolved, either null
+     *                if never resolved
+     */
+    private void onNeighbourStreamsFound(int id, ResolvedStream[] streams) {
+        if (mSelectedBookmark == null || mSelectedBookmark.getID() != id) return;
+
+        mPreviousWarmUri = warmUriFor(mPreviousBookmark, streams[0]);
+        mNextWarmUri = warmUriFor(mNextBookmark, streams[1]);
+        mPlaybackHandler.postDelayed(mWarmNeighbours, WARM_NEIGHBOURS_DELAY);
+    }
+
+    /**
+     * Where to warm a neighbour's stream. Playing it asks the pool for where it was
+     * last resolved to, so that's what is warmed, or its own URL if it has never been
+     * resolved. HLS and DASH fetch their own segments, so are never warmed
+     * @param bookmark the neighbouring bookmark, may be null
+     * @param stream where its stream was last resolved to, or null
+     * @return the Uri to warm, or null for none
+     */
+    private static Uri warmUriFor(Bookmark bookmark, ResolvedStream stream) {
+        if (bookmark == null) return null;
+        if (stream == null) return bookmark.getUrl();
+
+        return stream.getType() == ResolvedStream.Type.PROGRESSIVE
+                ? Uri.parse(stream.getUrl())
+                : null;
+    }
+
+    /**
+     * Switch playback to another bookmark, selecting it in the list. Playback
+     * continues if it was playing and starts if it wasn't
+     * @param bookmark the bookmark to play, ignored if null
+     */
+    private void skipTo(Bookmark bookmark) {
+        if (bookmark == null) return;
+
+        mBookmarkWriter.selectExclusive(bookmark.getID());
+
+        // Hand over the whole bookmark, it's already in hand
+        Bundle extras = new Bundle();
+        extras.putParcelable(Bookmark.PARCEL, bookmark);
+        mMediaSessionCallback.onPrepareFromUri(bookmark.getUrl(), extras);
+
+        if (mTransportState.get() != TransportState.PLAYING) mMediaSessionCallback.onPlay();
+    }
+
+    /**
+     * Receives metadata for one bookmark's stream on the loading thread and passes
+     * it to the playback thread, dropping it if another bookmark has started since
+     */
+    private class MetadataListener implements IcyDataSource.Listener {
+        private final int bookmarkId;
+
+        MetadataListener(int bookmarkId) {
+            this.bookmarkId = bookmarkId;
+        }
+
+        @Override
+        public void onIcyMetadata(final String streamTitle, final String streamUrl) {
+            mPlaybackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSelectedBookmark != null && mSelectedBookmark.getID() == bookmarkId) {
+                        updateNowPlaying(streamTitle, streamUrl);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Record what's playing and look up its artwork. Artwork already in memory is
+     * shown straight away, anything else follows when the loader answers. The
+     * loader works from the main thread, so the lookup starts there
+     * @param streamTitle the stream's title metadata, or null if there is none
+     * @param streamUrl the stream's URL metadata, or null if there is none
+     */
+    private void updateNowPlaying(String streamTitle, final String streamUrl) {
+        mNowPlaying = TextUtils.isEmpty(streamTitle) ? null : streamTitle;
+        mArtworkKey = ArtworkLoader.keyFor(mNowPlaying);
+
+        final ArtworkLoader loader = ArtworkLoader.getInstance(this);
+        mArtwork = loader.getCached(mArtworkKey);
+
+        if (mArtwork == null && mArtworkKey != null) {
+            final String nowPlaying = mNowPlaying;
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    loader.load(nowPlaying, streamUrl, mArtworkCallback);
+                }
+            });
+        }
+
+        publishNowPlaying();
+    }
+
+    /**
+     * Publish what's playing to the media session and the notification. Stream
+     * titles are usually "Artist - Title", which is split where possible
+     */
+    private void publishNowPlaying() {
+        MediaMetadataCompat.Builder metadata = new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, mSelectedBookmark.getTitle())
+                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE,
+                        mSelectedBookmark.getTitle());
+
+        if (mNowPlaying == null) {
+            metadata.putString(MediaMetadataCompat.METADATA_KEY_TITLE, mSelectedBookmark.getTitle());
+        } else {
+            int split = mNowPlaying.indexOf(" - ");
+
+            if (split > 0) {
+                metadata.putString(MediaMetadataCompat.METADATA_KEY_ARTIST,
+                        mNowPlaying.substring(0, split));
+                metadata.putString(MediaMetadataCompat.METADATA_KEY_TITLE,
+                        mNowPlaying.substring(split + 3));
+            } else {
+                metadata.putString(MediaMetadataCompat.METADATA_KEY_TITLE, mNowPlaying);
+            }
+
+            metadata.putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE, mNowPlaying);
+        }
+
+        if (mArtwork != null) {
+            metadata.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, mArtwork);
+        }
+
+        mMediaSession.setMetadata(metadata.build());
+
+        // Refresh the notification if one is showing
+        if (mNotificationAction != 0) {
+            final Notification notification = buildNotification(mNotificationAction);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    NotificationManager notificationManager = (NotificationManager)
+                            getSystemService(Context.NOTIFICATION_SERVICE);
+
+                    assert notificationManager != null;
+                    notificationManager.notify(NOTIFICATION_ID, notification);
+                }
+            });
+        }
     }
 
     /**
@@ -373,6 +1205,8 @@ public class StreamingService extends MediaBrowserServiceCompat {
         // Assign stream title, intent to stop playback on removal, tray icon, etc.
         builder
                 .setContentTitle(mSelectedBookmark.getTitle())
+                .setContentText(mNowPlaying)
+                .setLargeIcon(mArtwork)
                 .setContentIntent(mMediaSession.getController().getSessionActivity())
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
                 .setDeleteIntent(
@@ -381,6 +1215,13 @@ public class StreamingService extends MediaBrowserServiceCompat {
                 .setSmallIcon(R.drawable.ic_stat_name);
 
 
+        // Previous bookmark first, so play/pause sits between previous and next
+        builder
+                .addAction(new NotificationCompat.Action(
+                        R.drawable.ic_skip_previous, getString(R.string.skip_previous),
+                        MediaButtonReceiver.buildMediaButtonPendingIntent(
+                                this, PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS)));
+
         // If intended action is to play, add play icon which calls play action
         if (action == PlaybackStateCompat.ACTION_PLAY) {
             builder
@@ -399,10 +1240,17 @@ public class StreamingService extends MediaBrowserServiceCompat {
                                     this, PlaybackStateCompat.ACTION_PAUSE)));
         }
 
+        // Next bookmark last
+        builder
+                .addAction(new NotificationCompat.Action(
+                        R.drawable.ic_skip_next, getString(R.string.skip_next),
+                        MediaButtonReceiver.buildMediaButtonPendingIntent(
+                                this, PlaybackStateCompat.ACTION_SKIP_TO_NEXT)));
+
         // Set notification as being media style
         builder
                 .setStyle(new android.support.v4.media.app.NotificationCompat.MediaStyle()
-                        .setShowActionsInCompactView(0)
+                        .setShowActionsInCompactView(0, 1, 2)
                         .setShowCancelButton(true)
                         .setMediaSession(mMediaSession.getSessionToken())
                         .setCancelButtonIntent(
@@ -413,6 +1261,34 @@ public class StreamingService extends MediaBrowserServiceCompat {
         return builder.build();
     }
 
+    /**
+     * Follow a change of audio focus on the playback thread
+     * @param focusChange int identifying the change that has occurred
+     */
+    private void onFocusChanged(int focusChange) {
+        switch (focusChange) {
+            // If focus gained
+            case AudioManager.AUDIOFOCUS_GAIN:
+                mCurrentAudioFocusState = AUDIO_FOCUSED;
+                break;
+            // Focus lost transiently, can duck volume
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                mCurrentAudioFocusState = AUDIO_NO_FOCUS_CAN_DUCK;
+                break;
+            // Focus lost transiently, can't duck volume
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                mCurrentAudioFocusState = AUDIO_NO_FOCUS_NO_DUCK;
+                break;
+            // Focus lost permanently
+            case AudioManager.AUDIOFOCUS_LOSS:
+                mCurrentAudioFocusState = AUDIO_NO_FOCUS_LOST;
+                break;
+        }
+
+        // Configure media player's state for new focus state
+        if (mExoPlayer != null) configurePlayerState();
+    }
+
     /**
      * Configure the state of the media player (called on focus change)
      */
@@ -438,58 +1314,81 @@ public class StreamingService extends MediaBrowserServiceCompat {
     }
 
     /**
-     * Configure the state of the service given the desired action
+     * Configure the state of the service given the desired action. Runs on the
+     * playback thread, handing the notification and foreground state to the main thread
      * @param action the action to performed to the service state
      */
     private void configureServiceState(long action) {
         // If we are changing to playing state
         if (action == PlaybackStateCompat.ACTION_PLAY) {
-            // Start foreground service if not yet running
-            if (!mServiceInStartedState) {
-                ContextCompat.startForegroundService(
-                        StreamingService.this,
-                        new Intent(
+            // Launch foreground notification
+            mNotificationAction = PlaybackStateCompat.ACTION_PAUSE;
+            final Notification notification = buildNotification(mNotificationAction);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Start foreground service if not yet running
+                    if (!mServiceInStartedState) {
+                        ContextCompat.startForegroundService(
                                 StreamingService.this,
-                                StreamingService.class));
+                                new Intent(
+                                        StreamingService.this,
+                                        StreamingService.class));
 
-                mServiceInStartedState = true;
-            }
+                        mServiceInStartedState = true;
+                    }
 
-            // Launch foreground notification
-            startForeground(
-                    NOTIFICATION_ID,
-                    buildNotification(PlaybackStateCompat.ACTION_PAUSE));
+                    startForeground(NOTIFICATION_ID, notification);
+                }
+            });
         }
 
         // If we are changing to paused state
         else if (action == PlaybackStateCompat.ACTION_PAUSE) {
-            // Stop foreground service but keep notification
-            stopForeground(false);
-
-            // Get notification manager and make notification non-foreground (swipe-able)
-            // Swiping will cause the service to stop
-            NotificationManager mNotificationManager
-                    = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-
-            assert mNotificationManager != null;
-            mNotificationManager.notify(
-                    NOTIFICATION_ID,
-                    buildNotification(PlaybackStateCompat.ACTION_PLAY));
+            mNotificationAction = PlaybackStateCompat.ACTION_PLAY;
+            final Notification notification = buildNotification(mNotificationAction);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Stop foreground service but keep notification
+                    stopForeground(false);
+
+                    // Get notification manager and make notification non-foreground
+                    // (swipe-able). Swiping will cause the service to stop
+                    NotificationManager mNotificationManager = (NotificationManager)
+                            getSystemService(Context.NOTIFICATION_SERVICE);
+
+                    assert mNotificationManager != null;
+                    mNotificationManager.notify(NOTIFICATION_ID, notification);
+                }
+            });
         }
 
         // If we are changing to stopped state
         else if (action == PlaybackStateCompat.ACTION_STOP) {
             // Configure relevant fields
-            mServiceInStartedState = false;
+            mNotificationAction = 0;
             mMediaSession.setActive(false);
 
-            // Deselect bookmark and update database
-            mSelectedBookmark.setSelected(false);
-            new DatabaseHandler(getApplicationContext()).updateBookmark(mSelectedBookmark);
+            // Deselect bookmark and update database in the background
+            mBookmarkWriter.deselect(mSelectedBookmark.getID());
 
-            // Stop foreground service removing notification, then destroy service
-            stopForeground(true);
-            stopSelf();
+            // Nothing to skip to any more, stop warming
+            mPlaybackHandler.removeCallbacks(mWarmNeighbours);
+            mWarmStreamPool.clear();
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mServiceInStartedState = false;
+
+                    // Stop foreground service removing notification, then destroy service
+                    stopForeground(true);
+                    stopSelf();
+                }
+            });
         }
     }
 
@@ -520,7 +1419,8 @@ public class StreamingService extends MediaBrowserServiceCompat {
      */
     private void registerAudioNoisyReceiver() {
         if (!mAudioNoisyReceiverRegistered) {
-            this.registerReceiver(mAudioNoisyReceiver, mAudioNoisyIntentFilter);
+            this.registerReceiver(
+                    mAudioNoisyReceiver, mAudioNoisyIntentFilter, null, mPlaybackHandler);
             mAudioNoisyReceiverRegistered = true;
         }
     }
@@ -0,0 +1,241 @@
+package com.ojm.pinstream.visualizer;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.view.Choreographer;
+
+import com.cleveroad.audiovisualization.DbmHandler;
+
+/**
+ * Feeds the visualiser from the player's own audio. While the view is resumed a
+ * dedicated thread follows the display's frames, thinned to the chosen frame rate,
+ * reading the latest samples from the audio tap, splitting them into bands and
+ * passing the levels to the view when they have moved enough to see. Under battery
+ * saver or on low battery it halves its frame rate and analyses shorter windows.
+ * Buffers are allocated once per handler, so frames allocate nothing, and no
+ * recording permission is needed as the device's output is never captured
+ */
+public class SpectrumDbmHandler extends DbmHandler<float[]> {
+
+    // Preference holding the target frame rate
+    private static final String PREF_FRAME_RATE = "visualiser_frame_rate";
+    private static final String DEFAULT_FRAME_RATE = "30";
+
+    // Samples analysed per frame, about 23ms at 44.1kHz, or half that in low detail
+    private static final int WINDOW_SIZE = 1024;
+    private static final int LOW_DETAIL_WINDOW_SIZE = 512;
+
+    // Bands worked out, shared between the view's layers
+    private static final int BANDS = 8;
+
+    // Smallest change in any band worth drawing
+    private static final float CHANGE_THRESHOLD = 0.02f;
+
+    // Time with no new audio before the view is left to settle
+    private static final long IDLE_NANOS = 500000000;
+
+    // Battery percentage counted as low when not charging
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    private final Context context;
+    private final AudioTap tap;
+    private final SpectrumAnalyzer analyzer = new SpectrumAnalyzer(WINDOW_SIZE, BANDS);
+    private final SpectrumAnalyzer lowDetailAnalyzer =
+            new SpectrumAnalyzer(LOW_DETAIL_WINDOW_SIZE, BANDS);
+    private final float[] samples = new float[WINDOW_SIZE];
+    private final float[] levels = new float[BANDS];
+    private final FramePacer pacer = new FramePacer(30, BANDS, CHANGE_THRESHOLD);
+    private final FrameCost cost = new FrameCost();
+
+    // Analysis thread and its handler, only set while resumed
+    private HandlerThread thread;
+    private Handler handler;
+
+    // Set on the main thread as the power state changes, read each frame
+    private volatile boolean powerSave;
+    private volatile boolean batteryLow;
+
+    // Last audio analysed, and when new audio was last seen, on the analysis thread
+    private long lastWritten = -1;
+    private long lastAudioNanos;
+    private boolean idle;
+
+    // Runs on the analysis thread once for every display frame
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            Choreographer.getInstance().postFrameCallback(this);
+
+            pacer.setLowDetail(powerSave || batteryLow);
+            if (!pacer.isDue(frameTimeNanos)) return;
+
+            long started = Debug.threadCpuTimeNanos();
+            boolean shown = analyse(frameTimeNanos);
+            cost.record(Debug.threadCpuTimeNanos() - started, shown);
+        }
+    };
+
+    // Follows battery saver and the battery level
+    private final BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                boolean charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+                batteryLow = !charging && level >= 0 && scale > 0
+                        && level * 100 / scale <= LOW_BATTERY_PERCENT;
+            }
+
+            PowerManager powerManager =
+                    (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            powerSave = powerManager != null && powerManager.isPowerSaveMode();
+        }
+    };
+
+    /**
+     * @param context a context to read settings and power state from
+     * @param tap the tap the player's audio is copied into
+     */
+    public SpectrumDbmHandler(Context context, AudioTap tap) {
+        this.context = context.getApplicationContext();
+        this.tap = tap;
+    }
+
+    /**
+     * @return the CPU cost of the frames worked on so far
+     */
+    public FrameCost getFrameCost() {
+        return cost;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (thread != null) return;
+
+        pacer.setTargetFps(Integer.parseInt(PreferenceManager
+                .getDefaultSharedPreferences(context)
+                .getString(PREF_FRAME_RATE, DEFAULT_FRAME_RATE)));
+        pacer.reset();
+        lastWritten = -1;
+        idle = false;
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        context.registerReceiver(powerReceiver, filter);
+
+        // Frame callbacks arrive on the thread which posted them, so post from ours
+        thread = new HandlerThread("Visualiser");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(frameCallback);
+            }
+        });
+    }
+
+    @Override
+    public void onPause() {
+        stop();
+        super.onPause();
+    }
+
+    @Override
+    public void release() {
+        stop();
+        super.release();
+    }
+
+    /**
+     * Spread the bands across the view's layers, lowest frequencies first
+     */
+    @Override
+    protected void onDataReceivedImpl(float[] bands, int layersCount,
+                                      float[] dBmArray, float[] ampsArray) {
+        for (int layer = 0; layer < layersCount; layer++) {
+            int start = layer * bands.length / layersCount;
+            int end = Math.max(start + 1, (layer + 1) * bands.length / layersCount);
+
+            float level = 0;
+            for (int band = start; band < end; band++) level += bands[band];
+            level /= end - start;
+
+            dBmArray[layer] = level;
+            ampsArray[layer] = level;
+        }
+    }
+
+    /**
+     * Analyse the latest audio and pass it to the view if it changed enough
+     * @param frameTimeNanos when the frame started
+     * @return whether the frame was passed to the view
+     */
+    private boolean analyse(long frameTimeNanos) {
+        PcmRingBuffer buffer = tap.getBuffer();
+        long written = buffer.getWritten();
+        int sampleRateHz = tap.getSampleRateHz();
+
+        // Nothing new since the last frame, the stream is paused or stalled
+        if (written == lastWritten || sampleRateHz == 0) {
+            if (!idle && frameTimeNanos - lastAudioNanos >= IDLE_NANOS) {
+                idle = true;
+                pacer.reset();
+                calmDownAndStopRendering();
+            }
+            return false;
+        }
+
+        lastWritten = written;
+        lastAudioNanos = frameTimeNanos;
+        idle = false;
+
+        // A torn read is just a dropped frame
+        SpectrumAnalyzer frameAnalyzer = pacer.isLowDetail() ? lowDetailAnalyzer : analyzer;
+        if (!buffer.readLatest(samples, frameAnalyzer.getSize())) return false;
+
+        frameAnalyzer.analyze(samples, sampleRateHz, levels);
+        if (!pacer.hasChanged(levels)) return false;
+
+        onDataReceived(levels);
+        return true;
+    }
+
+    /**
+     * Stop following frames and end the analysis thread, waiting for it so a
+     * resume never runs two at once
+     */
+    private void stop() {
+        if (thread == null) return;
+
+        context.unregisterReceiver(powerReceiver);
+
+        // Frame callbacks belong to the thread's own choreographer
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().removeFrameCallback(frameCallback);
+            }
+        });
+        thread.quitSafely();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        handler = null;
+    }
+}
@@ -0,0 +1,79 @@
+package com.ojm.pinstream.artwork;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the artwork disk cache stays inside its byte budget, evicts the least
+ * recently used artwork first and forgets missing records once they expire
+ */
+public class ArtworkDiskCacheTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() throws Exception {
+        ArtworkDiskCache cache = new ArtworkDiskCache(folder.getRoot(), 300, DAY);
+
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+
+        // Touch the oldest so the next write pushes out the second instead
+        assertNotNull(cache.get("a"));
+        cache.put("d", new byte[100]);
+
+        assertEquals(300, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(3, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void rebuildsIndexFromDirectory() throws Exception {
+        ArtworkDiskCache cache = new ArtworkDiskCache(folder.getRoot(), 1000, DAY);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[200]);
+
+        // A leftover from a write that never finished
+        new File(folder.getRoot(), "partial.tmp").createNewFile();
+
+        ArtworkDiskCache reopened = new ArtworkDiskCache(folder.getRoot(), 1000, DAY);
+
+        assertEquals(300, reopened.size());
+        assertNotNull(reopened.get("a"));
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void missingRecordsExpire() throws Exception {
+        ArtworkDiskCache cache = new ArtworkDiskCache(folder.getRoot(), 1000, DAY);
+
+        cache.putMissing("gone");
+        assertTrue(cache.isKnownMissing("gone"));
+        assertNull(cache.get("gone"));
+        assertFalse(cache.isKnownMissing("other"));
+
+        // Age the record past its lifetime
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        files[0].setLastModified(System.currentTimeMillis() - 2 * DAY);
+
+        assertFalse(cache.isKnownMissing("gone"));
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
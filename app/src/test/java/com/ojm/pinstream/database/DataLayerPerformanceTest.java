@@ -0,0 +1,392 @@
+package com.ojm.pinstream.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.ojm.pinstream.models.Bookmark;
+import com.ojm.pinstream.playlists.PlaylistEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Performance budgets for the bookmark data layer against a large collection. Each
+ * operation is run once to warm it, compiling its statements and loading its classes,
+ * then timed and the bytes it allocates on the test thread are counted, and the
+ * test fails if either goes over its budget. Budgets are per row or per call
+ * and leave plenty of headroom, so they catch an operation losing its transaction
+ * or going from seeking to scanning rather than noise. Under Robolectric every
+ * query pays a large fixed cost for its emulated cursor window, which a device
+ * doesn't, so that is measured first and allowed for each query an operation
+ * makes. The collection holds perf.rows bookmarks, 10000 unless the build sets it
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DataLayerPerformanceTest {
+
+    private static final int ROWS = Integer.getInteger("perf.rows", 10000);
+
+    // Single row operations timed against the full table
+    private static final int CALLS = 200;
+
+    // Time budgets in microseconds, and allocation budgets in bytes
+    private static final long BULK_IMPORT_MICROS_PER_ROW = 400;
+    private static final long BULK_IMPORT_BYTES_PER_ROW = 4096;
+    private static final long INSERT_MICROS_PER_CALL = 4000;
+    private static final long INSERT_BYTES_PER_CALL = 4096;
+    private static final long FULL_LOAD_MICROS_PER_ROW = 60;
+    private static final long FULL_LOAD_BYTES_PER_ROW = 1024;
+    private static final long PAGED_LOAD_MICROS_PER_ROW = 300;
+    private static final long PAGED_LOAD_BYTES_PER_ROW = 1024;
+    private static final long SELECT_MICROS_PER_CALL = 3500;
+    private static final long SELECT_BYTES_PER_CALL = 16384;
+    private static final long UPDATE_MICROS_PER_CALL = 3000;
+    private static final long UPDATE_BYTES_PER_CALL = 8192;
+    private static final long DELETE_MICROS_PER_CALL = 3000;
+    private static final long DELETE_BYTES_PER_CALL = 4096;
+
+    // Queries run to measure the fixed cost of one
+    private static final int CALIBRATION_QUERIES = 20;
+
+    private DatabaseHandler dbHandler;
+
+    // Loads pages synchronously, as the repository's executor would, counting them
+    private int pagesLoaded;
+    private final PagedBookmarkList.PageLoader loader = new PagedBookmarkList.PageLoader() {
+        @Override
+        public void loadPage(PagedBookmarkList list, int page, int afterId) {
+            pagesLoaded++;
+            List<Bookmark> rows = dbHandler.getBookmarkPage(
+                    afterId, page * PagedBookmarkList.PAGE_SIZE, PagedBookmarkList.PAGE_SIZE);
+            list.onPageLoaded(page, rows.toArray(new Bookmark[rows.size()]));
+        }
+    };
+
+    @Before
+    public void setUp() {
+        dbHandler = new DatabaseHandler(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        dbHandler.close();
+    }
+
+    @Test
+    public void bulkImport_staysWithinBudget() {
+        final List<PlaylistEntry> entries = entries(ROWS);
+
+        // Compile the insert and warm the import path on a small batch first
+        dbHandler.addBookmarks(entries.subList(0, CALLS));
+
+        Cost cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(ROWS, dbHandler.addBookmarks(entries));
+            }
+        });
+
+        assertWithin("bulk import", cost, ROWS,
+                BULK_IMPORT_MICROS_PER_ROW, BULK_IMPORT_BYTES_PER_ROW);
+    }
+
+    @Test
+    public void insert_staysWithinBudget() {
+        fill();
+        final Bookmark[] bookmarks = new Bookmark[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            bookmarks[i] = new Bookmark("Added " + i, Uri.parse("http://added.example.com/" + i));
+        }
+
+        // Compile the insert on a bookmark outside the measured ones
+        dbHandler.addBookmark(new Bookmark("Warm", Uri.parse("http://warm.example.com/")));
+
+        Cost cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (Bookmark bookmark : bookmarks) {
+                    dbHandler.addBookmark(bookmark);
+                }
+            }
+        });
+
+        assertWithin("insert", cost, CALLS, INSERT_MICROS_PER_CALL, INSERT_BYTES_PER_CALL);
+        assertEquals(ROWS + CALLS + 1, dbHandler.getBookmarkCount());
+    }
+
+    @Test
+    public void fullLoad_staysWithinBudget() {
+        fill();
+        Cost perQuery = queryCost();
+        dbHandler.getAllBookmarks();
+
+        Cost cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(ROWS, dbHandler.getAllBookmarks().size());
+            }
+        });
+
+        assertWithin("full load", cost.less(perQuery, 1), ROWS,
+                FULL_LOAD_MICROS_PER_ROW, FULL_LOAD_BYTES_PER_ROW);
+    }
+
+    @Test
+    public void pagedLoad_staysWithinBudget() {
+        fill();
+        Cost perQuery = queryCost();
+
+        // Warm the page query on a list of its own, then count only the measured pages
+        new PagedBookmarkList(dbHandler.getBookmarkCount(), loader).get(0);
+        pagesLoaded = 0;
+
+        // Scroll the list from top to bottom, every page found by its key
+        final PagedBookmarkList list = new PagedBookmarkList(dbHandler.getBookmarkCount(), loader);
+        Cost cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < list.size(); i++) {
+                    list.get(i);
+                }
+            }
+        });
+
+        assertEquals("Station " + (ROWS - 1), list.peek(ROWS - 1).getTitle());
+        assertEquals((ROWS + PagedBookmarkList.PAGE_SIZE - 1) / PagedBookmarkList.PAGE_SIZE,
+                pagesLoaded);
+        assertWithin("paged load", cost.less(perQuery, pagesLoaded), ROWS,
+                PAGED_LOAD_MICROS_PER_ROW, PAGED_LOAD_BYTES_PER_ROW);
+    }
+
+    @Test
+    public void selectExclusive_staysWithinBudget() {
+        fill();
+        final int[] ids = spreadIds();
+        dbHandler.selectExclusive(ids[0]);
+
+        // Select stations across the table, patching the snapshot as the repository does
+        final PagedBookmarkList[] snapshot = { pagedSnapshot() };
+        Cost cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int id : ids) {
+                    dbHandler.selectExclusive(id);
+                    snapshot[0] = snapshot[0].withSelection(id);
+                }
+            }
+        });
+
+        assertWithin("exclusive select", cost, CALLS,
+                SELECT_MICROS_PER_CALL, SELECT_BYTES_PER_CALL);
+        assertTrue(dbHandler.getBookmark(ids[CALLS - 1]).isSelected());
+        assertFalse(dbHandler.getBookmark(ids[0]).isSelected());
+    }
+
+    @Test
+    public void update_staysWithinBudget() {
+        fill();
+        int[] ids = spreadIds();
+        final Bookmark[] bookmarks = new Bookmark[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            bookmarks[i] = new Bookmark(ids[i], "Renamed " + i,
+                    "http://renamed.example.com/" + i, false, "resilient");
+        }
+
+        // Compile the update on a bookmark outside the measured ones
+        dbHandler.updateBookmark(new Bookmark(spareId(ids), "Warm",
+                "http://warm.example.com/", false, "resilient"));
+
+        Cost cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (Bookmark bookmark : bookmarks) {
+                    dbHandler.updateBookmark(bookmark);
+                }
+            }
+        });
+
+        assertWithin("update", cost, CALLS, UPDATE_MICROS_PER_CALL, UPDATE_BYTES_PER_CALL);
+        assertEquals("Renamed 0", dbHandler.getBookmark(ids[0]).getTitle());
+    }
+
+    @Test
+    public void delete_staysWithinBudget() {
+        fill();
+        int[] ids = spreadIds();
+        final Bookmark[] bookmarks = new Bookmark[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            bookmarks[i] = new Bookmark(ids[i], "Station", "http://s", false);
+        }
+
+        // Compile the delete on a bookmark outside the measured ones
+        dbHandler.deleteBookmark(new Bookmark(spareId(ids), "Station", "http://s", false));
+
+        Cost cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (Bookmark bookmark : bookmarks) {
+                    dbHandler.deleteBookmark(bookmark);
+                }
+            }
+        });
+
+        assertWithin("delete", cost, CALLS, DELETE_MICROS_PER_CALL, DELETE_BYTES_PER_CALL);
+        assertEquals(ROWS - CALLS - 1, dbHandler.getBookmarkCount());
+    }
+
+    /**
+     * Time and allocation of one run of an operation
+     */
+    private static final class Cost {
+        final long nanos;
+        final long bytes;
+
+        Cost(long nanos, long bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Take off a fixed cost paid a number of times
+         */
+        Cost less(Cost each, int times) {
+            return new Cost(Math.max(0, nanos - each.nanos * times),
+                    bytes < 0 ? bytes : Math.max(0, bytes - each.bytes * times));
+        }
+    }
+
+    /**
+     * Measure the fixed cost of one query which returns a single row, taking the
+     * cheapest of several so noise can't make it larger than it is
+     */
+    private Cost queryCost() {
+        final SQLiteDatabase db = dbHandler.getReadableDatabase();
+        Runnable query = new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = db.rawQuery("SELECT 1", null);
+                cursor.moveToFirst();
+                cursor.close();
+            }
+        };
+
+        query.run();
+        Cost cheapest = measure(query);
+        for (int i = 1; i < CALIBRATION_QUERIES; i++) {
+            Cost cost = measure(query);
+            cheapest = new Cost(Math.min(cheapest.nanos, cost.nanos),
+                    Math.min(cheapest.bytes, cost.bytes));
+        }
+
+        return cheapest;
+    }
+
+    /**
+     * Run an operation on this thread, counting the time it takes and the bytes it
+     * allocates. Allocation is -1 where the JVM can't count it
+     */
+    private static Cost measure(Runnable operation) {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation =
+                threads instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threads)
+                                .isThreadAllocatedMemorySupported()
+                        ? (com.sun.management.ThreadMXBean) threads
+                        : null;
+        long thread = Thread.currentThread().getId();
+
+        long bytesBefore = allocation == null ? 0 : allocation.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        operation.run();
+        long nanos = System.nanoTime() - start;
+        long bytes = allocation == null
+                ? -1
+                : allocation.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        return new Cost(nanos, bytes);
+    }
+
+    /**
+     * Fail if a cost is over the budget for that many rows or calls
+     */
+    private static void assertWithin(String operation, Cost cost, int count,
+                                     long microsEach, long bytesEach) {
+        long micros = cost.nanos / 1000;
+        assertTrue(operation + " took " + micros + " us for " + count + ", over budget of "
+                + microsEach * count, micros <= microsEach * count);
+        if (cost.bytes >= 0) {
+            assertTrue(operation + " allocated " + cost.bytes + " bytes for " + count
+                    + ", over budget of " + bytesEach * count, cost.bytes <= bytesEach * count);
+        }
+    }
+
+    /**
+     * Fill the table with the full collection
+     */
+    private void fill() {
+        assertEquals(ROWS, dbHandler.addBookmarks(entries(ROWS)));
+    }
+
+    /**
+     * Build playlist entries for that many stations
+     */
+    private static List<PlaylistEntry> entries(int count) {
+        List<PlaylistEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new PlaylistEntry("Station " + i, "http://s" + i + ".example.com/live"));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Pick IDs spread evenly through the table, so seeks can't all hit one page
+     */
+    private int[] spreadIds() {
+        List<Bookmark> all = dbHandler.getAllBookmarks();
+        int[] ids = new int[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            ids[i] = all.get((int) ((long) i * (all.size() - 1) / (CALLS - 1))).getID();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Pick an ID which isn't among the given ones, to warm an operation on
+     */
+    private int spareId(int[] ids) {
+        for (Bookmark bookmark : dbHandler.getAllBookmarks()) {
+            boolean taken = false;
+            for (int id : ids) {
+                taken |= id == bookmark.getID();
+            }
+            if (!taken) return bookmark.getID();
+        }
+
+        throw new IllegalStateException("No bookmark outside the measured ones");
+    }
+
+    /**
+     * A snapshot with a few pages loaded across the table, like one that has been
+     * scrolled through
+     */
+    private PagedBookmarkList pagedSnapshot() {
+        PagedBookmarkList list = new PagedBookmarkList(dbHandler.getBookmarkCount(), loader);
+        for (int i = 0; i < list.size(); i += list.size() / 8) {
+            list.get(i);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,305 @@
+package com.ojm.pinstream.database;
+
+import android.net.Uri;
+
+import com.ojm.pinstream.models.Bookmark;
+import com.ojm.pinstream.models.ResolvedStream;
+import com.ojm.pinstream.models.StationLatency;
+import com.ojm.pinstream.playlists.PlaylistEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the database handler's compiled read and write paths
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseHandlerTest {
+
+    private DatabaseHandler dbHandler;
+
+    @Before
+    public void setUp() {
+        dbHandler = new DatabaseHandler(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        dbHandler.close();
+    }
+
+    @Test
+    public void database_usesWriteAheadLogging() {
+        assertTrue(dbHandler.getReadableDatabase().isWriteAheadLoggingEnabled());
+    }
+
+    @Test
+    public void addBookmark_canBeReadBack() {
+        int id = (int) dbHandler.addBookmark(
+                new Bookmark("Radio", Uri.parse("http://example.com/stream")));
+
+        Bookmark read = dbHandler.getBookmark(id);
+        assertEquals("Radio", read.getTitle());
+        assertEquals("http://example.com/stream", read.getUrl().toString());
+        assertFalse(read.isSelected());
+        assertNull(dbHandler.getBookmark(id + 1));
+    }
+
+    @Test
+    public void addBookmarks_alongsideAddBookmarkDoesNotDeadlock() throws Exception {
+        final List<PlaylistEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            entries.add(new PlaylistEntry("Station " + i, "http://example.com/" + i));
+        }
+
+        // Import on one thread while single adds run on another, as the
+        // repository's bulk and write executors do
+        ExecutorService importer = Executors.newSingleThreadExecutor();
+        ExecutorService adder = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> imported = importer.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return dbHandler.addBookmarks(entries);
+                }
+            });
+            Future<Integer> added = adder.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int count = 0;
+                    for (int i = 0; i < 200; i++) {
+                        if (dbHandler.addBookmark(new Bookmark("Single " + i,
+                                Uri.parse("http://example.org/" + i))) != -1) count++;
+                    }
+
+                    return count;
+                }
+            });
+
+            assertEquals(2000, (int) imported.get(30, TimeUnit.SECONDS));
+            assertEquals(200, (int) added.get(30, TimeUnit.SECONDS));
+            assertEquals(2200, dbHandler.getBookmarkCount());
+        } finally {
+            importer.shutdownNow();
+            adder.shutdownNow();
+        }
+    }
+
+    @Test
+    public void bufferProfile_isStoredAndCleared() {
+        Bookmark bookmark = new Bookmark("Radio", Uri.parse("http://example.com/stream"));
+        bookmark.setBufferProfile("resilient");
+        int id = (int) dbHandler.addBookmark(bookmark);
+
+        Bookmark read = dbHandler.getBookmark(id);
+        assertEquals("resilient", read.getBufferProfile());
+
+        // Clearing it goes back to following the setting
+        read.setBufferProfile(null);
+        dbHandler.updateBookmark(read);
+        assertNull(dbHandler.getBookmark(id).getBufferProfile());
+    }
+
+    @Test
+    public void resolvedStream_isStoredAndForgottenWhenUrlChanges() {
+        int id = (int) dbHandler.addBookmark(
+                new Bookmark("Radio", Uri.parse("http://example.com/listen.pls")));
+        assertNull(dbHandler.getResolvedStream(id));
+
+        dbHandler.setResolvedStream(id, new ResolvedStream(
+                "http://cdn.example.com/stream", ResolvedStream.Type.PROGRESSIVE, "aac"));
+
+        ResolvedStream stored = dbHandler.getResolvedStream(id);
+        assertEquals("http://cdn.example.com/stream", stored.getUrl());
+        assertEquals(ResolvedStream.Type.PROGRESSIVE, stored.getType());
+        assertEquals("aac", stored.getCodec());
+
+        // Renaming keeps it, changing the URL forgets it
+        dbHandler.updateBookmark(new Bookmark(
+                id, "Renamed", Uri.parse("http://example.com/listen.pls"), false));
+        assertNotNull(dbHandler.getResolvedStream(id));
+
+        dbHandler.updateBookmark(new Bookmark(
+                id, "Renamed", Uri.parse("http://example.com/other.m3u"), false));
+        assertNull(dbHandler.getResolvedStream(id));
+    }
+
+    @Test
+    public void latencies_accumulatePerStationAndGoWithTheBookmark() {
+        int radio = (int) dbHandler.addBookmark(new Bookmark("Radio", Uri.parse("http://radio")));
+        int another = (int) dbHandler.addBookmark(
+                new Bookmark("Another", Uri.parse("http://another")));
+
+        Map<String, Long> first = new HashMap<>();
+        first.put("resolve", 40L);
+        first.put("buffer", 900L);
+        dbHandler.recordLatencies(radio, first);
+        dbHandler.recordLatencies(radio, Collections.singletonMap("buffer", 1100L));
+        dbHandler.recordLatencies(another, Collections.singletonMap("buffer", 300L));
+
+        // Ordered by title, with every sample kept
+        List<StationLatency> stations = dbHandler.getStationLatencies();
+        assertEquals(2, stations.size());
+        assertEquals(another, stations.get(0).getBookmarkId());
+        assertEquals("Radio", stations.get(1).getTitle());
+        assertEquals(2, stations.get(1).getPhase("buffer").getCount());
+        assertEquals(1, stations.get(1).getPhase("resolve").getCount());
+        assertNull(stations.get(0).getPhase("resolve"));
+
+        // Deleting a bookmark deletes its latencies
+        dbHandler.deleteBookmark(new Bookmark(radio, "Radio", Uri.parse("http://radio"), false));
+        assertEquals(1, dbHandler.getStationLatencies().size());
+    }
+
+    @Test
+    public void getAdjacentBookmarks_wrapsAroundTheEnds() {
+        int first = (int) dbHandler.addBookmark(new Bookmark("One", Uri.parse("http://one")));
+        int second = (int) dbHandler.addBookmark(new Bookmark("Two", Uri.parse("http://two")));
+        int third = (int) dbHandler.addBookmark(new Bookmark("Three", Uri.parse("http://three")));
+
+        Bookmark[] middle = dbHandler.getAdjacentBookmarks(second);
+        assertEquals(first, middle[0].getID());
+        assertEquals(third, middle[1].getID());
+
+        Bookmark[] start = dbHandler.getAdjacentBookmarks(first);
+        assertEquals(third, start[0].getID());
+        assertEquals(second, start[1].getID());
+
+        Bookmark[] end = dbHandler.getAdjacentBookmarks(third);
+        assertEquals(second, end[0].getID());
+        assertEquals(first, end[1].getID());
+
+        // A lone bookmark has nothing either side
+        dbHandler.deleteBookmark(middle[0]);
+        dbHandler.deleteBookmark(middle[1]);
+        Bookmark[] alone = dbHandler.getAdjacentBookmarks(second);
+        assertNull(alone[0]);
+        assertNull(alone[1]);
+    }
+
+    @Test
+    public void updateAndDelete_affectOnlyMatchingRow() {
+        int first = (int) dbHandler.addBookmark(new Bookmark("One", Uri.parse("http://one")));
+        int second = (int) dbHandler.addBookmark(new Bookmark("Two", Uri.parse("http://two")));
+
+        dbHandler.updateBookmark(new Bookmark(first, "Uno", Uri.parse("http://uno"), false));
+        assertEquals("Uno", dbHandler.getBookmark(first).getTitle());
+        assertEquals("Two", dbHandler.getBookmark(second).getTitle());
+
+        dbHandler.deleteBookmark(dbHandler.getBookmark(first));
+        assertNull(dbHandler.getBookmark(first));
+        assertEquals(1, dbHandler.getAllBookmarks().size());
+    }
+
+    @Test
+    public void selectExclusive_movesSelectionAndRecordsPlay() {
+        int first = (int) dbHandler.addBookmark(new Bookmark("One", Uri.parse("http://one")));
+        int second = (int) dbHandler.addBookmark(new Bookmark("Two", Uri.parse("http://two")));
+
+        dbHandler.selectExclusive(first);
+        dbHandler.selectExclusive(second);
+        dbHandler.selectExclusive(second);
+
+        assertFalse(dbHandler.getBookmark(first).isSelected());
+        assertTrue(dbHandler.getBookmark(second).isSelected());
+
+        List<Bookmark> mostPlayed = dbHandler.getMostPlayedBookmarks(10);
+        assertEquals(second, mostPlayed.get(0).getID());
+        assertEquals(first, mostPlayed.get(1).getID());
+
+        dbHandler.deselect(second);
+        assertFalse(dbHandler.getBookmark(second).isSelected());
+    }
+
+    @Test
+    public void search_matchesTitleAndHostPrefixes() {
+        int jazz = (int) dbHandler.addBookmark(
+                new Bookmark("Smooth Jazz", Uri.parse("http://stream.jazzfm.example:8000/live")));
+        int news = (int) dbHandler.addBookmark(
+                new Bookmark("World News", Uri.parse("https://news.example/jazz.mp3")));
+
+        assertEquals(jazz, search("smoo", 0).get(0).getID());
+        assertEquals(jazz, search("jazzfm", 0).get(0).getID());
+
+        // Only the host is indexed, not the path
+        assertEquals(1, countMatches("jazz"));
+        assertEquals(0, countMatches("mp3"));
+        assertEquals(news, search("wor ne", 0).get(0).getID());
+
+        // Punctuation alone is not a query, and never a syntax error
+        assertEquals(0, countMatches("\"*:("));
+    }
+
+    @Test
+    public void search_ranksTitlePrefixAboveOtherMatches() {
+        int host = (int) dbHandler.addBookmark(
+                new Bookmark("Station", Uri.parse("http://rock.example/")));
+        int inTitle = (int) dbHandler.addBookmark(
+                new Bookmark("Classic Rock", Uri.parse("http://one.example/")));
+        int startsTitle = (int) dbHandler.addBookmark(
+                new Bookmark("Rock Radio", Uri.parse("http://two.example/")));
+
+        List<Bookmark> results = search("rock", 0);
+        assertEquals(startsTitle, results.get(0).getID());
+        assertEquals(inTitle, results.get(1).getID());
+        assertEquals(host, results.get(2).getID());
+
+        // Paging continues in the same order, across tiers
+        assertEquals(host, search("rock", 2).get(0).getID());
+        assertEquals(inTitle, dbHandler.searchBookmarks(
+                "rock", dbHandler.countSearchTiers("rock", null), 1, 1, null).get(0).getID());
+    }
+
+    @Test
+    public void search_indexFollowsUpdatesAndDeletes() {
+        int id = (int) dbHandler.addBookmark(new Bookmark("Old Name", Uri.parse("http://a.example")));
+
+        dbHandler.updateBookmark(new Bookmark(id, "New Name", Uri.parse("http://b.example"), false));
+        assertEquals(0, countMatches("old"));
+        assertEquals(1, countMatches("new b"));
+
+        // Plays don't touch the indexed columns
+        dbHandler.selectExclusive(id);
+        assertEquals(1, countMatches("new"));
+
+        dbHandler.deleteBookmark(dbHandler.getBookmark(id));
+        assertEquals(0, countMatches("new"));
+    }
+
+    /**
+     * Count every match for a search across all tiers
+     */
+    private int countMatches(String query) {
+        int total = 0;
+        for (int size : dbHandler.countSearchTiers(query, null)) {
+            total += size;
+        }
+
+        return total;
+    }
+
+    /**
+     * Read up to ten search results from a position
+     */
+    private List<Bookmark> search(String query, int offset) {
+        return dbHandler.searchBookmarks(
+                query, dbHandler.countSearchTiers(query, null), offset, 10, null);
+    }
+}
@@ -0,0 +1,166 @@
+package com.ojm.pinstream.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the schema migration chain, run against a real SQLite
+ * database through Robolectric
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MigrationsTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void migrations_areContiguousAndOrdered() {
+        for (int i = 0; i < Migrations.ALL.length; i++) {
+            Migration m = Migrations.ALL[i];
+            assertEquals(i + 1, m.startVersion);
+            assertEquals(m.startVersion + 1, m.endVersion);
+        }
+
+        assertEquals(
+                DatabaseHandler.DATABASE_VERSION,
+                Migrations.ALL[Migrations.ALL.length - 1].endVersion);
+    }
+
+    @Test
+    public void path_coversEveryStepBetweenVersions() {
+        assertEquals(Migrations.ALL.length, Migrations.path(1, DatabaseHandler.DATABASE_VERSION).size());
+        assertEquals(0, Migrations.path(2, 2).size());
+        assertSame(Migrations.MIGRATION_2_3, Migrations.path(2, 3).get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void path_failsWhenStepMissing() {
+        Migrations.path(1, DatabaseHandler.DATABASE_VERSION + 1);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsExistingBookmarks() {
+        DatabaseHandler.createVersion1(db);
+        db.execSQL("INSERT INTO bookmarks (title, url, isSelected) " +
+                "VALUES ('Radio', 'http://example.com/stream', 1)");
+
+        Migrations.migrate(db, 1, DatabaseHandler.DATABASE_VERSION);
+
+        Cursor cursor = db.rawQuery(
+                "SELECT title, url, isSelected, last_played, play_count FROM bookmarks", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Radio", cursor.getString(0));
+        assertEquals("http://example.com/stream", cursor.getString(1));
+        assertEquals(1, cursor.getInt(2));
+        assertEquals(0, cursor.getLong(3));
+        assertEquals(0, cursor.getInt(4));
+        cursor.close();
+    }
+
+    @Test
+    public void upgradeFromVersion4_leavesBufferProfileUnset() {
+        DatabaseHandler.createVersion1(db);
+        Migrations.migrate(db, 1, 4);
+        db.execSQL("INSERT INTO bookmarks (title, url, isSelected) " +
+                "VALUES ('Radio', 'http://example.com/stream', 0)");
+
+        Migrations.migrate(db, 4, 5);
+
+        Cursor cursor = db.rawQuery("SELECT buffer_profile FROM bookmarks", null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.isNull(0));
+        cursor.close();
+    }
+
+    @Test
+    public void upgradeFromVersion1_matchesFreshInstall() {
+        DatabaseHandler.createVersion1(db);
+        Migrations.migrate(db, 1, DatabaseHandler.DATABASE_VERSION);
+
+        SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        new DatabaseHandler(RuntimeEnvironment.application).onCreate(fresh);
+
+        assertEquals(schemaOf(fresh), schemaOf(db));
+        fresh.close();
+    }
+
+    @Test
+    public void playOrderings_useIndexes() {
+        DatabaseHandler.createVersion1(db);
+        Migrations.migrate(db, 1, DatabaseHandler.DATABASE_VERSION);
+
+        assertTrue(queryPlan("SELECT id FROM bookmarks ORDER BY last_played DESC")
+                .contains("idx_bookmarks_last_played"));
+        assertTrue(queryPlan("SELECT id FROM bookmarks ORDER BY play_count DESC")
+                .contains("idx_bookmarks_play_count"));
+    }
+
+    @Test
+    public void selectionClear_usesIndex() {
+        DatabaseHandler.createVersion1(db);
+        Migrations.migrate(db, 1, DatabaseHandler.DATABASE_VERSION);
+
+        assertTrue(queryPlan("SELECT id FROM bookmarks WHERE isSelected = 1 OR id = 5")
+                .contains("idx_bookmarks_selected"));
+    }
+
+    /**
+     * Describe every table and index in a database, in a stable order
+     */
+    private static List<String> schemaOf(SQLiteDatabase database) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = database.rawQuery(
+                "SELECT type, name, tbl_name FROM sqlite_master " +
+                        "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' " +
+                        "ORDER BY type, name", null);
+
+        while (cursor.moveToNext()) {
+            schema.add(cursor.getString(0) + " " + cursor.getString(1) + " " + cursor.getString(2));
+        }
+        cursor.close();
+
+        cursor = database.rawQuery("PRAGMA table_info(bookmarks)", null);
+        while (cursor.moveToNext()) {
+            schema.add("column " + cursor.getString(1) + " " + cursor.getString(2));
+        }
+        cursor.close();
+
+        return schema;
+    }
+
+    /**
+     * Get SQLite's query plan for a statement as a single string
+     */
+    private String queryPlan(String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+        }
+        cursor.close();
+
+        return plan.toString();
+    }
+}
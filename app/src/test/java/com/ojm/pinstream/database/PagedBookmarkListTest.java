@@ -0,0 +1,106 @@
+package com.ojm.pinstream.database;
+
+import android.net.Uri;
+
+import com.ojm.pinstream.models.Bookmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the paged bookmark list and the keyset page query behind it
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PagedBookmarkListTest {
+
+    private static final int ROWS = PagedBookmarkList.PAGE_SIZE * 3 + 7;
+
+    private DatabaseHandler dbHandler;
+
+    // Loads pages synchronously and records what was asked for
+    private final List<Integer> requested = new ArrayList<>();
+    private final PagedBookmarkList.PageLoader loader = new PagedBookmarkList.PageLoader() {
+        @Override
+        public void loadPage(PagedBookmarkList list, int page, int afterId) {
+            requested.add(page);
+            List<Bookmark> rows = dbHandler.getBookmarkPage(
+                    afterId, page * PagedBookmarkList.PAGE_SIZE, PagedBookmarkList.PAGE_SIZE);
+            list.onPageLoaded(page, rows.toArray(new Bookmark[rows.size()]));
+        }
+    };
+
+    @Before
+    public void setUp() {
+        dbHandler = new DatabaseHandler(RuntimeEnvironment.application);
+
+        for (int i = 0; i < ROWS; i++) {
+            dbHandler.addBookmark(new Bookmark("Station " + i, Uri.parse("http://s/" + i)));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dbHandler.close();
+    }
+
+    @Test
+    public void get_loadsOnlyPagesNearTheReadPosition() {
+        PagedBookmarkList list = new PagedBookmarkList(dbHandler.getBookmarkCount(), loader);
+        assertEquals(ROWS, list.size());
+
+        // The first read starts the load, later reads see the page
+        list.get(0);
+        assertEquals("Station 0", list.get(0).getTitle());
+        assertEquals(1, requested.size());
+
+        // Reading near the end of a page prefetches the next one
+        list.get(PagedBookmarkList.PAGE_SIZE - 1);
+        assertTrue(requested.contains(1));
+        assertFalse(requested.contains(2));
+    }
+
+    @Test
+    public void keysetAndOffsetPages_agree() {
+        List<Bookmark> byOffset = dbHandler.getBookmarkPage(-1, PagedBookmarkList.PAGE_SIZE, 10);
+        int lastOfFirstPage = dbHandler.getBookmarkPage(-1, 0, PagedBookmarkList.PAGE_SIZE)
+                .get(PagedBookmarkList.PAGE_SIZE - 1).getID();
+        List<Bookmark> byKey = dbHandler.getBookmarkPage(lastOfFirstPage, 0, 10);
+
+        assertEquals(byOffset.size(), byKey.size());
+        for (int i = 0; i < byKey.size(); i++) {
+            assertEquals(byOffset.get(i).getID(), byKey.get(i).getID());
+        }
+    }
+
+    @Test
+    public void changes_copyOnlyAffectedPages() {
+        PagedBookmarkList list = new PagedBookmarkList(dbHandler.getBookmarkCount(), loader);
+        list.get(0);
+        list.get(PagedBookmarkList.PAGE_SIZE * 2);
+        Bookmark first = list.peek(0);
+        Bookmark third = list.peek(PagedBookmarkList.PAGE_SIZE * 2);
+
+        PagedBookmarkList selected = list.withSelection(first.getID());
+        assertTrue(selected.peek(0).isSelected());
+        assertFalse(list.peek(0).isSelected());
+        assertSame(third, selected.peek(PagedBookmarkList.PAGE_SIZE * 2));
+
+        // Removing from the first page keeps nothing after it
+        PagedBookmarkList removed = selected.withRemoved(first.getID());
+        assertEquals(ROWS - 1, removed.size());
+        assertNull(removed.peek(PagedBookmarkList.PAGE_SIZE * 2));
+
+        PagedBookmarkList appended = list.withAppended();
+        assertEquals(ROWS + 1, appended.size());
+        assertSame(first, appended.peek(0));
+    }
+}
@@ -0,0 +1,79 @@
+package com.ojm.pinstream.models;
+
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the bookmark parcel format. Its speed against the old string
+ * array encoding is measured by BookmarkRecordBenchmark in the benchmarks module
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BookmarkParcelTest {
+
+    private final Bookmark bookmark =
+            new Bookmark(4211, "Radio Paradise", "http://stream.radioparadise.com/aac-320", true);
+
+    @Test
+    public void parcel_roundTripsEveryField() {
+        Bookmark read = roundTrip(bookmark);
+
+        assertEquals(4211, read.getID());
+        assertEquals("Radio Paradise", read.getTitle());
+        assertEquals("http://stream.radioparadise.com/aac-320", read.getUrlString());
+        assertTrue(read.isSelected());
+    }
+
+    @Test
+    public void parcel_roundTripsBufferProfile() {
+        Bookmark withProfile = new Bookmark(
+                4211, "Radio Paradise", "http://stream.radioparadise.com/aac-320", true,
+                "low_latency");
+
+        assertEquals("low_latency", roundTrip(withProfile).getBufferProfile());
+        assertNull(roundTrip(bookmark).getBufferProfile());
+    }
+
+    @Test
+    public void parcel_isSmallerThanStringArrayEncoding() {
+        Parcel typed = Parcel.obtain();
+        bookmark.writeToParcel(typed, 0);
+
+        Parcel legacy = Parcel.obtain();
+        writeLegacy(legacy, bookmark);
+
+        assertTrue(typed.dataSize() < legacy.dataSize());
+
+        typed.recycle();
+        legacy.recycle();
+    }
+
+    /**
+     * Write and read back a bookmark with the current encoding
+     */
+    private static Bookmark roundTrip(Bookmark bookmark) {
+        Parcel parcel = Parcel.obtain();
+        bookmark.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+
+        Bookmark read = (Bookmark) Bookmark.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        return read;
+    }
+
+    /**
+     * The encoding Bookmark used before, every field as a string in one array
+     */
+    private static void writeLegacy(Parcel dest, Bookmark bookmark) {
+        dest.writeStringArray(new String[] {
+                String.valueOf(bookmark.getID()),
+                bookmark.getTitle(),
+                bookmark.getUrlString(),
+                Boolean.toString(bookmark.isSelected())
+        });
+    }
+}
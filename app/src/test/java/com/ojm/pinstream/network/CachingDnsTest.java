@@ -0,0 +1,96 @@
+package com.ojm.pinstream.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.Dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the DNS cache answers from memory within its TTL, asks again after it,
+ * falls back to an expired answer when a lookup fails and stays within its size
+ */
+public class CachingDnsTest {
+
+    private static final long TTL_MILLIS = 1000;
+
+    private CountingDns upstream;
+    private long nowNanos;
+    private CachingDns dns;
+
+    @Before
+    public void setUp() {
+        upstream = new CountingDns();
+        dns = new CachingDns(upstream, TTL_MILLIS, 2) {
+            @Override
+            long now() {
+                return nowNanos;
+            }
+        };
+    }
+
+    @Test
+    public void answersFromMemoryUntilExpired() throws Exception {
+        List<InetAddress> first = dns.lookup("a.example");
+        assertSame(first, dns.lookup("a.example"));
+        assertEquals(1, upstream.lookups);
+
+        nowNanos += TTL_MILLIS * 1000000L;
+        dns.lookup("a.example");
+        assertEquals(2, upstream.lookups);
+    }
+
+    @Test
+    public void usesExpiredAnswerWhenLookupFails() throws Exception {
+        List<InetAddress> first = dns.lookup("a.example");
+
+        nowNanos += TTL_MILLIS * 1000000L;
+        upstream.failing = true;
+        assertSame(first, dns.lookup("a.example"));
+
+        try {
+            dns.lookup("b.example");
+            fail("Unknown host with nothing remembered should fail");
+        } catch (UnknownHostException expected) {
+            // Failures are not remembered either
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedHost() throws Exception {
+        dns.lookup("a.example");
+        dns.lookup("b.example");
+        dns.lookup("a.example");
+        dns.lookup("c.example");
+        assertEquals(3, upstream.lookups);
+
+        // b was least recently used, so only it is looked up again
+        dns.lookup("a.example");
+        dns.lookup("b.example");
+        assertEquals(4, upstream.lookups);
+    }
+
+    /**
+     * Resolves every host to the loopback address, counting lookups
+     */
+    private static class CountingDns implements Dns {
+        int lookups;
+        boolean failing;
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            if (failing) throw new UnknownHostException(hostname);
+
+            lookups++;
+            return Collections.singletonList(InetAddress.getLoopbackAddress());
+        }
+    }
+}
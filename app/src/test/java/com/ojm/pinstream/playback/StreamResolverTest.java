@@ -0,0 +1,74 @@
+package com.ojm.pinstream.playback;
+
+import com.ojm.pinstream.models.ResolvedStream;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the probe tells manifests, playlists and plain streams apart from their
+ * content type, path and first bytes, and recognises the common codecs
+ */
+public class StreamResolverTest {
+
+    private static final byte[] NOTHING = new byte[0];
+    private static final byte[] MP3_FRAME = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64 };
+    private static final byte[] ADTS_FRAME = { (byte) 0xFF, (byte) 0xF1, 0x50, (byte) 0x80 };
+
+    @Test
+    public void classify_recognisesManifests() {
+        assertEquals(StreamResolver.Kind.HLS, StreamResolver.classify(
+                "application/vnd.apple.mpegurl", "/live.m3u8",
+                text("#EXTM3U\n#EXT-X-STREAM-INF:BANDWIDTH=128000\nchunks.m3u8\n")));
+        assertEquals(StreamResolver.Kind.DASH, StreamResolver.classify(
+                "application/dash+xml", "/manifest", NOTHING));
+        assertEquals(StreamResolver.Kind.DASH, StreamResolver.classify(
+                null, "/manifest", text("<?xml version=\"1.0\"?>\n<MPD type=\"dynamic\">")));
+    }
+
+    @Test
+    public void classify_recognisesPlaylists() {
+        assertEquals(StreamResolver.Kind.PLS, StreamResolver.classify(
+                "audio/x-scpls", "/listen", text("[playlist]\nFile1=http://a/stream\n")));
+        assertEquals(StreamResolver.Kind.PLS, StreamResolver.classify(
+                "text/plain", "/listen", text("[Playlist]\nNumberOfEntries=1\n")));
+
+        // An M3U of plain stream URLs is a playlist, not HLS, despite the type
+        assertEquals(StreamResolver.Kind.M3U, StreamResolver.classify(
+                "audio/x-mpegurl", "/listen.m3u", text("#EXTM3U\n#EXTINF:-1,Radio\nhttp://a/\n")));
+        assertEquals(StreamResolver.Kind.M3U, StreamResolver.classify(
+                "text/plain", "/listen", text("http://a/stream\n")));
+    }
+
+    @Test
+    public void classify_prefersAudioTypeOverExtension() {
+        assertEquals(StreamResolver.Kind.PROGRESSIVE, StreamResolver.classify(
+                "audio/mpeg", "/listen.pls", MP3_FRAME));
+        assertEquals(StreamResolver.Kind.PLS, StreamResolver.classify(
+                "application/octet-stream", "/listen.pls", NOTHING));
+        assertEquals(StreamResolver.Kind.PROGRESSIVE, StreamResolver.classify(
+                null, "/stream", MP3_FRAME));
+    }
+
+    @Test
+    public void codecOf_usesTypeThenFirstBytes() {
+        assertEquals(ResolvedStream.CODEC_MP3, StreamResolver.codecOf("audio/mpeg", NOTHING));
+        assertEquals(ResolvedStream.CODEC_AAC,
+                StreamResolver.codecOf("audio/aacp; rate=44100", NOTHING));
+        assertEquals(ResolvedStream.CODEC_OGG, StreamResolver.codecOf("application/ogg", NOTHING));
+
+        assertEquals(ResolvedStream.CODEC_AAC, StreamResolver.codecOf(null, ADTS_FRAME));
+        assertEquals(ResolvedStream.CODEC_MP3, StreamResolver.codecOf(null, MP3_FRAME));
+        assertEquals(ResolvedStream.CODEC_MP3, StreamResolver.codecOf(null, text("ID3")));
+        assertEquals(ResolvedStream.CODEC_OGG, StreamResolver.codecOf(null, text("OggS")));
+        assertNull(StreamResolver.codecOf("application/octet-stream", NOTHING));
+    }
+
+    private static byte[] text(String text) {
+        return text.getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.ojm.pinstream.playlists;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the playlist readers, writers and URL normalisation
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PlaylistFormatTest {
+
+    @Test
+    public void everyFormat_roundTrips() throws IOException {
+        for (PlaylistFormat format : PlaylistFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PlaylistWriter writer = format.newWriter(out);
+            writer.write("Jazz & <Blues>", "http://example.com/jazz");
+            writer.write("News", "https://example.com/news?x=1");
+            writer.close();
+
+            List<PlaylistEntry> entries = readAll(format, out.toByteArray());
+            assertEquals(format.name(), 2, entries.size());
+            assertEquals(format.name(), "Jazz & <Blues>", entries.get(0).getTitle());
+            assertEquals(format.name(), "http://example.com/jazz", entries.get(0).getUrl());
+            assertEquals(format.name(), "https://example.com/news?x=1", entries.get(1).getUrl());
+
+            // The written content should be recognised without a file name
+            assertEquals(format, PlaylistFormat.sniff(
+                    new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()))));
+        }
+    }
+
+    @Test
+    public void m3u_readsPlainAndExtendedEntries() throws IOException {
+        List<PlaylistEntry> entries = readAll(PlaylistFormat.M3U, (
+                "\uFEFF#EXTM3U\n" +
+                "#EXTINF:-1,First\n" +
+                "http://one\n" +
+                "\n" +
+                "http://two\n").getBytes("UTF-8"));
+
+        assertEquals(2, entries.size());
+        assertEquals("First", entries.get(0).getTitle());
+        assertNull(entries.get(1).getTitle());
+    }
+
+    @Test
+    public void pls_groupsKeysByNumber() throws IOException {
+        List<PlaylistEntry> entries = readAll(PlaylistFormat.PLS, (
+                "[playlist]\n" +
+                "Title1=First\n" +
+                "File1=http://one\n" +
+                "File2=http://two\n" +
+                "Length2=-1\n" +
+                "numberofentries=2\n").getBytes("UTF-8"));
+
+        assertEquals(2, entries.size());
+        assertEquals("First", entries.get(0).getTitle());
+        assertEquals("http://two", entries.get(1).getUrl());
+    }
+
+    @Test
+    public void json_acceptsWrappedStationArrays() throws IOException {
+        List<PlaylistEntry> entries = readAll(PlaylistFormat.JSON, (
+                "{\"version\": 2, \"stations\": [" +
+                "{\"name\": \"First\", \"stream\": \"http://one\", \"bitrate\": 128}," +
+                "{\"title\": \"No URL\"}," +
+                "{\"title\": \"Second\", \"url\": \"http://two\"}]}").getBytes("UTF-8"));
+
+        assertEquals(2, entries.size());
+        assertEquals("First", entries.get(0).getTitle());
+        assertEquals("http://two", entries.get(1).getUrl());
+    }
+
+    @Test
+    public void fromFileName_matchesExtensions() {
+        assertEquals(PlaylistFormat.M3U, PlaylistFormat.fromFileName("list.M3U8"));
+        assertEquals(PlaylistFormat.PLS, PlaylistFormat.fromFileName("radio.pls"));
+        assertEquals(PlaylistFormat.XSPF, PlaylistFormat.fromFileName("a.xspf"));
+        assertNull(PlaylistFormat.fromFileName("notes.txt"));
+    }
+
+    @Test
+    public void normalize_foldsEquivalentUrls() {
+        String expected = "http://example.com/Stream";
+
+        assertEquals(expected, UrlNormalizer.normalize(" HTTP://Example.COM:80/Stream#top "));
+        assertEquals(expected, UrlNormalizer.normalize("http://example.com/Stream"));
+        assertEquals("https://example.com", UrlNormalizer.normalize("https://example.com:443/"));
+        assertEquals("http://example.com:8000/live", UrlNormalizer.normalize("http://example.com:8000/live"));
+        assertEquals("http://example.com?id=1", UrlNormalizer.normalize("http://example.com/?id=1"));
+    }
+
+    /**
+     * Read every entry of an in-memory playlist
+     */
+    private static List<PlaylistEntry> readAll(PlaylistFormat format, byte[] data)
+            throws IOException {
+        List<PlaylistEntry> entries = new ArrayList<>();
+        PlaylistReader reader = format.newReader(new ByteArrayInputStream(data));
+
+        PlaylistEntry entry;
+        while ((entry = reader.next()) != null) {
+            entries.add(entry);
+        }
+
+        reader.close();
+        return entries;
+    }
+}
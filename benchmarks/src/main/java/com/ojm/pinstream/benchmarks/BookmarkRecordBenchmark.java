@@ -0,0 +1,123 @@
+package com.ojm.pinstream.benchmarks;
+
+import com.ojm.pinstream.models.BookmarkRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading back a bookmark in its serialised format, as every intent
+ * carrying one does, against the string array format it replaced and against
+ * sending just the ID. A byte buffer with length prefixed UTF-8 strings stands in
+ * for the parcel, which only exists on Android
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookmarkRecordBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final BookmarkRecord.Output<ByteBuffer> OUTPUT =
+            new BookmarkRecord.Output<ByteBuffer>() {
+                @Override
+                public void writeInt(ByteBuffer dest, int value) {
+                    dest.putInt(value);
+                }
+
+                @Override
+                public void writeString(ByteBuffer dest, String value) {
+                    byte[] bytes = value.getBytes(UTF_8);
+                    dest.putInt(bytes.length);
+                    dest.put(bytes);
+                }
+
+                @Override
+                public void writeByte(ByteBuffer dest, byte value) {
+                    dest.put(value);
+                }
+            };
+
+    private static final BookmarkRecord.Input<ByteBuffer> INPUT =
+            new BookmarkRecord.Input<ByteBuffer>() {
+                @Override
+                public int readInt(ByteBuffer source) {
+                    return source.getInt();
+                }
+
+                @Override
+                public String readString(ByteBuffer source) {
+                    int length = source.getInt();
+                    String value = new String(source.array(), source.position(), length, UTF_8);
+                    source.position(source.position() + length);
+                    return value;
+                }
+
+                @Override
+                public byte readByte(ByteBuffer source) {
+                    return source.get();
+                }
+            };
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    @Benchmark
+    public BookmarkRecord roundTrip() {
+        return roundTrip(null);
+    }
+
+    @Benchmark
+    public BookmarkRecord roundTripWithBufferProfile() {
+        return roundTrip("low_latency");
+    }
+
+    @Benchmark
+    public BookmarkRecord legacyRoundTrip() {
+        buffer.clear();
+
+        // Every field as a string in one array, as Parcel.writeStringArray lays it out
+        String[] fields = {"4211", "Radio Paradise",
+                "http://stream.radioparadise.com/aac-320", Boolean.toString(true)};
+        OUTPUT.writeInt(buffer, fields.length);
+        for (String field : fields) OUTPUT.writeString(buffer, field);
+
+        buffer.flip();
+        String[] read = new String[INPUT.readInt(buffer)];
+        for (int i = 0; i < read.length; i++) read[i] = INPUT.readString(buffer);
+
+        return new BookmarkRecord(Integer.parseInt(read[0]), read[1], read[2],
+                Boolean.parseBoolean(read[3]), null);
+    }
+
+    @Benchmark
+    public int idOnlyRoundTrip() {
+        buffer.clear();
+        OUTPUT.writeInt(buffer, 4211);
+
+        buffer.flip();
+        return INPUT.readInt(buffer);
+    }
+
+    private BookmarkRecord roundTrip(String bufferProfile) {
+        buffer.clear();
+        BookmarkRecord.write(OUTPUT, buffer, 4211, "Radio Paradise",
+                "http://stream.radioparadise.com/aac-320", true, bufferProfile);
+
+        buffer.flip();
+        return BookmarkRecord.read(INPUT, buffer);
+    }
+}
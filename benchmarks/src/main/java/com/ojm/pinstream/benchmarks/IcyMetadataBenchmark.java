@@ -0,0 +1,72 @@
+package com.ojm.pinstream.benchmarks;
+
+import com.ojm.pinstream.metadata.IcyMetadataParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing in-band ICY metadata blocks. Most blocks repeat the last one, which
+ * should cost a comparison and allocate nothing; a changed block is parsed and
+ * its title decoded
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IcyMetadataBenchmark {
+
+    private final IcyMetadataParser parser = new IcyMetadataParser();
+
+    // Two blocks padded to a multiple of 16 bytes, as servers send them
+    private byte[][] blocks;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        blocks = new byte[][] {
+                block("StreamTitle='Miles Davis - So What';StreamUrl='http://example.com/a.jpg';"),
+                block("StreamTitle='Sigur Rós - Hoppípolla';StreamUrl='';")
+        };
+    }
+
+    @Benchmark
+    public boolean parseRepeated() {
+        byte[] block = blocks[0];
+        System.arraycopy(block, 0, parser.buffer(), 0, block.length);
+        return parser.parse(block.length);
+    }
+
+    @Benchmark
+    public String parseChanged() {
+        byte[] block = blocks[next];
+        next ^= 1;
+
+        System.arraycopy(block, 0, parser.buffer(), 0, block.length);
+        parser.parse(block.length);
+        return parser.getStreamTitle();
+    }
+
+    /**
+     * Encode metadata text as a zero padded block
+     */
+    private static byte[] block(String text) {
+        byte[] bytes = text.getBytes(Charset.forName("UTF-8"));
+        byte[] block = new byte[(bytes.length + 15) / 16 * 16];
+        System.arraycopy(bytes, 0, block, 0, bytes.length);
+        return block;
+    }
+}
@@ -0,0 +1,96 @@
+package com.ojm.pinstream.benchmarks;
+
+import com.ojm.pinstream.diagnostics.PlaybackMetrics;
+import com.ojm.pinstream.diagnostics.TimeToFirstAudio;
+import com.ojm.pinstream.models.LatencyHistogram;
+import com.ojm.pinstream.playback.PlaybackStateMachine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The playback state machine and the figures it feeds: a stream starting, stalling
+ * and recovering, the once a second health sample, and recording start timings
+ * into a latency histogram and encoding it for the database
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaybackStateBenchmark {
+
+    private final PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+    private final TimeToFirstAudio timer = new TimeToFirstAudio();
+    private final long[][] history =
+            new long[PlaybackMetrics.COLUMNS][PlaybackMetrics.HISTORY_SIZE];
+
+    private PlaybackStateMachine machine;
+    private Map<String, Long> started;
+    private LatencyHistogram histogram;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        machine = new PlaybackStateMachine(metrics, timer,
+                new PlaybackStateMachine.StartListener() {
+                    @Override
+                    public void onStarted(int bookmarkId, Map<String, Long> phases) {
+                        started = phases;
+                    }
+                });
+
+        histogram = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(200 + (i * 37) % 5000);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Long> startStallAndRecover() {
+        machine.onPrepare();
+        timer.begin(1, now, now + 120, now + 300, now + 320);
+        timer.markResolved(now + 400);
+        timer.markFirstByte(now + 650);
+
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_BUFFERING, now + 330);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, now + 1200);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_BUFFERING, now + 5000);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_IDLE, now + 5100);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, now + 6000);
+        now += 10000;
+        return started;
+    }
+
+    @Benchmark
+    public int sampleAndCopyHistory() {
+        now += 1000;
+        metrics.addBytes(16000);
+        metrics.sample(now, 4500, 256000, 128000);
+        return metrics.copyHistory(history);
+    }
+
+    @Benchmark
+    public long recordLatency() {
+        now++;
+        histogram.record(now % 8000);
+        return histogram.getPercentile(0.95);
+    }
+
+    @Benchmark
+    public LatencyHistogram encodeLatency() {
+        return LatencyHistogram.fromBytes(histogram.toBytes());
+    }
+}
@@ -0,0 +1,111 @@
+package com.ojm.pinstream.benchmarks;
+
+import com.ojm.pinstream.playlists.M3uReader;
+import com.ojm.pinstream.playlists.M3uWriter;
+import com.ojm.pinstream.playlists.PlaylistEntry;
+import com.ojm.pinstream.playlists.PlaylistReader;
+import com.ojm.pinstream.playlists.PlaylistWriter;
+import com.ojm.pinstream.playlists.PlsReader;
+import com.ojm.pinstream.playlists.PlsWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing whole M3U and PLS playlists, as importing and exporting
+ * bookmarks does, from a handful of stations up to a large collection
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaylistBenchmark {
+
+    @Param({"10", "1000"})
+    public int entries;
+
+    private String[] titles;
+    private String[] urls;
+    private byte[] m3u;
+    private byte[] pls;
+
+    // Reused between invocations so only the writers' own allocation is measured
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+
+    @Setup
+    public void setUp() throws IOException {
+        titles = new String[entries];
+        urls = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            titles[i] = "Station " + i + " - Jazz & Blues";
+            urls[i] = "http://stream" + i + ".example.com:8000/live.mp3";
+        }
+
+        m3u = write(new M3uWriter(out));
+        pls = write(new PlsWriter(out));
+    }
+
+    @Benchmark
+    public void readM3u(Blackhole blackhole) throws IOException {
+        read(new M3uReader(new ByteArrayInputStream(m3u)), blackhole);
+    }
+
+    @Benchmark
+    public void readPls(Blackhole blackhole) throws IOException {
+        read(new PlsReader(new ByteArrayInputStream(pls)), blackhole);
+    }
+
+    @Benchmark
+    public byte[] writeM3u() throws IOException {
+        return write(new M3uWriter(out));
+    }
+
+    @Benchmark
+    public byte[] writePls() throws IOException {
+        return write(new PlsWriter(out));
+    }
+
+    /**
+     * Read every entry, handing each to the blackhole
+     */
+    private static void read(PlaylistReader reader, Blackhole blackhole) throws IOException {
+        PlaylistEntry entry;
+        while ((entry = reader.next()) != null) {
+            blackhole.consume(entry);
+        }
+
+        reader.close();
+    }
+
+    /**
+     * Write every station with a writer over the shared stream
+     * @return the bytes written
+     */
+    private byte[] write(PlaylistWriter writer) throws IOException {
+        for (int i = 0; i < entries; i++) {
+            writer.write(titles[i], urls[i]);
+        }
+
+        writer.close();
+        byte[] written = out.toByteArray();
+        out.reset();
+        return written;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ojm.pinstream.benchmarks;
+
+import com.ojm.pinstream.visualizer.PcmRingBuffer;
+import com.ojm.pinstream.visualizer.SpectrumAnalyzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One visualiser frame: copying the latest window out of the ring and splitting it
+ * into bands, as the analysis thread does thirty times a second. Neither should
+ * allocate at all
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectrumBenchmark {
+
+    private static final int SIZE = 1024;
+    private static final int SAMPLE_RATE_HZ = 44100;
+
+    private final PcmRingBuffer buffer = new PcmRingBuffer(1 << 14);
+    private final SpectrumAnalyzer analyzer = new SpectrumAnalyzer(SIZE, 8);
+    private final float[] samples = new float[SIZE];
+    private final float[] levels = new float[8];
+
+    @Setup
+    public void fill() {
+        // A few tones at once, like music would have
+        buffer.startWrite(buffer.getCapacity());
+        for (int i = 0; i < buffer.getCapacity(); i++) {
+            double t = (double) i / SAMPLE_RATE_HZ;
+            double value = Math.sin(2 * Math.PI * 110 * t)
+                    + Math.sin(2 * Math.PI * 1000 * t)
+                    + Math.sin(2 * Math.PI * 6000 * t);
+            buffer.put((short) (value / 3 * Short.MAX_VALUE));
+        }
+        buffer.finishWrite();
+    }
+
+    @Benchmark
+    public boolean readLatest() {
+        return buffer.readLatest(samples, SIZE);
+    }
+
+    @Benchmark
+    public float[] analyze() {
+        analyzer.analyze(samples, SAMPLE_RATE_HZ, levels);
+        return levels;
+    }
+}
@@ -0,0 +1,44 @@
+package com.ojm.pinstream.benchmarks;
+
+import com.ojm.pinstream.playlists.UrlNormalizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalising stream URLs, run on every imported entry to spot duplicates. Covers
+ * URLs already normal and ones needing each kind of change
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlNormalizerBenchmark {
+
+    private final String[] urls = {
+            "http://stream.example.com/live.mp3",
+            "https://example.com/radio?station=Jazz&bitrate=128",
+            "  HTTP://Stream.Example.COM:80/live.mp3#now  ",
+            "https://example.com:443/",
+            "icy://example.com:8000/Stream"
+    };
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String url : urls) {
+            blackhole.consume(UrlNormalizer.normalize(url));
+        }
+    }
+}
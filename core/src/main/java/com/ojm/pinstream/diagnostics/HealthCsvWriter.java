@@ -0,0 +1,55 @@
+package com.ojm.pinstream.diagnostics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes playback health history as CSV, one row per sample, with times as
+ * wall clock milliseconds
+ */
+public final class HealthCsvWriter implements Closeable {
+
+    private static final String HEADER = "timestamp_ms,buffered_ms,throughput_bps," +
+            "codec_bitrate_bps,bytes,rebuffers,rebuffer_ms,dropped_connections";
+
+    private final Writer writer;
+
+    /**
+     * @param out the stream to write, closed with this writer
+     */
+    public HealthCsvWriter(OutputStream out) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+        writer.write(HEADER);
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write copied history
+     * @param history history copied from PlaybackMetrics
+     * @param count how many samples were copied
+     * @param clockOffset added to sample times to turn them into wall clock times
+     */
+    public void write(long[][] history, int count, long clockOffset) throws IOException {
+        for (int i = 0; i < count; i++) {
+            writer.write(Long.toString(history[PlaybackMetrics.COLUMN_TIME][i] + clockOffset));
+
+            for (int column = PlaybackMetrics.COLUMN_TIME + 1;
+                 column < PlaybackMetrics.COLUMNS; column++) {
+                writer.write(',');
+                writer.write(Long.toString(history[column][i]));
+            }
+
+            writer.write("\r\n");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
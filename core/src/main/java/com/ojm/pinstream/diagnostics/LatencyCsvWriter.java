@@ -0,0 +1,69 @@
+package com.ojm.pinstream.diagnostics;
+
+import com.ojm.pinstream.models.LatencyHistogram;
+import com.ojm.pinstream.models.StationLatency;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes station startup latencies as CSV, one row per station and phase with
+ * its sample count and percentiles in milliseconds
+ */
+public final class LatencyCsvWriter implements Closeable {
+
+    private static final String HEADER = "bookmark_id,title,phase,count,p50_ms,p95_ms,p99_ms";
+
+    private final Writer writer;
+
+    /**
+     * @param out the stream to write, closed with this writer
+     */
+    public LatencyCsvWriter(OutputStream out) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+        writer.write(HEADER);
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write the rows for one station, one for each phase it has measurements for
+     * @param station the station
+     * @return the number of rows written
+     */
+    public int write(StationLatency station) throws IOException {
+        int rows = 0;
+
+        for (String phase : TimeToFirstAudio.PHASES) {
+            LatencyHistogram histogram = station.getPhase(phase);
+            if (histogram == null || histogram.getCount() == 0) continue;
+
+            writer.write(station.getBookmarkId() + "," + quote(station.getTitle()) + ","
+                    + phase + "," + histogram.getCount() + ","
+                    + histogram.getPercentile(50) + ","
+                    + histogram.getPercentile(95) + ","
+                    + histogram.getPercentile(99) + "\r\n");
+            rows++;
+        }
+
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Quote a field as RFC 4180 asks, doubling any quotes inside it
+     */
+    private static String quote(String field) {
+        if (field == null) return "";
+
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+}
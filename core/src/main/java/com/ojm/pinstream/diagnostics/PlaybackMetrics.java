@@ -0,0 +1,232 @@
+package com.ojm.pinstream.diagnostics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Health of the stream being played, shared by the service recording it and any
+ * screen showing it. Counters are atomics, updated from whichever thread sees the
+ * event, so the loading thread counts bytes without locking or allocating. Once a
+ * second the service adds a sample of every figure to a fixed ring of history.
+ * Readers copy the ring out without locking, checking a sequence number the
+ * writer bumps around each change and copying again if it moved
+ */
+public final class PlaybackMetrics {
+
+    // Columns of each history sample
+    public static final int COLUMN_TIME = 0;
+    public static final int COLUMN_BUFFERED_MILLIS = 1;
+    public static final int COLUMN_THROUGHPUT_BPS = 2;
+    public static final int COLUMN_CODEC_BITRATE = 3;
+    public static final int COLUMN_BYTES = 4;
+    public static final int COLUMN_REBUFFERS = 5;
+    public static final int COLUMN_REBUFFER_MILLIS = 6;
+    public static final int COLUMN_DROPPED_CONNECTIONS = 7;
+    public static final int COLUMNS = 8;
+
+    // Samples kept, five minutes at one a second
+    public static final int HISTORY_SIZE = 300;
+
+    // Process-wide instance
+    private static PlaybackMetrics instance;
+
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong droppedConnections = new AtomicLong();
+    private final AtomicLong rebufferCount = new AtomicLong();
+    private final AtomicLong rebufferMillis = new AtomicLong();
+
+    // When the current rebuffer started, 0 if not rebuffering
+    private volatile long rebufferStart;
+
+    // The latest sampled gauges
+    private volatile long bufferedMillis;
+    private volatile long throughputBps;
+    private volatile long codecBitrate;
+
+    // Written by the single sampling thread, one row per column
+    private final long[][] history = new long[COLUMNS][HISTORY_SIZE];
+    private int samplesWritten;
+
+    // Odd while the history is being changed, bumped before and after each change
+    private volatile int sequence;
+
+    /**
+     * Get the process-wide metrics
+     * @return the shared metrics
+     */
+    public static synchronized PlaybackMetrics getInstance() {
+        if (instance == null) instance = new PlaybackMetrics();
+        return instance;
+    }
+
+    /**
+     * Create metrics of its own, use getInstance outside of tests
+     */
+    PlaybackMetrics() { }
+
+    /**
+     * Start again for a new stream, forgetting counters and history. Must be called
+     * on the sampling thread
+     */
+    public void reset() {
+        bytesTransferred.set(0);
+        droppedConnections.set(0);
+        rebufferCount.set(0);
+        rebufferMillis.set(0);
+        rebufferStart = 0;
+        bufferedMillis = 0;
+        throughputBps = 0;
+        codecBitrate = 0;
+
+        sequence++;
+        samplesWritten = 0;
+        sequence++;
+    }
+
+    /**
+     * Count bytes received, from any thread
+     * @param bytes how many arrived
+     */
+    public void addBytes(long bytes) {
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    /**
+     * Count a connection lost part way through the stream
+     */
+    public void recordDroppedConnection() {
+        droppedConnections.incrementAndGet();
+    }
+
+    /**
+     * Note playback stalling for want of data, after it had started
+     * @param now the current time
+     */
+    public void onRebufferStarted(long now) {
+        if (rebufferStart != 0) return;
+
+        rebufferStart = now;
+        rebufferCount.incrementAndGet();
+    }
+
+    /**
+     * Note playback resuming, or stopping, after a rebuffer
+     * @param now the current time
+     */
+    public void onRebufferEnded(long now) {
+        long start = rebufferStart;
+        if (start == 0) return;
+
+        rebufferStart = 0;
+        rebufferMillis.addAndGet(Math.max(0, now - start));
+    }
+
+    /**
+     * Record the latest gauges and add a history sample of every figure. Only one
+     * thread may sample
+     * @param now the current time
+     * @param bufferedMillis media buffered ahead of the playhead
+     * @param throughputBps estimated download throughput in bits per second, or 0
+     * @param codecBitrate the stream's encoded bitrate in bits per second, or 0
+     */
+    public void sample(long now, long bufferedMillis, long throughputBps, long codecBitrate) {
+        this.bufferedMillis = bufferedMillis;
+        this.throughputBps = throughputBps;
+        this.codecBitrate = codecBitrate;
+
+        int slot = samplesWritten % HISTORY_SIZE;
+        sequence++;
+
+        history[COLUMN_TIME][slot] = now;
+        history[COLUMN_BUFFERED_MILLIS][slot] = bufferedMillis;
+        history[COLUMN_THROUGHPUT_BPS][slot] = throughputBps;
+        history[COLUMN_CODEC_BITRATE][slot] = codecBitrate;
+        history[COLUMN_BYTES][slot] = bytesTransferred.get();
+        history[COLUMN_REBUFFERS][slot] = rebufferCount.get();
+        history[COLUMN_REBUFFER_MILLIS][slot] = getRebufferMillis(now);
+        history[COLUMN_DROPPED_CONNECTIONS][slot] = droppedConnections.get();
+
+        samplesWritten++;
+        sequence++;
+    }
+
+    /**
+     * Copy the history out, oldest sample first
+     * @param into an array of COLUMNS rows of HISTORY_SIZE samples
+     * @return how many samples were copied
+     */
+    public int copyHistory(long[][] into) {
+        while (true) {
+            // Wait out a change in progress
+            int before = sequence;
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+
+            int written = samplesWritten;
+            int count = Math.min(written, HISTORY_SIZE);
+            int first = written - count;
+
+            for (int column = 0; column < COLUMNS; column++) {
+                for (int i = 0; i < count; i++) {
+                    into[column][i] = history[column][(first + i) % HISTORY_SIZE];
+                }
+            }
+
+            // Only trust the copy if nothing changed while it was being made
+            if (sequence == before) return count;
+        }
+    }
+
+    /**
+     * @return bytes received for the stream
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * @return connections lost part way through the stream
+     */
+    public long getDroppedConnections() {
+        return droppedConnections.get();
+    }
+
+    /**
+     * @return times playback stalled for want of data
+     */
+    public long getRebufferCount() {
+        return rebufferCount.get();
+    }
+
+    /**
+     * Get the total time spent rebuffering
+     * @param now the current time, to count a rebuffer still going on
+     * @return the time in milliseconds
+     */
+    public long getRebufferMillis(long now) {
+        long start = rebufferStart;
+        return rebufferMillis.get() + (start == 0 ? 0 : Math.max(0, now - start));
+    }
+
+    /**
+     * @return media buffered ahead of the playhead at the last sample
+     */
+    public long getBufferedMillis() {
+        return bufferedMillis;
+    }
+
+    /**
+     * @return estimated download throughput in bits per second at the last sample
+     */
+    public long getThroughputBps() {
+        return throughputBps;
+    }
+
+    /**
+     * @return the stream's encoded bitrate in bits per second, 0 if unknown
+     */
+    public long getCodecBitrate() {
+        return codecBitrate;
+    }
+}
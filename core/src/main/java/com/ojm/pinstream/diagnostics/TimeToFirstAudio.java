@@ -0,0 +1,155 @@
+package com.ojm.pinstream.diagnostics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times one station start from the tap in the bookmark list until the player is
+ * ready and playing. The activities timestamp their part and pass the times to
+ * the service with the prepare request, the service marks the rest. All times
+ * are SystemClock.elapsedRealtime milliseconds, which are shared across
+ * processes. Marks not reached, such as the tap when playback was started from
+ * the notification, leave the phases either side of them out
+ */
+public final class TimeToFirstAudio {
+
+    // Extras carrying the activities' marks, on the play intent and prepare request
+    public static final String EXTRA_TAPPED = "ttfa_tapped";
+    public static final String EXTRA_LAUNCHED = "ttfa_launched";
+    public static final String EXTRA_CONNECTED = "ttfa_connected";
+
+    // Tap to the player activity being created
+    public static final String PHASE_LAUNCH = "launch";
+
+    // Activity created to its media browser connecting to the service
+    public static final String PHASE_SESSION = "session";
+
+    // Browser connected to the service receiving the prepare request
+    public static final String PHASE_HANDOFF = "handoff";
+
+    // Prepare request to knowing where the stream is
+    public static final String PHASE_RESOLVE = "resolve";
+
+    // Stream resolved to its response headers arriving, absent for warm connections
+    public static final String PHASE_CONNECT = "connect";
+
+    // Response headers, or resolving for warm connections, to playing
+    public static final String PHASE_BUFFER = "buffer";
+
+    // Prepare request to playing, measured for every start
+    public static final String PHASE_PREPARE_TO_AUDIO = "prepare_to_audio";
+
+    // Tap to playing, measured for starts from the bookmark list
+    public static final String PHASE_TAP_TO_AUDIO = "tap_to_audio";
+
+    // Every phase, in the order they happen with the totals last
+    public static final String[] PHASES = {
+            PHASE_LAUNCH, PHASE_SESSION, PHASE_HANDOFF, PHASE_RESOLVE,
+            PHASE_CONNECT, PHASE_BUFFER, PHASE_PREPARE_TO_AUDIO, PHASE_TAP_TO_AUDIO
+    };
+
+    // Indexes of each mark, zero meaning not reached
+    private static final int TAPPED = 0;
+    private static final int LAUNCHED = 1;
+    private static final int CONNECTED = 2;
+    private static final int PREPARED = 3;
+    private static final int RESOLVED = 4;
+    private static final int FIRST_BYTE = 5;
+    private static final int MARKS = 6;
+
+    private final long[] marks = new long[MARKS];
+
+    // The bookmark being started, -1 when no start is being timed
+    private int bookmarkId = -1;
+
+    /**
+     * Start timing a station from its prepare request, with any earlier marks
+     * taken from the request's extras. Any start still being timed is abandoned
+     * @param bookmarkId the ID of the bookmark being started
+     * @param tapped when the station was tapped, or 0 if it wasn't
+     * @param launched when the player activity was created, or 0
+     * @param connected when the activity's browser connected, or 0
+     * @param now the current time
+     */
+    public void begin(int bookmarkId, long tapped, long launched, long connected, long now) {
+        this.bookmarkId = bookmarkId;
+
+        marks[TAPPED] = tapped;
+        marks[LAUNCHED] = launched;
+        marks[CONNECTED] = connected;
+        marks[PREPARED] = now;
+        marks[RESOLVED] = 0;
+        marks[FIRST_BYTE] = 0;
+    }
+
+    /**
+     * @return whether a start is being timed
+     */
+    public boolean isTiming() {
+        return bookmarkId != -1;
+    }
+
+    /**
+     * Mark the stream as resolved
+     * @param now the current time
+     */
+    public void markResolved(long now) {
+        if (isTiming() && marks[RESOLVED] == 0) marks[RESOLVED] = now;
+    }
+
+    /**
+     * Mark the stream's response headers arriving. Only the first after resolving
+     * counts, earlier requests were probes
+     * @param now the current time
+     */
+    public void markFirstByte(long now) {
+        if (isTiming() && marks[RESOLVED] != 0 && marks[FIRST_BYTE] == 0) {
+            marks[FIRST_BYTE] = now;
+        }
+    }
+
+    /**
+     * Stop timing without a result, as the start was abandoned
+     */
+    public void cancel() {
+        bookmarkId = -1;
+    }
+
+    /**
+     * @return the ID of the bookmark being timed, or -1 if none is
+     */
+    public int getBookmarkId() {
+        return bookmarkId;
+    }
+
+    /**
+     * Finish timing as the station starts playing
+     * @param now the current time
+     * @return the duration of each phase reached in milliseconds, by phase name,
+     *         empty if no start was being timed
+     */
+    public Map<String, Long> finish(long now) {
+        Map<String, Long> phases = new LinkedHashMap<>();
+        if (!isTiming()) return phases;
+
+        put(phases, PHASE_LAUNCH, marks[TAPPED], marks[LAUNCHED]);
+        put(phases, PHASE_SESSION, marks[LAUNCHED], marks[CONNECTED]);
+        put(phases, PHASE_HANDOFF, marks[CONNECTED], marks[PREPARED]);
+        put(phases, PHASE_RESOLVE, marks[PREPARED], marks[RESOLVED]);
+        put(phases, PHASE_CONNECT, marks[RESOLVED], marks[FIRST_BYTE]);
+        put(phases, PHASE_BUFFER,
+                marks[FIRST_BYTE] != 0 ? marks[FIRST_BYTE] : marks[RESOLVED], now);
+        put(phases, PHASE_PREPARE_TO_AUDIO, marks[PREPARED], now);
+        put(phases, PHASE_TAP_TO_AUDIO, marks[TAPPED], now);
+
+        bookmarkId = -1;
+        return phases;
+    }
+
+    /**
+     * Add the time between two marks, if both were reached in order
+     */
+    private static void put(Map<String, Long> phases, String phase, long start, long end) {
+        if (start != 0 && end != 0 && end >= start) phases.put(phase, end - start);
+    }
+}
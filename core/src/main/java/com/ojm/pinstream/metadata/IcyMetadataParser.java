@@ -0,0 +1,177 @@
+package com.ojm.pinstream.metadata;
+
+import java.nio.charset.Charset;
+
+/**
+ * Parser for SHOUTCAST/Icecast in-band metadata blocks, text of the form
+ * StreamTitle='Artist - Title';StreamUrl='http://...'; padded with zero bytes.
+ * Blocks are read straight into this parser's own buffer and parsing only records
+ * offsets, so nothing is allocated unless the metadata actually changes and a
+ * value is asked for
+ */
+public final class IcyMetadataParser {
+
+    // Largest possible block, the length byte counts units of 16 bytes
+    public static final int MAX_BLOCK_SIZE = 255 * 16;
+
+    // Keys we look for
+    private static final byte[] STREAM_TITLE = { 'S', 't', 'r', 'e', 'a', 'm',
+            'T', 'i', 't', 'l', 'e', '=' };
+    private static final byte[] STREAM_URL = { 'S', 't', 'r', 'e', 'a', 'm',
+            'U', 'r', 'l', '=' };
+
+    // Metadata text is UTF-8 from most servers, older ones send Latin-1
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    // The block being read, and the last block which parsed, to spot repeats
+    private final byte[] block = new byte[MAX_BLOCK_SIZE];
+    private final byte[] current = new byte[MAX_BLOCK_SIZE];
+    private int currentLength;
+
+    // Offsets of each value within current, start is -1 if the key is missing
+    private int titleStart = -1;
+    private int titleEnd;
+    private int urlStart = -1;
+    private int urlEnd;
+
+    /**
+     * Get the buffer a block should be read into before calling parse
+     * @return a buffer of MAX_BLOCK_SIZE bytes
+     */
+    public byte[] buffer() {
+        return block;
+    }
+
+    /**
+     * Parse a block which has been read into buffer()
+     * @param length the number of bytes read
+     * @return true if the block differs from the last one, false if it repeats it
+     */
+    public boolean parse(int length) {
+        // Ignore the zero padding at the end
+        int end = 0;
+        while (end < length && block[end] != 0) end++;
+
+        if (end == currentLength && regionEquals(block, current, end)) return false;
+
+        System.arraycopy(block, 0, current, 0, end);
+        currentLength = end;
+
+        titleStart = valueStart(STREAM_TITLE);
+        titleEnd = titleStart < 0 ? 0 : valueEnd(titleStart);
+        urlStart = valueStart(STREAM_URL);
+        urlEnd = urlStart < 0 ? 0 : valueEnd(urlStart);
+        return true;
+    }
+
+    /**
+     * Forget the last block, so the next one is always reported as a change
+     */
+    public void reset() {
+        currentLength = 0;
+        titleStart = -1;
+        urlStart = -1;
+    }
+
+    /**
+     * Get the stream title from the last changed block, usually "Artist - Title"
+     * @return the title, or null if the block had none
+     */
+    public String getStreamTitle() {
+        return titleStart < 0 ? null : decode(titleStart, titleEnd);
+    }
+
+    /**
+     * Get the stream URL from the last changed block, which some stations use
+     * for artwork or a web page
+     * @return the URL, or null if the block had none
+     */
+    public String getStreamUrl() {
+        return urlStart < 0 ? null : decode(urlStart, urlEnd);
+    }
+
+    /**
+     * Find where a key's quoted value starts
+     * @param key the key, including its '='
+     * @return the offset just after the opening quote, or -1 if the key is missing
+     */
+    private int valueStart(byte[] key) {
+        // A key only counts at the very start or after a ';'
+        for (int i = 0; i + key.length < currentLength; i++) {
+            if (i > 0 && current[i - 1] != ';') continue;
+
+            int j = 0;
+            while (j < key.length && current[i + j] == key[j]) j++;
+
+            if (j == key.length && current[i + j] == '\'') return i + j + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Find where a quoted value ends. Titles often contain quotes themselves, so
+     * the value runs to the first "';" or failing that to the last quote
+     * @param start the offset just after the opening quote
+     * @return the offset of the closing quote
+     */
+    private int valueEnd(int start) {
+        int lastQuote = -1;
+
+        for (int i = start; i < currentLength; i++) {
+            if (current[i] != '\'') continue;
+            if (i + 1 == currentLength || current[i + 1] == ';') return i;
+            lastQuote = i;
+        }
+
+        return lastQuote < 0 ? currentLength : lastQuote;
+    }
+
+    /**
+     * Decode part of the current block as UTF-8, or Latin-1 if it isn't valid UTF-8
+     */
+    private String decode(int start, int end) {
+        Charset charset = isUtf8(current, start, end) ? UTF_8 : ISO_8859_1;
+        return new String(current, start, end - start, charset).trim();
+    }
+
+    /**
+     * Check bytes form valid UTF-8, without decoding them
+     */
+    private static boolean isUtf8(byte[] bytes, int start, int end) {
+        int i = start;
+
+        while (i < end) {
+            int b = bytes[i] & 0xFF;
+            int continuation;
+
+            if (b < 0x80) continuation = 0;
+            else if (b >= 0xC2 && b <= 0xDF) continuation = 1;
+            else if (b >= 0xE0 && b <= 0xEF) continuation = 2;
+            else if (b >= 0xF0 && b <= 0xF4) continuation = 3;
+            else return false;
+
+            if (i + continuation >= end && continuation > 0) return false;
+
+            for (int k = 1; k <= continuation; k++) {
+                if ((bytes[i + k] & 0xC0) != 0x80) return false;
+            }
+
+            i += continuation + 1;
+        }
+
+        return true;
+    }
+
+    /**
+     * Compare the first length bytes of two arrays
+     */
+    private static boolean regionEquals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package com.ojm.pinstream.models;
+
+/**
+ * The serialised form of a bookmark, as Bookmark writes it to a parcel. Each field
+ * is written in its own type so nothing is converted to or parsed from strings,
+ * and the selected status and whether a buffer profile follows share one byte.
+ * Most bookmarks have no buffer profile, so it's only written when there is one.
+ * Written through an Output and read through an Input, so the same format can be
+ * used with Android's Parcel or any plain Java buffer
+ */
+public final class BookmarkRecord {
+
+    // Bits of the flags byte
+    static final int FLAG_SELECTED = 1;
+    static final int FLAG_BUFFER_PROFILE = 1 << 1;
+
+    /**
+     * Writes the field types the format uses to a destination
+     * @param <T> the type of destination
+     */
+    public interface Output<T> {
+        void writeInt(T dest, int value);
+
+        void writeString(T dest, String value);
+
+        void writeByte(T dest, byte value);
+    }
+
+    /**
+     * Reads the field types the format uses from a source
+     * @param <T> the type of source
+     */
+    public interface Input<T> {
+        int readInt(T source);
+
+        String readString(T source);
+
+        byte readByte(T source);
+    }
+
+    private final int id;
+    private final String title;
+    private final String url;
+    private final boolean isSelected;
+    private final String bufferProfile;
+
+    /**
+     * @param id the bookmark's database ID
+     * @param title the title of the bookmark
+     * @param url the stream's url, as a String
+     * @param isSelected whether the bookmark is selected
+     * @param bufferProfile the key of the bookmark's buffer profile, or null
+     */
+    public BookmarkRecord(int id, String title, String url, boolean isSelected,
+                          String bufferProfile) {
+        this.id = id;
+        this.title = title;
+        this.url = url;
+        this.isSelected = isSelected;
+        this.bufferProfile = bufferProfile;
+    }
+
+    /**
+     * Write a bookmark's fields
+     * @param output writes each field type
+     * @param dest the destination to write to
+     * @param id the bookmark's database ID
+     * @param title the title of the bookmark
+     * @param url the stream's url, as a String
+     * @param isSelected whether the bookmark is selected
+     * @param bufferProfile the key of the bookmark's buffer profile, or null
+     */
+    public static <T> void write(Output<T> output, T dest, int id, String title, String url,
+                                 boolean isSelected, String bufferProfile) {
+        output.writeInt(dest, id);
+        output.writeString(dest, title);
+        output.writeString(dest, url);
+        output.writeByte(dest, (byte) ((isSelected ? FLAG_SELECTED : 0)
+                | (bufferProfile != null ? FLAG_BUFFER_PROFILE : 0)));
+        if (bufferProfile != null) output.writeString(dest, bufferProfile);
+    }
+
+    /**
+     * Read a bookmark's fields back in the order write wrote them
+     * @param input reads each field type
+     * @param source the source to read from
+     * @return the fields read
+     */
+    public static <T> BookmarkRecord read(Input<T> input, T source) {
+        int id = input.readInt(source);
+        String title = input.readString(source);
+        String url = input.readString(source);
+        byte flags = input.readByte(source);
+        String bufferProfile =
+                (flags & FLAG_BUFFER_PROFILE) != 0 ? input.readString(source) : null;
+
+        return new BookmarkRecord(id, title, url, (flags & FLAG_SELECTED) != 0, bufferProfile);
+    }
+
+    /**
+     * @return the bookmark's database ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the title of the bookmark
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return the stream's url, as a String
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return whether the bookmark is selected
+     */
+    public boolean isSelected() {
+        return isSelected;
+    }
+
+    /**
+     * @return the key of the bookmark's buffer profile, or null
+     */
+    public String getBufferProfile() {
+        return bufferProfile;
+    }
+}
@@ -0,0 +1,170 @@
+package com.ojm.pinstream.models;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A compact histogram of latencies in milliseconds. Values under 8ms are counted
+ * exactly, above that each power of two is split into 8 buckets, so any value is
+ * reported within 12.5% using 144 counters however many are recorded. Stored as
+ * the non-empty buckets only, a few dozen bytes for a typical station
+ */
+public final class LatencyHistogram {
+
+    // Buckets per power of two, as a power of two itself
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Longest latency told apart, about 17 minutes. Longer ones count as this
+    public static final long MAX_MILLIS = (1 << 20) - 1;
+
+    private static final int BUCKETS = bucketOf(MAX_MILLIS) + 1;
+
+    // First byte of the stored form, bumped if the bucket layout ever changes
+    private static final int FORMAT_VERSION = 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+
+    /**
+     * Count one latency
+     * @param millis the latency, clamped to between zero and MAX_MILLIS
+     */
+    public void record(long millis) {
+        counts[bucketOf(Math.max(0, Math.min(millis, MAX_MILLIS)))]++;
+        total++;
+    }
+
+    /**
+     * @return how many latencies have been recorded
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * Get the latency below which a given share of those recorded fall
+     * @param percentile the share, from 0 to 100
+     * @return the highest latency in the bucket holding that share, or 0 if
+     *         nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        if (total == 0) return 0;
+
+        // The rank of the value wanted, counting from one
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) return highestIn(bucket);
+        }
+
+        return MAX_MILLIS;
+    }
+
+    /**
+     * Encode the histogram for storage, as a version byte followed by the gap to
+     * each non-empty bucket and its count, both as variable length integers
+     * @return the encoded histogram
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT_VERSION);
+
+        int previous = -1;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (counts[bucket] == 0) continue;
+
+            writeVarint(out, bucket - previous);
+            writeVarint(out, counts[bucket]);
+            previous = bucket;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a stored histogram
+     * @param bytes the encoded histogram, may be null
+     * @return the histogram, empty if there was nothing or it can't be read
+     */
+    public static LatencyHistogram fromBytes(byte[] bytes) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (bytes == null || bytes.length == 0 || bytes[0] != FORMAT_VERSION) return histogram;
+
+        // Position in the bytes, kept in an array so readVarint can advance it
+        int[] position = { 1 };
+        int bucket = -1;
+
+        while (position[0] < bytes.length) {
+            long gap = readVarint(bytes, position);
+            long count = readVarint(bytes, position);
+
+            // Anything out of range means the data is damaged, so none of it is trusted
+            if (gap <= 0 || bucket + gap >= BUCKETS || count < 0) return new LatencyHistogram();
+
+            bucket += gap;
+            histogram.counts[bucket] = count;
+            histogram.total += count;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Find the bucket counting a latency
+     * @param millis the latency, between zero and MAX_MILLIS
+     * @return the bucket index
+     */
+    static int bucketOf(long millis) {
+        if (millis < SUB_BUCKETS) return (int) millis;
+
+        // How far the value is shifted to leave just its top bits
+        int shift = 63 - Long.numberOfLeadingZeros(millis) - SUB_BUCKET_BITS;
+        int sub = (int) (millis >> shift) - SUB_BUCKETS;
+
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Find the highest latency a bucket counts
+     * @param bucket the bucket index
+     * @return the highest latency in it
+     */
+    static long highestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Write a non-negative number seven bits at a time, low bits first
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    /**
+     * Read a number written by writeVarint
+     * @return the number, or -1 if the bytes end part way through it
+     */
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+
+        for (int shift = 0; shift < 64 && position[0] < bytes.length; shift += 7) {
+            int b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        return -1;
+    }
+}
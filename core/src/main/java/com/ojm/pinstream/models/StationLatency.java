@@ -0,0 +1,56 @@
+package com.ojm.pinstream.models;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The startup latencies recorded for one station, a histogram for each phase
+ * between tapping it and hearing it
+ */
+public final class StationLatency {
+
+    private final int bookmarkId;
+    private final String title;
+    private final Map<String, LatencyHistogram> phases = new LinkedHashMap<>();
+
+    /**
+     * @param bookmarkId the ID of the station's bookmark
+     * @param title the station's title
+     */
+    public StationLatency(int bookmarkId, String title) {
+        this.bookmarkId = bookmarkId;
+        this.title = title;
+    }
+
+    /**
+     * @return the ID of the station's bookmark
+     */
+    public int getBookmarkId() {
+        return bookmarkId;
+    }
+
+    /**
+     * @return the station's title
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Get the histogram for one phase
+     * @param phase the phase name
+     * @return the histogram, or null if that phase was never measured
+     */
+    public LatencyHistogram getPhase(String phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * Set the histogram for one phase
+     * @param phase the phase name
+     * @param histogram the histogram
+     */
+    public void putPhase(String phase, LatencyHistogram histogram) {
+        phases.put(phase, histogram);
+    }
+}
@@ -0,0 +1,56 @@
+package com.ojm.pinstream.playback;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter. Each delay is picked at random between
+ * zero and a ceiling which doubles with every attempt up to a cap, so many
+ * clients dropped by the same server outage don't all come back at once. Not
+ * thread safe, each user keeps its own
+ */
+public final class Backoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+
+    private int attempts;
+
+    /**
+     * @param baseMillis the ceiling of the first delay
+     * @param maxMillis the largest ceiling
+     * @param random source of jitter
+     */
+    public Backoff(long baseMillis, long maxMillis, Random random) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /**
+     * Pick the delay before the next attempt and count it
+     * @return a delay in milliseconds
+     */
+    public long nextDelayMillis() {
+        // Stop doubling once at the cap, long before the shift could overflow
+        long ceiling = baseMillis << Math.min(attempts, 30);
+        if (ceiling <= 0 || ceiling > maxMillis) ceiling = maxMillis;
+
+        attempts++;
+        return (long) (random.nextDouble() * (ceiling + 1));
+    }
+
+    /**
+     * @return the number of delays handed out since the last reset
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Start again from the base delay, after a success
+     */
+    public void reset() {
+        attempts = 0;
+    }
+}
@@ -0,0 +1,119 @@
+package com.ojm.pinstream.playback;
+
+/**
+ * A named set of buffering thresholds for the player. Low latency starts quickly
+ * and keeps little in hand, suited to fast, steady networks. Resilient waits a
+ * little longer and then buffers minutes ahead, to ride out gaps in coverage such
+ * as on a train. Balanced matches ExoPlayer's defaults. Profiles are chosen by key,
+ * which is what the settings and the bookmarks table store
+ */
+public final class BufferProfile {
+
+    // Keys as stored in preferences and the database
+    public static final String KEY_LOW_LATENCY = "low_latency";
+    public static final String KEY_BALANCED = "balanced";
+    public static final String KEY_RESILIENT = "resilient";
+
+    public static final BufferProfile LOW_LATENCY = new BufferProfile(
+            KEY_LOW_LATENCY, 2000, 10000, 500, 1500, 1024 * 1024);
+
+    public static final BufferProfile BALANCED = new BufferProfile(
+            KEY_BALANCED, 15000, 50000, 2500, 5000, 54 * 64 * 1024);
+
+    public static final BufferProfile RESILIENT = new BufferProfile(
+            KEY_RESILIENT, 60000, 180000, 5000, 10000, 8 * 1024 * 1024);
+
+    // Used when nothing has been chosen
+    public static final BufferProfile DEFAULT = BALANCED;
+
+    private final String key;
+    private final int minBufferMs;
+    private final int maxBufferMs;
+    private final int bufferForPlaybackMs;
+    private final int bufferForPlaybackAfterRebufferMs;
+    private final int targetBufferBytes;
+
+    /**
+     * @param key the stored name of the profile
+     * @param minBufferMs the player always tries to keep at least this much buffered
+     * @param maxBufferMs the player stops loading once this much is buffered
+     * @param bufferForPlaybackMs buffer needed to start playing
+     * @param bufferForPlaybackAfterRebufferMs buffer needed to resume after running dry
+     * @param targetBufferBytes memory the buffer may use, whatever its duration
+     */
+    BufferProfile(String key, int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                  int bufferForPlaybackAfterRebufferMs, int targetBufferBytes) {
+        this.key = key;
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.targetBufferBytes = targetBufferBytes;
+    }
+
+    /**
+     * Look up a profile by its stored key
+     * @param key the key, may be null
+     * @return the matching profile, or null if the key isn't one
+     */
+    public static BufferProfile forKey(String key) {
+        if (KEY_LOW_LATENCY.equals(key)) return LOW_LATENCY;
+        if (KEY_BALANCED.equals(key)) return BALANCED;
+        if (KEY_RESILIENT.equals(key)) return RESILIENT;
+        return null;
+    }
+
+    /**
+     * Pick the profile for a stream, a bookmark's own choice winning over the global one
+     * @param bookmarkKey the bookmark's profile key, or null to follow the global one
+     * @param globalKey the profile key chosen in settings, or null
+     * @return the profile to use, never null
+     */
+    public static BufferProfile resolve(String bookmarkKey, String globalKey) {
+        BufferProfile profile = forKey(bookmarkKey);
+        if (profile == null) profile = forKey(globalKey);
+        return profile == null ? DEFAULT : profile;
+    }
+
+    /**
+     * @return the key stored for this profile
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the buffer the player always tries to keep, in milliseconds
+     */
+    public int getMinBufferMs() {
+        return minBufferMs;
+    }
+
+    /**
+     * @return the buffer at which the player stops loading, in milliseconds
+     */
+    public int getMaxBufferMs() {
+        return maxBufferMs;
+    }
+
+    /**
+     * @return the buffer needed to start playing, in milliseconds
+     */
+    public int getBufferForPlaybackMs() {
+        return bufferForPlaybackMs;
+    }
+
+    /**
+     * @return the buffer needed to resume after running dry, in milliseconds
+     */
+    public int getBufferForPlaybackAfterRebufferMs() {
+        return bufferForPlaybackAfterRebufferMs;
+    }
+
+    /**
+     * @return the memory the buffer may use, in bytes
+     */
+    public int getTargetBufferBytes() {
+        return targetBufferBytes;
+    }
+}
@@ -0,0 +1,103 @@
+package com.ojm.pinstream.playback;
+
+import com.ojm.pinstream.diagnostics.PlaybackMetrics;
+import com.ojm.pinstream.diagnostics.TimeToFirstAudio;
+
+import java.util.Map;
+
+/**
+ * Follows the player through its states for one stream, turning them into stalls
+ * counted in the playback metrics and the end of the time to first audio. States
+ * are ExoPlayer's, as plain ints so this runs without it. Not thread safe, the
+ * service drives it from the thread the player reports on
+ */
+public final class PlaybackStateMachine {
+
+    // Player states, the same values as ExoPlayer's Player.STATE_ constants
+    public static final int STATE_IDLE = 1;
+    public static final int STATE_BUFFERING = 2;
+    public static final int STATE_READY = 3;
+    public static final int STATE_ENDED = 4;
+
+    /**
+     * Told when a timed start finishes with the stream playing
+     */
+    public interface StartListener {
+        /**
+         * @param bookmarkId the ID of the bookmark that started
+         * @param phases the duration of each phase reached, by phase name
+         */
+        void onStarted(int bookmarkId, Map<String, Long> phases);
+    }
+
+    private final PlaybackMetrics metrics;
+    private final TimeToFirstAudio timeToFirstAudio;
+    private final StartListener listener;
+
+    // Whether the current stream has been ready and playing, so buffering is a stall
+    private boolean hasPlayed;
+
+    /**
+     * @param metrics the metrics to count stalls into
+     * @param timeToFirstAudio the timer for the current start
+     * @param listener told when a start finishes
+     */
+    public PlaybackStateMachine(PlaybackMetrics metrics, TimeToFirstAudio timeToFirstAudio,
+                                StartListener listener) {
+        this.metrics = metrics;
+        this.timeToFirstAudio = timeToFirstAudio;
+        this.listener = listener;
+    }
+
+    /**
+     * Start following a new stream, forgetting the last one's health figures
+     */
+    public void onPrepare() {
+        metrics.reset();
+        hasPlayed = false;
+    }
+
+    /**
+     * Follow the same stream on a player rebuilt after it was released while idle,
+     * keeping its health figures. Buffering it again is a fresh start, not a stall
+     */
+    public void onRebuilt() {
+        hasPlayed = false;
+    }
+
+    /**
+     * Follow the player into a new state
+     * @param playWhenReady whether the player plays once it can
+     * @param state the player's state, one of the STATE_ constants
+     * @param now the current time
+     */
+    public void onStateChanged(boolean playWhenReady, int state, long now) {
+        // Buffering once playing is a stall, which lasts until playing again or
+        // paused. Idle while reconnecting is part of the same stall
+        if (state == STATE_BUFFERING && playWhenReady && hasPlayed) {
+            metrics.onRebufferStarted(now);
+        } else if (state == STATE_READY || !playWhenReady) {
+            metrics.onRebufferEnded(now);
+        }
+
+        if (state == STATE_READY && playWhenReady) hasPlayed = true;
+
+        if (state != STATE_READY || !timeToFirstAudio.isTiming()) return;
+
+        // Ready while paused means the user waited, which would skew the timings
+        if (!playWhenReady) {
+            timeToFirstAudio.cancel();
+            return;
+        }
+
+        int bookmarkId = timeToFirstAudio.getBookmarkId();
+        listener.onStarted(bookmarkId, timeToFirstAudio.finish(now));
+    }
+
+    /**
+     * @return whether the current stream has been ready and playing
+     */
+    public boolean hasPlayed() {
+        return hasPlayed;
+    }
+}
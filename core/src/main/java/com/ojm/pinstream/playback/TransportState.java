@@ -0,0 +1,82 @@
+package com.ojm.pinstream.playback;
+
+/**
+ * The service's transport state, moved only by the commands that make sense from
+ * where it is. A command which doesn't, such as play with nothing prepared or
+ * anything once released, is refused so the service can ignore it rather than
+ * act on half set up state. Not thread safe, the service only moves it on its
+ * playback thread
+ */
+public final class TransportState {
+
+    // Nothing prepared, where the service starts and returns to on stop
+    public static final int IDLE = 0;
+
+    // A stream chosen, not yet played
+    public static final int PREPARED = 1;
+
+    public static final int PLAYING = 2;
+    public static final int PAUSED = 3;
+
+    // The service is going, nothing more can happen
+    public static final int RELEASED = 4;
+
+    private int state = IDLE;
+
+    /**
+     * @return the current state, one of the constants above
+     */
+    public int get() {
+        return state;
+    }
+
+    /**
+     * Prepare a stream, keeping on playing if already playing
+     * @return false if released
+     */
+    public boolean prepare() {
+        if (state == RELEASED) return false;
+        if (state == IDLE) state = PREPARED;
+        return true;
+    }
+
+    /**
+     * Start or resume playing
+     * @return false unless something was prepared or paused
+     */
+    public boolean play() {
+        if (state != PREPARED && state != PAUSED) return false;
+        state = PLAYING;
+        return true;
+    }
+
+    /**
+     * Pause playing
+     * @return false unless playing
+     */
+    public boolean pause() {
+        if (state != PLAYING) return false;
+        state = PAUSED;
+        return true;
+    }
+
+    /**
+     * Stop, forgetting what was prepared
+     * @return false if there was nothing to stop
+     */
+    public boolean stop() {
+        if (state == IDLE || state == RELEASED) return false;
+        state = IDLE;
+        return true;
+    }
+
+    /**
+     * Release for good
+     * @return false if already released
+     */
+    public boolean release() {
+        if (state == RELEASED) return false;
+        state = RELEASED;
+        return true;
+    }
+}
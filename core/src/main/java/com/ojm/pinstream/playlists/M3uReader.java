@@ -0,0 +1,55 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streaming reader for M3U and extended M3U playlists. An #EXTINF line gives
+ * the title for the URL line that follows it
+ */
+public final class M3uReader implements PlaylistReader {
+
+    // Prefix of extended info lines
+    private static final String EXTINF = "#EXTINF:";
+
+    private final BufferedReader reader;
+
+    /**
+     * Create a reader over a stream of M3U text
+     * @param in the stream to read
+     * @throws IOException if the stream can't be decoded
+     */
+    public M3uReader(InputStream in) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    }
+
+    @Override
+    public PlaylistEntry next() throws IOException {
+        String title = null;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            line = Playlists.stripBom(line).trim();
+
+            // Remember the title from the info line, after the first comma
+            if (line.startsWith(EXTINF)) {
+                int comma = line.indexOf(',');
+                title = comma >= 0 ? line.substring(comma + 1).trim() : null;
+            }
+
+            // Any other non-comment line is a URL
+            else if (!line.isEmpty() && line.charAt(0) != '#') {
+                return new PlaylistEntry(title, line);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,39 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Streaming writer for extended M3U playlists
+ */
+public final class M3uWriter implements PlaylistWriter {
+
+    private final Writer writer;
+
+    /**
+     * Create a writer and emit the playlist header
+     * @param out the stream to write to
+     * @throws IOException if the header can't be written
+     */
+    public M3uWriter(OutputStream out) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.write("#EXTM3U\n");
+    }
+
+    @Override
+    public void write(String title, String url) throws IOException {
+        writer.write("#EXTINF:-1,");
+        writer.write(Playlists.singleLine(title));
+        writer.write('\n');
+        writer.write(url);
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,37 @@
+package com.ojm.pinstream.playlists;
+
+/**
+ * A single station read from or written to a playlist file
+ */
+public class PlaylistEntry {
+
+    // Private field variables
+    private final String title;
+    private final String url;
+
+    /**
+     * Create a new playlist entry
+     * @param title the station's title, may be null
+     * @param url the station's stream URL
+     */
+    public PlaylistEntry(String title, String url) {
+        this.title = title;
+        this.url = url;
+    }
+
+    /**
+     * Get the entry's title
+     * @return the title, or null if the playlist didn't give one
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Get the entry's stream URL
+     * @return the URL, as a String
+     */
+    public String getUrl() {
+        return url;
+    }
+}
@@ -0,0 +1,18 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams entries out of a playlist file one at a time, so the whole file
+ * never needs to be held in memory
+ */
+public interface PlaylistReader extends Closeable {
+
+    /**
+     * Read the next entry from the playlist
+     * @return the next entry, or null once the playlist is exhausted
+     * @throws IOException if the underlying stream fails or is malformed
+     */
+    PlaylistEntry next() throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams entries into a playlist file one at a time. Closing the writer
+ * finishes the file and closes the underlying stream
+ */
+public interface PlaylistWriter extends Closeable {
+
+    /**
+     * Append an entry to the playlist
+     * @param title the station's title
+     * @param url the station's stream URL
+     * @throws IOException if the underlying stream fails
+     */
+    void write(String title, String url) throws IOException;
+}
@@ -0,0 +1,29 @@
+package com.ojm.pinstream.playlists;
+
+/**
+ * Small helpers shared by the playlist readers and writers
+ */
+final class Playlists {
+
+    // Not instantiable
+    private Playlists() { }
+
+    /**
+     * Remove a leading byte order mark, which some editors add to text playlists
+     * @param line the line to check
+     * @return the line without a byte order mark
+     */
+    static String stripBom(String line) {
+        return !line.isEmpty() && line.charAt(0) == '\uFEFF' ? line.substring(1) : line;
+    }
+
+    /**
+     * Make a title safe for line based formats by folding any line breaks
+     * @param title the title, may be null
+     * @return a single line title, never null
+     */
+    static String singleLine(String title) {
+        if (title == null) return "";
+        return title.replace('\r', ' ').replace('\n', ' ');
+    }
+}
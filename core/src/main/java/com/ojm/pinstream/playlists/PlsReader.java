@@ -0,0 +1,107 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Locale;
+
+/**
+ * Streaming reader for PLS playlists. Keys are grouped by their number, so an
+ * entry is emitted once a line for a different number (or the end) is reached
+ */
+public final class PlsReader implements PlaylistReader {
+
+    private final BufferedReader reader;
+
+    // The entry currently being assembled
+    private int pendingIndex = -1;
+    private String pendingUrl;
+    private String pendingTitle;
+
+    /**
+     * Create a reader over a stream of PLS text
+     * @param in the stream to read
+     * @throws IOException if the stream can't be decoded
+     */
+    public PlsReader(InputStream in) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    }
+
+    @Override
+    public PlaylistEntry next() throws IOException {
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            int equals = line.indexOf('=');
+            if (equals <= 0) continue;
+
+            String key = Playlists.stripBom(line.substring(0, equals)).trim().toLowerCase(Locale.US);
+            String value = line.substring(equals + 1).trim();
+
+            boolean isFile = key.startsWith("file");
+            boolean isTitle = key.startsWith("title");
+            if (!isFile && !isTitle) continue;
+
+            int index = parseIndex(key, isFile ? 4 : 5);
+            if (index < 0) continue;
+
+            // A new number means the previous entry is complete
+            PlaylistEntry complete = null;
+            if (index != pendingIndex) {
+                complete = takePending();
+                pendingIndex = index;
+            }
+
+            if (isFile) {
+                pendingUrl = value;
+            } else {
+                pendingTitle = value;
+            }
+
+            if (complete != null) return complete;
+        }
+
+        // End of file, emit whatever is left
+        pendingIndex = -1;
+        return takePending();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Hand back the pending entry, if it has a URL, and reset it
+     * @return the pending entry or null
+     */
+    private PlaylistEntry takePending() {
+        PlaylistEntry entry = pendingUrl == null || pendingUrl.isEmpty()
+                ? null
+                : new PlaylistEntry(pendingTitle, pendingUrl);
+
+        pendingUrl = null;
+        pendingTitle = null;
+        return entry;
+    }
+
+    /**
+     * Parse the number following a key's prefix
+     * @param key the lower case key, e.g. "file12"
+     * @param start where the digits begin
+     * @return the number, or -1 if there isn't one
+     */
+    private static int parseIndex(String key, int start) {
+        if (key.length() <= start) return -1;
+
+        int index = 0;
+        for (int i = start; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            index = index * 10 + (c - '0');
+        }
+
+        return index;
+    }
+}
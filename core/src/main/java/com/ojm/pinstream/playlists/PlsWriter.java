@@ -0,0 +1,46 @@
+package com.ojm.pinstream.playlists;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Streaming writer for PLS playlists. The entry count is written as a trailer
+ * once all entries are known, which PLS readers accept
+ */
+public final class PlsWriter implements PlaylistWriter {
+
+    private final Writer writer;
+
+    // Number of entries written so far
+    private int count = 0;
+
+    /**
+     * Create a writer and emit the playlist header
+     * @param out the stream to write to
+     * @throws IOException if the header can't be written
+     */
+    public PlsWriter(OutputStream out) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.write("[playlist]\n");
+    }
+
+    @Override
+    public void write(String title, String url) throws IOException {
+        count++;
+
+        writer.write("File" + count + "=");
+        writer.write(Playlists.singleLine(url));
+        writer.write("\nTitle" + count + "=");
+        writer.write(Playlists.singleLine(title));
+        writer.write("\nLength" + count + "=-1\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.write("NumberOfEntries=" + count + "\nVersion=2\n");
+        writer.close();
+    }
+}
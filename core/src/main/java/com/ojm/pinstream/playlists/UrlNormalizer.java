@@ -0,0 +1,62 @@
+package com.ojm.pinstream.playlists;
+
+import java.util.Locale;
+
+/**
+ * Reduces stream URLs to a canonical form so the same station written slightly
+ * differently is recognised as a duplicate
+ */
+public final class UrlNormalizer {
+
+    // Not instantiable
+    private UrlNormalizer() { }
+
+    /**
+     * Normalise a URL. The scheme and host are lower cased, default ports, fragments
+     * and a lone trailing slash are dropped, and surrounding whitespace trimmed.
+     * The path and query are kept as they are, since servers may treat them case
+     * sensitively
+     * @param url the URL to normalise
+     * @return the normalised URL
+     */
+    public static String normalize(String url) {
+        String trimmed = url.trim();
+
+        // Drop any fragment, it never reaches the server
+        int hash = trimmed.indexOf('#');
+        if (hash >= 0) trimmed = trimmed.substring(0, hash);
+
+        int schemeEnd = trimmed.indexOf("://");
+        if (schemeEnd <= 0) return trimmed;
+
+        String scheme = trimmed.substring(0, schemeEnd).toLowerCase(Locale.US);
+        int authorityStart = schemeEnd + 3;
+
+        // The authority runs until the path, query or end
+        int authorityEnd = authorityStart;
+        while (authorityEnd < trimmed.length()) {
+            char c = trimmed.charAt(authorityEnd);
+            if (c == '/' || c == '?') break;
+            authorityEnd++;
+        }
+
+        String authority = trimmed.substring(authorityStart, authorityEnd);
+        String rest = trimmed.substring(authorityEnd);
+
+        // Keep any user info as is, lower case the host and drop default ports
+        int at = authority.lastIndexOf('@');
+        String userInfo = at >= 0 ? authority.substring(0, at + 1) : "";
+        String hostPort = authority.substring(at + 1).toLowerCase(Locale.US);
+
+        if (("http".equals(scheme) && hostPort.endsWith(":80"))
+                || ("https".equals(scheme) && hostPort.endsWith(":443"))) {
+            hostPort = hostPort.substring(0, hostPort.lastIndexOf(':'));
+        }
+
+        // A bare "/" path is the same as no path
+        if (rest.equals("/")) rest = "";
+        else if (rest.startsWith("/?")) rest = rest.substring(1);
+
+        return scheme + "://" + userInfo + hostPort + rest;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ojm.pinstream.visualizer;
+
+/**
+ * The decoded audio of the stream being played, shared by the player's audio
+ * processor feeding it and any visualiser reading it. Holds the last few hundred
+ * milliseconds as mono samples along with their sample rate
+ */
+public final class AudioTap {
+
+    // Samples kept, over a third of a second at 44.1kHz
+    private static final int CAPACITY = 1 << 14;
+
+    // Process-wide instance
+    private static AudioTap instance;
+
+    private final PcmRingBuffer buffer = new PcmRingBuffer(CAPACITY);
+
+    // Sample rate of the audio being written, 0 until known
+    private volatile int sampleRateHz;
+
+    /**
+     * Get the process-wide tap
+     * @return the shared tap
+     */
+    public static synchronized AudioTap getInstance() {
+        if (instance == null) instance = new AudioTap();
+        return instance;
+    }
+
+    /**
+     * Create a tap of its own, use getInstance outside of tests
+     */
+    AudioTap() { }
+
+    /**
+     * @return the ring of mono samples
+     */
+    public PcmRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the sample rate of the audio being written, 0 if unknown
+     */
+    public int getSampleRateHz() {
+        return sampleRateHz;
+    }
+
+    /**
+     * Set the sample rate of the audio about to be written
+     * @param sampleRateHz the sample rate
+     */
+    public void setSampleRateHz(int sampleRateHz) {
+        this.sampleRateHz = sampleRateHz;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ojm.pinstream.visualizer;
+
+/**
+ * Running totals of the CPU time the visualiser spends on its frames, recorded by
+ * its analysis thread and read by the health overlay. Shows what keeping the now
+ * playing screen open costs, and how many frames were worth drawing
+ */
+public final class FrameCost {
+
+    private long frames;
+    private long shownFrames;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Record one frame worked on
+     * @param cpuNanos the CPU time the frame took
+     * @param shown whether it changed enough to be drawn
+     */
+    public synchronized void record(long cpuNanos, boolean shown) {
+        frames++;
+        if (shown) shownFrames++;
+        totalNanos += cpuNanos;
+        maxNanos = Math.max(maxNanos, cpuNanos);
+    }
+
+    /**
+     * @return the number of frames worked on
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of frames drawn
+     */
+    public synchronized long getShownFrames() {
+        return shownFrames;
+    }
+
+    /**
+     * @return the mean CPU time of a frame in nanoseconds, 0 before any
+     */
+    public synchronized long getAverageNanos() {
+        return frames == 0 ? 0 : totalNanos / frames;
+    }
+
+    /**
+     * @return the longest CPU time any frame took in nanoseconds
+     */
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Start counting again
+     */
+    public synchronized void reset() {
+        frames = 0;
+        shownFrames = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+}
@@ -0,0 +1,114 @@
+package com.ojm.pinstream.visualizer;
+
+/**
+ * Decides which display frames the visualiser does any work on. Frames arrive at
+ * the display's refresh rate and are thinned to the target rate, halved again in
+ * low detail. A frame's band levels are only worth showing if one of them moved
+ * far enough from what is on screen, so a steady tone or silence costs no drawing
+ */
+public final class FramePacer {
+
+    // Frame times jitter, so a frame this close to due still counts
+    private static final long TOLERANCE_NANOS = 2000000;
+
+    private static final long NANOS_PER_SECOND = 1000000000;
+
+    private final float changeThreshold;
+    private final float[] shown;
+
+    private long intervalNanos;
+    private boolean lowDetail;
+
+    // When the last frame worked on was due, -1 before the first
+    private long lastFrameNanos = -1;
+
+    /**
+     * @param targetFps the most frames a second to work on
+     * @param bands the number of band levels in each frame
+     * @param changeThreshold how far a band must move, between 0 and 1, to be shown
+     */
+    public FramePacer(int targetFps, int bands, float changeThreshold) {
+        this.changeThreshold = changeThreshold;
+        shown = new float[bands];
+        setTargetFps(targetFps);
+    }
+
+    /**
+     * Set the most frames a second to work on
+     * @param targetFps the frame rate, above zero
+     */
+    public void setTargetFps(int targetFps) {
+        if (targetFps <= 0) throw new IllegalArgumentException("Frame rate must be positive");
+        intervalNanos = NANOS_PER_SECOND / targetFps;
+    }
+
+    /**
+     * Halve the frame rate, when the device is short of power or running hot
+     * @param lowDetail whether to work in low detail
+     */
+    public void setLowDetail(boolean lowDetail) {
+        this.lowDetail = lowDetail;
+    }
+
+    /**
+     * @return whether working in low detail
+     */
+    public boolean isLowDetail() {
+        return lowDetail;
+    }
+
+    /**
+     * @return the time between frames worked on, in nanoseconds
+     */
+    public long getIntervalNanos() {
+        return lowDetail ? 2 * intervalNanos : intervalNanos;
+    }
+
+    /**
+     * Check whether a display frame should be worked on, and if so count it as the
+     * latest. Frames are kept to the target rate on average rather than drifting
+     * later with each late frame
+     * @param frameTimeNanos when the frame started, from the display
+     * @return true if enough time has passed since the last frame worked on
+     */
+    public boolean isDue(long frameTimeNanos) {
+        long interval = getIntervalNanos();
+
+        if (lastFrameNanos >= 0) {
+            long due = lastFrameNanos + interval;
+            if (frameTimeNanos < due - TOLERANCE_NANOS) return false;
+
+            // Running more than a frame behind, start counting again from now
+            lastFrameNanos = frameTimeNanos - due > interval ? frameTimeNanos : due;
+        } else {
+            lastFrameNanos = frameTimeNanos;
+        }
+
+        return true;
+    }
+
+    /**
+     * Check whether new band levels differ enough from those on screen to show,
+     * and if so remember them as shown
+     * @param levels the latest band levels
+     * @return true if any band moved by at least the threshold
+     */
+    public boolean hasChanged(float[] levels) {
+        boolean changed = false;
+        for (int band = 0; band < shown.length && !changed; band++) {
+            changed = Math.abs(levels[band] - shown[band]) >= changeThreshold;
+        }
+
+        if (changed) System.arraycopy(levels, 0, shown, 0, shown.length);
+        return changed;
+    }
+
+    /**
+     * Forget the last frame and what was shown, for when the visualiser restarts
+     * with an empty screen
+     */
+    public void reset() {
+        lastFrameNanos = -1;
+        for (int band = 0; band < shown.length; band++) shown[band] = 0;
+    }
+}
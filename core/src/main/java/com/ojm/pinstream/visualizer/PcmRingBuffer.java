@@ -0,0 +1,91 @@
+package com.ojm.pinstream.visualizer;
+
+/**
+ * A fixed ring of mono PCM samples, written by the audio thread and read by the
+ * visualiser without locking. The writer announces how far it is about to write,
+ * writes, then publishes the new total. Readers copy the latest samples out and
+ * only trust the copy if the announced limit shows none of them were overwritten
+ * while it was being made. Readers never hold the writer up, they just miss a frame
+ */
+public final class PcmRingBuffer {
+
+    private final short[] samples;
+    private final int mask;
+
+    // Samples ever written and published, and how far the writer may have got
+    private volatile long written;
+    private volatile long limit;
+
+    // The writer's own position, ahead of written while a batch is in progress
+    private long position;
+
+    /**
+     * @param capacity the number of samples kept, a power of two
+     */
+    public PcmRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+
+        samples = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Announce a batch of samples about to be written. Only one thread may write
+     * @param count the number of samples in the batch
+     */
+    public void startWrite(int count) {
+        limit = position + count;
+    }
+
+    /**
+     * Write one sample of the batch
+     * @param sample the sample
+     */
+    public void put(short sample) {
+        samples[(int) (position++ & mask)] = sample;
+    }
+
+    /**
+     * Publish the batch to readers
+     */
+    public void finishWrite() {
+        written = position;
+        limit = position;
+    }
+
+    /**
+     * @return the number of samples ever published, which only grows
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the number of samples kept
+     */
+    public int getCapacity() {
+        return samples.length;
+    }
+
+    /**
+     * Copy out the latest samples, scaled to between -1 and 1
+     * @param into the array to fill
+     * @param count the number of samples, no more than the capacity
+     * @return false if fewer than count samples have been written, or the writer
+     *         overwrote some of them during the copy, leaving into unusable
+     */
+    public boolean readLatest(float[] into, int count) {
+        long end = written;
+        long start = end - count;
+        if (start < 0) return false;
+
+        for (int i = 0; i < count; i++) {
+            into[i] = samples[(int) ((start + i) & mask)] / 32768f;
+        }
+
+        // Anything the writer may have touched since is at or beyond start + capacity
+        return limit - start <= samples.length;
+    }
+}
@@ -0,0 +1,168 @@
+package com.ojm.pinstream.visualizer;
+
+/**
+ * Turns a window of samples into the loudness of a few frequency bands. Samples
+ * are shaped with a Hann window and put through a radix-2 FFT, then the power of
+ * the bins in each band, spaced logarithmically from the bass up, is summed and
+ * scaled from decibels to between 0 and 1. Every table and working buffer is
+ * allocated up front, so analysing a frame allocates nothing. Not thread safe,
+ * each analysing thread keeps its own
+ */
+public final class SpectrumAnalyzer {
+
+    // Range of frequencies split into bands
+    private static final float MIN_FREQUENCY_HZ = 40;
+    private static final float MAX_FREQUENCY_HZ = 16000;
+
+    // Band power below this many decibels from full scale shows as nothing
+    private static final float FLOOR_DB = -70;
+
+    private final int size;
+    private final int bands;
+
+    // Precomputed window, twiddle factors and bit reversed order
+    private final float[] window;
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] reversed;
+
+    // Working buffers for the transform
+    private final float[] real;
+    private final float[] imaginary;
+
+    // First bin of each band, and the end of the last, for the current sample rate
+    private final int[] bandStarts;
+    private int bandSampleRateHz;
+
+    /**
+     * @param size the number of samples analysed at once, a power of two
+     * @param bands the number of bands to split the spectrum into
+     */
+    public SpectrumAnalyzer(int size, int bands) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be a power of two");
+        }
+
+        this.size = size;
+        this.bands = bands;
+
+        window = new float[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (size - 1)));
+        }
+
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = (float) Math.cos(-2 * Math.PI * i / size);
+            sin[i] = (float) Math.sin(-2 * Math.PI * i / size);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(size);
+        reversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        real = new float[size];
+        imaginary = new float[size];
+        bandStarts = new int[bands + 1];
+    }
+
+    /**
+     * @return the number of samples analysed at once
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Measure the loudness of each band
+     * @param samples size samples, between -1 and 1
+     * @param sampleRateHz the samples' sample rate
+     * @param levels filled with each band's level between 0 and 1, lowest band first
+     */
+    public void analyze(float[] samples, int sampleRateHz, float[] levels) {
+        if (sampleRateHz != bandSampleRateHz) splitBands(sampleRateHz);
+
+        // Window the samples into bit reversed order, ready for the transform
+        for (int i = 0; i < size; i++) {
+            real[reversed[i]] = samples[i] * window[i];
+            imaginary[i] = 0;
+        }
+
+        transform();
+
+        // A full scale sine comes out at a quarter of the size, after the window
+        float scale = 4f / size;
+
+        for (int band = 0; band < bands; band++) {
+            int start = bandStarts[band];
+            int end = bandStarts[band + 1];
+
+            float power = 0;
+            for (int bin = start; bin < end; bin++) {
+                float re = real[bin] * scale;
+                float im = imaginary[bin] * scale;
+                power += re * re + im * im;
+            }
+
+            float db = 10 * (float) Math.log10(power + 1e-12f);
+            levels[band] = Math.max(0, Math.min(1, 1 - db / FLOOR_DB));
+        }
+    }
+
+    /**
+     * In place iterative FFT over the bit reversed working buffers
+     */
+    private void transform() {
+        for (int length = 2; length <= size; length <<= 1) {
+            int half = length >> 1;
+            int step = size / length;
+
+            for (int start = 0; start < size; start += length) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * step];
+                    float wi = sin[k * step];
+
+                    int even = start + k;
+                    int odd = even + half;
+
+                    float tr = real[odd] * wr - imaginary[odd] * wi;
+                    float ti = real[odd] * wi + imaginary[odd] * wr;
+
+                    real[odd] = real[even] - tr;
+                    imaginary[odd] = imaginary[even] - ti;
+                    real[even] += tr;
+                    imaginary[even] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Space the bands logarithmically between the lowest and highest frequencies
+     * shown, giving every band at least one bin
+     */
+    private void splitBands(int sampleRateHz) {
+        float binHz = (float) sampleRateHz / size;
+        float top = Math.min(MAX_FREQUENCY_HZ, sampleRateHz / 2f);
+        int lastBin = size / 2;
+
+        int previous = Math.max(1, (int) (MIN_FREQUENCY_HZ / binHz));
+        bandStarts[0] = previous;
+
+        for (int band = 1; band <= bands; band++) {
+            double frequency = MIN_FREQUENCY_HZ * Math.pow(top / MIN_FREQUENCY_HZ,
+                    (double) band / bands);
+            int bin = (int) Math.round(frequency / binHz);
+
+            // Never past the Nyquist bin, and never an empty band
+            bin = Math.min(lastBin - (bands - band), Math.max(previous + 1, bin));
+            bandStarts[band] = bin;
+            previous = bin;
+        }
+
+        bandSampleRateHz = sampleRateHz;
+    }
+}
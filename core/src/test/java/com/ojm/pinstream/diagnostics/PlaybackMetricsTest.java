@@ -0,0 +1,87 @@
+package com.ojm.pinstream.diagnostics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks counters and rebuffer time add up, and the history ring hands samples
+ * back oldest first once it has wrapped
+ */
+public class PlaybackMetricsTest {
+
+    @Test
+    public void rebuffers_countOnceAndIncludeOneInProgress() {
+        PlaybackMetrics metrics = new PlaybackMetrics();
+
+        metrics.onRebufferStarted(1000);
+        metrics.onRebufferStarted(1200);
+        metrics.onRebufferEnded(1500);
+        metrics.onRebufferEnded(1700);
+        assertEquals(1, metrics.getRebufferCount());
+        assertEquals(500, metrics.getRebufferMillis(2000));
+
+        metrics.onRebufferStarted(3000);
+        assertEquals(2, metrics.getRebufferCount());
+        assertEquals(750, metrics.getRebufferMillis(3250));
+    }
+
+    @Test
+    public void history_isCopiedOldestFirstAfterWrapping() {
+        PlaybackMetrics metrics = new PlaybackMetrics();
+        int samples = PlaybackMetrics.HISTORY_SIZE + 25;
+
+        for (int i = 0; i < samples; i++) {
+            metrics.addBytes(100);
+            metrics.sample(i, i * 10, 64000, 128000);
+        }
+
+        long[][] history = new long[PlaybackMetrics.COLUMNS][PlaybackMetrics.HISTORY_SIZE];
+        assertEquals(PlaybackMetrics.HISTORY_SIZE, metrics.copyHistory(history));
+
+        assertEquals(25, history[PlaybackMetrics.COLUMN_TIME][0]);
+        assertEquals(samples - 1,
+                history[PlaybackMetrics.COLUMN_TIME][PlaybackMetrics.HISTORY_SIZE - 1]);
+        assertEquals(250, history[PlaybackMetrics.COLUMN_BUFFERED_MILLIS][0]);
+        assertEquals(2600, history[PlaybackMetrics.COLUMN_BYTES][0]);
+        assertEquals((samples - 1) * 10, metrics.getBufferedMillis());
+    }
+
+    @Test
+    public void reset_forgetsCountersAndHistory() {
+        PlaybackMetrics metrics = new PlaybackMetrics();
+        metrics.addBytes(4096);
+        metrics.recordDroppedConnection();
+        metrics.onRebufferStarted(10);
+        metrics.sample(20, 1000, 1, 2);
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getBytesTransferred());
+        assertEquals(0, metrics.getDroppedConnections());
+        assertEquals(0, metrics.getRebufferMillis(100));
+        assertEquals(0, metrics.copyHistory(
+                new long[PlaybackMetrics.COLUMNS][PlaybackMetrics.HISTORY_SIZE]));
+    }
+
+    @Test
+    public void csv_hasARowPerSampleInWallClockTime() throws Exception {
+        PlaybackMetrics metrics = new PlaybackMetrics();
+        metrics.recordDroppedConnection();
+        metrics.sample(5000, 1500, 96000, 128000);
+
+        long[][] history = new long[PlaybackMetrics.COLUMNS][PlaybackMetrics.HISTORY_SIZE];
+        int count = metrics.copyHistory(history);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HealthCsvWriter writer = new HealthCsvWriter(out);
+        writer.write(history, count, 1000000);
+        writer.close();
+
+        String[] lines = out.toString("UTF-8").split("\r\n");
+        assertEquals(2, lines.length);
+        assertEquals("1005000,1500,96000,128000,0,0,0,1", lines[1]);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ojm.pinstream.diagnostics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks phases are measured between the marks reached, and starts that were
+ * abandoned or already finished aren't recorded
+ */
+public class TimeToFirstAudioTest {
+
+    @Test
+    public void finish_measuresEveryPhaseFromATap() {
+        TimeToFirstAudio timer = new TimeToFirstAudio();
+        timer.begin(7, 1000, 1200, 1500, 1520);
+        timer.markFirstByte(1530);
+        timer.markResolved(1560);
+        timer.markFirstByte(1800);
+        timer.markFirstByte(1900);
+
+        assertEquals(7, timer.getBookmarkId());
+        Map<String, Long> phases = timer.finish(2400);
+
+        assertEquals(200L, (long) phases.get(TimeToFirstAudio.PHASE_LAUNCH));
+        assertEquals(300L, (long) phases.get(TimeToFirstAudio.PHASE_SESSION));
+        assertEquals(20L, (long) phases.get(TimeToFirstAudio.PHASE_HANDOFF));
+        assertEquals(40L, (long) phases.get(TimeToFirstAudio.PHASE_RESOLVE));
+        assertEquals(240L, (long) phases.get(TimeToFirstAudio.PHASE_CONNECT));
+        assertEquals(600L, (long) phases.get(TimeToFirstAudio.PHASE_BUFFER));
+        assertEquals(880L, (long) phases.get(TimeToFirstAudio.PHASE_PREPARE_TO_AUDIO));
+        assertEquals(1400L, (long) phases.get(TimeToFirstAudio.PHASE_TAP_TO_AUDIO));
+    }
+
+    @Test
+    public void finish_leavesOutPhasesWhoseMarksWereMissed() {
+        // Skipped from the notification onto a warm connection
+        TimeToFirstAudio timer = new TimeToFirstAudio();
+        timer.begin(3, 0, 0, 0, 5000);
+        timer.markResolved(5010);
+
+        Map<String, Long> phases = timer.finish(5300);
+
+        assertNull(phases.get(TimeToFirstAudio.PHASE_LAUNCH));
+        assertNull(phases.get(TimeToFirstAudio.PHASE_SESSION));
+        assertNull(phases.get(TimeToFirstAudio.PHASE_HANDOFF));
+        assertNull(phases.get(TimeToFirstAudio.PHASE_CONNECT));
+        assertNull(phases.get(TimeToFirstAudio.PHASE_TAP_TO_AUDIO));
+        assertEquals(10L, (long) phases.get(TimeToFirstAudio.PHASE_RESOLVE));
+        assertEquals(290L, (long) phases.get(TimeToFirstAudio.PHASE_BUFFER));
+        assertEquals(300L, (long) phases.get(TimeToFirstAudio.PHASE_PREPARE_TO_AUDIO));
+    }
+
+    @Test
+    public void finish_recordsEachStartOnce() {
+        TimeToFirstAudio timer = new TimeToFirstAudio();
+        assertTrue(timer.finish(100).isEmpty());
+
+        timer.begin(1, 0, 0, 0, 100);
+        assertTrue(timer.isTiming());
+        assertFalse(timer.finish(200).isEmpty());
+        assertFalse(timer.isTiming());
+        assertTrue(timer.finish(300).isEmpty());
+
+        timer.begin(1, 0, 0, 0, 400);
+        timer.cancel();
+        assertEquals(-1, timer.getBookmarkId());
+        assertTrue(timer.finish(500).isEmpty());
+    }
+}
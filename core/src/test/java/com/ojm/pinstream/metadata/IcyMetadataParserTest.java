@@ -0,0 +1,75 @@
+package com.ojm.pinstream.metadata;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ICY metadata block parser
+ */
+public class IcyMetadataParserTest {
+
+    private final IcyMetadataParser parser = new IcyMetadataParser();
+
+    @Test
+    public void parse_readsTitleAndUrl() {
+        assertTrue(feed("StreamTitle='Daft Punk - Da Funk';StreamUrl='http://art.example/1.jpg';", "UTF-8"));
+
+        assertEquals("Daft Punk - Da Funk", parser.getStreamTitle());
+        assertEquals("http://art.example/1.jpg", parser.getStreamUrl());
+    }
+
+    @Test
+    public void parse_keepsQuotesInsideTitles() {
+        feed("StreamTitle='Guns N' Roses - Sweet Child O' Mine';", "UTF-8");
+
+        assertEquals("Guns N' Roses - Sweet Child O' Mine", parser.getStreamTitle());
+        assertNull(parser.getStreamUrl());
+    }
+
+    @Test
+    public void parse_reportsRepeatsAsUnchanged() {
+        assertTrue(feed("StreamTitle='One';", "UTF-8"));
+        assertFalse(feed("StreamTitle='One';", "UTF-8"));
+        assertTrue(feed("StreamTitle='Two';", "UTF-8"));
+
+        parser.reset();
+        assertTrue(feed("StreamTitle='Two';", "UTF-8"));
+    }
+
+    @Test
+    public void parse_decodesUtf8AndFallsBackToLatin1() {
+        feed("StreamTitle='Sigur Rós - Hoppípolla';", "UTF-8");
+        assertEquals("Sigur Rós - Hoppípolla", parser.getStreamTitle());
+
+        feed("StreamTitle='Björk - Jóga';", "ISO-8859-1");
+        assertEquals("Björk - Jóga", parser.getStreamTitle());
+    }
+
+    @Test
+    public void parse_ignoresKeysInsideValues() {
+        feed("StreamTitle='StreamUrl=not a key';", "UTF-8");
+
+        assertEquals("StreamUrl=not a key", parser.getStreamTitle());
+        assertNull(parser.getStreamUrl());
+    }
+
+    /**
+     * Copy text into the parser's buffer padded to a 16 byte boundary, as a server
+     * sends it, and parse it
+     */
+    private boolean feed(String text, String charset) {
+        byte[] bytes = text.getBytes(Charset.forName(charset));
+        int length = (bytes.length + 15) / 16 * 16;
+
+        byte[] buffer = parser.buffer();
+        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        for (int i = bytes.length; i < length; i++) {
+            buffer[i] = 0;
+        }
+
+        return parser.parse(length);
+    }
+}
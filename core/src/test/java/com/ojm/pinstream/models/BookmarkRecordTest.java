@@ -0,0 +1,80 @@
+package com.ojm.pinstream.models;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bookmark format round trips every field, and only writes a buffer
+ * profile when there is one
+ */
+public class BookmarkRecordTest {
+
+    // Keeps written fields in order, standing in for a parcel
+    private static final BookmarkRecord.Output<Deque<Object>> OUTPUT =
+            new BookmarkRecord.Output<Deque<Object>>() {
+                @Override
+                public void writeInt(Deque<Object> dest, int value) {
+                    dest.add(value);
+                }
+
+                @Override
+                public void writeString(Deque<Object> dest, String value) {
+                    dest.add(value);
+                }
+
+                @Override
+                public void writeByte(Deque<Object> dest, byte value) {
+                    dest.add(value);
+                }
+            };
+
+    private static final BookmarkRecord.Input<Deque<Object>> INPUT =
+            new BookmarkRecord.Input<Deque<Object>>() {
+                @Override
+                public int readInt(Deque<Object> source) {
+                    return (Integer) source.remove();
+                }
+
+                @Override
+                public String readString(Deque<Object> source) {
+                    return (String) source.remove();
+                }
+
+                @Override
+                public byte readByte(Deque<Object> source) {
+                    return (Byte) source.remove();
+                }
+            };
+
+    @Test
+    public void record_roundTripsEveryField() {
+        Deque<Object> fields = new ArrayDeque<>();
+        BookmarkRecord.write(OUTPUT, fields, 4211, "Radio Paradise",
+                "http://stream.radioparadise.com/aac-320", true, "low_latency");
+
+        BookmarkRecord read = BookmarkRecord.read(INPUT, fields);
+
+        assertEquals(4211, read.getId());
+        assertEquals("Radio Paradise", read.getTitle());
+        assertEquals("http://stream.radioparadise.com/aac-320", read.getUrl());
+        assertTrue(read.isSelected());
+        assertEquals("low_latency", read.getBufferProfile());
+        assertTrue(fields.isEmpty());
+    }
+
+    @Test
+    public void record_leavesOutAMissingBufferProfile() {
+        Deque<Object> fields = new ArrayDeque<>();
+        BookmarkRecord.write(OUTPUT, fields, 1, "News", "http://example.com/news", false, null);
+
+        assertEquals(4, fields.size());
+        assertEquals((byte) 0, fields.getLast());
+        assertNull(BookmarkRecord.read(INPUT, fields).getBufferProfile());
+    }
+}
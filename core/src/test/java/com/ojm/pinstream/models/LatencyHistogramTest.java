@@ -0,0 +1,85 @@
+package com.ojm.pinstream.models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks latencies land in buckets within the promised precision, percentiles
+ * come out of the right buckets and the stored form round trips compactly
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueWithinAnEighth() {
+        int previous = -1;
+
+        for (long millis = 0; millis <= LatencyHistogram.MAX_MILLIS; millis++) {
+            int bucket = LatencyHistogram.bucketOf(millis);
+            long highest = LatencyHistogram.highestIn(bucket);
+
+            // Buckets are contiguous and the value reported for one is close to it
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(highest >= millis);
+            assertTrue(highest - millis <= millis / 8);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void percentiles_comeFromTheRightBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(500, histogram.getPercentile(50), 500 / 8);
+        assertEquals(950, histogram.getPercentile(95), 950 / 8);
+        assertEquals(990, histogram.getPercentile(99), 990 / 8);
+        assertEquals(LatencyHistogram.highestIn(LatencyHistogram.bucketOf(1000)),
+                histogram.getPercentile(100));
+    }
+
+    @Test
+    public void record_clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(LatencyHistogram.MAX_MILLIS, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void bytes_roundTripCompactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(800 + (i % 400));
+        }
+
+        byte[] bytes = histogram.toBytes();
+        LatencyHistogram read = LatencyHistogram.fromBytes(bytes);
+
+        // A spread of a few hundred milliseconds needs a handful of buckets
+        assertTrue(bytes.length < 32);
+        assertEquals(histogram.getCount(), read.getCount());
+        assertEquals(histogram.getPercentile(50), read.getPercentile(50));
+        assertEquals(histogram.getPercentile(99), read.getPercentile(99));
+        assertArrayEquals(bytes, read.toBytes());
+    }
+
+    @Test
+    public void fromBytes_ignoresMissingAndDamagedData() {
+        assertEquals(0, LatencyHistogram.fromBytes(null).getCount());
+        assertEquals(0, LatencyHistogram.fromBytes(new byte[] { 99, 1, 1 }).getCount());
+
+        // A gap running past the last bucket
+        assertEquals(0, LatencyHistogram.fromBytes(new byte[] { 1, (byte) 0xFF, 0x7F, 1 })
+                .getCount());
+    }
+}
@@ -0,0 +1,61 @@
+package com.ojm.pinstream.playback;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks backoff delays stay under a ceiling which doubles up to the cap, and
+ * that a reset starts again from the base
+ */
+public class BackoffTest {
+
+    private static final long BASE_MILLIS = 100;
+    private static final long MAX_MILLIS = 1000;
+
+    @Test
+    public void delaysStayUnderDoublingCeiling() {
+        Backoff backoff = new Backoff(BASE_MILLIS, MAX_MILLIS, new Random(42));
+
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long ceiling = Math.min(BASE_MILLIS << Math.min(attempt, 20), MAX_MILLIS);
+            long delay = backoff.nextDelayMillis();
+
+            assertTrue(delay >= 0);
+            assertTrue(delay <= ceiling);
+        }
+
+        assertEquals(40, backoff.getAttempts());
+    }
+
+    @Test
+    public void delaysAreSpreadOut() {
+        // Many clients at the cap should not all pick the same moment
+        Backoff backoff = new Backoff(MAX_MILLIS, MAX_MILLIS, new Random(7));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.nextDelayMillis();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+
+        assertTrue(min < MAX_MILLIS / 4);
+        assertTrue(max > MAX_MILLIS * 3 / 4);
+    }
+
+    @Test
+    public void resetStartsFromBase() {
+        Backoff backoff = new Backoff(BASE_MILLIS, MAX_MILLIS, new Random(1));
+
+        for (int i = 0; i < 10; i++) backoff.nextDelayMillis();
+        backoff.reset();
+
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelayMillis() <= BASE_MILLIS);
+    }
+}
@@ -0,0 +1,51 @@
+package com.ojm.pinstream.playback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks profiles are found by their stored keys, a bookmark's choice wins over
+ * the setting, and the thresholds of each profile are consistent
+ */
+public class BufferProfileTest {
+
+    @Test
+    public void forKey_findsEachProfile() {
+        assertSame(BufferProfile.LOW_LATENCY, BufferProfile.forKey(BufferProfile.KEY_LOW_LATENCY));
+        assertSame(BufferProfile.BALANCED, BufferProfile.forKey(BufferProfile.KEY_BALANCED));
+        assertSame(BufferProfile.RESILIENT, BufferProfile.forKey(BufferProfile.KEY_RESILIENT));
+        assertNull(BufferProfile.forKey("unknown"));
+        assertNull(BufferProfile.forKey(null));
+    }
+
+    @Test
+    public void resolve_prefersBookmarkThenSettingThenDefault() {
+        assertSame(BufferProfile.LOW_LATENCY, BufferProfile.resolve("low_latency", "resilient"));
+        assertSame(BufferProfile.RESILIENT, BufferProfile.resolve(null, "resilient"));
+        assertSame(BufferProfile.RESILIENT, BufferProfile.resolve("removed", "resilient"));
+        assertSame(BufferProfile.DEFAULT, BufferProfile.resolve(null, null));
+    }
+
+    @Test
+    public void thresholds_areOrdered() {
+        BufferProfile[] profiles = {
+                BufferProfile.LOW_LATENCY, BufferProfile.BALANCED, BufferProfile.RESILIENT
+        };
+
+        for (BufferProfile p : profiles) {
+            assertTrue(p.getBufferForPlaybackMs() <= p.getBufferForPlaybackAfterRebufferMs());
+            assertTrue(p.getBufferForPlaybackAfterRebufferMs() <= p.getMinBufferMs());
+            assertTrue(p.getMinBufferMs() <= p.getMaxBufferMs());
+            assertTrue(p.getTargetBufferBytes() > 0);
+        }
+
+        // Each profile starts later and holds more than the one before
+        for (int i = 1; i < profiles.length; i++) {
+            assertTrue(profiles[i - 1].getBufferForPlaybackMs() < profiles[i].getBufferForPlaybackMs());
+            assertTrue(profiles[i - 1].getMaxBufferMs() < profiles[i].getMaxBufferMs());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ojm.pinstream.playback;
+
+import com.ojm.pinstream.diagnostics.PlaybackMetrics;
+import com.ojm.pinstream.diagnostics.TimeToFirstAudio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks only buffering after the stream has played counts as a stall, and the
+ * start is recorded once when the player is first ready and playing
+ */
+public class PlaybackStateMachineTest {
+
+    private final PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+    private final TimeToFirstAudio timer = new TimeToFirstAudio();
+
+    private int startedId = -1;
+    private Map<String, Long> startedPhases;
+    private int starts;
+
+    private final PlaybackStateMachine machine = new PlaybackStateMachine(metrics, timer,
+            new PlaybackStateMachine.StartListener() {
+                @Override
+                public void onStarted(int bookmarkId, Map<String, Long> phases) {
+                    startedId = bookmarkId;
+                    startedPhases = phases;
+                    starts++;
+                }
+            });
+
+    @Before
+    public void prepare() {
+        machine.onPrepare();
+        timer.begin(3, 0, 0, 0, 100);
+        timer.markResolved(150);
+    }
+
+    @Test
+    public void start_isRecordedOnceWhenReadyAndPlaying() {
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_BUFFERING, 200);
+        assertEquals(0, metrics.getRebufferCount());
+
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, 900);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, 1000);
+
+        assertEquals(1, starts);
+        assertEquals(3, startedId);
+        assertEquals(800L, (long) startedPhases.get(TimeToFirstAudio.PHASE_PREPARE_TO_AUDIO));
+        assertTrue(machine.hasPlayed());
+    }
+
+    @Test
+    public void stall_lastsUntilPlayingAgainThroughReconnecting() {
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, 500);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_BUFFERING, 1000);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_IDLE, 1100);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_BUFFERING, 1300);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, 1600);
+
+        assertEquals(1, metrics.getRebufferCount());
+        assertEquals(600, metrics.getRebufferMillis(2000));
+    }
+
+    @Test
+    public void rebuilt_buffersAgainWithoutAStall() {
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, 500);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_BUFFERING, 1000);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, 1200);
+
+        // Paused, released while idle, then rebuilt and played again
+        machine.onStateChanged(false, PlaybackStateMachine.STATE_READY, 2000);
+        machine.onRebuilt();
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_BUFFERING, 9000);
+        machine.onStateChanged(true, PlaybackStateMachine.STATE_READY, 9500);
+
+        assertEquals(1, metrics.getRebufferCount());
+        assertTrue(machine.hasPlayed());
+    }
+
+    @Test
+    public void readyWhilePaused_abandonsTheStart() {
+        machine.onStateChanged(false, PlaybackStateMachine.STATE_READY, 700);
+
+        assertEquals(0, starts);
+        assertFalse(timer.isTiming());
+        assertFalse(machine.hasPlayed());
+    }
+}
@@ -0,0 +1,80 @@
+package com.ojm.pinstream.playback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks commands only move the transport state from where they make sense, and
+ * nothing moves it once released
+ */
+public class TransportStateTest {
+
+    @Test
+    public void play_needsSomethingPrepared() {
+        TransportState state = new TransportState();
+
+        assertFalse(state.play());
+        assertFalse(state.pause());
+        assertFalse(state.stop());
+        assertEquals(TransportState.IDLE, state.get());
+
+        assertTrue(state.prepare());
+        assertTrue(state.play());
+        assertEquals(TransportState.PLAYING, state.get());
+    }
+
+    @Test
+    public void pause_andPlayAgain() {
+        TransportState state = new TransportState();
+        state.prepare();
+        state.play();
+
+        assertTrue(state.pause());
+        assertFalse(state.pause());
+        assertEquals(TransportState.PAUSED, state.get());
+
+        assertTrue(state.play());
+        assertFalse(state.play());
+    }
+
+    @Test
+    public void prepare_keepsPlayingThrough() {
+        TransportState state = new TransportState();
+        state.prepare();
+        state.play();
+
+        // Skipping stations prepares again while playing
+        assertTrue(state.prepare());
+        assertEquals(TransportState.PLAYING, state.get());
+    }
+
+    @Test
+    public void stop_returnsToIdle() {
+        TransportState state = new TransportState();
+        state.prepare();
+        state.play();
+
+        assertTrue(state.stop());
+        assertEquals(TransportState.IDLE, state.get());
+        assertFalse(state.stop());
+        assertFalse(state.play());
+    }
+
+    @Test
+    public void release_refusesEverythingAfter() {
+        TransportState state = new TransportState();
+        state.prepare();
+        state.play();
+
+        assertTrue(state.release());
+        assertFalse(state.release());
+        assertFalse(state.prepare());
+        assertFalse(state.play());
+        assertFalse(state.pause());
+        assertFalse(state.stop());
+        assertEquals(TransportState.RELEASED, state.get());
+    }
+}
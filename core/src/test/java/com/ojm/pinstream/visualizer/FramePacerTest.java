@@ -0,0 +1,78 @@
+package com.ojm.pinstream.visualizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks display frames are thinned to the target rate and only changed levels
+ * are shown
+ */
+public class FramePacerTest {
+
+    // A 60Hz display's frame interval
+    private static final long VSYNC_NANOS = 16666667;
+
+    @Test
+    public void isDue_keepsTheTargetRateOnA60HzDisplay() {
+        FramePacer pacer = new FramePacer(30, 4, 0.05f);
+        assertEquals(30, countDue(pacer, 60));
+
+        pacer = new FramePacer(20, 4, 0.05f);
+        assertEquals(20, countDue(pacer, 60));
+    }
+
+    @Test
+    public void isDue_halvesTheRateInLowDetail() {
+        FramePacer pacer = new FramePacer(30, 4, 0.05f);
+        pacer.setLowDetail(true);
+
+        assertEquals(15, countDue(pacer, 60));
+    }
+
+    @Test
+    public void isDue_catchesUpAfterALongGapWithoutABurst() {
+        FramePacer pacer = new FramePacer(30, 4, 0.05f);
+        assertTrue(pacer.isDue(0));
+        assertTrue(pacer.isDue(1000000000L));
+
+        // The next frame is due a whole interval after the gap, not straight away
+        assertFalse(pacer.isDue(1000000000L + VSYNC_NANOS));
+        assertTrue(pacer.isDue(1000000000L + 2 * VSYNC_NANOS));
+    }
+
+    @Test
+    public void hasChanged_ignoresSmallMovements() {
+        FramePacer pacer = new FramePacer(30, 2, 0.05f);
+
+        assertTrue(pacer.hasChanged(new float[] {0.5f, 0.2f}));
+        assertFalse(pacer.hasChanged(new float[] {0.52f, 0.18f}));
+
+        // Drift is measured from what was last shown, so it adds up
+        assertTrue(pacer.hasChanged(new float[] {0.56f, 0.2f}));
+    }
+
+    @Test
+    public void reset_forgetsWhatWasShown() {
+        FramePacer pacer = new FramePacer(30, 2, 0.05f);
+        assertTrue(pacer.hasChanged(new float[] {0.5f, 0.5f}));
+
+        pacer.reset();
+        assertFalse(pacer.hasChanged(new float[] {0, 0.01f}));
+        assertTrue(pacer.isDue(0));
+    }
+
+    /**
+     * @return how many of a run of display frames were due
+     */
+    private static int countDue(FramePacer pacer, int frames) {
+        int due = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            if (pacer.isDue(frame * VSYNC_NANOS)) due++;
+        }
+
+        return due;
+    }
+}
@@ -0,0 +1,67 @@
+package com.ojm.pinstream.visualizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks readers get the latest samples in order once enough are published, and
+ * only what has been published
+ */
+public class PcmRingBufferTest {
+
+    @Test
+    public void readLatest_copiesTheNewestSamplesAcrossTheWrap() {
+        PcmRingBuffer buffer = new PcmRingBuffer(8);
+        write(buffer, 0, 11);
+
+        float[] into = new float[4];
+        assertTrue(buffer.readLatest(into, 4));
+        assertEquals(11, buffer.getWritten());
+        for (int i = 0; i < 4; i++) {
+            assertEquals((7 + i) / 32768f, into[i], 0);
+        }
+    }
+
+    @Test
+    public void readLatest_waitsForEnoughSamples() {
+        PcmRingBuffer buffer = new PcmRingBuffer(8);
+        write(buffer, 0, 3);
+
+        assertFalse(buffer.readLatest(new float[4], 4));
+    }
+
+    @Test
+    public void readLatest_ignoresABatchStillBeingWritten() {
+        PcmRingBuffer buffer = new PcmRingBuffer(8);
+        write(buffer, 0, 8);
+
+        // Half way through a batch the new samples aren't visible yet
+        buffer.startWrite(2);
+        buffer.put((short) 100);
+
+        // Reading the whole ring could see the new sample half written
+        float[] into = new float[8];
+        assertFalse(buffer.readLatest(into, 8));
+        assertTrue(buffer.readLatest(into, 4));
+        assertEquals(7 / 32768f, into[3], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBeAPowerOfTwo() {
+        new PcmRingBuffer(100);
+    }
+
+    /**
+     * Write a run of samples counting up from first, as one batch
+     */
+    private static void write(PcmRingBuffer buffer, int first, int count) {
+        buffer.startWrite(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((short) (first + i));
+        }
+        buffer.finishWrite();
+    }
+}
@@ -0,0 +1,62 @@
+package com.ojm.pinstream.visualizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks a tone lights up the band it falls in, and silence shows as nothing
+ */
+public class SpectrumAnalyzerTest {
+
+    private static final int SIZE = 1024;
+    private static final int BANDS = 8;
+    private static final int SAMPLE_RATE = 44100;
+
+    private final SpectrumAnalyzer analyzer = new SpectrumAnalyzer(SIZE, BANDS);
+    private final float[] levels = new float[BANDS];
+
+    @Test
+    public void tone_isLoudestInItsOwnBand() {
+        analyzer.analyze(tone(1000), SAMPLE_RATE, levels);
+        assertLoudest(4);
+
+        analyzer.analyze(tone(5000), SAMPLE_RATE, levels);
+        assertLoudest(6);
+        assertTrue(levels[6] > 0.8f);
+    }
+
+    @Test
+    public void silence_isEmpty() {
+        analyzer.analyze(new float[SIZE], SAMPLE_RATE, levels);
+
+        for (float level : levels) {
+            assertEquals(0, level, 0);
+        }
+    }
+
+    /**
+     * A full scale sine wave at a frequency
+     */
+    private static float[] tone(double frequencyHz) {
+        float[] samples = new float[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            samples[i] = (float) Math.sin(2 * Math.PI * frequencyHz * i / SAMPLE_RATE);
+        }
+
+        return samples;
+    }
+
+    /**
+     * Check one band is louder than all the others
+     */
+    private void assertLoudest(int expected) {
+        for (int band = 0; band < BANDS; band++) {
+            if (band != expected) {
+                assertTrue("band " + band + " louder than " + expected,
+                        levels[band] < levels[expected]);
+            }
+        }
+    }
+}